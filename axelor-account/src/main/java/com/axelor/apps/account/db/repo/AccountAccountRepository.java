@@ -18,7 +18,9 @@
 package com.axelor.apps.account.db.repo;
 
 import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.service.AccountTreeCache;
 import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
 import java.util.Set;
 import javax.persistence.PersistenceException;
 
@@ -26,6 +28,7 @@ public class AccountAccountRepository extends AccountRepository {
 
   @Override
   public Account save(Account account) {
+    Beans.get(AccountTreeCache.class).invalidateAfterCompletion();
     try {
       if (account.getId() == null) {
         return super.save(account);
@@ -59,4 +62,10 @@ public class AccountAccountRepository extends AccountRepository {
       throw new PersistenceException(e.getLocalizedMessage());
     }
   }
+
+  @Override
+  public void remove(Account account) {
+    Beans.get(AccountTreeCache.class).invalidateAfterCompletion();
+    super.remove(account);
+  }
 }
@@ -46,6 +46,8 @@ public class AccountChartService {
 
   @Inject private MetaFiles metaFiles;
 
+  @Inject private AccountTreeCache accountTreeCache;
+
   protected AccountConfigRepository accountConfigRepo;
   protected CompanyRepository companyRepo;
   protected AccountChartRepository accountChartRepository;
@@ -130,5 +132,8 @@ public class AccountChartService {
     importConfiguration.setBindMetaFile(metaFiles.upload(configFile));
 
     factoryImporter.createImporter(importConfiguration).run(importContext);
+
+    // the accounts are imported without the repository
+    accountTreeCache.invalidateAfterCompletion();
   }
 }
@@ -20,11 +20,13 @@ package com.axelor.apps.account.service;
 import com.axelor.apps.account.db.Account;
 import com.axelor.apps.account.db.AccountConfig;
 import com.axelor.apps.account.db.AccountingSituation;
+import com.axelor.apps.account.db.Move;
 import com.axelor.apps.account.db.MoveLine;
 import com.axelor.apps.account.db.repo.AccountingSituationRepository;
 import com.axelor.apps.account.db.repo.MoveLineRepository;
 import com.axelor.apps.account.db.repo.MoveRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.account.service.DueBalanceSnapshot.PartnerDueBalance;
 import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.service.app.AppBaseService;
@@ -38,8 +40,14 @@ import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import org.slf4j.Logger;
@@ -49,6 +57,8 @@ public class AccountCustomerService {
 
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  protected static final int FETCH_LIMIT = 100;
+
   protected AccountingSituationService accountingSituationService;
   protected AccountingSituationRepository accSituationRepo;
   protected AppBaseService appBaseService;
@@ -249,6 +259,219 @@ public class AccountCustomerService {
     return balance;
   }
 
+  /**
+   * Get the amount of a move line in the balance of its partner: the remaining amount of the move
+   * line, negated for a credit, if the move line is taken into account in the partner balance.
+   *
+   * @param moveLine a move line
+   * @return the amount of the move line in the partner balance
+   */
+  public BigDecimal getBalanceAmount(MoveLine moveLine) {
+    Move move = moveLine.getMove();
+    Account account = moveLine.getAccount();
+
+    if (moveLine.getPartner() == null
+        || account == null
+        || !account.getUseForPartnerBalance()
+        || move == null
+        || move.getCompany() == null
+        || move.getIgnoreInAccountingOk()
+        || (move.getStatusSelect() != MoveRepository.STATUS_VALIDATED
+            && move.getStatusSelect() != MoveRepository.STATUS_DAYBOOK)) {
+      return BigDecimal.ZERO;
+    }
+
+    BigDecimal amountRemaining = moveLine.getAmountRemaining();
+    if (amountRemaining == null || amountRemaining.signum() <= 0) {
+      return BigDecimal.ZERO;
+    }
+    if (moveLine.getDebit().signum() > 0) {
+      return amountRemaining;
+    }
+    if (moveLine.getCredit().signum() > 0) {
+      return amountRemaining.negate();
+    }
+    return BigDecimal.ZERO;
+  }
+
+  /**
+   * Update the balance of the partner of a move line, after a change of the move line, like the
+   * validation of its move or a reconciliation.
+   *
+   * @param moveLine the move line
+   * @param previousBalanceAmount the amount of the move line in the partner balance before the
+   *     change, given by {@link #getBalanceAmount(MoveLine)}
+   * @throws AxelorException
+   */
+  public void updateBalance(MoveLine moveLine, BigDecimal previousBalanceAmount)
+      throws AxelorException {
+    BigDecimal amount = this.getBalanceAmount(moveLine).subtract(previousBalanceAmount);
+
+    if (amount.signum() != 0) {
+      this.addToBalance(moveLine.getPartner(), moveLine.getMove().getCompany(), amount);
+    }
+  }
+
+  /**
+   * Add an amount to the balance of the accounting situation of a partner for a company, creating
+   * the accounting situation if missing. The accounting situation is locked until the end of the
+   * transaction, so that concurrent updates of the balance are not lost.
+   *
+   * @param partner a partner
+   * @param company a company
+   * @param amount the amount to add
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public void addToBalance(Partner partner, Company company, BigDecimal amount)
+      throws AxelorException {
+    AccountingSituation accountingSituation =
+        accountingSituationService.getAccountingSituation(partner, company);
+    if (accountingSituation == null) {
+      accountingSituation = accountingSituationService.createAccountingSituation(partner, company);
+    } else {
+      accountingSituation = this.lockAccountingSituation(accountingSituation);
+    }
+    if (accountingSituation != null) {
+      accountingSituation.setBalanceCustAccount(
+          accountingSituation.getBalanceCustAccount().add(amount));
+      accSituationRepo.save(accountingSituation);
+    }
+  }
+
+  /**
+   * Lock an accounting situation with its latest committed balance, once per transaction.
+   *
+   * @param accountingSituation an accounting situation
+   * @return the managed and locked accounting situation, unchanged if not saved yet
+   */
+  protected AccountingSituation lockAccountingSituation(AccountingSituation accountingSituation) {
+    EntityManager em = JPA.em();
+    if (accountingSituation.getId() == null) {
+      return accountingSituation;
+    }
+    if (!em.contains(accountingSituation)) {
+      return em.find(
+          AccountingSituation.class, accountingSituation.getId(), LockModeType.PESSIMISTIC_WRITE);
+    }
+    if (em.getLockMode(accountingSituation) != LockModeType.PESSIMISTIC_WRITE) {
+      // the pending changes of the accounting situation would be lost by the refresh
+      em.flush();
+      em.refresh(accountingSituation, LockModeType.PESSIMISTIC_WRITE);
+    }
+    return accountingSituation;
+  }
+
+  /**
+   * Lock the accounting situations of the partners of several move lines, in the order of their
+   * ids so that two transactions locking the same accounting situations cannot deadlock.
+   *
+   * @param moveLineList the move lines whose partner balances are about to be updated
+   */
+  public void lockAccountingSituations(List<MoveLine> moveLineList) {
+    moveLineList.stream()
+        .filter(moveLine -> moveLine.getPartner() != null && moveLine.getMove() != null)
+        .map(
+            moveLine ->
+                accountingSituationService.getAccountingSituation(
+                    moveLine.getPartner(), moveLine.getMove().getCompany()))
+        .filter(accountingSituation -> accountingSituation != null)
+        .distinct()
+        .sorted(Comparator.comparing(AccountingSituation::getId))
+        .forEach(this::lockAccountingSituation);
+  }
+
+  /**
+   * Compute the balances of all the partners of a company in a single query.
+   *
+   * @param company a company
+   * @return the balance of each partner id, partners without balance being omitted
+   */
+  public Map<Long, BigDecimal> getBalanceMap(Company company) {
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.partner.id, SUM(CASE WHEN self.debit > 0 THEN self.amountRemaining "
+                    + "WHEN self.credit > 0 THEN -self.amountRemaining ELSE 0 END) "
+                    + "FROM MoveLine self "
+                    + "WHERE self.partner IS NOT NULL AND self.move.company = :company "
+                    + "AND self.move.ignoreInAccountingOk = false "
+                    + "AND self.account.useForPartnerBalance = true "
+                    + "AND self.move.statusSelect IN (:statusList) AND self.amountRemaining > 0 "
+                    + "GROUP BY self.partner.id",
+                Object[].class)
+            .setParameter("company", company)
+            .setParameter(
+                "statusList",
+                Arrays.asList(MoveRepository.STATUS_VALIDATED, MoveRepository.STATUS_DAYBOOK))
+            .getResultList();
+
+    Map<Long, BigDecimal> balanceMap = new HashMap<>();
+    for (Object[] result : resultList) {
+      balanceMap.put((Long) result[0], (BigDecimal) result[1]);
+    }
+    return balanceMap;
+  }
+
+  /**
+   * Rebuild the balances of the accounting situations of a company from the move lines. The
+   * balances are computed with a single query instead of one query per partner, and compared with
+   * the balances maintained on move validation and reconciliation.
+   *
+   * @param company a company
+   * @return the number of balances which were not up to date
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public int rebuildBalances(Company company) throws AxelorException {
+    Map<Long, BigDecimal> balanceMap = this.getBalanceMap(company);
+    Long companyId = company.getId();
+    int count = 0;
+    int offset = 0;
+
+    com.axelor.db.Query<AccountingSituation> query =
+        accSituationRepo
+            .all()
+            .filter("self.company.id = ?1 AND self.partner IS NOT NULL", companyId)
+            .order("id");
+    List<AccountingSituation> accountingSituationList;
+
+    while (!(accountingSituationList = query.fetch(FETCH_LIMIT, offset)).isEmpty()) {
+      for (AccountingSituation accountingSituation : accountingSituationList) {
+        BigDecimal balance = balanceMap.remove(accountingSituation.getPartner().getId());
+        if (balance == null) {
+          balance = BigDecimal.ZERO;
+        }
+        if (balance.compareTo(accountingSituation.getBalanceCustAccount()) != 0) {
+          log.debug(
+              "Balance of {} corrected from {} to {}",
+              accountingSituation.getName(),
+              accountingSituation.getBalanceCustAccount(),
+              balance);
+          accountingSituation.setBalanceCustAccount(balance);
+          accSituationRepo.save(accountingSituation);
+          count++;
+        }
+      }
+      offset += accountingSituationList.size();
+      JPA.flush();
+      JPA.clear();
+    }
+
+    // Partners with move lines but without accounting situation for the company
+    for (Map.Entry<Long, BigDecimal> entry : balanceMap.entrySet()) {
+      if (entry.getValue().signum() != 0) {
+        this.addToBalance(
+            JPA.find(Partner.class, entry.getKey()),
+            JPA.find(Company.class, companyId),
+            entry.getValue());
+        count++;
+      }
+    }
+
+    return count;
+  }
+
   /**
    * Méthode permettant de récupérer l'ensemble des lignes d'écriture pour une société et un tiers
    *
@@ -344,6 +567,36 @@ public class AccountCustomerService {
     return accountingSituation;
   }
 
+  /**
+   * Update the balances due of an accounting situation from a due balance snapshot, instead of
+   * computing them from the move lines of the partner.
+   *
+   * @param accountingSituation an accounting situation
+   * @param partnerDueBalance the due balances of the partner in the company of the situation
+   * @param updateDueCustAccount whether the balance due is updated
+   * @param updateDueDebtRecoveryCustAccount whether the balance due in debt recovery is updated
+   * @return the accounting situation
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public AccountingSituation updateAccountingSituationCustomerAccount(
+      AccountingSituation accountingSituation,
+      PartnerDueBalance partnerDueBalance,
+      boolean updateDueCustAccount,
+      boolean updateDueDebtRecoveryCustAccount) {
+
+    if (updateDueCustAccount) {
+      accountingSituation.setBalanceDueCustAccount(partnerDueBalance.getBalanceDue());
+    }
+    if (updateDueDebtRecoveryCustAccount) {
+      accountingSituation.setBalanceDueDebtRecoveryCustAccount(
+          partnerDueBalance.getBalanceDueDebtRecovery());
+    }
+    accountingSituation.setCustAccountMustBeUpdateOk(false);
+    accSituationRepo.save(accountingSituation);
+
+    return accountingSituation;
+  }
+
   public Account getPartnerAccount(Partner partner, Company company, boolean isSupplierInvoice)
       throws AxelorException {
     return isSupplierInvoice
@@ -20,6 +20,7 @@ package com.axelor.apps.account.service;
 import com.axelor.apps.account.db.Account;
 import com.axelor.apps.account.db.repo.AccountRepository;
 import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
@@ -40,8 +41,6 @@ public class AccountService {
   /** Credit balance = credit - debit */
   public static final Integer BALANCE_TYPE_CREDIT_BALANCE = 2;
 
-  public static final int MAX_LEVEL_OF_ACCOUNT = 20;
-
   protected AccountRepository accountRepository;
 
   @Inject
@@ -83,29 +82,20 @@ public class AccountService {
     }
   }
 
+  /**
+   * Get the accounts and all their sub accounts, at any depth.
+   *
+   * @param accountList the IDs of the accounts
+   * @return the IDs of the accounts and their sub accounts
+   */
   public List<Long> getAllAccountsSubAccountIncluded(List<Long> accountList) {
 
-    return getAllAccountsSubAccountIncluded(accountList, 0);
-  }
-
-  public List<Long> getAllAccountsSubAccountIncluded(List<Long> accountList, int counter) {
-
-    if (counter > MAX_LEVEL_OF_ACCOUNT) {
+    if (accountList == null || accountList.isEmpty()) {
       return new ArrayList<>();
     }
-    counter++;
-
-    List<Long> allAccountsSubAccountIncluded = new ArrayList<>();
-    if (accountList != null && !accountList.isEmpty()) {
-      allAccountsSubAccountIncluded.addAll(accountList);
-
-      for (Long accountId : accountList) {
 
-        allAccountsSubAccountIncluded.addAll(
-            getAllAccountsSubAccountIncluded(getSubAccounts(accountId), counter));
-      }
-    }
-    return allAccountsSubAccountIncluded;
+    return new ArrayList<>(
+        Beans.get(AccountTreeCache.class).getTree().getAccountAndSubAccountIds(accountList));
   }
 
   public List<Long> getSubAccounts(Long accountId) {
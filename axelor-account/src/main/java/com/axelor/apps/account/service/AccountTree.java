@@ -0,0 +1,106 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable tree of the accounts, built from their parent links.
+ *
+ * <p>The descendants of an account are resolved once, at any depth, and cached, so that an account
+ * hierarchy can be filtered with a single IN predicate.
+ */
+public class AccountTree {
+
+  private final Map<Long, List<Long>> children;
+
+  private final Map<Long, List<Long>> subAccountIds = new ConcurrentHashMap<>();
+
+  /**
+   * Build the tree.
+   *
+   * @param rows the ID and parent ID of each account
+   */
+  public AccountTree(List<Object[]> rows) {
+    Map<Long, List<Long>> children = new HashMap<>();
+
+    for (Object[] row : rows) {
+      Long id = (Long) row[0];
+      Long parentId = (Long) row[1];
+      if (parentId != null) {
+        children.computeIfAbsent(parentId, key -> new ArrayList<>()).add(id);
+      }
+    }
+    children.values().forEach(Collections::sort);
+
+    this.children = children;
+  }
+
+  /**
+   * Get the IDs of an account and all its sub accounts.
+   *
+   * @param accountId the root account, always included
+   * @return an unmodifiable list of IDs
+   */
+  public List<Long> getAccountAndSubAccountIds(Long accountId) {
+    return subAccountIds.computeIfAbsent(accountId, id -> Collections.unmodifiableList(search(id)));
+  }
+
+  /**
+   * Get the IDs of the accounts and all their sub accounts, without duplicates.
+   *
+   * @param accountIds the root accounts, always included
+   * @return a set of IDs
+   */
+  public Set<Long> getAccountAndSubAccountIds(Collection<Long> accountIds) {
+    Set<Long> result = new LinkedHashSet<>();
+    for (Long accountId : accountIds) {
+      result.addAll(getAccountAndSubAccountIds(accountId));
+    }
+    return result;
+  }
+
+  private List<Long> search(Long rootId) {
+    Set<Long> visited = new LinkedHashSet<>();
+    Deque<Long> stack = new ArrayDeque<>();
+
+    stack.push(rootId);
+    visited.add(rootId);
+
+    while (!stack.isEmpty()) {
+      Long id = stack.pop();
+      for (Long childId : children.getOrDefault(id, Collections.emptyList())) {
+        if (visited.add(childId)) {
+          stack.push(childId);
+        }
+      }
+    }
+
+    return new ArrayList<>(visited);
+  }
+}
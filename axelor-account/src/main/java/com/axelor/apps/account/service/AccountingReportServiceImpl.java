@@ -54,6 +54,7 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.persistence.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -107,7 +108,8 @@ public class AccountingReportServiceImpl implements AccountingReportService {
           if (!paramStr.isEmpty()) {
             paramStr += ",";
           }
-          paramStr += ((Model) object).getId().toString();
+          paramStr +=
+              object instanceof Model ? ((Model) object).getId().toString() : object.toString();
         }
       } else if (param instanceof LocalDate) {
         paramStr = "'" + param.toString() + "'";
@@ -157,11 +159,15 @@ public class AccountingReportServiceImpl implements AccountingReportService {
 
     if (accountingReport.getAccountSet() != null && !accountingReport.getAccountSet().isEmpty()) {
       this.addParams(
-          "(self.account in (?%d) or self.account.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount in (?%d) or self.account.parentAccount.parentAccount.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount in (?%d) or self.account.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount in (?%d))",
-          accountingReport.getAccountSet());
+          "self.account.id in (?%d)",
+          Beans.get(AccountTreeCache.class)
+              .getTree()
+              .getAccountAndSubAccountIds(
+                  accountingReport
+                      .getAccountSet()
+                      .stream()
+                      .map(Account::getId)
+                      .collect(Collectors.toList())));
     }
 
     if (accountingReport.getPartnerSet() != null && !accountingReport.getPartnerSet().isEmpty()) {
@@ -27,6 +27,7 @@ import com.axelor.apps.account.db.repo.BudgetLineRepository;
 import com.axelor.apps.account.db.repo.BudgetRepository;
 import com.axelor.apps.account.db.repo.InvoiceRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -36,8 +37,18 @@ import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import javax.persistence.LockModeType;
 
 public class BudgetService {
 
@@ -80,39 +91,125 @@ public class BudgetService {
     return totalAmountRealized;
   }
 
+  /**
+   * Recompute the realized amounts of the budget lines from all the budget distributions of the
+   * budget. The realized amounts are otherwise updated incrementally on invoice validation and
+   * cancellation, so this is meant to repair a budget.
+   *
+   * @param budget
+   * @return the budget lines
+   */
   @Transactional
   public List<BudgetLine> updateLines(Budget budget) {
     if (budget.getBudgetLineList() != null && !budget.getBudgetLineList().isEmpty()) {
       for (BudgetLine budgetLine : budget.getBudgetLineList()) {
         budgetLine.setAmountRealized(BigDecimal.ZERO);
       }
-      List<BudgetDistribution> budgetDistributionList =
-          Beans.get(BudgetDistributionRepository.class)
-              .all()
-              .filter(
-                  "self.budget.id = ?1 AND (self.invoiceLine.invoice.statusSelect = ?2 OR self.invoiceLine.invoice.statusSelect = ?3)",
-                  budget.getId(),
-                  InvoiceRepository.STATUS_VALIDATED,
-                  InvoiceRepository.STATUS_VENTILATED)
-              .fetch();
-      for (BudgetDistribution budgetDistribution : budgetDistributionList) {
-        Optional<LocalDate> optionaldate = getDate(budgetDistribution);
-        optionaldate.ifPresent(
-            date -> {
-              for (BudgetLine budgetLine : budget.getBudgetLineList()) {
-                LocalDate fromDate = budgetLine.getFromDate();
-                LocalDate toDate = budgetLine.getToDate();
-                if ((fromDate.isBefore(date) || fromDate.isEqual(date))
-                    && (toDate.isAfter(date) || toDate.isEqual(date))) {
+      this.computeAmountRealized(budget, getBudgetLineIndex(budget));
+    }
+    return budget.getBudgetLineList();
+  }
+
+  protected void computeAmountRealized(
+      Budget budget, NavigableMap<LocalDate, BudgetLine> budgetLineIndex) {
+    List<BudgetDistribution> budgetDistributionList =
+        Beans.get(BudgetDistributionRepository.class)
+            .all()
+            .filter(
+                "self.budget.id = ?1 AND (self.invoiceLine.invoice.statusSelect = ?2 OR self.invoiceLine.invoice.statusSelect = ?3)",
+                budget.getId(),
+                InvoiceRepository.STATUS_VALIDATED,
+                InvoiceRepository.STATUS_VENTILATED)
+            .fetch();
+    for (BudgetDistribution budgetDistribution : budgetDistributionList) {
+      getDate(budgetDistribution)
+          .flatMap(date -> findBudgetLine(budget, budgetLineIndex, date))
+          .ifPresent(
+              budgetLine ->
                   budgetLine.setAmountRealized(
-                      budgetLine.getAmountRealized().add(budgetDistribution.getAmount()));
-                  break;
-                }
-              }
-            });
+                      budgetLine.getAmountRealized().add(budgetDistribution.getAmount())));
+    }
+  }
+
+  /**
+   * Index the budget lines of a budget by their start date. Budget lines without dates are left
+   * out. If some budget lines share dates, the index is left empty so that {@link
+   * #findBudgetLine(Budget, NavigableMap, LocalDate)} keeps taking the first line in list order.
+   *
+   * @param budget
+   * @return the budget lines, sorted by start date
+   */
+  protected NavigableMap<LocalDate, BudgetLine> getBudgetLineIndex(Budget budget) {
+    NavigableMap<LocalDate, BudgetLine> budgetLineIndex = new TreeMap<>();
+    if (budget.getBudgetLineList() == null) {
+      return budgetLineIndex;
+    }
+
+    for (BudgetLine budgetLine : budget.getBudgetLineList()) {
+      if (budgetLine.getFromDate() != null
+          && budgetLine.getToDate() != null
+          && budgetLineIndex.put(budgetLine.getFromDate(), budgetLine) != null) {
+        return new TreeMap<>();
       }
     }
-    return budget.getBudgetLineList();
+
+    LocalDate previousToDate = null;
+    for (BudgetLine budgetLine : budgetLineIndex.values()) {
+      if (previousToDate != null && !budgetLine.getFromDate().isAfter(previousToDate)) {
+        return new TreeMap<>();
+      }
+      previousToDate = budgetLine.getToDate();
+    }
+
+    return budgetLineIndex;
+  }
+
+  /**
+   * Find the first budget line covering a date. The line is looked up in the index, then in the
+   * budget lines if the index has no line covering the date.
+   *
+   * @param budget
+   * @param budgetLineIndex the budget lines, indexed by {@link #getBudgetLineIndex(Budget)}
+   * @param date
+   * @return the budget line, if any
+   */
+  protected Optional<BudgetLine> findBudgetLine(
+      Budget budget, NavigableMap<LocalDate, BudgetLine> budgetLineIndex, LocalDate date) {
+    Optional<BudgetLine> budgetLine =
+        Optional.ofNullable(budgetLineIndex.floorEntry(date))
+            .map(Map.Entry::getValue)
+            .filter(line -> isCovering(line, date));
+
+    if (budgetLine.isPresent() || budget.getBudgetLineList() == null) {
+      return budgetLine;
+    }
+
+    return budget
+        .getBudgetLineList()
+        .stream()
+        .filter(line -> isCovering(line, date))
+        .findFirst();
+  }
+
+  protected boolean isCovering(BudgetLine budgetLine, LocalDate date) {
+    return budgetLine.getFromDate() != null
+        && budgetLine.getToDate() != null
+        && !budgetLine.getFromDate().isAfter(date)
+        && !budgetLine.getToDate().isBefore(date);
+  }
+
+  /**
+   * Lock the budgets in ID order and reload them with their lines, so that concurrent incremental
+   * updates of their amounts do not overwrite each other.
+   *
+   * @param budgets
+   */
+  protected void lockBudgets(Collection<Budget> budgets) {
+    budgets
+        .stream()
+        .filter(budget -> budget.getId() != null && JPA.em().contains(budget))
+        .sorted(Comparator.comparing(Budget::getId))
+        .forEach(budget -> JPA.em().refresh(budget, LockModeType.PESSIMISTIC_WRITE));
   }
 
   /**
@@ -218,22 +315,80 @@ public class BudgetService {
     budget.setStatusSelect(BudgetRepository.STATUS_DRAFT);
   }
 
+  /**
+   * Recompute the budgets of the budget distributions of an invoice.
+   *
+   * @param invoice
+   */
   public void updateBudgetLinesFromInvoice(Invoice invoice) {
+    for (Budget budget : getBudgetSet(getBudgetDistributionList(invoice))) {
+      updateLines(budget);
+      computeTotalAmountRealized(budget);
+    }
+  }
+
+  /**
+   * Add the budget distributions of a validated invoice to the realized amounts of their budget
+   * lines, without recomputing the budgets.
+   *
+   * @param invoice
+   */
+  @Transactional
+  public void addInvoiceToBudgetLines(Invoice invoice) {
+    updateAmountRealized(invoice, false);
+  }
+
+  /**
+   * Remove the budget distributions of a cancelled invoice from the realized amounts of their
+   * budget lines, without recomputing the budgets.
+   *
+   * @param invoice
+   */
+  @Transactional
+  public void removeInvoiceFromBudgetLines(Invoice invoice) {
+    updateAmountRealized(invoice, true);
+  }
+
+  protected void updateAmountRealized(Invoice invoice, boolean isCancel) {
+    List<BudgetDistribution> budgetDistributionList = getBudgetDistributionList(invoice);
+    Map<Budget, NavigableMap<LocalDate, BudgetLine>> budgetLineIndexMap = new HashMap<>();
+    lockBudgets(getBudgetSet(budgetDistributionList));
+
+    for (BudgetDistribution budgetDistribution : budgetDistributionList) {
+      Budget budget = budgetDistribution.getBudget();
+      BigDecimal amount =
+          isCancel ? budgetDistribution.getAmount().negate() : budgetDistribution.getAmount();
+      NavigableMap<LocalDate, BudgetLine> budgetLineIndex =
+          budgetLineIndexMap.computeIfAbsent(budget, this::getBudgetLineIndex);
+
+      getDate(budgetDistribution)
+          .flatMap(date -> findBudgetLine(budget, budgetLineIndex, date))
+          .ifPresent(
+              budgetLine -> {
+                budgetLine.setAmountRealized(budgetLine.getAmountRealized().add(amount));
+                budget.setTotalAmountRealized(budget.getTotalAmountRealized().add(amount));
+              });
+    }
+  }
+
+  protected List<BudgetDistribution> getBudgetDistributionList(Invoice invoice) {
     List<InvoiceLine> invoiceLineList = invoice.getInvoiceLineList();
 
     if (invoiceLineList == null) {
-      return;
+      return new ArrayList<>();
     }
 
-    invoiceLineList
+    return invoiceLineList
         .stream()
         .filter(invoiceLine -> invoiceLine.getBudgetDistributionList() != null)
-        .flatMap(x -> x.getBudgetDistributionList().stream())
-        .forEach(
-            budgetDistribution -> {
-              Budget budget = budgetDistribution.getBudget();
-              updateLines(budget);
-              computeTotalAmountRealized(budget);
-            });
+        .flatMap(invoiceLine -> invoiceLine.getBudgetDistributionList().stream())
+        .collect(Collectors.toList());
+  }
+
+  protected Set<Budget> getBudgetSet(List<BudgetDistribution> budgetDistributionList) {
+    return budgetDistributionList
+        .stream()
+        .map(BudgetDistribution::getBudget)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
   }
 }
@@ -0,0 +1,79 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+
+/** Due balances of the partners of a company, as of a date. */
+public class DueBalanceSnapshot {
+
+  private final LocalDate date;
+
+  private final Map<Long, PartnerDueBalance> partnerDueBalanceMap;
+
+  public DueBalanceSnapshot(LocalDate date, Map<Long, PartnerDueBalance> partnerDueBalanceMap) {
+    this.date = date;
+    this.partnerDueBalanceMap = Collections.unmodifiableMap(partnerDueBalanceMap);
+  }
+
+  public LocalDate getDate() {
+    return date;
+  }
+
+  /**
+   * Get the due balances of a partner.
+   *
+   * @param partnerId the ID of the partner
+   * @return the due balances of the partner, with zero amounts if the partner has no open amount
+   */
+  public PartnerDueBalance getPartnerDueBalance(Long partnerId) {
+    PartnerDueBalance partnerDueBalance = partnerDueBalanceMap.get(partnerId);
+    return partnerDueBalance != null ? partnerDueBalance : new PartnerDueBalance(partnerId);
+  }
+
+  /** Due balances of a partner. */
+  public static class PartnerDueBalance {
+
+    private final Long partnerId;
+
+    protected BigDecimal balanceDue = BigDecimal.ZERO;
+
+    protected BigDecimal balanceDueDebtRecovery = BigDecimal.ZERO;
+
+    public PartnerDueBalance(Long partnerId) {
+      this.partnerId = partnerId;
+    }
+
+    public Long getPartnerId() {
+      return partnerId;
+    }
+
+    /** Due debit minus credit open amounts, without the moves ignored in debt recovery. */
+    public BigDecimal getBalanceDue() {
+      return balanceDue;
+    }
+
+    /** Due balance of the invoices which are not blocked in debt recovery. */
+    public BigDecimal getBalanceDueDebtRecovery() {
+      return balanceDueDebtRecovery;
+    }
+  }
+}
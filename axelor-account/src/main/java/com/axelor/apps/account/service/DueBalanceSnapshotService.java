@@ -0,0 +1,140 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import com.axelor.apps.account.db.AccountConfig;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.service.DueBalanceSnapshot.PartnerDueBalance;
+import com.axelor.apps.base.db.Company;
+import com.axelor.db.JPA;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compute the {@link DueBalanceSnapshot} of a company with a single grouped query on the open
+ * move lines, instead of scanning the move lines partner by partner.
+ *
+ * <p>The balances follow the rules of the balances computed by {@link AccountCustomerService} for
+ * a single partner.
+ */
+public class DueBalanceSnapshotService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /**
+   * Compute the due balances of the partners of a company as of a date.
+   *
+   * @param company a company
+   * @param date the date at which the due dates are compared
+   * @return the snapshot
+   */
+  public DueBalanceSnapshot computeSnapshot(Company company, LocalDate date) {
+
+    int mailTransitTime = 0;
+    AccountConfig accountConfig = company.getAccountConfig();
+    if (accountConfig != null) {
+      mailTransitTime = accountConfig.getMailTransitTime();
+    }
+
+    // The open amounts are grouped by the fields which decide of their due position
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.partner.id, self.dueDate, self.date, invoice.debtRecoveryBlockingOk, "
+                    + "SUM(CASE WHEN self.debit > 0 THEN self.amountRemaining ELSE 0 END), "
+                    + "SUM(CASE WHEN self.credit > 0 THEN self.amountRemaining ELSE 0 END) "
+                    + "FROM MoveLine self "
+                    + "JOIN self.move move "
+                    + "JOIN self.account account "
+                    + "LEFT JOIN move.invoice invoice "
+                    + "WHERE self.partner IS NOT NULL AND move.company = :company "
+                    + "AND move.ignoreInDebtRecoveryOk = false "
+                    + "AND (move.ignoreInAccountingOk = false "
+                    + "OR move.ignoreInAccountingOk IS NULL) "
+                    + "AND account.useForPartnerBalance = true "
+                    + "AND move.statusSelect IN (:statusList) AND self.amountRemaining > 0 "
+                    + "GROUP BY self.partner.id, self.dueDate, self.date, "
+                    + "invoice.debtRecoveryBlockingOk",
+                Object[].class)
+            .setParameter("company", company)
+            .setParameter(
+                "statusList",
+                Arrays.asList(MoveRepository.STATUS_VALIDATED, MoveRepository.STATUS_DAYBOOK))
+            .getResultList();
+
+    Map<Long, PartnerDueBalance> partnerDueBalanceMap = new HashMap<>();
+
+    for (Object[] result : resultList) {
+      PartnerDueBalance partnerDueBalance =
+          partnerDueBalanceMap.computeIfAbsent((Long) result[0], PartnerDueBalance::new);
+      LocalDate dueDate = (LocalDate) result[1];
+      LocalDate moveLineDate = (LocalDate) result[2];
+      boolean debtRecoveryNotBlocked = Boolean.FALSE.equals(result[3]);
+      BigDecimal debitAmount = (BigDecimal) result[4];
+      BigDecimal creditAmount = (BigDecimal) result[5];
+
+      LocalDate agingDate = dueDate != null ? dueDate : moveLineDate;
+      BigDecimal dueAmount = !agingDate.isAfter(date) ? debitAmount : BigDecimal.ZERO;
+      partnerDueBalance.balanceDue =
+          partnerDueBalance.balanceDue.add(dueAmount).subtract(creditAmount);
+
+      if (debtRecoveryNotBlocked) {
+        BigDecimal dueDebtRecoveryAmount =
+            this.isDueDebtRecovery(dueDate, moveLineDate, date, mailTransitTime)
+                ? debitAmount
+                : BigDecimal.ZERO;
+        partnerDueBalance.balanceDueDebtRecovery =
+            partnerDueBalance
+                .balanceDueDebtRecovery
+                .add(dueDebtRecoveryAmount)
+                .subtract(creditAmount);
+      }
+    }
+
+    log.debug(
+        "Due balances of {} partner(s) computed for the company {} at {}",
+        partnerDueBalanceMap.size(),
+        company.getName(),
+        date);
+
+    return new DueBalanceSnapshot(date, partnerDueBalanceMap);
+  }
+
+  /**
+   * Tell whether a debit can be reminded at a date: the mail transit time is added to the due date
+   * when the due date is the date of the move line.
+   */
+  protected boolean isDueDebtRecovery(
+      LocalDate dueDate, LocalDate moveLineDate, LocalDate date, int mailTransitTime) {
+
+    if (dueDate == null) {
+      return moveLineDate.isBefore(date);
+    }
+    if (dueDate.equals(moveLineDate)) {
+      return dueDate.plusDays(mailTransitTime).isBefore(date);
+    }
+    return dueDate.isBefore(date);
+  }
+}
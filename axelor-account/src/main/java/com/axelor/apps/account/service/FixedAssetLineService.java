@@ -19,10 +19,29 @@ package com.axelor.apps.account.service;
 
 import com.axelor.apps.account.db.FixedAssetLine;
 import com.axelor.exception.AxelorException;
+import java.util.List;
 
 public interface FixedAssetLineService {
 
   public void realize(FixedAssetLine fixedAssetLine) throws AxelorException;
 
   public void generateDisposalMove(FixedAssetLine fixedAssetLine) throws AxelorException;
+
+  /**
+   * Group fixed asset lines by the depreciation move they are realized in: one move by journal,
+   * company and period.
+   *
+   * @param fixedAssetLineIdList the IDs of the fixed asset lines
+   * @return the IDs of the fixed asset lines of each move
+   */
+  public List<List<Long>> groupByDepreciationMove(List<Long> fixedAssetLineIdList);
+
+  /**
+   * Realize fixed asset lines of the same journal, company and period in a single depreciation
+   * move, with a debit and a credit line by fixed asset line.
+   *
+   * @param fixedAssetLineIdList the IDs of the fixed asset lines
+   * @throws AxelorException
+   */
+  public void realizeConsolidated(List<Long> fixedAssetLineIdList) throws AxelorException;
 }
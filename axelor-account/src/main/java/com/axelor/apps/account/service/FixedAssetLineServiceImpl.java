@@ -31,14 +31,24 @@ import com.axelor.apps.account.service.move.MoveCreateService;
 import com.axelor.apps.account.service.move.MoveLineService;
 import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.Period;
+import com.axelor.apps.base.db.repo.YearRepository;
+import com.axelor.apps.base.service.PeriodService;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,12 +56,18 @@ public class FixedAssetLineServiceImpl implements FixedAssetLineService {
 
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  protected static final int CHUNK_SIZE = 500;
+
+  protected static final int JDBC_BATCH_SIZE = 50;
+
   @Inject private FixedAssetLineRepository fixedAssetLineRepo;
 
   @Inject private MoveCreateService moveCreateService;
 
   @Inject private MoveRepository moveRepo;
 
+  @Inject private PeriodService periodService;
+
   protected MoveLineService moveLineService;
 
   @Inject
@@ -65,6 +81,18 @@ public class FixedAssetLineServiceImpl implements FixedAssetLineService {
 
     generateMove(fixedAssetLine);
 
+    this.realizeLine(fixedAssetLine);
+
+    fixedAssetLineRepo.save(fixedAssetLine);
+  }
+
+  /**
+   * Set a fixed asset line as realized and update its fixed asset.
+   *
+   * @param fixedAssetLine
+   */
+  protected void realizeLine(FixedAssetLine fixedAssetLine) {
+
     fixedAssetLine.setStatusSelect(FixedAssetLineRepository.STATUS_REALIZED);
 
     FixedAsset fixedAsset = fixedAssetLine.getFixedAsset();
@@ -83,8 +111,211 @@ public class FixedAssetLineServiceImpl implements FixedAssetLineService {
         && fixedAsset.getDisposalValue().compareTo(BigDecimal.ZERO) == 0) {
       fixedAsset.setStatusSelect(FixedAssetRepository.STATUS_DEPRECIATED);
     }
+  }
 
-    fixedAssetLineRepo.save(fixedAssetLine);
+  @Override
+  public List<List<Long>> groupByDepreciationMove(List<Long> fixedAssetLineIdList) {
+
+    Map<List<Object>, List<Long>> fixedAssetLineIdMap = new LinkedHashMap<>();
+    Map<List<Object>, Object> periodKeyMap = new HashMap<>();
+
+    for (List<Long> fixedAssetLineIdChunk : Lists.partition(fixedAssetLineIdList, CHUNK_SIZE)) {
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id, fixedAsset.journal.id, fixedAsset.company.id, "
+                      + "self.depreciationDate FROM FixedAssetLine self "
+                      + "JOIN self.fixedAsset fixedAsset "
+                      + "WHERE self.id IN (:fixedAssetLineIds) "
+                      + "ORDER BY self.depreciationDate, self.id",
+                  Object[].class)
+              .setParameter("fixedAssetLineIds", fixedAssetLineIdChunk)
+              .getResultList();
+
+      for (Object[] result : resultList) {
+        Long companyId = (Long) result[2];
+        LocalDate depreciationDate = (LocalDate) result[3];
+
+        // The lines without period are kept by date, so that only them fail on realization
+        Object periodKey =
+            periodKeyMap.computeIfAbsent(
+                Arrays.asList(companyId, depreciationDate),
+                key -> {
+                  Period period =
+                      periodService.getPeriod(
+                          depreciationDate,
+                          JPA.em().getReference(Company.class, companyId),
+                          YearRepository.TYPE_FISCAL);
+                  return period != null ? period.getId() : depreciationDate;
+                });
+
+        List<Object> moveKey = Arrays.asList(result[1], companyId, periodKey);
+        fixedAssetLineIdMap
+            .computeIfAbsent(moveKey, key -> new ArrayList<>())
+            .add((Long) result[0]);
+      }
+    }
+
+    return new ArrayList<>(fixedAssetLineIdMap.values());
+  }
+
+  @Override
+  @Transactional(rollbackOn = {Exception.class})
+  public void realizeConsolidated(List<Long> fixedAssetLineIdList) throws AxelorException {
+
+    if (fixedAssetLineIdList.isEmpty()) {
+      return;
+    }
+
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+    try {
+      this.generateConsolidatedMove(fixedAssetLineIdList);
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
+    }
+  }
+
+  /**
+   * Generate the consolidated depreciation move of fixed asset lines, with a debit and a credit
+   * line by fixed asset line, and set the fixed asset lines as realized.
+   *
+   * @param fixedAssetLineIdList the IDs of the fixed asset lines
+   * @throws AxelorException
+   */
+  protected void generateConsolidatedMove(List<Long> fixedAssetLineIdList) throws AxelorException {
+
+    // The move is dated at the last depreciation date of the lines
+    LocalDate date = null;
+    for (List<Long> fixedAssetLineIdChunk : Lists.partition(fixedAssetLineIdList, CHUNK_SIZE)) {
+      LocalDate maxDate =
+          JPA.em()
+              .createQuery(
+                  "SELECT MAX(self.depreciationDate) FROM FixedAssetLine self "
+                      + "WHERE self.id IN (:fixedAssetLineIds)",
+                  LocalDate.class)
+              .setParameter("fixedAssetLineIds", fixedAssetLineIdChunk)
+              .getSingleResult();
+      if (date == null || (maxDate != null && maxDate.isAfter(date))) {
+        date = maxDate;
+      }
+    }
+
+    FixedAsset firstFixedAsset =
+        fixedAssetLineRepo.find(fixedAssetLineIdList.get(0)).getFixedAsset();
+    Journal journal = firstFixedAsset.getJournal();
+    Company company = firstFixedAsset.getCompany();
+
+    log.debug(
+        "Creating a consolidated depreciation accounting entry for {} fixed asset lines "
+            + "(Company : {}, Journal : {})",
+        fixedAssetLineIdList.size(),
+        company.getName(),
+        journal.getCode());
+
+    Move move =
+        moveRepo.save(
+            moveCreateService.createMove(
+                journal,
+                company,
+                company.getCurrency(),
+                null,
+                date,
+                null,
+                MoveRepository.TECHNICAL_ORIGIN_AUTOMATIC));
+    Long moveId = move.getId();
+    int counter = 1;
+
+    for (List<Long> fixedAssetLineIdChunk : Lists.partition(fixedAssetLineIdList, CHUNK_SIZE)) {
+      move = moveRepo.find(moveId);
+      List<FixedAssetLine> fixedAssetLineList =
+          fixedAssetLineRepo
+              .all()
+              .filter("self.id IN (:fixedAssetLineIds)")
+              .bind("fixedAssetLineIds", fixedAssetLineIdChunk)
+              .order("depreciationDate")
+              .order("id")
+              .fetch();
+
+      for (FixedAssetLine fixedAssetLine : fixedAssetLineList) {
+        move.getMoveLineList()
+            .addAll(this.createDepreciationMoveLines(move, fixedAssetLine, counter));
+        counter += 2;
+
+        fixedAssetLine.setDepreciationAccountMove(move);
+        this.realizeLine(fixedAssetLine);
+      }
+
+      JPA.flush();
+      JPA.clear();
+    }
+  }
+
+  /**
+   * Create the debit and credit move lines of the depreciation of a fixed asset line.
+   *
+   * @param move the depreciation move
+   * @param fixedAssetLine the fixed asset line
+   * @param counter the counter of the debit line, the credit line taking the next one
+   * @return the debit and credit move lines
+   * @throws AxelorException
+   */
+  protected List<MoveLine> createDepreciationMoveLines(
+      Move move, FixedAssetLine fixedAssetLine, int counter) throws AxelorException {
+
+    FixedAsset fixedAsset = fixedAssetLine.getFixedAsset();
+    Partner partner = fixedAsset.getPartner();
+    LocalDate date = fixedAssetLine.getDepreciationDate();
+    List<MoveLine> moveLines = new ArrayList<MoveLine>();
+
+    String origin = fixedAsset.getReference();
+    Account debitLineAccount = fixedAsset.getFixedAssetCategory().getChargeAccount();
+    Account creditLineAccount = fixedAsset.getFixedAssetCategory().getDepreciationAccount();
+    BigDecimal amount = fixedAssetLine.getDepreciation();
+
+    // Creating accounting debit move line
+    MoveLine debitMoveLine =
+        new MoveLine(
+            move,
+            partner,
+            debitLineAccount,
+            date,
+            null,
+            counter,
+            amount,
+            BigDecimal.ZERO,
+            fixedAsset.getName(),
+            origin,
+            null,
+            BigDecimal.ZERO,
+            date);
+    moveLines.add(debitMoveLine);
+
+    this.addAnalyticToMoveLine(fixedAsset.getAnalyticDistributionTemplate(), debitMoveLine);
+
+    // Creating accounting credit move line
+    MoveLine creditMoveLine =
+        new MoveLine(
+            move,
+            partner,
+            creditLineAccount,
+            date,
+            null,
+            counter + 1,
+            BigDecimal.ZERO,
+            amount,
+            fixedAsset.getName(),
+            origin,
+            null,
+            BigDecimal.ZERO,
+            date);
+    moveLines.add(creditMoveLine);
+
+    this.addAnalyticToMoveLine(fixedAsset.getAnalyticDistributionTemplate(), creditMoveLine);
+
+    return moveLines;
   }
 
   @Transactional(rollbackOn = {Exception.class})
@@ -112,54 +343,7 @@ public class FixedAssetLineServiceImpl implements FixedAssetLineService {
             MoveRepository.TECHNICAL_ORIGIN_AUTOMATIC);
 
     if (move != null) {
-      List<MoveLine> moveLines = new ArrayList<MoveLine>();
-
-      String origin = fixedAsset.getReference();
-      Account debitLineAccount = fixedAsset.getFixedAssetCategory().getChargeAccount();
-      Account creditLineAccount = fixedAsset.getFixedAssetCategory().getDepreciationAccount();
-      BigDecimal amount = fixedAssetLine.getDepreciation();
-
-      // Creating accounting debit move line
-      MoveLine debitMoveLine =
-          new MoveLine(
-              move,
-              partner,
-              debitLineAccount,
-              date,
-              null,
-              1,
-              amount,
-              BigDecimal.ZERO,
-              fixedAsset.getName(),
-              origin,
-              null,
-              BigDecimal.ZERO,
-              date);
-      moveLines.add(debitMoveLine);
-
-      this.addAnalyticToMoveLine(fixedAsset.getAnalyticDistributionTemplate(), debitMoveLine);
-
-      // Creating accounting debit move line
-      MoveLine creditMoveLine =
-          new MoveLine(
-              move,
-              partner,
-              creditLineAccount,
-              date,
-              null,
-              2,
-              BigDecimal.ZERO,
-              amount,
-              fixedAsset.getName(),
-              origin,
-              null,
-              BigDecimal.ZERO,
-              date);
-      moveLines.add(creditMoveLine);
-
-      this.addAnalyticToMoveLine(fixedAsset.getAnalyticDistributionTemplate(), creditMoveLine);
-
-      move.getMoveLineList().addAll(moveLines);
+      move.getMoveLineList().addAll(this.createDepreciationMoveLines(move, fixedAssetLine, 1));
     }
 
     moveRepo.save(move);
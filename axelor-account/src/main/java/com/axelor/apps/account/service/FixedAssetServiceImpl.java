@@ -31,6 +31,7 @@ import com.axelor.apps.account.service.config.AccountConfigService;
 import com.axelor.apps.account.service.move.MoveLineService;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.tool.date.DateTool;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -46,9 +47,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.commons.collections.CollectionUtils;
+import org.hibernate.Session;
 
 public class FixedAssetServiceImpl implements FixedAssetService {
 
+  protected static final int JDBC_BATCH_SIZE = 50;
+
   @Inject FixedAssetRepository fixedAssetRepo;
 
   @Inject FixedAssetLineService fixedAssetLineService;
@@ -66,7 +70,8 @@ public class FixedAssetServiceImpl implements FixedAssetService {
         fixedAsset
             .getComputationMethodSelect()
             .equals(FixedAssetRepository.COMPUTATION_METHOD_LINEAR);
-    BigDecimal depreciationValue = this.computeDepreciationValue(fixedAsset, isLinear);
+    int scale = Beans.get(AppBaseService.class).getNbDecimalDigitForUnitPrice();
+    BigDecimal depreciationValue = this.computeDepreciationValue(fixedAsset, isLinear, scale);
     BigDecimal cumulativeValue = depreciationValue;
     LocalDate depreciationDate = fixedAsset.getFirstDepreciationDate();
     LocalDate firstDepreciationDate = fixedAsset.getFirstDepreciationDate();
@@ -82,7 +87,6 @@ public class FixedAssetServiceImpl implements FixedAssetService {
             && !isFirstPeriodDay;
     LocalDate endDate = DateTool.plusMonths(depreciationDate, fixedAsset.getDurationInMonth());
     int counter = 1;
-    int scale = Beans.get(AppBaseService.class).getNbDecimalDigitForUnitPrice();
 
     numberOfDepreciation--;
     while (depreciationDate.isBefore(endDate.plusDays(1))
@@ -137,13 +141,14 @@ public class FixedAssetServiceImpl implements FixedAssetService {
         } else {
           depreciationValue =
               this.computeDepreciation(
-                  fixedAsset, fixedAssetLine.getResidualValue(), false, isLinear);
+                  fixedAsset, fixedAssetLine.getResidualValue(), false, isLinear, scale);
         }
 
         depreciationDate = addPeriodicity(fixedAsset, firstDepreciationDate, counter);
       } else {
         depreciationValue =
-            this.computeDepreciation(fixedAsset, fixedAsset.getResidualValue(), false, isLinear);
+            this.computeDepreciation(
+                fixedAsset, fixedAsset.getResidualValue(), false, isLinear, scale);
 
         depreciationDate = addPeriodicity(fixedAsset, firstDepreciationDate, counter);
       }
@@ -168,10 +173,10 @@ public class FixedAssetServiceImpl implements FixedAssetService {
     return depreciationDate;
   }
 
-  private BigDecimal computeDepreciationValue(FixedAsset fixedAsset, boolean isLinear) {
+  private BigDecimal computeDepreciationValue(FixedAsset fixedAsset, boolean isLinear, int scale) {
     BigDecimal depreciationValue = BigDecimal.ZERO;
     depreciationValue =
-        this.computeDepreciation(fixedAsset, fixedAsset.getGrossValue(), true, isLinear);
+        this.computeDepreciation(fixedAsset, fixedAsset.getGrossValue(), true, isLinear, scale);
     return depreciationValue;
   }
 
@@ -198,9 +203,12 @@ public class FixedAssetServiceImpl implements FixedAssetService {
   }
 
   private BigDecimal computeDepreciation(
-      FixedAsset fixedAsset, BigDecimal residualValue, boolean isFirstYear, boolean isLinear) {
+      FixedAsset fixedAsset,
+      BigDecimal residualValue,
+      boolean isFirstYear,
+      boolean isLinear,
+      int scale) {
 
-    int scale = Beans.get(AppBaseService.class).getNbDecimalDigitForUnitPrice();
     int numberOfDepreciation =
         !isLinear && fixedAsset.getFixedAssetCategory().getIsProrataTemporis()
             ? fixedAsset.getNumberOfDepreciation() - 1
@@ -232,51 +240,63 @@ public class FixedAssetServiceImpl implements FixedAssetService {
         Beans.get(AccountConfigService.class).getAccountConfig(invoice.getCompany());
     List<FixedAsset> fixedAssetList = new ArrayList<FixedAsset>();
 
-    for (InvoiceLine invoiceLine : invoice.getInvoiceLineList()) {
-
-      if (accountConfig.getFixedAssetCatReqOnInvoice()
-          && invoiceLine.getFixedAssets()
-          && invoiceLine.getFixedAssetCategory() == null) {
-        throw new AxelorException(
-            invoiceLine,
-            TraceBackRepository.CATEGORY_MISSING_FIELD,
-            I18n.get(IExceptionMessage.INVOICE_LINE_ERROR_FIXED_ASSET_CATEGORY),
-            invoiceLine.getProductName());
-      }
+    // the depreciation lines of the fixed assets are inserted in JDBC batches
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+    try {
+      for (InvoiceLine invoiceLine : invoice.getInvoiceLineList()) {
+
+        if (accountConfig.getFixedAssetCatReqOnInvoice()
+            && invoiceLine.getFixedAssets()
+            && invoiceLine.getFixedAssetCategory() == null) {
+          throw new AxelorException(
+              invoiceLine,
+              TraceBackRepository.CATEGORY_MISSING_FIELD,
+              I18n.get(IExceptionMessage.INVOICE_LINE_ERROR_FIXED_ASSET_CATEGORY),
+              invoiceLine.getProductName());
+        }
 
-      if (!invoiceLine.getFixedAssets() || invoiceLine.getFixedAssetCategory() == null) {
-        continue;
-      }
+        if (!invoiceLine.getFixedAssets() || invoiceLine.getFixedAssetCategory() == null) {
+          continue;
+        }
 
-      FixedAsset fixedAsset = new FixedAsset();
-      fixedAsset.setFixedAssetCategory(invoiceLine.getFixedAssetCategory());
-      if (fixedAsset.getFixedAssetCategory().getIsValidateFixedAsset()) {
-        fixedAsset.setStatusSelect(FixedAssetRepository.STATUS_VALIDATED);
-      } else {
-        fixedAsset.setStatusSelect(FixedAssetRepository.STATUS_DRAFT);
+        FixedAsset fixedAsset = new FixedAsset();
+        fixedAsset.setFixedAssetCategory(invoiceLine.getFixedAssetCategory());
+        if (fixedAsset.getFixedAssetCategory().getIsValidateFixedAsset()) {
+          fixedAsset.setStatusSelect(FixedAssetRepository.STATUS_VALIDATED);
+        } else {
+          fixedAsset.setStatusSelect(FixedAssetRepository.STATUS_DRAFT);
+        }
+        fixedAsset.setAcquisitionDate(invoice.getInvoiceDate());
+        fixedAsset.setFirstDepreciationDate(invoice.getInvoiceDate());
+        fixedAsset.setReference(invoice.getInvoiceId());
+        fixedAsset.setName(invoiceLine.getProductName() + " (" + invoiceLine.getQty() + ")");
+        fixedAsset.setCompany(fixedAsset.getFixedAssetCategory().getCompany());
+        fixedAsset.setJournal(fixedAsset.getFixedAssetCategory().getJournal());
+        fixedAsset.setComputationMethodSelect(
+            fixedAsset.getFixedAssetCategory().getComputationMethodSelect());
+        fixedAsset.setDegressiveCoef(fixedAsset.getFixedAssetCategory().getDegressiveCoef());
+        fixedAsset.setNumberOfDepreciation(
+            fixedAsset.getFixedAssetCategory().getNumberOfDepreciation());
+        fixedAsset.setPeriodicityInMonth(
+            fixedAsset.getFixedAssetCategory().getPeriodicityInMonth());
+        fixedAsset.setDurationInMonth(fixedAsset.getFixedAssetCategory().getDurationInMonth());
+        fixedAsset.setGrossValue(invoiceLine.getCompanyExTaxTotal());
+        fixedAsset.setPartner(invoice.getPartner());
+        fixedAsset.setPurchaseAccount(invoiceLine.getAccount());
+        fixedAsset.setInvoiceLine(invoiceLine);
+
+        this.generateAndcomputeLines(fixedAsset);
+
+        fixedAssetList.add(fixedAssetRepo.save(fixedAsset));
       }
-      fixedAsset.setAcquisitionDate(invoice.getInvoiceDate());
-      fixedAsset.setFirstDepreciationDate(invoice.getInvoiceDate());
-      fixedAsset.setReference(invoice.getInvoiceId());
-      fixedAsset.setName(invoiceLine.getProductName() + " (" + invoiceLine.getQty() + ")");
-      fixedAsset.setCompany(fixedAsset.getFixedAssetCategory().getCompany());
-      fixedAsset.setJournal(fixedAsset.getFixedAssetCategory().getJournal());
-      fixedAsset.setComputationMethodSelect(
-          fixedAsset.getFixedAssetCategory().getComputationMethodSelect());
-      fixedAsset.setDegressiveCoef(fixedAsset.getFixedAssetCategory().getDegressiveCoef());
-      fixedAsset.setNumberOfDepreciation(
-          fixedAsset.getFixedAssetCategory().getNumberOfDepreciation());
-      fixedAsset.setPeriodicityInMonth(fixedAsset.getFixedAssetCategory().getPeriodicityInMonth());
-      fixedAsset.setDurationInMonth(fixedAsset.getFixedAssetCategory().getDurationInMonth());
-      fixedAsset.setGrossValue(invoiceLine.getCompanyExTaxTotal());
-      fixedAsset.setPartner(invoice.getPartner());
-      fixedAsset.setPurchaseAccount(invoiceLine.getAccount());
-      fixedAsset.setInvoiceLine(invoiceLine);
-
-      this.generateAndcomputeLines(fixedAsset);
-
-      fixedAssetList.add(fixedAssetRepo.save(fixedAsset));
+      JPA.flush();
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
     }
+
     return fixedAssetList;
   }
 
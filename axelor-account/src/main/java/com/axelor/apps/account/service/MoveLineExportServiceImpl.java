@@ -23,7 +23,6 @@ import com.axelor.apps.account.db.Journal;
 import com.axelor.apps.account.db.JournalType;
 import com.axelor.apps.account.db.Move;
 import com.axelor.apps.account.db.MoveLine;
-import com.axelor.apps.account.db.ReconcileGroup;
 import com.axelor.apps.account.db.repo.AccountRepository;
 import com.axelor.apps.account.db.repo.AccountingReportRepository;
 import com.axelor.apps.account.db.repo.JournalRepository;
@@ -50,6 +49,7 @@ import com.axelor.meta.db.MetaFile;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.opencsv.CSVWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -61,8 +61,18 @@ import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.persistence.Query;
+import org.hibernate.jpa.QueryHints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,6 +96,16 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
   protected static final String DATE_FORMAT_YYYYMMDD = "yyyyMMdd";
   protected static final String DATE_FORMAT_YYYYMMDDHHMMSS = "yyyyMMddHHmmss";
 
+  protected static final int FETCH_SIZE = 1000;
+
+  protected static final Pattern LINE_BREAK_PATTERN = Pattern.compile("(\r\n|\n\r|\r|\n|\\|)");
+
+  /** Produces the rows of an export file, handing them one by one to the row consumer. */
+  @FunctionalInterface
+  protected interface RowProducer {
+    void produce(Consumer<String[]> rowConsumer) throws AxelorException, IOException;
+  }
+
   @Inject
   public MoveLineExportServiceImpl(
       AppAccountService appAccountService,
@@ -118,14 +138,27 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       LocalDate localDate,
       String exportNumber) {
 
+    this.updateMoveIdList(
+        moveList.stream().map(Move::getId).collect(Collectors.toList()),
+        accountingReport,
+        localDate,
+        exportNumber);
+  }
+
+  protected void updateMoveIdList(
+      Collection<Long> moveIdList,
+      AccountingReport accountingReport,
+      LocalDate localDate,
+      String exportNumber) {
+
     int i = 0;
 
-    int moveListSize = moveList.size();
+    int moveListSize = moveIdList.size();
 
-    for (Move move : moveList) {
+    for (Long moveId : moveIdList) {
 
       this.updateMove(
-          moveRepo.find(move.getId()),
+          moveRepo.find(moveId),
           accountingReportRepo.find(accountingReport.getId()),
           localDate,
           exportNumber);
@@ -1071,7 +1104,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
   public void exportMoveLineTypeSelect1010(AccountingReport accountingReport)
       throws AxelorException, IOException {
     log.info("In Export type 1010 service:");
-    List<String[]> allMoveLineData = new ArrayList<>();
     String filterStr = accountingReportService.getMoveLineList(accountingReport);
     String queryStr =
         String.format(
@@ -1079,18 +1111,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
                 + "FROM MoveLine self WHERE %s "
                 + "GROUP BY self.accountCode, self.accountName ORDER BY self.accountCode",
             filterStr);
-    Query query = JPA.em().createQuery(queryStr);
-
-    @SuppressWarnings("unchecked")
-    List<Object[]> resultList = query.getResultList();
-
-    for (Object[] result : resultList) {
-      String[] items = new String[result.length];
-      for (int i = 0; i < result.length; ++i) {
-        items[i] = String.valueOf(result[i]);
-      }
-      allMoveLineData.add(items);
-    }
 
     LocalDate date;
 
@@ -1107,8 +1127,29 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
     String fileName =
         String.format(
             "%s %s%s.csv", I18n.get("General balance"), accountingReport.getRef(), dateStr);
-    writeMoveLineToCsvFile(
-        accountingReport.getCompany(), fileName, null, allMoveLineData, accountingReport);
+    Path path =
+        writeCsvFile(
+            accountingReport.getCompany(),
+            fileName,
+            null,
+            rowConsumer -> {
+              try (Stream<Object[]> resultStream =
+                  JPA.em()
+                      .createQuery(queryStr, Object[].class)
+                      .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                      .getResultStream()) {
+                resultStream.map(this::toItems).forEach(rowConsumer);
+              }
+            });
+    attachCsvFile(path, fileName, accountingReport);
+  }
+
+  protected String[] toItems(Object[] result) {
+    String[] items = new String[result.length];
+    for (int i = 0; i < result.length; ++i) {
+      items[i] = String.valueOf(result[i]);
+    }
+    return items;
   }
 
   /**
@@ -1123,7 +1164,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       throws AxelorException, IOException {
 
     log.info("In Export type 1000 service : ");
-    List<String[]> allMoveLineData = new ArrayList<>();
     Company company = accountingReport.getCompany();
 
     LocalDate interfaceDate = accountingReport.getDate();
@@ -1176,89 +1216,107 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       }
     }
 
-    List<MoveLine> moveLineList =
-        moveLineRepo
-            .all()
-            .filter(moveLineQueryStr)
-            .order("move.validationDate")
-            .order("date")
-            .order("name")
-            .fetch();
-
-    if (!moveLineList.isEmpty()) {
-      List<Move> moveList = new ArrayList<>();
-      for (MoveLine moveLine : moveLineList) {
-        String[] items = new String[18];
-        Move move = moveLine.getMove();
-        if (!moveList.contains(move)) {
-          moveList.add(move);
-        }
-        Journal journal = move.getJournal();
-        items[0] = journal.getCode();
-        items[1] = journal.getName();
-        items[2] = moveLine.getMove().getReference();
-        items[3] = moveLine.getDate().format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD));
-        items[4] = moveLine.getAccount().getCode();
-        items[5] = moveLine.getAccount().getName();
-        items[6] = "";
-        items[7] = "";
-        Partner partner = moveLine.getPartner();
-        if (partner != null) {
-          items[6] = partner.getPartnerSeq();
-          items[7] = partner.getName();
-        }
-        items[8] = moveLine.getOrigin();
-        if (moveLine.getOriginDate() != null) {
-          items[9] =
-              moveLine.getOriginDate().format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD));
-        }
-        items[10] = moveLine.getDescription();
-        items[11] = moveLine.getDebit().toString().replace('.', ',');
-        items[12] = moveLine.getCredit().toString().replace('.', ',');
-
-        ReconcileGroup reconcileGroup = moveLine.getReconcileGroup();
-        if (reconcileGroup != null
-            && reconcileGroup.getStatusSelect() == ReconcileGroupRepository.STATUS_FINAL) {
-          items[13] = reconcileGroup.getCode();
-          items[14] =
-              reconcileGroup
-                  .getDateOfLettering()
-                  .format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD))
-                  .toString();
-        } else {
-          items[13] = "";
-          items[14] = "";
-        }
+    String fileName = this.setFileName(accountingReport);
+    String filterStr = moveLineQueryStr;
+    Set<Long> moveIdSet = new LinkedHashSet<>();
+    Path path =
+        writeCsvFile(
+            company,
+            fileName,
+            this.createHeaderForJournalEntry(),
+            rowConsumer -> writeJournalEntryRows(filterStr, moveIdSet, rowConsumer));
 
-        if (move.getValidationDate() != null) {
-          items[15] =
-              move.getValidationDate().format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD));
-        }
+    if (!administration && !moveIdSet.isEmpty()) {
+      String exportNumber = this.getSaleExportNumber(company);
+      this.updateMoveIdList(moveIdSet, accountingReport, interfaceDate, exportNumber);
+    }
 
-        items[16] = moveLine.getCurrencyAmount().toString().replace('.', ',');
-        if (moveLine.getCurrencyAmount().compareTo(BigDecimal.ZERO) > 0
-            && moveLine.getCredit().compareTo(BigDecimal.ZERO) > 0) {
-          items[16] = "-" + items[16];
-        }
+    accountingReport = accountingReportRepo.find(accountingReport.getId());
+    accountingReportRepo.save(accountingReport);
+    return attachCsvFile(path, fileName, accountingReport);
+  }
 
-        if (move.getCurrency() != null) {
-          items[17] = move.getCurrency().getCode();
-        }
-        allMoveLineData.add(items);
-      }
+  /**
+   * Write the journal entry rows of the move lines matching the filter, reading them through a
+   * projection query so that no move line is loaded in the persistence context.
+   *
+   * @param moveLineQueryStr the move line filter
+   * @param moveIdSet filled with the ids of the exported moves
+   * @param rowConsumer the consumer writing the rows
+   */
+  protected void writeJournalEntryRows(
+      String moveLineQueryStr, Set<Long> moveIdSet, Consumer<String[]> rowConsumer) {
 
-      if (!administration) {
-        String exportNumber = this.getSaleExportNumber(company);
-        this.updateMoveList(moveList, accountingReport, interfaceDate, exportNumber);
-      }
-    }
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD);
+    String queryStr =
+        "SELECT move.id, journal.code, journal.name, move.reference, self.date, account.code, "
+            + "account.name, partner.partnerSeq, partner.name, self.origin, self.originDate, "
+            + "self.description, self.debit, self.credit, reconcileGroup.code, "
+            + "reconcileGroup.statusSelect, reconcileGroup.dateOfLettering, move.validationDate, "
+            + "self.currencyAmount, currency.code "
+            + "FROM MoveLine self JOIN self.move move JOIN move.journal journal "
+            + "JOIN self.account account LEFT JOIN self.partner partner "
+            + "LEFT JOIN self.reconcileGroup reconcileGroup LEFT JOIN move.currency currency "
+            + "WHERE "
+            + moveLineQueryStr
+            + " ORDER BY move.validationDate, self.date, self.name";
+
+    try (Stream<Object[]> resultStream =
+        JPA.em()
+            .createQuery(queryStr, Object[].class)
+            .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+            .getResultStream()) {
+
+      resultStream.forEach(
+          result -> {
+            String[] items = new String[18];
+            moveIdSet.add((Long) result[0]);
+            items[0] = (String) result[1];
+            items[1] = (String) result[2];
+            items[2] = (String) result[3];
+            items[3] = ((LocalDate) result[4]).format(formatter);
+            items[4] = (String) result[5];
+            items[5] = (String) result[6];
+            items[6] = "";
+            items[7] = "";
+            if (result[7] != null || result[8] != null) {
+              items[6] = (String) result[7];
+              items[7] = (String) result[8];
+            }
+            items[8] = (String) result[9];
+            if (result[10] != null) {
+              items[9] = ((LocalDate) result[10]).format(formatter);
+            }
+            items[10] = (String) result[11];
+            BigDecimal credit = (BigDecimal) result[13];
+            items[11] = result[12].toString().replace('.', ',');
+            items[12] = credit.toString().replace('.', ',');
+
+            items[13] = "";
+            items[14] = "";
+            if (result[15] != null
+                && (Integer) result[15] == ReconcileGroupRepository.STATUS_FINAL) {
+              items[13] = (String) result[14];
+              if (result[16] != null) {
+                items[14] = ((LocalDate) result[16]).format(formatter);
+              }
+            }
 
-    accountingReport = accountingReportRepo.find(accountingReport.getId());
+            if (result[17] != null) {
+              items[15] = ((LocalDate) result[17]).format(formatter);
+            }
 
-    String fileName = this.setFileName(accountingReport);
-    accountingReportRepo.save(accountingReport);
-    return writeMoveLineToCsvFile(
-        company, fileName, this.createHeaderForJournalEntry(), allMoveLineData, accountingReport);
+            BigDecimal currencyAmount = (BigDecimal) result[18];
+            items[16] = currencyAmount.toString().replace('.', ',');
+            if (currencyAmount.compareTo(BigDecimal.ZERO) > 0
+                && credit.compareTo(BigDecimal.ZERO) > 0) {
+              items[16] = "-" + items[16];
+            }
+
+            items[17] = (String) result[19];
+            rowConsumer.accept(items);
+          });
+    }
   }
 
   /**
@@ -1269,7 +1327,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
    * @throws AxelorException
    * @throws IOException
    */
-  @SuppressWarnings("unchecked")
   public void exportMoveLineAllTypeSelectFILE2(AccountingReport accountingReport, String fileName)
       throws AxelorException, IOException {
 
@@ -1277,13 +1334,12 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
 
     Company company = accountingReport.getCompany();
 
-    String companyCode = "";
+    String companyCode = company != null ? company.getCode() : "";
     String moveLineQueryStr = "";
 
     int typeSelect = accountingReport.getTypeSelect();
 
     if (company != null) {
-      companyCode = company.getCode();
       moveLineQueryStr += String.format(" AND self.move.company = %s", company.getId());
     }
     if (accountingReport.getJournal() != null) {
@@ -1325,148 +1381,156 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
             " AND (self.move.statusSelect = %s OR self.move.statusSelect = %s) ",
             MoveRepository.STATUS_VALIDATED, MoveRepository.STATUS_DAYBOOK);
 
-    Query queryDate =
+    String filterStr =
+        "self.account != null AND (self.debit > 0 OR self.credit > 0) "
+            + "AND self.move.exportNumber IS NOT NULL AND self.move.exportNumber != '' "
+            + moveLineQueryStr;
+
+    Path path =
+        writeCsvFile(
+            company,
+            fileName,
+            this.createHeaderForDetailFile(typeSelect),
+            rowConsumer -> writeDetailRows(filterStr, companyCode, typeSelect, rowConsumer));
+    attachCsvFile(path, fileName, accountingReport);
+  }
+
+  /**
+   * Write the detail rows of the move lines matching the filter. The move lines are streamed
+   * ordered by date, export number and account, and each group is consolidated and written before
+   * reading the next one, so that only one group is kept in memory.
+   *
+   * @param moveLineQueryStr the move line filter
+   * @param companyCode the company code
+   * @param typeSelect the type of export
+   * @param rowConsumer the consumer writing the rows
+   */
+  protected void writeDetailRows(
+      String moveLineQueryStr, String companyCode, int typeSelect, Consumer<String[]> rowConsumer) {
+
+    String queryStr =
+        "SELECT self.id, self.date, move.exportNumber, account.id, account.code "
+            + "FROM MoveLine self JOIN self.move move JOIN self.account account "
+            + "WHERE "
+            + moveLineQueryStr
+            + " ORDER BY self.date, move.exportNumber, account.id, self.id";
+
+    try (Stream<Object[]> resultStream =
         JPA.em()
-            .createQuery(
-                "SELECT self.date from MoveLine self where self.account != null AND (self.debit > 0 OR self.credit > 0) "
-                    + moveLineQueryStr
-                    + " group by self.date ORDER BY self.date");
-
-    List<LocalDate> dates = new ArrayList<LocalDate>();
-    dates = queryDate.getResultList();
-
-    log.debug("dates : {}", dates);
-
-    List<String[]> allMoveLineData = new ArrayList<String[]>();
-
-    for (LocalDate localDate : dates) {
-
-      Query queryExportRef =
-          JPA.em()
-              .createQuery(
-                  "SELECT DISTINCT self.move.exportNumber from MoveLine self where self.account != null "
-                      + "AND (self.debit > 0 OR self.credit > 0) AND self.date = '"
-                      + localDate.toString()
-                      + "'"
-                      + moveLineQueryStr);
-      List<String> exportRefs = new ArrayList<String>();
-      exportRefs = queryExportRef.getResultList();
-      for (String exportRef : exportRefs) {
-
-        if (exportRef != null && !exportRef.isEmpty()) {
-
-          int sequence = 1;
-
-          Query query =
-              JPA.em()
-                  .createQuery(
-                      "SELECT self.account.id from MoveLine self where self.account != null AND (self.debit > 0 OR self.credit > 0) "
-                          + "AND self.date = '"
-                          + localDate.toString()
-                          + "' AND self.move.exportNumber = '"
-                          + exportRef
-                          + "'"
-                          + moveLineQueryStr
-                          + " group by self.account.id");
-
-          List<Long> accountIds = new ArrayList<Long>();
-          accountIds = query.getResultList();
-
-          log.debug("accountIds : {}", accountIds);
-
-          for (Long accountId : accountIds) {
-            if (accountId != null) {
-              String accountCode = accountRepo.find(accountId).getCode();
-              List<MoveLine> moveLines =
-                  moveLineRepo
-                      .all()
-                      .filter(
-                          "self.account.id = ?1 AND (self.debit > 0 OR self.credit > 0) AND self.date = '"
-                              + localDate.toString()
-                              + "' AND self.move.exportNumber = '"
-                              + exportRef
-                              + "'"
-                              + moveLineQueryStr,
-                          accountId)
-                      .fetch();
-
-              log.debug("movelines  : {} ", moveLines);
-
-              if (moveLines.size() > 0) {
-
-                List<MoveLine> moveLineList = moveLineService.consolidateMoveLines(moveLines);
-
-                List<MoveLine> sortMoveLineList = this.sortMoveLineByDebitCredit(moveLineList);
-
-                for (MoveLine moveLine3 : sortMoveLineList) {
-
-                  Journal journal = moveLine3.getMove().getJournal();
-                  LocalDate date = moveLine3.getDate();
-                  String items[] = null;
-
-                  if (typeSelect == 9) {
-                    items = new String[13];
-                  } else {
-                    items = new String[12];
-                  }
-
-                  items[0] = companyCode;
-                  items[1] = journal.getExportCode();
-                  items[2] = moveLine3.getMove().getExportNumber();
-                  items[3] = String.format("%s", sequence);
-                  sequence++;
-                  items[4] = accountCode;
-
-                  BigDecimal totAmt = moveLine3.getCredit().subtract(moveLine3.getDebit());
-                  String moveLineSign = "C";
-                  if (totAmt.compareTo(BigDecimal.ZERO) == -1) {
-                    moveLineSign = "D";
-                    totAmt = totAmt.negate();
-                  }
-                  items[5] = moveLineSign;
-                  items[6] = totAmt.toString();
-
-                  String analyticAccounts = "";
-                  for (AnalyticMoveLine analyticDistributionLine :
-                      moveLine3.getAnalyticMoveLineList()) {
-                    analyticAccounts =
-                        analyticAccounts
-                            + analyticDistributionLine.getAnalyticAccount().getCode()
-                            + "/";
-                  }
-
-                  if (typeSelect == 9) {
-                    items[7] = "";
-                    items[8] = analyticAccounts;
-                    items[9] =
-                        String.format(
-                            "%s DU %s",
-                            journal.getCode(),
-                            date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
-                  } else {
-                    items[7] = analyticAccounts;
-                    items[8] =
-                        String.format(
-                            "%s DU %s",
-                            journal.getCode(),
-                            date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
-                  }
-
-                  allMoveLineData.add(items);
-                }
-              }
-            }
+            .createQuery(queryStr, Object[].class)
+            .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+            .getResultStream()) {
+
+      List<Long> moveLineIdList = new ArrayList<>();
+      List<Object> groupKey = null;
+      String accountCode = null;
+      int sequence = 1;
+
+      for (Iterator<Object[]> it = resultStream.iterator(); it.hasNext(); ) {
+        Object[] result = it.next();
+        List<Object> key = Arrays.asList(result[1], result[2], result[3]);
+        if (!key.equals(groupKey)) {
+          if (!moveLineIdList.isEmpty()) {
+            sequence =
+                writeDetailGroup(
+                    moveLineIdList, accountCode, companyCode, typeSelect, sequence, rowConsumer);
+            moveLineIdList.clear();
+          }
+          // The sequence restarts for each date and export number
+          if (groupKey == null || !groupKey.subList(0, 2).equals(key.subList(0, 2))) {
+            sequence = 1;
           }
+          groupKey = key;
+          accountCode = (String) result[4];
         }
+        moveLineIdList.add((Long) result[0]);
+      }
+
+      if (!moveLineIdList.isEmpty()) {
+        writeDetailGroup(
+            moveLineIdList, accountCode, companyCode, typeSelect, sequence, rowConsumer);
       }
     }
+  }
 
-    writeMoveLineToCsvFile(
-        company,
-        fileName,
-        this.createHeaderForDetailFile(typeSelect),
-        allMoveLineData,
-        accountingReport);
+  /**
+   * Consolidate and write the move lines of one date, export number and account.
+   *
+   * @return the next sequence
+   */
+  protected int writeDetailGroup(
+      List<Long> moveLineIdList,
+      String accountCode,
+      String companyCode,
+      int typeSelect,
+      int sequence,
+      Consumer<String[]> rowConsumer) {
+
+    List<MoveLine> moveLines =
+        moveLineRepo.all().filter("self.id IN (?1)", moveLineIdList).order("id").fetch();
+
+    log.debug("movelines  : {} ", moveLines);
+
+    List<MoveLine> moveLineList = moveLineService.consolidateMoveLines(moveLines);
+
+    List<MoveLine> sortMoveLineList = this.sortMoveLineByDebitCredit(moveLineList);
+
+    for (MoveLine moveLine3 : sortMoveLineList) {
+
+      Journal journal = moveLine3.getMove().getJournal();
+      LocalDate date = moveLine3.getDate();
+      String items[] = null;
+
+      if (typeSelect == 9) {
+        items = new String[13];
+      } else {
+        items = new String[12];
+      }
+
+      items[0] = companyCode;
+      items[1] = journal.getExportCode();
+      items[2] = moveLine3.getMove().getExportNumber();
+      items[3] = String.format("%s", sequence);
+      sequence++;
+      items[4] = accountCode;
+
+      BigDecimal totAmt = moveLine3.getCredit().subtract(moveLine3.getDebit());
+      String moveLineSign = "C";
+      if (totAmt.compareTo(BigDecimal.ZERO) == -1) {
+        moveLineSign = "D";
+        totAmt = totAmt.negate();
+      }
+      items[5] = moveLineSign;
+      items[6] = totAmt.toString();
+
+      String analyticAccounts = "";
+      for (AnalyticMoveLine analyticDistributionLine : moveLine3.getAnalyticMoveLineList()) {
+        analyticAccounts =
+            analyticAccounts + analyticDistributionLine.getAnalyticAccount().getCode() + "/";
+      }
+
+      if (typeSelect == 9) {
+        items[7] = "";
+        items[8] = analyticAccounts;
+        items[9] =
+            String.format(
+                "%s DU %s",
+                journal.getCode(), date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+      } else {
+        items[7] = analyticAccounts;
+        items[8] =
+            String.format(
+                "%s DU %s",
+                journal.getCode(), date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+      }
+
+      rowConsumer.accept(items);
+    }
+
+    // The consolidated move lines are only used for the export, they must not be flushed
+    JPA.clear();
+
+    return sequence;
   }
 
   private MetaFile writeMoveLineToCsvFile(
@@ -1477,15 +1541,27 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       AccountingReport accountingReport)
       throws AxelorException, IOException {
 
-    String filePath = accountConfigService.getAccountConfig(company).getExportPath();
+    Path path = writeCsvFile(company, fileName, columnHeader, allMoveData::forEach);
+    return attachCsvFile(path, fileName, accountingReport);
+  }
 
-    for (String[] iteams : allMoveData) {
-      for (String iteam : iteams) {
-        if (iteam != null) {
-          iteam.replaceAll("(\r\n|\n\r|\r|\n|\\|)", " ");
-        }
-      }
-    }
+  /**
+   * Write an export file in the export path of the company, the rows being written as soon as they
+   * are produced.
+   *
+   * @param company the company
+   * @param fileName the name of the file
+   * @param columnHeader the header, <code>null</code> if none
+   * @param rowProducer the producer of the rows
+   * @return the path of the file
+   * @throws AxelorException
+   * @throws IOException
+   */
+  protected Path writeCsvFile(
+      Company company, String fileName, String[] columnHeader, RowProducer rowProducer)
+      throws AxelorException, IOException {
+
+    String filePath = accountConfigService.getAccountConfig(company).getExportPath();
 
     if (filePath == null) {
       filePath = Files.createTempDir().getAbsolutePath();
@@ -1493,13 +1569,31 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       new File(filePath).mkdirs();
     }
     log.debug("Full path to export : {}{}", filePath, fileName);
-    CsvTool.csvWriter(filePath, fileName, '|', columnHeader, allMoveData);
-    Path path = Paths.get(filePath, fileName);
+    try (CSVWriter csvWriter = CsvTool.setCsvFile(filePath, fileName, '|')) {
+      if (columnHeader != null) {
+        csvWriter.writeNext(columnHeader);
+      }
+      rowProducer.produce(items -> csvWriter.writeNext(cleanItems(items)));
+    }
+    return Paths.get(filePath, fileName);
+  }
+
+  protected MetaFile attachCsvFile(Path path, String fileName, AccountingReport accountingReport)
+      throws IOException {
     try (InputStream is = new FileInputStream(path.toFile())) {
       return Beans.get(MetaFiles.class).attach(is, fileName, accountingReport).getMetaFile();
     }
   }
 
+  protected String[] cleanItems(String[] items) {
+    for (int i = 0; i < items.length; i++) {
+      if (items[i] != null) {
+        items[i] = LINE_BREAK_PATTERN.matcher(items[i]).replaceAll(" ");
+      }
+    }
+    return items;
+  }
+
   /**
    * Méthode permettant de trier une liste en ajoutant d'abord les lignes d'écriture au débit puis
    * celles au crédit
@@ -46,6 +46,7 @@ import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -150,10 +151,18 @@ public class ReconcileServiceImpl implements ReconcileService {
     MoveLine debitMoveLine = reconcile.getDebitMoveLine();
     MoveLine creditMoveLine = reconcile.getCreditMoveLine();
 
+    accountCustomerService.lockAccountingSituations(Arrays.asList(debitMoveLine, creditMoveLine));
+
+    BigDecimal creditBalanceAmount = accountCustomerService.getBalanceAmount(creditMoveLine);
+    BigDecimal debitBalanceAmount = accountCustomerService.getBalanceAmount(debitMoveLine);
+
     // Add the reconciled amount to the reconciled amount in the move line
     creditMoveLine.setAmountPaid(creditMoveLine.getAmountPaid().add(reconcile.getAmount()));
     debitMoveLine.setAmountPaid(debitMoveLine.getAmountPaid().add(reconcile.getAmount()));
 
+    accountCustomerService.updateBalance(creditMoveLine, creditBalanceAmount);
+    accountCustomerService.updateBalance(debitMoveLine, debitBalanceAmount);
+
     reconcile = reconcileRepository.save(reconcile);
 
     reconcile.setStatusSelect(ReconcileRepository.STATUS_CONFIRMED);
@@ -279,9 +288,10 @@ public class ReconcileServiceImpl implements ReconcileService {
 
       Company company = reconcile.getDebitMoveLine().getMove().getCompany();
 
+      // The balances are updated with the reconciled amounts, only the balances due are computed
       if (AccountingService.getUpdateCustomerAccount()) {
         accountCustomerService.updatePartnerAccountingSituation(
-            partnerList, company, true, true, false);
+            partnerList, company, false, true, false);
       } else {
         accountCustomerService.flagPartners(partnerList, company);
       }
@@ -403,12 +413,20 @@ public class ReconcileServiceImpl implements ReconcileService {
     MoveLine debitMoveLine = reconcile.getDebitMoveLine();
     MoveLine creditMoveLine = reconcile.getCreditMoveLine();
 
+    accountCustomerService.lockAccountingSituations(Arrays.asList(debitMoveLine, creditMoveLine));
+
     // Change the state
     reconcile.setStatusSelect(ReconcileRepository.STATUS_CANCELED);
+    BigDecimal creditBalanceAmount = accountCustomerService.getBalanceAmount(creditMoveLine);
+    BigDecimal debitBalanceAmount = accountCustomerService.getBalanceAmount(debitMoveLine);
+
     // Add the reconciled amount to the reconciled amount in the move line
     creditMoveLine.setAmountPaid(creditMoveLine.getAmountPaid().subtract(reconcile.getAmount()));
     debitMoveLine.setAmountPaid(debitMoveLine.getAmountPaid().subtract(reconcile.getAmount()));
 
+    accountCustomerService.updateBalance(creditMoveLine, creditBalanceAmount);
+    accountCustomerService.updateBalance(debitMoveLine, debitBalanceAmount);
+
     reconcileRepository.save(reconcile);
 
     // Update amount remaining on invoice or refund
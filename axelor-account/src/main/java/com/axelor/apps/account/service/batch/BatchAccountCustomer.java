@@ -22,11 +22,14 @@ import com.axelor.apps.account.db.AccountingSituation;
 import com.axelor.apps.account.db.repo.AccountingSituationRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.AccountCustomerService;
+import com.axelor.apps.account.service.DueBalanceSnapshot;
+import com.axelor.apps.account.service.DueBalanceSnapshotService;
 import com.axelor.apps.base.db.Company;
 import com.axelor.db.JPA;
 import com.axelor.exception.db.repo.ExceptionOriginRepository;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
 import java.util.List;
@@ -39,6 +42,8 @@ public class BatchAccountCustomer extends BatchStrategy {
 
   protected AccountingSituationRepository accountingSituationRepo;
 
+  protected int correctedBalanceCount;
+
   @Inject
   public BatchAccountCustomer(
       AccountCustomerService accountCustomerService,
@@ -66,6 +71,27 @@ public class BatchAccountCustomer extends BatchStrategy {
     boolean updateDueDebtRecoveryCustAccountOk =
         accountingBatch.getUpdateDueDebtRecoveryCustAccountOk();
 
+    if (updateCustAccountOk) {
+      // The balances are rebuilt at once for the whole company, and checked against the balances
+      // maintained on move validation and reconciliation
+      try {
+        correctedBalanceCount = accountCustomerService.rebuildBalances(company);
+        updateCustAccountOk = false;
+      } catch (Exception e) {
+        TraceBackService.trace(e, ExceptionOriginRepository.ACCOUNT_CUSTOMER, batch.getId());
+        incrementAnomaly();
+        log.error("Bug(Anomalie) généré(e) pour la reconstruction des soldes");
+      }
+    }
+
+    // The balances due of all the partners are computed at once
+    DueBalanceSnapshot dueBalanceSnapshot = null;
+    if (!updateCustAccountOk && (updateDueCustAccountOk || updateDueDebtRecoveryCustAccountOk)) {
+      dueBalanceSnapshot =
+          Beans.get(DueBalanceSnapshotService.class)
+              .computeSnapshot(company, appBaseService.getTodayDate());
+    }
+
     List<AccountingSituation> accountingSituationList =
         accountingSituationRepo.all().filter("self.company = ?1", company).fetch();
     int i = 0;
@@ -73,12 +99,22 @@ public class BatchAccountCustomer extends BatchStrategy {
     for (AccountingSituation accountingSituation : accountingSituationList) {
       try {
 
-        accountingSituation =
-            accountCustomerService.updateAccountingSituationCustomerAccount(
-                accountingSituationRepo.find(accountingSituation.getId()),
-                updateCustAccountOk,
-                updateDueCustAccountOk,
-                updateDueDebtRecoveryCustAccountOk);
+        if (dueBalanceSnapshot != null) {
+          accountingSituation = accountingSituationRepo.find(accountingSituation.getId());
+          accountingSituation =
+              accountCustomerService.updateAccountingSituationCustomerAccount(
+                  accountingSituation,
+                  dueBalanceSnapshot.getPartnerDueBalance(accountingSituation.getPartner().getId()),
+                  updateDueCustAccountOk,
+                  updateDueDebtRecoveryCustAccountOk);
+        } else {
+          accountingSituation =
+              accountCustomerService.updateAccountingSituationCustomerAccount(
+                  accountingSituationRepo.find(accountingSituation.getId()),
+                  updateCustAccountOk,
+                  updateDueCustAccountOk,
+                  updateDueDebtRecoveryCustAccountOk);
+        }
 
         if (accountingSituation != null) {
           this.updateAccountingSituation(accountingSituation);
@@ -121,6 +157,11 @@ public class BatchAccountCustomer extends BatchStrategy {
     comment = I18n.get(IExceptionMessage.BATCH_ACCOUNT_2) + "\n";
     comment +=
         String.format("\t" + I18n.get(IExceptionMessage.BATCH_ACCOUNT_3) + "\n", batch.getDone());
+    if (correctedBalanceCount > 0) {
+      comment +=
+          String.format(
+              "\t" + I18n.get(IExceptionMessage.BATCH_ACCOUNT_6) + "\n", correctedBalanceCount);
+    }
     comment +=
         String.format(
             "\t" + I18n.get(com.axelor.apps.base.exceptions.IExceptionMessage.ALARM_ENGINE_BATCH_4),
@@ -20,6 +20,9 @@ package com.axelor.apps.account.service.batch;
 import com.axelor.apps.account.db.DebtRecovery;
 import com.axelor.apps.account.db.repo.DebtRecoveryRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.account.service.DueBalanceSnapshot;
+import com.axelor.apps.account.service.DueBalanceSnapshot.PartnerDueBalance;
+import com.axelor.apps.account.service.DueBalanceSnapshotService;
 import com.axelor.apps.account.service.debtrecovery.DebtRecoveryActionService;
 import com.axelor.apps.account.service.debtrecovery.DebtRecoveryService;
 import com.axelor.apps.base.db.Company;
@@ -113,6 +116,11 @@ public class BatchDebtRecovery extends BatchStrategy {
             .bind("_company", company)
             .order("id");
 
+    // The balances due of all the partners are computed at once
+    DueBalanceSnapshot dueBalanceSnapshot =
+        Beans.get(DueBalanceSnapshotService.class)
+            .computeSnapshot(company, appBaseService.getTodayDate());
+
     int offset = 0;
     List<Partner> partnerList;
 
@@ -123,7 +131,14 @@ public class BatchDebtRecovery extends BatchStrategy {
         ++offset;
 
         try {
-          boolean remindedOk = debtRecoveryService.debtRecoveryGenerate(partner, company);
+          PartnerDueBalance partnerDueBalance =
+              dueBalanceSnapshot.getPartnerDueBalance(partner.getId());
+          boolean remindedOk =
+              debtRecoveryService.debtRecoveryGenerate(
+                  partner,
+                  company,
+                  partnerDueBalance.getBalanceDue(),
+                  partnerDueBalance.getBalanceDueDebtRecovery());
           if (remindedOk) {
             DebtRecovery debtRecovery = debtRecoveryService.getDebtRecovery(partner, company);
             addBatchToModel(debtRecovery);
@@ -17,16 +17,15 @@
  */
 package com.axelor.apps.account.service.batch;
 
-import com.axelor.apps.account.db.FixedAssetLine;
 import com.axelor.apps.account.db.repo.FixedAssetLineRepository;
 import com.axelor.apps.account.db.repo.FixedAssetRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.FixedAssetLineService;
 import com.axelor.apps.base.service.administration.AbstractBatch;
 import com.axelor.db.JPA;
+import com.axelor.exception.db.repo.ExceptionOriginRepository;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
-import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import java.time.LocalDate;
 import java.util.List;
@@ -35,33 +34,59 @@ public class BatchRealizeFixedAssetLine extends AbstractBatch {
 
   private FixedAssetLineService fixedAssetLineService;
 
-  @Inject FixedAssetLineRepository fixedAssetLineRepo;
+  private FixedAssetLineRepository fixedAssetLineRepo;
 
   @Inject
-  public BatchRealizeFixedAssetLine(FixedAssetLineService fixedAssetLineService) {
+  public BatchRealizeFixedAssetLine(
+      FixedAssetLineService fixedAssetLineService, FixedAssetLineRepository fixedAssetLineRepo) {
     this.fixedAssetLineService = fixedAssetLineService;
+    this.fixedAssetLineRepo = fixedAssetLineRepo;
   }
 
   @Override
   protected void process() {
-    List<FixedAssetLine> fixedAssetLineList =
-        Beans.get(FixedAssetLineRepository.class)
-            .all()
-            .filter(
-                "self.statusSelect = ?1 and self.depreciationDate < ?2",
-                FixedAssetLineRepository.STATUS_PLANNED,
-                LocalDate.now())
-            .fetch();
-    for (FixedAssetLine fixedAssetLine : fixedAssetLineList) {
+    List<Long> fixedAssetLineIdList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id FROM FixedAssetLine self "
+                    + "WHERE self.statusSelect = :statusSelect "
+                    + "AND self.depreciationDate < :date "
+                    + "AND self.fixedAsset.statusSelect > :fixedAssetStatusSelect "
+                    + "ORDER BY self.depreciationDate, self.id",
+                Long.class)
+            .setParameter("statusSelect", FixedAssetLineRepository.STATUS_PLANNED)
+            .setParameter("date", LocalDate.now())
+            .setParameter("fixedAssetStatusSelect", FixedAssetRepository.STATUS_DRAFT)
+            .getResultList();
+
+    // One consolidated depreciation move by journal, company and period
+    for (List<Long> moveFixedAssetLineIdList :
+        fixedAssetLineService.groupByDepreciationMove(fixedAssetLineIdList)) {
+      try {
+        fixedAssetLineService.realizeConsolidated(moveFixedAssetLineIdList);
+        moveFixedAssetLineIdList.forEach(id -> incrementDone());
+      } catch (Exception e) {
+        // The lines in error are traced one by one, and the other lines are still realized
+        JPA.clear();
+        this.realizeOneByOne(moveFixedAssetLineIdList);
+      }
+      JPA.clear();
+    }
+  }
+
+  /**
+   * Realize the fixed asset lines one by one, each with its own depreciation move and transaction.
+   *
+   * @param fixedAssetLineIdList
+   */
+  protected void realizeOneByOne(List<Long> fixedAssetLineIdList) {
+    for (Long fixedAssetLineId : fixedAssetLineIdList) {
       try {
-        fixedAssetLine = fixedAssetLineRepo.find(fixedAssetLine.getId());
-        if (fixedAssetLine.getFixedAsset().getStatusSelect() > FixedAssetRepository.STATUS_DRAFT) {
-          fixedAssetLineService.realize(fixedAssetLine);
-          incrementDone();
-        }
+        fixedAssetLineService.realize(fixedAssetLineRepo.find(fixedAssetLineId));
+        incrementDone();
       } catch (Exception e) {
         incrementAnomaly();
-        TraceBackService.trace(e);
+        TraceBackService.trace(e, ExceptionOriginRepository.FIXED_ASSET, batch.getId());
       }
       JPA.clear();
     }
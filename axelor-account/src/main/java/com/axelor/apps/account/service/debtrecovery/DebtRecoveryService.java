@@ -40,6 +40,7 @@ import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.db.repo.CompanyRepository;
 import com.axelor.apps.message.db.repo.MessageRepository;
 import com.axelor.apps.tool.date.DateTool;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.exception.service.TraceBackService;
@@ -121,17 +122,16 @@ public class DebtRecoveryService {
   }
 
   public BigDecimal getSubstractBalanceDue(Partner partner) {
-    List<? extends MoveLine> moveLineQuery =
-        moveLineRepo.all().filter("self.partner = ?1", partner).fetch();
-    BigDecimal balance = BigDecimal.ZERO;
-    for (MoveLine moveLine : moveLineQuery) {
-      if (moveLine.getCredit().compareTo(BigDecimal.ZERO) > 0) {
-        if (moveLine.getAccount() != null && moveLine.getAccount().getUseForPartnerBalance()) {
-          balance = balance.subtract(moveLine.getAmountRemaining());
-        }
-      }
-    }
-    return balance;
+    BigDecimal creditAmount =
+        JPA.em()
+            .createQuery(
+                "SELECT SUM(self.amountRemaining) FROM MoveLine self "
+                    + "WHERE self.partner = :partner AND self.credit > 0 "
+                    + "AND self.account.useForPartnerBalance = true",
+                BigDecimal.class)
+            .setParameter("partner", partner)
+            .getSingleResult();
+    return creditAmount != null ? creditAmount.negate() : BigDecimal.ZERO;
   }
 
   /**
@@ -224,11 +224,21 @@ public class DebtRecoveryService {
    * @param company Une société
    * @return La liste de ligne d'écriture
    */
-  @SuppressWarnings("unchecked")
   public List<MoveLine> getMoveLineDebtRecovery(Partner partner, Company company) {
     List<MoveLine> moveLineList = new ArrayList<MoveLine>();
 
-    List<MoveLine> moveLineQuery = (List<MoveLine>) this.getMoveLine(partner, company);
+    // Only the due debits may be reminded
+    List<MoveLine> moveLineQuery =
+        moveLineRepo
+            .all()
+            .filter(
+                "self.partner = ?1 AND self.move.company = ?2 AND self.debit > 0 "
+                    + "AND self.dueDate <= ?3 AND self.amountRemaining > 0 "
+                    + "AND self.account.useForPartnerBalance = true",
+                partner,
+                company,
+                appAccountService.getTodayDate())
+            .fetch();
 
     int mailTransitTime = company.getAccountConfig().getMailTransitTime();
 
@@ -394,19 +404,42 @@ public class DebtRecoveryService {
   public boolean debtRecoveryGenerate(Partner partner, Company company)
       throws AxelorException, ClassNotFoundException, InstantiationException,
           IllegalAccessException, IOException {
+
+    BigDecimal balanceDue = accountCustomerService.getBalanceDue(partner, company);
+    BigDecimal balanceDueDebtRecovery =
+        balanceDue.compareTo(BigDecimal.ZERO) > 0
+            ? accountCustomerService.getBalanceDueDebtRecovery(partner, company)
+            : BigDecimal.ZERO;
+
+    return this.debtRecoveryGenerate(partner, company, balanceDue, balanceDueDebtRecovery);
+  }
+
+  /**
+   * Méthode de relance en masse, à partir des soldes exigibles déjà calculés du tiers
+   *
+   * @param partner Un tiers
+   * @param company Une société
+   * @param balanceDue Le solde exigible
+   * @param balanceDueDebtRecovery Le solde exigible relançable
+   * @throws AxelorException
+   * @throws IllegalAccessException
+   * @throws InstantiationException
+   * @throws ClassNotFoundException
+   * @throws IOException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public boolean debtRecoveryGenerate(
+      Partner partner, Company company, BigDecimal balanceDue, BigDecimal balanceDueDebtRecovery)
+      throws AxelorException, ClassNotFoundException, InstantiationException,
+          IllegalAccessException, IOException {
     boolean remindedOk = false;
 
     DebtRecovery debtRecovery = this.getDebtRecovery(partner, company); // getDebtRecovery si existe
 
-    BigDecimal balanceDue = accountCustomerService.getBalanceDue(partner, company);
-
     if (balanceDue.compareTo(BigDecimal.ZERO) > 0) {
 
       log.debug("balanceDue : {} ", balanceDue);
 
-      BigDecimal balanceDueDebtRecovery =
-          accountCustomerService.getBalanceDueDebtRecovery(partner, company);
-
       if (balanceDueDebtRecovery.compareTo(BigDecimal.ZERO) > 0) {
         log.debug("balanceDueDebtRecovery : {} ", balanceDueDebtRecovery);
 
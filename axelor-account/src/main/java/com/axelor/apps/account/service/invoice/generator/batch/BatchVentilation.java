@@ -20,20 +20,41 @@ package com.axelor.apps.account.service.invoice.generator.batch;
 import com.axelor.apps.account.db.Invoice;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.invoice.InvoiceService;
+import com.axelor.apps.base.service.administration.WorkerPool;
 import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.ExceptionOriginRepository;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Ventilate the invoices of an invoice batch.
+ *
+ * <p>An invoice is numbered in the transaction of its ventilation, so that an invoice which cannot
+ * be ventilated does not use a number. The invoice and move sequences of a company are locked from
+ * the numbering to the commit, so the invoices of a company are ventilated one after the other, in
+ * date order so that their numbers follow their dates. The invoices of the different companies are
+ * ventilated in parallel, on {@link #getThreadCount()} workers.
+ */
 public class BatchVentilation extends BatchWkf {
 
   static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  protected static final int PAGE_SIZE = 1000;
+
   @Inject
   public BatchVentilation(InvoiceService invoiceService) {
 
@@ -43,18 +64,95 @@ public class BatchVentilation extends BatchWkf {
   @Override
   protected void process() {
 
-    for (Invoice invoice : invoices(batch.getInvoiceBatch(), true)) {
+    Map<Long, List<Long>> invoiceIdMap = this.getInvoiceIdMap();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (List<Long> companyInvoiceIdList : invoiceIdMap.values()) {
+      tasks.add(
+          () -> {
+            this.ventilate(companyInvoiceIdList);
+            return null;
+          });
+    }
+
+    try (WorkerPool workerPool =
+        new WorkerPool(
+            "batch-" + batch.getId() + "-ventilation",
+            Math.min(getThreadCount(), tasks.size()))) {
+      workerPool.invokeAll(tasks);
+    } catch (AxelorException e) {
+      TraceBackService.trace(e, ExceptionOriginRepository.INVOICE_ORIGIN, batch.getId());
+    }
+    flushCounters();
+  }
+
+  /**
+   * Get the IDs of the invoices to ventilate by company, in invoice date order. The invoices
+   * without date are ventilated at today's date.
+   *
+   * @return the invoice IDs by company ID, in invoice date then ID order
+   */
+  protected Map<Long, List<Long>> getInvoiceIdMap() {
+
+    LocalDate todayDate = appBaseService.getTodayDate();
+    Map<Long, SortedMap<LocalDate, List<Long>>> invoiceIdDateMap = new HashMap<>();
+
+    for (List<Long> invoiceIdPage :
+        Lists.partition(invoiceIds(batch.getInvoiceBatch(), true), PAGE_SIZE)) {
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id, company.id, self.invoiceDate FROM Invoice self "
+                      + "LEFT JOIN self.company company "
+                      + "WHERE self.id IN (:invoiceIds) "
+                      + "ORDER BY self.id",
+                  Object[].class)
+              .setParameter("invoiceIds", invoiceIdPage)
+              .getResultList();
+
+      for (Object[] result : resultList) {
+        LocalDate invoiceDate = result[2] != null ? (LocalDate) result[2] : todayDate;
+        invoiceIdDateMap
+            .computeIfAbsent((Long) result[1], key -> new TreeMap<>())
+            .computeIfAbsent(invoiceDate, key -> new ArrayList<>())
+            .add((Long) result[0]);
+      }
+    }
+
+    Map<Long, List<Long>> invoiceIdMap = new HashMap<>();
+    invoiceIdDateMap.forEach(
+        (companyId, dateMap) -> {
+          List<Long> invoiceIdList = new ArrayList<>();
+          dateMap.values().forEach(invoiceIdList::addAll);
+          invoiceIdMap.put(companyId, invoiceIdList);
+        });
+    return invoiceIdMap;
+  }
+
+  /**
+   * Ventilate the invoices one after the other, counting the invoices which cannot be ventilated
+   * as anomalies. The link between a ventilated invoice and the batch is collected by {@link
+   * #incrementDone()}, before the EntityManager of the worker is cleared, and written on the next
+   * checkpoint.
+   *
+   * @param invoiceIdList
+   */
+  protected void ventilate(List<Long> invoiceIdList) {
+
+    for (Long invoiceId : invoiceIdList) {
+
+      Invoice invoice = invoiceRepo.find(invoiceId);
+      String invoiceNumber = invoice.getInvoiceId();
 
       try {
 
-        invoiceService.ventilate(invoiceRepo.find(invoice.getId()));
-        updateInvoice(invoiceRepo.find(invoice.getId()));
+        invoiceService.ventilate(invoice);
+        updateInvoice(invoice);
 
       } catch (AxelorException e) {
 
         TraceBackService.trace(
-            new AxelorException(
-                e, e.getCategory(), I18n.get("Invoice") + " %s", invoice.getInvoiceId()),
+            new AxelorException(e, e.getCategory(), I18n.get("Invoice") + " %s", invoiceNumber),
             ExceptionOriginRepository.INVOICE_ORIGIN,
             batch.getId());
         incrementAnomaly();
@@ -62,7 +160,7 @@ public class BatchVentilation extends BatchWkf {
       } catch (Exception e) {
 
         TraceBackService.trace(
-            new Exception(String.format(I18n.get("Invoice") + " %s", invoice.getInvoiceId()), e),
+            new Exception(String.format(I18n.get("Invoice") + " %s", invoiceNumber), e),
             ExceptionOriginRepository.INVOICE_ORIGIN,
             batch.getId());
         incrementAnomaly();
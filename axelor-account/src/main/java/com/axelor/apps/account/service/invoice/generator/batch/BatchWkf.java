@@ -26,6 +26,7 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +54,37 @@ public abstract class BatchWkf extends BatchStrategy {
     }
   }
 
+  /**
+   * Get the IDs of the invoices to process, in ID order, without loading them.
+   *
+   * @param invoiceBatch the invoice batch.
+   * @return a list of invoice IDs.
+   */
+  protected static List<Long> invoiceIds(InvoiceBatch invoiceBatch, boolean isTo) {
+
+    if (invoiceBatch.getOnSelectOk()) {
+      return invoiceBatch
+          .getInvoiceSet()
+          .stream()
+          .map(Invoice::getId)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+
+    return Beans.get(InvoiceRepository.class)
+        .all()
+        .filter(
+            "self.company = ?1 AND self.statusSelect = ?2",
+            invoiceBatch.getCompany(),
+            isTo ? invoiceBatch.getToStatusSelect() : invoiceBatch.getFromStatusSelect())
+        .order("id")
+        .select("id")
+        .fetch(0, 0)
+        .stream()
+        .map(m -> (Long) m.get("id"))
+        .collect(Collectors.toList());
+  }
+
   public static List<? extends Invoice> invoiceQuery(InvoiceBatch invoiceBatch, boolean isTo) {
 
     if (invoiceBatch != null) {
@@ -52,6 +52,11 @@ public class CancelState extends WorkflowInvoice {
 
     workflowService.beforeCancel(invoice);
 
+    // Only validated and ventilated invoices are realized in the budgets
+    boolean isBudgetRealized =
+        invoice.getStatusSelect() == InvoiceRepository.STATUS_VALIDATED
+            || invoice.getStatusSelect() == InvoiceRepository.STATUS_VENTILATED;
+
     if (invoice.getStatusSelect() == InvoiceRepository.STATUS_VENTILATED
         && invoice.getCompany().getAccountConfig().getAllowCancelVentilatedInvoice()) {
       cancelMove();
@@ -64,7 +69,9 @@ public class CancelState extends WorkflowInvoice {
       setPfpStatus();
     }
 
-    budgetService.updateBudgetLinesFromInvoice(invoice);
+    if (isBudgetRealized) {
+      budgetService.removeInvoiceFromBudgetLines(invoice);
+    }
 
     workflowService.afterCancel(invoice);
   }
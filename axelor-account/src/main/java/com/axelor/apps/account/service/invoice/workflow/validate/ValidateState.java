@@ -116,7 +116,7 @@ public class ValidateState extends WorkflowInvoice {
       if (!appAccountService.getAppBudget().getManageMultiBudget()) {
         this.generateBudgetDistribution(invoice);
       }
-      budgetService.updateBudgetLinesFromInvoice(invoice);
+      budgetService.addInvoiceToBudgetLines(invoice);
     }
 
     workflowValidationService.afterValidation(invoice);
@@ -0,0 +1,273 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service.move;
+
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.service.AccountCustomerService;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.repo.CompanyRepository;
+import com.axelor.apps.base.db.repo.PartnerRepository;
+import com.axelor.apps.base.service.administration.WorkerPool;
+import com.axelor.db.JPA;
+import com.axelor.db.Query;
+import com.axelor.exception.AxelorException;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validate large sets of account moves.
+ *
+ * <p>The moves are grouped by journal: the moves of a journal are validated in their initial order
+ * by the same task so that their sequences keep the same order, while the journals are processed
+ * in parallel. The moves are loaded by chunks. The changes of the partner balances are summed per
+ * partner and company, and the accounting situations are updated once per partner at the end.
+ */
+public class MoveBulkValidateService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected static final int CHUNK_SIZE = 100;
+
+  protected MoveValidateService moveValidateService;
+  protected MoveCustAccountService moveCustAccountService;
+  protected AccountCustomerService accountCustomerService;
+  protected MoveRepository moveRepository;
+  protected PartnerRepository partnerRepository;
+  protected CompanyRepository companyRepository;
+
+  @Inject
+  public MoveBulkValidateService(
+      MoveValidateService moveValidateService,
+      MoveCustAccountService moveCustAccountService,
+      AccountCustomerService accountCustomerService,
+      MoveRepository moveRepository,
+      PartnerRepository partnerRepository,
+      CompanyRepository companyRepository) {
+    this.moveValidateService = moveValidateService;
+    this.moveCustAccountService = moveCustAccountService;
+    this.accountCustomerService = accountCustomerService;
+    this.moveRepository = moveRepository;
+    this.partnerRepository = partnerRepository;
+    this.companyRepository = companyRepository;
+  }
+
+  /**
+   * Validate the moves of the query, in the order of the query for each journal.
+   *
+   * @param moveQuery
+   * @throws AxelorException
+   */
+  public void validate(Query<Move> moveQuery) throws AxelorException {
+
+    Map<Long, List<Long>> journalMoveIdMap = new LinkedHashMap<>();
+    for (Map<?, ?> row : moveQuery.select("id", "journal.id").fetch(0, 0)) {
+      journalMoveIdMap
+          .computeIfAbsent((Long) row.get("journal.id"), key -> new ArrayList<>())
+          .add((Long) row.get("id"));
+    }
+
+    this.validate(journalMoveIdMap);
+  }
+
+  /**
+   * Validate the moves, in the order of the list for each journal.
+   *
+   * @param moveIdList
+   * @throws AxelorException
+   */
+  public void validate(List<Long> moveIdList) throws AxelorException {
+
+    Map<Long, Long> moveJournalIdMap = new HashMap<>();
+    for (List<Long> moveIdChunk : Lists.partition(moveIdList, CHUNK_SIZE * 10)) {
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id, self.journal.id FROM Move self WHERE self.id IN (:moveIds)",
+                  Object[].class)
+              .setParameter("moveIds", moveIdChunk)
+              .getResultList();
+      for (Object[] result : resultList) {
+        moveJournalIdMap.put((Long) result[0], (Long) result[1]);
+      }
+    }
+
+    Map<Long, List<Long>> journalMoveIdMap = new LinkedHashMap<>();
+    for (Long moveId : moveIdList) {
+      Long journalId = moveJournalIdMap.get(moveId);
+      if (journalId != null) {
+        journalMoveIdMap.computeIfAbsent(journalId, key -> new ArrayList<>()).add(moveId);
+      }
+    }
+
+    this.validate(journalMoveIdMap);
+  }
+
+  protected void validate(Map<Long, List<Long>> journalMoveIdMap) throws AxelorException {
+
+    if (journalMoveIdMap.isEmpty()) {
+      return;
+    }
+
+    Map<Long, Map<Long, BigDecimal>> companyBalanceMap = new ConcurrentHashMap<>();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (List<Long> moveIdList : journalMoveIdMap.values()) {
+      tasks.add(
+          () -> {
+            this.validateJournalMoves(moveIdList, companyBalanceMap);
+            return null;
+          });
+    }
+
+    try (WorkerPool workerPool = new WorkerPool("move-validate")) {
+      workerPool.invokeAll(tasks);
+    } catch (AxelorException | RuntimeException e) {
+      // The partners of the moves validated before the error are updated too, without hiding
+      // the error
+      try {
+        this.updateCustomerAccounts(companyBalanceMap);
+      } catch (AxelorException | RuntimeException updateException) {
+        e.addSuppressed(updateException);
+      }
+      throw e;
+    }
+
+    this.updateCustomerAccounts(companyBalanceMap);
+  }
+
+  /**
+   * Validate the moves of a journal one after the other, and add the changes of the partner
+   * balances by company.
+   *
+   * @param moveIdList
+   * @param companyBalanceMap the change of the balance of each partner ID, by company ID
+   * @throws AxelorException
+   */
+  protected void validateJournalMoves(
+      List<Long> moveIdList, Map<Long, Map<Long, BigDecimal>> companyBalanceMap)
+      throws AxelorException {
+
+    for (List<Long> moveIdChunk : Lists.partition(moveIdList, CHUNK_SIZE)) {
+      Map<Long, Move> moveMap =
+          moveRepository
+              .all()
+              .filter("self.id IN (:moveIds)")
+              .bind("moveIds", moveIdChunk)
+              .fetch()
+              .stream()
+              .collect(Collectors.toMap(Move::getId, Function.identity()));
+
+      try {
+        for (Long moveId : moveIdChunk) {
+          Move move = moveMap.get(moveId);
+          if (move == null) {
+            continue;
+          }
+
+          // The balances are updated at the end: the moves of different journals may share
+          // partners
+          Map<MoveLine, BigDecimal> previousBalanceAmountMap =
+              moveCustAccountService.getBalanceAmountMap(move);
+          moveValidateService.validate(move, false, false);
+
+          Map<Long, BigDecimal> balanceMap =
+              companyBalanceMap.computeIfAbsent(
+                  move.getCompany().getId(), key -> new ConcurrentHashMap<>());
+          for (Partner partner : moveCustAccountService.getPartnerOfMove(move)) {
+            balanceMap.putIfAbsent(partner.getId(), BigDecimal.ZERO);
+          }
+          for (MoveLine moveLine : move.getMoveLineList()) {
+            BigDecimal amount =
+                accountCustomerService
+                    .getBalanceAmount(moveLine)
+                    .subtract(previousBalanceAmountMap.getOrDefault(moveLine, BigDecimal.ZERO));
+            if (amount.signum() != 0) {
+              balanceMap.merge(moveLine.getPartner().getId(), amount, BigDecimal::add);
+            }
+          }
+        }
+      } finally {
+        JPA.clear();
+      }
+    }
+  }
+
+  /**
+   * Add the changes to the partner balances and update the accounting situations of the partners,
+   * by company. The partners are updated in the order of their ID, so that concurrent bulk
+   * validations lock their accounting situations in the same order.
+   *
+   * @param companyBalanceMap the change of the balance of each partner ID, by company ID
+   * @throws AxelorException
+   */
+  protected void updateCustomerAccounts(Map<Long, Map<Long, BigDecimal>> companyBalanceMap)
+      throws AxelorException {
+
+    for (Map.Entry<Long, Map<Long, BigDecimal>> entry : companyBalanceMap.entrySet()) {
+      log.debug(
+          "Update of the accounting situations of {} partner(s) of the company {}",
+          entry.getValue().size(),
+          entry.getKey());
+
+      Map<Long, BigDecimal> balanceMap = new TreeMap<>(entry.getValue());
+      for (List<Long> partnerIdChunk :
+          Lists.partition(new ArrayList<>(balanceMap.keySet()), CHUNK_SIZE)) {
+        this.updateCustomerAccounts(entry.getKey(), partnerIdChunk, balanceMap);
+        JPA.clear();
+      }
+    }
+  }
+
+  @Transactional(rollbackOn = {Exception.class})
+  protected void updateCustomerAccounts(
+      Long companyId, List<Long> partnerIdList, Map<Long, BigDecimal> balanceMap)
+      throws AxelorException {
+
+    Company company = companyRepository.find(companyId);
+    List<Partner> partnerList = new ArrayList<>();
+    for (Long partnerId : partnerIdList) {
+      Partner partner = partnerRepository.find(partnerId);
+      BigDecimal amount = balanceMap.get(partnerId);
+      if (amount.signum() != 0) {
+        accountCustomerService.addToBalance(partner, company, amount);
+      }
+      partnerList.add(partner);
+    }
+
+    // The balances are up to date, only the balances due are left
+    moveCustAccountService.updateCustomerAccount(partnerList, company, false);
+  }
+}
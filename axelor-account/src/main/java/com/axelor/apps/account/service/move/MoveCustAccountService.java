@@ -26,8 +26,11 @@ import com.axelor.apps.base.db.Partner;
 import com.axelor.exception.AxelorException;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MoveCustAccountService {
 
@@ -57,18 +60,68 @@ public class MoveCustAccountService {
    * @param company
    * @throws AxelorException
    */
-  @Transactional(rollbackOn = {Exception.class})
   public void updateCustomerAccount(List<Partner> partnerList, Company company)
       throws AxelorException {
 
+    this.updateCustomerAccount(partnerList, company, true);
+  }
+
+  /**
+   * Update the partner balances for the company and partner list
+   *
+   * @param partnerList
+   * @param company
+   * @param updateBalance false if the balances are up to date and only the balances due must be
+   *     computed
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public void updateCustomerAccount(
+      List<Partner> partnerList, Company company, boolean updateBalance) throws AxelorException {
+
     if (AccountingService.getUpdateCustomerAccount()) {
       accountCustomerService.updatePartnerAccountingSituation(
-          partnerList, company, true, true, false);
+          partnerList, company, updateBalance, true, false);
     } else {
       this.flagPartners(partnerList, company);
     }
   }
 
+  /**
+   * Get the amount of each move line of the move in the partner balances, to update the balances
+   * after a change of the move with {@link #updateBalance(Move, Map)}.
+   *
+   * @param move
+   * @return The amount in the partner balance of each move line
+   */
+  public Map<MoveLine, BigDecimal> getBalanceAmountMap(Move move) {
+    Map<MoveLine, BigDecimal> balanceAmountMap = new IdentityHashMap<>();
+    if (move.getMoveLineList() != null) {
+      for (MoveLine moveLine : move.getMoveLineList()) {
+        balanceAmountMap.put(moveLine, accountCustomerService.getBalanceAmount(moveLine));
+      }
+    }
+    return balanceAmountMap;
+  }
+
+  /**
+   * Update the partner balances with the changes of the move lines of the move
+   *
+   * @param move
+   * @param previousBalanceAmountMap The amounts given by {@link #getBalanceAmountMap(Move)} before
+   *     the change
+   * @throws AxelorException
+   */
+  public void updateBalance(Move move, Map<MoveLine, BigDecimal> previousBalanceAmountMap)
+      throws AxelorException {
+    if (move.getMoveLineList() != null) {
+      for (MoveLine moveLine : move.getMoveLineList()) {
+        accountCustomerService.updateBalance(
+            moveLine, previousBalanceAmountMap.getOrDefault(moveLine, BigDecimal.ZERO));
+      }
+    }
+  }
+
   /**
    * Get the distinct partners of an account move that impact the partner balances
    *
@@ -0,0 +1,351 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service.move;
+
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.Reconcile;
+import com.axelor.apps.account.db.repo.MoveLineRepository;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.service.ReconcileService;
+import com.axelor.apps.base.service.administration.WorkerPool;
+import com.axelor.db.JPA;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.service.TraceBackService;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconcile large sets of move lines.
+ *
+ * <p>The open move lines are read with projection queries and grouped by company, account and
+ * partner. In each group, debit and credit move lines are matched in memory, exact amounts first
+ * and then by date, before the reconciliations are created in chunks. The groups of different
+ * partners are processed in parallel.
+ */
+public class MoveLineBulkReconcileService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected static final int CHUNK_SIZE = 1000;
+  protected static final int RECONCILE_CHUNK_SIZE = 100;
+
+  protected ReconcileService reconcileService;
+  protected MoveLineRepository moveLineRepository;
+
+  @Inject
+  public MoveLineBulkReconcileService(
+      ReconcileService reconcileService, MoveLineRepository moveLineRepository) {
+    this.reconcileService = reconcileService;
+    this.moveLineRepository = moveLineRepository;
+  }
+
+  /**
+   * An open move line, with the amount which can still be reconciled and, for a debit, the maximum
+   * amount of its first reconciliation.
+   */
+  protected static class OpenMoveLine {
+    protected final Long id;
+    protected final LocalDate date;
+    protected BigDecimal amount;
+    protected BigDecimal maxAmountToReconcile;
+
+    protected OpenMoveLine(Long id, LocalDate date, BigDecimal amount) {
+      this.id = id;
+      this.date = date;
+      this.amount = amount;
+    }
+  }
+
+  /** A reconciliation to create between a debit and a credit move line. */
+  protected static class ReconcileMatch {
+    protected final Long debitMoveLineId;
+    protected final Long creditMoveLineId;
+    protected final BigDecimal amount;
+    protected boolean canBeZeroBalanceOk;
+
+    protected ReconcileMatch(Long debitMoveLineId, Long creditMoveLineId, BigDecimal amount) {
+      this.debitMoveLineId = debitMoveLineId;
+      this.creditMoveLineId = creditMoveLineId;
+      this.amount = amount;
+    }
+  }
+
+  /**
+   * Reconcile the open debit and credit move lines among the given move lines, by company, account
+   * and partner.
+   *
+   * @param moveLineIds the move lines to reconcile
+   * @return the number of reconciliations created
+   * @throws AxelorException
+   */
+  public int reconcile(Collection<Long> moveLineIds) throws AxelorException {
+
+    Map<List<Long>, Pair<List<OpenMoveLine>, List<OpenMoveLine>>> groupMap =
+        this.getOpenMoveLineGroups(moveLineIds);
+
+    // The groups of a partner update the same accounting situation, so they are processed by the
+    // same task
+    Map<List<Long>, List<Pair<List<OpenMoveLine>, List<OpenMoveLine>>>> partnerGroupMap =
+        new LinkedHashMap<>();
+    for (Map.Entry<List<Long>, Pair<List<OpenMoveLine>, List<OpenMoveLine>>> entry :
+        groupMap.entrySet()) {
+      List<Long> key = entry.getKey();
+      partnerGroupMap
+          .computeIfAbsent(Arrays.asList(key.get(0), key.get(2)), k -> new ArrayList<>())
+          .add(entry.getValue());
+    }
+
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (List<Pair<List<OpenMoveLine>, List<OpenMoveLine>>> groupList : partnerGroupMap.values()) {
+      tasks.add(() -> this.reconcileGroups(groupList));
+    }
+    if (tasks.isEmpty()) {
+      return 0;
+    }
+
+    try (WorkerPool workerPool = new WorkerPool("reconcile")) {
+      int count = workerPool.invokeAll(tasks).stream().mapToInt(Integer::intValue).sum();
+      log.debug("{} reconciliations created for {} move lines", count, moveLineIds.size());
+      return count;
+    }
+  }
+
+  /**
+   * Read the open move lines which can be reconciled, grouped by company, account and partner.
+   *
+   * @param moveLineIds the move lines
+   * @return the debit and credit move lines of each group
+   */
+  protected Map<List<Long>, Pair<List<OpenMoveLine>, List<OpenMoveLine>>> getOpenMoveLineGroups(
+      Collection<Long> moveLineIds) {
+
+    Map<List<Long>, Pair<List<OpenMoveLine>, List<OpenMoveLine>>> groupMap = new LinkedHashMap<>();
+
+    for (List<Long> moveLineIdChunk :
+        Lists.partition(new ArrayList<>(new HashSet<>(moveLineIds)), CHUNK_SIZE)) {
+
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id, move.company.id, account.id, partner.id, self.date, "
+                      + "self.debit, self.amountRemaining, self.maxAmountToReconcile "
+                      + "FROM MoveLine self JOIN self.move move JOIN self.account account "
+                      + "LEFT JOIN self.partner partner "
+                      + "WHERE self.id IN (:moveLineIds) AND account.reconcileOk = true "
+                      + "AND move.statusSelect IN (:statusList) AND self.amountRemaining > 0 "
+                      + "AND ((self.debit > 0 AND self.credit = 0) "
+                      + "OR (self.credit > 0 AND self.debit = 0))",
+                  Object[].class)
+              .setParameter("moveLineIds", moveLineIdChunk)
+              .setParameter(
+                  "statusList",
+                  Arrays.asList(MoveRepository.STATUS_VALIDATED, MoveRepository.STATUS_DAYBOOK))
+              .getResultList();
+
+      for (Object[] result : resultList) {
+        Pair<List<OpenMoveLine>, List<OpenMoveLine>> group =
+            groupMap.computeIfAbsent(
+                Arrays.asList((Long) result[1], (Long) result[2], (Long) result[3]),
+                k -> Pair.of(new ArrayList<>(), new ArrayList<>()));
+
+        boolean isDebit = ((BigDecimal) result[5]).signum() > 0;
+        OpenMoveLine openMoveLine =
+            new OpenMoveLine((Long) result[0], (LocalDate) result[4], (BigDecimal) result[6]);
+        BigDecimal maxAmountToReconcile = (BigDecimal) result[7];
+        if (isDebit && maxAmountToReconcile != null && maxAmountToReconcile.signum() > 0) {
+          openMoveLine.maxAmountToReconcile = maxAmountToReconcile;
+        }
+
+        if (isDebit) {
+          group.getLeft().add(openMoveLine);
+        } else {
+          group.getRight().add(openMoveLine);
+        }
+      }
+    }
+
+    return groupMap;
+  }
+
+  /**
+   * Create the reconciliations of the groups, one transaction per chunk. When a chunk fails, it is
+   * rolled back and its reconciliations are created again one by one, so only the failing ones
+   * are lost.
+   */
+  protected int reconcileGroups(List<Pair<List<OpenMoveLine>, List<OpenMoveLine>>> groupList) {
+
+    // the session of the worker ends with the task
+    JPA.em().unwrap(Session.class).setJdbcBatchSize(RECONCILE_CHUNK_SIZE);
+
+    int count = 0;
+    for (Pair<List<OpenMoveLine>, List<OpenMoveLine>> group : groupList) {
+      List<ReconcileMatch> matchList = this.match(group.getLeft(), group.getRight());
+      for (List<ReconcileMatch> matchChunk : Lists.partition(matchList, RECONCILE_CHUNK_SIZE)) {
+        try {
+          count += this.createReconciles(matchChunk);
+        } catch (Exception e) {
+          JPA.clear();
+          count += this.createReconcilesOneByOne(matchChunk);
+        } finally {
+          JPA.clear();
+        }
+      }
+    }
+    return count;
+  }
+
+  protected int createReconcilesOneByOne(List<ReconcileMatch> matchList) {
+
+    int count = 0;
+    for (ReconcileMatch match : matchList) {
+      try {
+        count += this.createReconciles(Collections.singletonList(match));
+      } catch (Exception e) {
+        TraceBackService.trace(e);
+        log.debug(e.getMessage());
+      } finally {
+        JPA.clear();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Match the debit and credit move lines of a group. A credit first pays the oldest debit of the
+   * same amount, then the remaining move lines are matched by date.
+   *
+   * <p>As when paying, the maximum amount to reconcile of a debit only limits its first
+   * reconciliation.
+   *
+   * @param debitList the debit move lines
+   * @param creditList the credit move lines
+   * @return the reconciliations to create
+   */
+  protected List<ReconcileMatch> match(
+      List<OpenMoveLine> debitList, List<OpenMoveLine> creditList) {
+
+    Comparator<OpenMoveLine> byDate =
+        Comparator.comparing(
+                (OpenMoveLine openMoveLine) -> openMoveLine.date,
+                Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(openMoveLine -> openMoveLine.id);
+    debitList.sort(byDate);
+    creditList.sort(byDate);
+
+    List<ReconcileMatch> matchList = new ArrayList<>();
+
+    Map<BigDecimal, Deque<OpenMoveLine>> debitAmountMap = new HashMap<>();
+    for (OpenMoveLine debit : debitList) {
+      debitAmountMap
+          .computeIfAbsent(debit.amount.stripTrailingZeros(), k -> new ArrayDeque<>())
+          .add(debit);
+    }
+    for (OpenMoveLine credit : creditList) {
+      Deque<OpenMoveLine> debitDeque = debitAmountMap.get(credit.amount.stripTrailingZeros());
+      if (debitDeque != null && !debitDeque.isEmpty()) {
+        matchList.add(this.match(debitDeque.poll(), credit));
+      }
+    }
+
+    int debitIndex = 0;
+    int creditIndex = 0;
+    while (debitIndex < debitList.size() && creditIndex < creditList.size()) {
+      OpenMoveLine debit = debitList.get(debitIndex);
+      OpenMoveLine credit = creditList.get(creditIndex);
+      if (debit.amount.signum() <= 0) {
+        debitIndex++;
+      } else if (credit.amount.signum() <= 0) {
+        creditIndex++;
+      } else {
+        matchList.add(this.match(debit, credit));
+      }
+    }
+
+    // As when using excess payments, only the last reconciliation can be balanced to zero
+    if (!matchList.isEmpty()) {
+      matchList.get(matchList.size() - 1).canBeZeroBalanceOk = true;
+    }
+
+    return matchList;
+  }
+
+  protected ReconcileMatch match(OpenMoveLine debit, OpenMoveLine credit) {
+
+    BigDecimal amount = debit.amount.min(credit.amount);
+    if (debit.maxAmountToReconcile != null) {
+      amount = amount.min(debit.maxAmountToReconcile);
+      debit.maxAmountToReconcile = null;
+    }
+    debit.amount = debit.amount.subtract(amount);
+    credit.amount = credit.amount.subtract(amount);
+    return new ReconcileMatch(debit.id, credit.id, amount);
+  }
+
+  @Transactional(rollbackOn = {Exception.class})
+  protected int createReconciles(List<ReconcileMatch> matchList) throws AxelorException {
+
+    Set<Long> moveLineIdSet = new HashSet<>();
+    for (ReconcileMatch match : matchList) {
+      moveLineIdSet.add(match.debitMoveLineId);
+      moveLineIdSet.add(match.creditMoveLineId);
+    }
+    Map<Long, MoveLine> moveLineMap =
+        moveLineRepository.all().filter("self.id IN (?1)", moveLineIdSet).fetch().stream()
+            .collect(Collectors.toMap(MoveLine::getId, Function.identity()));
+
+    int count = 0;
+    for (ReconcileMatch match : matchList) {
+      MoveLine debitMoveLine = moveLineMap.get(match.debitMoveLineId);
+      MoveLine creditMoveLine = moveLineMap.get(match.creditMoveLineId);
+      debitMoveLine.setMaxAmountToReconcile(null);
+
+      Reconcile reconcile =
+          reconcileService.createReconcile(
+              debitMoveLine, creditMoveLine, match.amount, match.canBeZeroBalanceOk);
+      if (reconcile != null) {
+        reconcileService.confirmReconcile(reconcile, true);
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -51,10 +51,8 @@ import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.base.service.config.CompanyConfigService;
 import com.axelor.apps.tool.StringTool;
 import com.axelor.common.ObjectUtils;
-import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
-import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
 import com.google.inject.Inject;
@@ -64,10 +62,12 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -605,74 +605,17 @@ public class MoveLineService {
     return moveLines;
   }
 
-  public MoveLine findConsolidateMoveLine(
-      Map<List<Object>, MoveLine> map, MoveLine moveLine, List<Object> keys) {
-    if (map != null && !map.isEmpty()) {
-
-      Map<List<Object>, MoveLine> copyMap = new HashMap<List<Object>, MoveLine>(map);
-      while (!copyMap.isEmpty()) {
-
-        if (map.containsKey(keys)) {
-
-          MoveLine moveLineIt = map.get(keys);
-          int count = 0;
-          if (moveLineIt.getAnalyticMoveLineList() == null
-              && moveLine.getAnalyticMoveLineList() == null) {
-            return moveLineIt;
-          } else if (moveLineIt.getAnalyticMoveLineList() == null
-              || moveLine.getAnalyticMoveLineList() == null) {
-            break;
-          }
-          List<AnalyticMoveLine> list1 = moveLineIt.getAnalyticMoveLineList();
-          List<AnalyticMoveLine> list2 = moveLine.getAnalyticMoveLineList();
-          List<AnalyticMoveLine> copyList = new ArrayList<AnalyticMoveLine>(list1);
-          if (list1.size() == list2.size()) {
-            for (AnalyticMoveLine analyticDistributionLine : list2) {
-              for (AnalyticMoveLine analyticDistributionLineIt : copyList) {
-                if (analyticDistributionLine
-                        .getAnalyticAxis()
-                        .equals(analyticDistributionLineIt.getAnalyticAxis())
-                    && analyticDistributionLine
-                        .getAnalyticAccount()
-                        .equals(analyticDistributionLineIt.getAnalyticAccount())
-                    && analyticDistributionLine
-                        .getAccount()
-                        .equals(analyticDistributionLineIt.getAccount())
-                    && analyticDistributionLine
-                        .getPercentage()
-                        .equals(analyticDistributionLineIt.getPercentage())
-                    && ((analyticDistributionLine.getAnalyticJournal() == null
-                            && analyticDistributionLineIt.getAnalyticJournal() == null)
-                        || analyticDistributionLine
-                            .getAnalyticJournal()
-                            .equals(analyticDistributionLineIt.getAnalyticJournal()))) {
-                  copyList.remove(analyticDistributionLineIt);
-                  count++;
-                  break;
-                }
-              }
-            }
-            if (count == list1.size()) {
-              return moveLineIt;
-            }
-          }
-        } else {
-          return null;
-        }
-      }
-    }
-
-    return null;
-  }
-
   /**
    * Consolider des lignes d'écritures par compte comptable.
    *
+   * <p>Move lines are consolidated by account, tax line, analytic distribution template and
+   * analytic signature, so that the move line to consolidate into is found by a single hash lookup.
+   *
    * @param moveLines
    */
   public List<MoveLine> consolidateMoveLines(List<MoveLine> moveLines) {
 
-    Map<List<Object>, MoveLine> map = new HashMap<List<Object>, MoveLine>();
+    Map<List<Object>, MoveLine> map = new LinkedHashMap<List<Object>, MoveLine>();
     MoveLine consolidateMoveLine = null;
 
     for (MoveLine moveLine : moveLines) {
@@ -682,8 +625,9 @@ public class MoveLineService {
       keys.add(moveLine.getAccount());
       keys.add(moveLine.getTaxLine());
       keys.add(moveLine.getAnalyticDistributionTemplate());
+      keys.add(this.getAnalyticSignature(moveLine));
 
-      consolidateMoveLine = this.findConsolidateMoveLine(map, moveLine, keys);
+      consolidateMoveLine = map.get(keys);
       if (consolidateMoveLine != null) {
 
         BigDecimal consolidateCurrencyAmount = BigDecimal.ZERO;
@@ -714,37 +658,7 @@ public class MoveLineService {
         consolidateMoveLine.setCredit(consolidateMoveLine.getCredit().add(moveLine.getCredit()));
         consolidateMoveLine.setDebit(consolidateMoveLine.getDebit().add(moveLine.getDebit()));
 
-        if (consolidateMoveLine.getAnalyticMoveLineList() != null
-            && !consolidateMoveLine.getAnalyticMoveLineList().isEmpty()) {
-          for (AnalyticMoveLine analyticDistributionLine :
-              consolidateMoveLine.getAnalyticMoveLineList()) {
-            for (AnalyticMoveLine analyticDistributionLineIt : moveLine.getAnalyticMoveLineList()) {
-              if (analyticDistributionLine
-                      .getAnalyticAxis()
-                      .equals(analyticDistributionLineIt.getAnalyticAxis())
-                  && analyticDistributionLine
-                      .getAnalyticAccount()
-                      .equals(analyticDistributionLineIt.getAnalyticAccount())
-                  && analyticDistributionLine
-                      .getAccount()
-                      .equals(analyticDistributionLineIt.getAccount())
-                  && analyticDistributionLine
-                      .getPercentage()
-                      .equals(analyticDistributionLineIt.getPercentage())
-                  && ((analyticDistributionLine.getAnalyticJournal() == null
-                          && analyticDistributionLineIt.getAnalyticJournal() == null)
-                      || analyticDistributionLine
-                          .getAnalyticJournal()
-                          .equals(analyticDistributionLineIt.getAnalyticJournal()))) {
-                analyticDistributionLine.setAmount(
-                    analyticDistributionLine
-                        .getAmount()
-                        .add(analyticDistributionLineIt.getAmount()));
-                break;
-              }
-            }
-          }
-        }
+        this.consolidateAnalyticMoveLines(consolidateMoveLine, moveLine);
       } else {
         map.put(keys, moveLine);
       }
@@ -786,6 +700,64 @@ public class MoveLineService {
     return moveLines;
   }
 
+  /**
+   * Compute the analytic signature of a move line: its analytic move lines counted by {@link
+   * #getAnalyticKey(AnalyticMoveLine)}, whatever their order. Two move lines with the same
+   * signature have the same analytic distribution.
+   *
+   * @param moveLine
+   * @return the signature, null if the move line has no analytic move line list
+   */
+  protected Map<List<Object>, Integer> getAnalyticSignature(MoveLine moveLine) {
+    if (moveLine.getAnalyticMoveLineList() == null) {
+      return null;
+    }
+
+    Map<List<Object>, Integer> analyticSignature = new HashMap<>();
+    for (AnalyticMoveLine analyticMoveLine : moveLine.getAnalyticMoveLineList()) {
+      analyticSignature.merge(getAnalyticKey(analyticMoveLine), 1, Integer::sum);
+    }
+    return analyticSignature;
+  }
+
+  protected List<Object> getAnalyticKey(AnalyticMoveLine analyticMoveLine) {
+    return Arrays.asList(
+        analyticMoveLine.getAnalyticAxis(),
+        analyticMoveLine.getAnalyticAccount(),
+        analyticMoveLine.getAccount(),
+        analyticMoveLine.getPercentage(),
+        analyticMoveLine.getAnalyticJournal());
+  }
+
+  /**
+   * Add the analytic amounts of a move line to the matching analytic move lines of the move line
+   * it is consolidated into.
+   *
+   * @param consolidateMoveLine
+   * @param moveLine a move line with the same analytic signature
+   */
+  protected void consolidateAnalyticMoveLines(MoveLine consolidateMoveLine, MoveLine moveLine) {
+    if (consolidateMoveLine.getAnalyticMoveLineList() == null
+        || consolidateMoveLine.getAnalyticMoveLineList().isEmpty()) {
+      return;
+    }
+
+    Map<List<Object>, AnalyticMoveLine> analyticMoveLineMap = new HashMap<>();
+    for (AnalyticMoveLine analyticMoveLine : moveLine.getAnalyticMoveLineList()) {
+      analyticMoveLineMap.putIfAbsent(getAnalyticKey(analyticMoveLine), analyticMoveLine);
+    }
+
+    for (AnalyticMoveLine analyticDistributionLine :
+        consolidateMoveLine.getAnalyticMoveLineList()) {
+      AnalyticMoveLine analyticDistributionLineIt =
+          analyticMoveLineMap.get(getAnalyticKey(analyticDistributionLine));
+      if (analyticDistributionLineIt != null) {
+        analyticDistributionLine.setAmount(
+            analyticDistributionLine.getAmount().add(analyticDistributionLineIt.getAmount()));
+      }
+    }
+  }
+
   /**
    * Fonction permettant de récuperer la ligne d'écriture (au credit et non complétement lettrée sur
    * le compte client) de la facture
@@ -946,53 +918,17 @@ public class MoveLineService {
   }
 
   /**
-   * Method used to reconcile the move line list passed as a parameter
+   * Method used to reconcile the move line list passed as a parameter, with the bulk reconcile
+   * engine
    *
    * @param moveLineList
+   * @throws AxelorException
    */
-  public void reconcileMoveLinesWithCacheManagement(List<MoveLine> moveLineList) {
-
-    List<MoveLine> reconciliableCreditMoveLineList = getReconciliableCreditMoveLines(moveLineList);
-    List<MoveLine> reconciliableDebitMoveLineList = getReconciliableDebitMoveLines(moveLineList);
-
-    Map<List<Object>, Pair<List<MoveLine>, List<MoveLine>>> moveLineMap = new HashMap<>();
-
-    populateCredit(moveLineMap, reconciliableCreditMoveLineList);
-
-    populateDebit(moveLineMap, reconciliableDebitMoveLineList);
-
-    Comparator<MoveLine> byDate = Comparator.comparing(MoveLine::getDate);
-
-    PaymentService paymentService = Beans.get(PaymentService.class);
-
-    for (Pair<List<MoveLine>, List<MoveLine>> moveLineLists : moveLineMap.values()) {
-      try {
-        moveLineLists = this.findMoveLineLists(moveLineLists);
-        this.useExcessPaymentOnMoveLinesDontThrow(byDate, paymentService, moveLineLists);
-      } catch (Exception e) {
-        TraceBackService.trace(e);
-        log.debug(e.getMessage());
-      } finally {
-        JPA.clear();
-      }
-    }
-  }
+  public void reconcileMoveLinesWithCacheManagement(List<MoveLine> moveLineList)
+      throws AxelorException {
 
-  protected Pair<List<MoveLine>, List<MoveLine>> findMoveLineLists(
-      Pair<List<MoveLine>, List<MoveLine>> moveLineLists) {
-    List<MoveLine> fetchedDebitMoveLineList =
-        moveLineLists
-            .getLeft()
-            .stream()
-            .map(moveLine -> moveLineRepository.find(moveLine.getId()))
-            .collect(Collectors.toList());
-    List<MoveLine> fetchedCreditMoveLineList =
-        moveLineLists
-            .getRight()
-            .stream()
-            .map(moveLine -> moveLineRepository.find(moveLine.getId()))
-            .collect(Collectors.toList());
-    return Pair.of(fetchedDebitMoveLineList, fetchedCreditMoveLineList);
+    Beans.get(MoveLineBulkReconcileService.class)
+        .reconcile(moveLineList.stream().map(MoveLine::getId).collect(Collectors.toList()));
   }
 
   @Transactional
@@ -1020,19 +956,6 @@ public class MoveLineService {
     }
   }
 
-  @Transactional
-  protected void useExcessPaymentOnMoveLinesDontThrow(
-      Comparator<MoveLine> byDate,
-      PaymentService paymentService,
-      Pair<List<MoveLine>, List<MoveLine>> moveLineLists) {
-    List<MoveLine> companyPartnerCreditMoveLineList = moveLineLists.getLeft();
-    List<MoveLine> companyPartnerDebitMoveLineList = moveLineLists.getRight();
-    companyPartnerCreditMoveLineList.sort(byDate);
-    companyPartnerDebitMoveLineList.sort(byDate);
-    paymentService.useExcessPaymentOnMoveLinesDontThrow(
-        companyPartnerDebitMoveLineList, companyPartnerCreditMoveLineList);
-  }
-
   private void populateCredit(
       Map<List<Object>, Pair<List<MoveLine>, List<MoveLine>>> moveLineMap,
       List<MoveLine> reconciliableMoveLineList) {
@@ -46,7 +46,9 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -212,6 +214,21 @@ public class MoveValidateService {
   @Transactional(rollbackOn = {Exception.class})
   public void validate(Move move, boolean updateCustomerAccount) throws AxelorException {
 
+    this.validate(move, updateCustomerAccount, true);
+  }
+
+  /**
+   * Validate an account move.
+   *
+   * @param move
+   * @param updateCustomerAccount
+   * @param updateBalance false if the caller updates the partner balances itself
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public void validate(Move move, boolean updateCustomerAccount, boolean updateBalance)
+      throws AxelorException {
+
     log.debug("Validation de l'écriture comptable {}", move.getReference());
 
     this.checkPreconditions(move);
@@ -238,12 +255,21 @@ public class MoveValidateService {
 
     this.freezeAccountAndPartnerFieldsOnMoveLines(move);
 
+    Map<MoveLine, BigDecimal> previousBalanceAmountMap =
+        moveCustAccountService.getBalanceAmountMap(move);
+
     this.updateValidateStatus(move, dayBookMode);
 
     moveRepository.save(move);
 
+    // The partner balances are kept up to date even if the customer account is not updated
+    if (updateBalance) {
+      moveCustAccountService.updateBalance(move, previousBalanceAmountMap);
+    }
+
     if (updateCustomerAccount) {
-      moveCustAccountService.updateCustomerAccount(move);
+      moveCustAccountService.updateCustomerAccount(
+          moveCustAccountService.getPartnerOfMove(move), move.getCompany(), false);
     }
   }
 
@@ -376,11 +402,8 @@ public class MoveValidateService {
       return error;
     }
     try {
-      for (Move move : moveList) {
-
-        validate(moveRepository.find(move.getId()));
-        JPA.clear();
-      }
+      Beans.get(MoveBulkValidateService.class)
+          .validate(moveList.stream().map(Move::getId).collect(Collectors.toList()));
     } catch (Exception e) {
       TraceBackService.trace(e);
       error = true;
@@ -390,12 +413,7 @@ public class MoveValidateService {
   }
 
   public void validateMultiple(Query<Move> moveListQuery) throws AxelorException {
-    Move move;
-
-    while (!((move = moveListQuery.fetchOne()) == null)) {
-      validate(move);
-      JPA.clear();
-    }
+    Beans.get(MoveBulkValidateService.class).validate(moveListQuery);
   }
 
   private String getPartnerFullName(Partner partner) {
@@ -0,0 +1,259 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import com.axelor.apps.account.db.Budget;
+import com.axelor.apps.account.db.BudgetDistribution;
+import com.axelor.apps.account.db.BudgetLine;
+import com.axelor.apps.account.db.Invoice;
+import com.axelor.apps.account.db.InvoiceLine;
+import com.axelor.apps.account.db.repo.InvoiceRepository;
+import com.axelor.apps.account.test.TestAccountCustomerBalance.MyModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Currency;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestBudgetService {
+
+  private List<Model> createdList;
+
+  private Long invoiceId;
+  private Long budgetId;
+  private Long otherBudgetId;
+  private Long januaryLineId;
+  private Long februaryLineId;
+  private Long quarterLineId;
+
+  private BudgetService budgetService;
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Budget company");
+          company.setCode("BUDCO");
+          save(company);
+
+          Partner partner = new Partner();
+          partner.setName("Budget partner");
+          save(partner);
+
+          Currency currency = new Currency();
+          currency.setName("Budget currency");
+          currency.setCode("BUD");
+          save(currency);
+
+          Budget budget = createBudget("Budget");
+          budgetId = budget.getId();
+          januaryLineId = saveLine(budget, "2020-01-01", "2020-01-31").getId();
+          februaryLineId = saveLine(budget, "2020-02-01", "2020-02-29").getId();
+          Budget otherBudget = createBudget("Other budget");
+          otherBudgetId = otherBudget.getId();
+          quarterLineId = saveLine(otherBudget, "2020-01-01", "2020-03-31").getId();
+
+          Invoice invoice = new Invoice();
+          invoice.setOperationTypeSelect(InvoiceRepository.OPERATION_TYPE_SUPPLIER_PURCHASE);
+          invoice.setCompany(company);
+          invoice.setPartner(partner);
+          invoice.setCurrency(currency);
+          invoice.setInvoiceDate(date("2020-02-10"));
+          invoice.setStatusSelect(InvoiceRepository.STATUS_VALIDATED);
+          invoiceId = save(invoice).getId();
+
+          createDistribution(createInvoiceLine(invoice), budget, "100");
+          InvoiceLine invoiceLine = createInvoiceLine(invoice);
+          createDistribution(invoiceLine, budget, "40");
+          createDistribution(invoiceLine, otherBudget, "25");
+        });
+    JPA.clear();
+
+    budgetService = Beans.get(BudgetService.class);
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testInvoiceAddedAndRemoved() {
+    budgetService.addInvoiceToBudgetLines(JPA.find(Invoice.class, invoiceId));
+    JPA.clear();
+
+    assertAmountRealized(januaryLineId, "0");
+    assertAmountRealized(februaryLineId, "140");
+    assertAmountRealized(quarterLineId, "25");
+    assertTotalAmountRealized(budgetId, "140");
+    assertTotalAmountRealized(otherBudgetId, "25");
+
+    // the full recompute finds the same amounts
+    budgetService.updateBudgetLinesFromInvoice(JPA.find(Invoice.class, invoiceId));
+    JPA.clear();
+
+    assertAmountRealized(januaryLineId, "0");
+    assertAmountRealized(februaryLineId, "140");
+    assertAmountRealized(quarterLineId, "25");
+
+    budgetService.removeInvoiceFromBudgetLines(JPA.find(Invoice.class, invoiceId));
+    JPA.clear();
+
+    assertAmountRealized(februaryLineId, "0");
+    assertAmountRealized(quarterLineId, "0");
+    assertTotalAmountRealized(budgetId, "0");
+    assertTotalAmountRealized(otherBudgetId, "0");
+  }
+
+  @Test
+  public void testLinesByPeriod() {
+    Budget budget = new Budget();
+    BudgetLine march = createLine(budget, "2020-03-01", "2020-03-31");
+    BudgetLine january = createLine(budget, "2020-01-01", "2020-01-31");
+    BudgetLine february = createLine(budget, "2020-02-01", "2020-02-29");
+    createLine(budget, null, null);
+
+    Assert.assertEquals(Optional.of(january), find(budget, "2020-01-01"));
+    Assert.assertEquals(Optional.of(february), find(budget, "2020-02-15"));
+    Assert.assertEquals(Optional.of(february), find(budget, "2020-02-29"));
+    Assert.assertEquals(Optional.of(march), find(budget, "2020-03-31"));
+    Assert.assertEquals(Optional.empty(), find(budget, "2019-12-31"));
+    Assert.assertEquals(Optional.empty(), find(budget, "2020-04-01"));
+  }
+
+  @Test
+  public void testLinesWithGap() {
+    Budget budget = new Budget();
+    createLine(budget, "2020-01-01", "2020-01-31");
+    BudgetLine march = createLine(budget, "2020-03-01", "2020-03-31");
+
+    Assert.assertEquals(Optional.empty(), find(budget, "2020-02-15"));
+    Assert.assertEquals(Optional.of(march), find(budget, "2020-03-01"));
+  }
+
+  @Test
+  public void testOverlappingLinesInListOrder() {
+    Budget budget = new Budget();
+    BudgetLine quarter = createLine(budget, "2020-01-01", "2020-03-31");
+    BudgetLine february = createLine(budget, "2020-02-01", "2020-02-29");
+
+    Assert.assertEquals(Optional.of(quarter), find(budget, "2020-02-15"));
+
+    budget = new Budget();
+    february = createLine(budget, "2020-02-01", "2020-02-29");
+    quarter = createLine(budget, "2020-01-01", "2020-03-31");
+
+    Assert.assertEquals(Optional.of(february), find(budget, "2020-02-15"));
+    Assert.assertEquals(Optional.of(quarter), find(budget, "2020-03-15"));
+  }
+
+  @Test
+  public void testLinesWithSameStartDate() {
+    Budget budget = new Budget();
+    createLine(budget, "2020-01-01", "2020-01-31");
+    BudgetLine quarter = createLine(budget, "2020-01-01", "2020-03-31");
+
+    Assert.assertEquals(Optional.of(quarter), find(budget, "2020-02-15"));
+  }
+
+  private Optional<BudgetLine> find(Budget budget, String date) {
+    return budgetService.findBudgetLine(
+        budget, budgetService.getBudgetLineIndex(budget), date(date));
+  }
+
+  private void assertAmountRealized(Long budgetLineId, String amount) {
+    Assert.assertEquals(
+        0,
+        new BigDecimal(amount)
+            .compareTo(JPA.find(BudgetLine.class, budgetLineId).getAmountRealized()));
+  }
+
+  private void assertTotalAmountRealized(Long budgetId, String amount) {
+    Assert.assertEquals(
+        0,
+        new BigDecimal(amount)
+            .compareTo(JPA.find(Budget.class, budgetId).getTotalAmountRealized()));
+  }
+
+  private Budget createBudget(String name) {
+    Budget budget = new Budget();
+    budget.setName(name);
+    budget.setTotalAmountRealized(BigDecimal.ZERO);
+    return save(budget);
+  }
+
+  private BudgetLine saveLine(Budget budget, String fromDate, String toDate) {
+    BudgetLine budgetLine = createLine(budget, fromDate, toDate);
+    budgetLine.setAmountRealized(BigDecimal.ZERO);
+    return save(budgetLine);
+  }
+
+  private BudgetLine createLine(Budget budget, String fromDate, String toDate) {
+    BudgetLine budgetLine = new BudgetLine();
+    budgetLine.setFromDate(date(fromDate));
+    budgetLine.setToDate(date(toDate));
+    budget.addBudgetLineListItem(budgetLine);
+    return budgetLine;
+  }
+
+  private InvoiceLine createInvoiceLine(Invoice invoice) {
+    InvoiceLine invoiceLine = new InvoiceLine();
+    invoice.addInvoiceLineListItem(invoiceLine);
+    return save(invoiceLine);
+  }
+
+  private BudgetDistribution createDistribution(
+      InvoiceLine invoiceLine, Budget budget, String amount) {
+    BudgetDistribution budgetDistribution = new BudgetDistribution();
+    budgetDistribution.setBudget(budget);
+    budgetDistribution.setAmount(new BigDecimal(amount));
+    invoiceLine.addBudgetDistributionListItem(budgetDistribution);
+    return save(budgetDistribution);
+  }
+
+  private LocalDate date(String date) {
+    return date != null ? LocalDate.parse(date) : null;
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service.move;
+
+import com.axelor.apps.account.db.AccountingSituation;
+import com.axelor.apps.account.db.Journal;
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.service.AccountingService;
+import com.axelor.apps.account.test.TestAccountCustomerBalance.MyModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.Period;
+import com.axelor.apps.base.db.Year;
+import com.axelor.apps.base.db.repo.YearRepository;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.exception.AxelorException;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestMoveBulkValidate {
+
+  private List<Model> createdList;
+
+  private Long companyId;
+  private Long firstPartnerId;
+  private Long secondPartnerId;
+  private Long emptyMoveId;
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Bulk validation company");
+          company.setCode("BULKCO");
+          companyId = save(company).getId();
+
+          firstPartnerId = createPartner("Bulk validation partner 1", company, "100").getId();
+          secondPartnerId = createPartner("Bulk validation partner 2", company, "0").getId();
+
+          Year year = new Year();
+          year.setName("Bulk validation year");
+          year.setCode("BULK");
+          year.setFromDate(LocalDate.of(2020, 1, 1));
+          year.setToDate(LocalDate.of(2020, 12, 31));
+          year.setTypeSelect(YearRepository.TYPE_FISCAL);
+          save(year);
+
+          Period period = new Period();
+          period.setName("Bulk validation period");
+          period.setYear(year);
+          save(period);
+
+          Journal journal = new Journal();
+          journal.setName("Bulk validation journal");
+          save(journal);
+
+          Move move = new Move();
+          move.setCompany(company);
+          move.setPeriod(period);
+          move.setJournal(journal);
+          move.setTechnicalOriginSelect(MoveRepository.TECHNICAL_ORIGIN_ENTRY);
+          move.setStatusSelect(MoveRepository.STATUS_NEW);
+          emptyMoveId = save(move).getId();
+        });
+  }
+
+  @After
+  public void tearDown() {
+    AccountingService.setUpdateCustomerAccount(true);
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testBalanceChangesInDeferredMode() throws AxelorException {
+    AccountingService.setUpdateCustomerAccount(false);
+
+    Map<Long, BigDecimal> balanceMap = new HashMap<>();
+    balanceMap.put(secondPartnerId, new BigDecimal("-5"));
+    balanceMap.put(firstPartnerId, new BigDecimal("10"));
+    Map<Long, Map<Long, BigDecimal>> companyBalanceMap = new HashMap<>();
+    companyBalanceMap.put(companyId, balanceMap);
+
+    Beans.get(MoveBulkValidateService.class).updateCustomerAccounts(companyBalanceMap);
+
+    AccountingSituation firstSituation = this.getAccountingSituation(firstPartnerId);
+    Assert.assertEquals(0, new BigDecimal("110").compareTo(firstSituation.getBalanceCustAccount()));
+    Assert.assertTrue(firstSituation.getCustAccountMustBeUpdateOk());
+    AccountingSituation secondSituation = this.getAccountingSituation(secondPartnerId);
+    Assert.assertEquals(0, new BigDecimal("-5").compareTo(secondSituation.getBalanceCustAccount()));
+    Assert.assertTrue(secondSituation.getCustAccountMustBeUpdateOk());
+  }
+
+  @Test
+  public void testValidationError() {
+    try {
+      Beans.get(MoveBulkValidateService.class).validate(Collections.singletonList(emptyMoveId));
+      Assert.fail();
+    } catch (AxelorException e) {
+      Assert.assertEquals(0, e.getSuppressed().length);
+    }
+
+    Assert.assertEquals(
+        0,
+        new BigDecimal("100")
+            .compareTo(this.getAccountingSituation(firstPartnerId).getBalanceCustAccount()));
+    Assert.assertEquals(
+        MoveRepository.STATUS_NEW, JPA.find(Move.class, emptyMoveId).getStatusSelect().intValue());
+  }
+
+  private AccountingSituation getAccountingSituation(Long partnerId) {
+    JPA.clear();
+    return JPA.find(Partner.class, partnerId).getAccountingSituationList().get(0);
+  }
+
+  private Partner createPartner(String name, Company company, String balance) {
+    Partner partner = new Partner();
+    partner.setName(name);
+    save(partner);
+
+    AccountingSituation accountingSituation = new AccountingSituation();
+    accountingSituation.setCompany(company);
+    accountingSituation.setBalanceCustAccount(new BigDecimal(balance));
+    partner.addAccountingSituationListItem(accountingSituation);
+    save(accountingSituation);
+    return partner;
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
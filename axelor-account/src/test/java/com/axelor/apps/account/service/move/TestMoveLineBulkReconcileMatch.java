@@ -0,0 +1,115 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service.move;
+
+import com.axelor.apps.account.service.move.MoveLineBulkReconcileService.OpenMoveLine;
+import com.axelor.apps.account.service.move.MoveLineBulkReconcileService.ReconcileMatch;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMoveLineBulkReconcileMatch {
+
+  private MoveLineBulkReconcileService bulkReconcileService;
+
+  @Before
+  public void prepare() {
+    bulkReconcileService = new MoveLineBulkReconcileService(null, null);
+  }
+
+  @Test
+  public void testExactAmountFirst() {
+    List<OpenMoveLine> debitList =
+        list(line(1L, "2020-01-01", "50"), line(2L, "2020-01-02", "80"));
+    List<OpenMoveLine> creditList = list(line(10L, "2020-01-03", "80"));
+
+    List<ReconcileMatch> matchList = bulkReconcileService.match(debitList, creditList);
+
+    Assert.assertEquals(1, matchList.size());
+    assertMatch(matchList.get(0), 2L, 10L, "80");
+    Assert.assertTrue(matchList.get(0).canBeZeroBalanceOk);
+  }
+
+  @Test
+  public void testOldestDebitOfSameAmount() {
+    List<OpenMoveLine> debitList =
+        list(line(1L, "2020-02-01", "80"), line(2L, "2020-01-01", "80"));
+    List<OpenMoveLine> creditList = list(line(10L, "2020-03-01", "80.00"));
+
+    List<ReconcileMatch> matchList = bulkReconcileService.match(debitList, creditList);
+
+    Assert.assertEquals(1, matchList.size());
+    assertMatch(matchList.get(0), 2L, 10L, "80");
+  }
+
+  @Test
+  public void testRemainingByDate() {
+    List<OpenMoveLine> debitList =
+        list(
+            line(1L, "2020-01-02", "30"),
+            line(2L, "2020-01-01", "50"),
+            line(3L, "2020-01-03", "40"));
+    List<OpenMoveLine> creditList =
+        list(line(10L, "2020-01-05", "60"), line(11L, "2020-01-04", "45"));
+
+    List<ReconcileMatch> matchList = bulkReconcileService.match(debitList, creditList);
+
+    Assert.assertEquals(4, matchList.size());
+    assertMatch(matchList.get(0), 2L, 11L, "45");
+    assertMatch(matchList.get(1), 2L, 10L, "5");
+    assertMatch(matchList.get(2), 1L, 10L, "30");
+    assertMatch(matchList.get(3), 3L, 10L, "25");
+    Assert.assertFalse(matchList.get(2).canBeZeroBalanceOk);
+    Assert.assertTrue(matchList.get(3).canBeZeroBalanceOk);
+  }
+
+  @Test
+  public void testMaxAmountOnFirstReconcileOnly() {
+    OpenMoveLine debit = line(1L, "2020-01-01", "100");
+    debit.maxAmountToReconcile = new BigDecimal("20");
+    List<OpenMoveLine> creditList =
+        list(line(10L, "2020-01-02", "30"), line(11L, "2020-01-03", "50"));
+
+    List<ReconcileMatch> matchList = bulkReconcileService.match(list(debit), creditList);
+
+    Assert.assertEquals(3, matchList.size());
+    assertMatch(matchList.get(0), 1L, 10L, "20");
+    assertMatch(matchList.get(1), 1L, 10L, "10");
+    assertMatch(matchList.get(2), 1L, 11L, "50");
+  }
+
+  private OpenMoveLine line(Long id, String date, String amount) {
+    return new OpenMoveLine(id, LocalDate.parse(date), new BigDecimal(amount));
+  }
+
+  private List<OpenMoveLine> list(OpenMoveLine... openMoveLines) {
+    return new ArrayList<>(Arrays.asList(openMoveLines));
+  }
+
+  private void assertMatch(
+      ReconcileMatch match, Long debitMoveLineId, Long creditMoveLineId, String amount) {
+    Assert.assertEquals(debitMoveLineId, match.debitMoveLineId);
+    Assert.assertEquals(creditMoveLineId, match.creditMoveLineId);
+    Assert.assertEquals(0, new BigDecimal(amount).compareTo(match.amount));
+  }
+}
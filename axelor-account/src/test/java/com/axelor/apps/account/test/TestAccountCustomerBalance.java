@@ -0,0 +1,226 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.test;
+
+import com.axelor.app.AxelorModule;
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AccountingSituation;
+import com.axelor.apps.account.db.Journal;
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.module.AccountModule;
+import com.axelor.apps.account.service.AccountCustomerService;
+import com.axelor.apps.account.test.TestAccountCustomerBalance.MyModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.Period;
+import com.axelor.apps.base.db.Year;
+import com.axelor.apps.base.db.repo.YearRepository;
+import com.axelor.apps.base.module.AdminModule;
+import com.axelor.apps.base.module.BaseModule;
+import com.axelor.apps.message.module.MessageModule;
+import com.axelor.apps.tool.module.ToolModule;
+import com.axelor.db.JPA;
+import com.axelor.db.JpaModule;
+import com.axelor.db.Model;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestAccountCustomerBalance {
+
+  private List<Model> createdList;
+
+  private Long partnerId;
+  private Long companyId;
+  private List<Long> moveLineIdList;
+
+  public static class MyModule extends AxelorModule {
+
+    @Override
+    protected void configure() {
+      bind(Beans.class).asEagerSingleton();
+      install(new JpaModule("testUnit", true, true));
+      install(new ToolModule());
+      install(new MessageModule());
+      install(new AdminModule());
+      install(new BaseModule());
+      install(new AccountModule());
+    }
+  }
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    moveLineIdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Balance company");
+          company.setCode("BALCO");
+          companyId = save(company).getId();
+
+          Partner partner = new Partner();
+          partner.setName("Balance partner");
+          partnerId = save(partner).getId();
+
+          Year year = new Year();
+          year.setName("Balance year");
+          year.setCode("BAL");
+          year.setFromDate(LocalDate.of(2020, 1, 1));
+          year.setToDate(LocalDate.of(2020, 12, 31));
+          year.setTypeSelect(YearRepository.TYPE_FISCAL);
+          save(year);
+
+          Period period = new Period();
+          period.setName("Balance period");
+          period.setYear(year);
+          save(period);
+
+          Journal journal = new Journal();
+          journal.setName("Balance journal");
+          save(journal);
+
+          Account customerAccount = createAccount("BAL411", true);
+          Account otherAccount = createAccount("BAL512", false);
+
+          Move validatedMove =
+              createMove(company, period, journal, MoveRepository.STATUS_VALIDATED);
+          Move daybookMove = createMove(company, period, journal, MoveRepository.STATUS_DAYBOOK);
+          Move newMove = createMove(company, period, journal, MoveRepository.STATUS_NEW);
+
+          createMoveLine(validatedMove, partner, customerAccount, "100", "0", "100");
+          createMoveLine(validatedMove, partner, customerAccount, "0", "30", "30");
+          createMoveLine(validatedMove, partner, customerAccount, "50", "0", "0");
+          createMoveLine(validatedMove, partner, otherAccount, "70", "0", "70");
+          createMoveLine(daybookMove, partner, customerAccount, "20", "0", "15");
+          createMoveLine(newMove, partner, customerAccount, "40", "0", "40");
+          createMoveLine(validatedMove, null, customerAccount, "60", "0", "60");
+
+          AccountingSituation accountingSituation = new AccountingSituation();
+          accountingSituation.setCompany(company);
+          accountingSituation.setBalanceCustAccount(BigDecimal.ZERO);
+          partner.addAccountingSituationListItem(accountingSituation);
+          save(accountingSituation);
+        });
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testBalanceAmountMatchesNativeQuery() {
+    AccountCustomerService accountCustomerService = Beans.get(AccountCustomerService.class);
+    Partner partner = JPA.find(Partner.class, partnerId);
+    Company company = JPA.find(Company.class, companyId);
+
+    BigDecimal balanceAmount = BigDecimal.ZERO;
+    for (Long moveLineId : moveLineIdList) {
+      balanceAmount =
+          balanceAmount.add(
+              accountCustomerService.getBalanceAmount(JPA.find(MoveLine.class, moveLineId)));
+    }
+
+    Assert.assertEquals(0, new BigDecimal("85").compareTo(balanceAmount));
+    Assert.assertEquals(
+        0, accountCustomerService.getBalance(partner, company).compareTo(balanceAmount));
+  }
+
+  @Test
+  public void testAddToBalance() {
+    AccountCustomerService accountCustomerService = Beans.get(AccountCustomerService.class);
+
+    JPA.runInTransaction(
+        () -> {
+          try {
+            Partner partner = JPA.find(Partner.class, partnerId);
+            Company company = JPA.find(Company.class, companyId);
+            accountCustomerService.addToBalance(partner, company, new BigDecimal("10"));
+            accountCustomerService.addToBalance(partner, company, new BigDecimal("5"));
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        });
+
+    JPA.clear();
+    AccountingSituation accountingSituation =
+        JPA.find(Partner.class, partnerId).getAccountingSituationList().get(0);
+    Assert.assertEquals(
+        0, new BigDecimal("15").compareTo(accountingSituation.getBalanceCustAccount()));
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+
+  private Account createAccount(String code, boolean useForPartnerBalance) {
+    Account account = new Account();
+    account.setName(code);
+    account.setCode(code);
+    account.setUseForPartnerBalance(useForPartnerBalance);
+    return save(account);
+  }
+
+  private Move createMove(Company company, Period period, Journal journal, int statusSelect) {
+    Move move = new Move();
+    move.setCompany(company);
+    move.setPeriod(period);
+    move.setJournal(journal);
+    move.setTechnicalOriginSelect(MoveRepository.TECHNICAL_ORIGIN_ENTRY);
+    move.setStatusSelect(statusSelect);
+    return save(move);
+  }
+
+  private void createMoveLine(
+      Move move,
+      Partner partner,
+      Account account,
+      String debit,
+      String credit,
+      String amountRemaining) {
+    MoveLine moveLine = new MoveLine();
+    moveLine.setMove(move);
+    moveLine.setPartner(partner);
+    moveLine.setAccount(account);
+    moveLine.setDate(LocalDate.of(2020, 6, 1));
+    moveLine.setDebit(new BigDecimal(debit));
+    moveLine.setCredit(new BigDecimal(credit));
+    moveLine.setAmountRemaining(new BigDecimal(amountRemaining));
+    moveLineIdList.add(save(moveLine).getId());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.test;
+
+import com.axelor.apps.account.service.AccountTree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAccountTree {
+
+  private AccountTree tree;
+
+  @Before
+  public void prepare() {
+    List<Object[]> rows = new ArrayList<>();
+    rows.add(row(1L, null));
+    rows.add(row(2L, 1L));
+    rows.add(row(3L, 1L));
+    rows.add(row(4L, 2L));
+    rows.add(row(5L, 4L));
+    rows.add(row(6L, null));
+    tree = new AccountTree(rows);
+  }
+
+  @Test
+  public void testLeaf() {
+    Assert.assertEquals(Arrays.asList(5L), tree.getAccountAndSubAccountIds(5L));
+    Assert.assertEquals(Arrays.asList(6L), tree.getAccountAndSubAccountIds(6L));
+  }
+
+  @Test
+  public void testAllLevels() {
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)),
+        new HashSet<>(tree.getAccountAndSubAccountIds(1L)));
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(2L, 4L, 5L)),
+        new HashSet<>(tree.getAccountAndSubAccountIds(2L)));
+  }
+
+  @Test
+  public void testUnknownAccount() {
+    Assert.assertEquals(Arrays.asList(7L), tree.getAccountAndSubAccountIds(7L));
+  }
+
+  @Test
+  public void testSeveralRootsWithoutDuplicates() {
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(2L, 4L, 5L, 6L)),
+        tree.getAccountAndSubAccountIds(Arrays.asList(2L, 4L, 6L)));
+    Assert.assertEquals(4, tree.getAccountAndSubAccountIds(Arrays.asList(2L, 4L, 6L)).size());
+  }
+
+  @Test
+  public void testCycle() {
+    List<Object[]> rows = new ArrayList<>();
+    rows.add(row(1L, 2L));
+    rows.add(row(2L, 1L));
+    AccountTree cyclicTree = new AccountTree(rows);
+
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(1L, 2L)),
+        new HashSet<>(cyclicTree.getAccountAndSubAccountIds(1L)));
+  }
+
+  private Object[] row(Long id, Long parentId) {
+    return new Object[] {id, parentId};
+  }
+}
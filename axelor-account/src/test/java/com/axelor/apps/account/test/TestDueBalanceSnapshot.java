@@ -0,0 +1,241 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.test;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.Invoice;
+import com.axelor.apps.account.db.Journal;
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.repo.InvoiceRepository;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.account.service.AccountCustomerService;
+import com.axelor.apps.account.service.DueBalanceSnapshot;
+import com.axelor.apps.account.service.DueBalanceSnapshot.PartnerDueBalance;
+import com.axelor.apps.account.service.DueBalanceSnapshotService;
+import com.axelor.apps.account.test.TestAccountCustomerBalance.MyModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Currency;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.Period;
+import com.axelor.apps.base.db.Year;
+import com.axelor.apps.base.db.repo.YearRepository;
+import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestDueBalanceSnapshot {
+
+  private List<Model> createdList;
+
+  private LocalDate today;
+  private Long partnerId;
+  private Long otherPartnerId;
+  private Long companyId;
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    today = Beans.get(AppBaseService.class).getTodayDate();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Due balance company");
+          company.setCode("AGEDCO");
+          companyId = save(company).getId();
+
+          Partner partner = new Partner();
+          partner.setName("Due balance partner");
+          partnerId = save(partner).getId();
+
+          Partner otherPartner = new Partner();
+          otherPartner.setName("Due balance other partner");
+          otherPartnerId = save(otherPartner).getId();
+
+          Currency currency = new Currency();
+          currency.setName("Due balance currency");
+          currency.setCode("AGD");
+          save(currency);
+
+          Year year = new Year();
+          year.setName("Due balance year");
+          year.setCode("AGED");
+          year.setFromDate(today.minusYears(1));
+          year.setToDate(today.plusYears(1));
+          year.setTypeSelect(YearRepository.TYPE_FISCAL);
+          save(year);
+
+          Period period = new Period();
+          period.setName("Due balance period");
+          period.setYear(year);
+          save(period);
+
+          Journal journal = new Journal();
+          journal.setName("Due balance journal");
+          save(journal);
+
+          Account customerAccount = createAccount("AGED411", true);
+          Account otherAccount = createAccount("AGED512", false);
+
+          Invoice invoice = new Invoice();
+          invoice.setOperationTypeSelect(InvoiceRepository.OPERATION_TYPE_CLIENT_SALE);
+          invoice.setCompany(company);
+          invoice.setPartner(partner);
+          invoice.setCurrency(currency);
+          invoice.setDebtRecoveryBlockingOk(false);
+          save(invoice);
+
+          Move invoiceMove = createMove(company, period, journal, MoveRepository.STATUS_VALIDATED);
+          invoiceMove.setInvoice(invoice);
+          Move daybookMove = createMove(company, period, journal, MoveRepository.STATUS_DAYBOOK);
+          Move ignoredMove = createMove(company, period, journal, MoveRepository.STATUS_VALIDATED);
+          ignoredMove.setIgnoreInDebtRecoveryOk(true);
+          Move newMove = createMove(company, period, journal, MoveRepository.STATUS_NEW);
+
+          // overdue, reminded
+          createMoveLine(invoiceMove, partner, customerAccount, 40, 10, "100", "0", "100");
+          // not yet due
+          createMoveLine(invoiceMove, partner, customerAccount, 5, -10, "50", "0", "50");
+          // due today, not reminded before the mail transit time
+          createMoveLine(invoiceMove, partner, customerAccount, 0, 0, "30", "0", "30");
+          createMoveLine(invoiceMove, partner, customerAccount, 3, null, "0", "20", "20");
+          createMoveLine(invoiceMove, partner, otherAccount, 40, 10, "80", "0", "80");
+          // due without due date, not on an invoice
+          createMoveLine(daybookMove, partner, customerAccount, 20, null, "40", "0", "25");
+          createMoveLine(ignoredMove, partner, customerAccount, 40, 1, "70", "0", "70");
+          createMoveLine(newMove, partner, customerAccount, 40, 1, "60", "0", "60");
+          createMoveLine(daybookMove, otherPartner, customerAccount, 40, 5, "15", "0", "15");
+        });
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testBalancesMatchNativeQueries() {
+    AccountCustomerService accountCustomerService = Beans.get(AccountCustomerService.class);
+    Company company = JPA.find(Company.class, companyId);
+
+    DueBalanceSnapshot dueBalanceSnapshot =
+        Beans.get(DueBalanceSnapshotService.class).computeSnapshot(company, today);
+
+    for (Long id : new Long[] {partnerId, otherPartnerId}) {
+      Partner partner = JPA.find(Partner.class, id);
+      PartnerDueBalance partnerDueBalance = dueBalanceSnapshot.getPartnerDueBalance(id);
+
+      assertAmount(
+          accountCustomerService.getBalanceDue(partner, company),
+          partnerDueBalance.getBalanceDue());
+      assertAmount(
+          accountCustomerService.getBalanceDueDebtRecovery(partner, company),
+          partnerDueBalance.getBalanceDueDebtRecovery());
+    }
+
+    PartnerDueBalance partnerDueBalance = dueBalanceSnapshot.getPartnerDueBalance(partnerId);
+    assertAmount(new BigDecimal("135"), partnerDueBalance.getBalanceDue());
+    assertAmount(new BigDecimal("80"), partnerDueBalance.getBalanceDueDebtRecovery());
+  }
+
+  @Test
+  public void testPartnerWithoutOpenAmount() {
+    Company company = JPA.find(Company.class, companyId);
+
+    PartnerDueBalance partnerDueBalance =
+        Beans.get(DueBalanceSnapshotService.class)
+            .computeSnapshot(company, today)
+            .getPartnerDueBalance(-1L);
+
+    assertAmount(BigDecimal.ZERO, partnerDueBalance.getBalanceDue());
+    assertAmount(BigDecimal.ZERO, partnerDueBalance.getBalanceDueDebtRecovery());
+  }
+
+  private void assertAmount(BigDecimal expected, BigDecimal actual) {
+    Assert.assertEquals(expected + " <> " + actual, 0, expected.compareTo(actual));
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+
+  private Account createAccount(String code, boolean useForPartnerBalance) {
+    Account account = new Account();
+    account.setName(code);
+    account.setCode(code);
+    account.setUseForPartnerBalance(useForPartnerBalance);
+    return save(account);
+  }
+
+  private Move createMove(Company company, Period period, Journal journal, int statusSelect) {
+    Move move = new Move();
+    move.setCompany(company);
+    move.setPeriod(period);
+    move.setJournal(journal);
+    move.setTechnicalOriginSelect(MoveRepository.TECHNICAL_ORIGIN_ENTRY);
+    move.setStatusSelect(statusSelect);
+    return save(move);
+  }
+
+  /**
+   * Create a move line dated {@code daysAgo} days before today, and overdue by {@code overdueDays}
+   * days, or without due date if {@code overdueDays} is null.
+   */
+  private void createMoveLine(
+      Move move,
+      Partner partner,
+      Account account,
+      int daysAgo,
+      Integer overdueDays,
+      String debit,
+      String credit,
+      String amountRemaining) {
+    MoveLine moveLine = new MoveLine();
+    moveLine.setMove(move);
+    moveLine.setPartner(partner);
+    moveLine.setAccount(account);
+    moveLine.setDate(today.minusDays(daysAgo));
+    if (overdueDays != null) {
+      moveLine.setDueDate(today.minusDays(overdueDays));
+    }
+    moveLine.setDebit(new BigDecimal(debit));
+    moveLine.setCredit(new BigDecimal(credit));
+    moveLine.setAmountRemaining(new BigDecimal(amountRemaining));
+    save(moveLine);
+  }
+}
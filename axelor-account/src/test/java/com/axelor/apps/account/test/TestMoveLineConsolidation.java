@@ -0,0 +1,153 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.test;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AnalyticAccount;
+import com.axelor.apps.account.db.AnalyticAxis;
+import com.axelor.apps.account.db.AnalyticMoveLine;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.service.move.MoveLineService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMoveLineConsolidation {
+
+  private static final int LARGE_INVOICE_LINE_COUNT = 10000;
+
+  private AnalyticAxis axis;
+  private AnalyticAccount analyticAccount1;
+  private AnalyticAccount analyticAccount2;
+
+  private MoveLineService moveLineService;
+
+  @Before
+  public void prepare() {
+    axis = new AnalyticAxis();
+    axis.setId(1L);
+    analyticAccount1 = new AnalyticAccount();
+    analyticAccount1.setId(1L);
+    analyticAccount2 = new AnalyticAccount();
+    analyticAccount2.setId(2L);
+
+    moveLineService = new MoveLineService(null, null, null, null, null, null, null, null, null);
+  }
+
+  @Test
+  public void testSameAnalyticDistributionInAnyOrder() {
+    Account account = createAccount(1L);
+    MoveLine moveLine1 =
+        createMoveLine(
+            account,
+            "100",
+            createAnalyticMoveLine(analyticAccount1, "60", "60"),
+            createAnalyticMoveLine(analyticAccount2, "40", "40"));
+    MoveLine moveLine2 =
+        createMoveLine(
+            account,
+            "50",
+            createAnalyticMoveLine(analyticAccount2, "40", "20"),
+            createAnalyticMoveLine(analyticAccount1, "60", "30"));
+
+    List<MoveLine> moveLineList =
+        moveLineService.consolidateMoveLines(new ArrayList<>(Arrays.asList(moveLine1, moveLine2)));
+
+    Assert.assertEquals(1, moveLineList.size());
+    Assert.assertEquals(new BigDecimal("150"), moveLineList.get(0).getDebit());
+    Assert.assertEquals(
+        new BigDecimal("90"), moveLineList.get(0).getAnalyticMoveLineList().get(0).getAmount());
+    Assert.assertEquals(
+        new BigDecimal("60"), moveLineList.get(0).getAnalyticMoveLineList().get(1).getAmount());
+  }
+
+  @Test
+  public void testDifferentAnalyticDistribution() {
+    Account account = createAccount(1L);
+    MoveLine moveLine1 =
+        createMoveLine(account, "100", createAnalyticMoveLine(analyticAccount1, "100", "100"));
+    MoveLine moveLine2 =
+        createMoveLine(account, "50", createAnalyticMoveLine(analyticAccount2, "100", "50"));
+    MoveLine moveLine3 = createMoveLine(account, "10");
+    moveLine3.setAnalyticMoveLineList(null);
+
+    List<MoveLine> moveLineList =
+        moveLineService.consolidateMoveLines(
+            new ArrayList<>(Arrays.asList(moveLine1, moveLine2, moveLine3)));
+
+    Assert.assertEquals(3, moveLineList.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testLargeInvoice() {
+    List<Account> accountList = new ArrayList<>();
+    for (long i = 1; i <= 10; i++) {
+      accountList.add(createAccount(i));
+    }
+
+    List<MoveLine> moveLineList = new ArrayList<>();
+    for (int i = 0; i < LARGE_INVOICE_LINE_COUNT; i++) {
+      moveLineList.add(
+          createMoveLine(
+              accountList.get(i % accountList.size()),
+              "10",
+              createAnalyticMoveLine(analyticAccount1, "70", "7"),
+              createAnalyticMoveLine(analyticAccount2, "30", "3")));
+    }
+
+    moveLineList = moveLineService.consolidateMoveLines(moveLineList);
+
+    Assert.assertEquals(accountList.size(), moveLineList.size());
+    for (MoveLine moveLine : moveLineList) {
+      Assert.assertEquals(new BigDecimal("10000"), moveLine.getDebit());
+      Assert.assertEquals(
+          new BigDecimal("7000"), moveLine.getAnalyticMoveLineList().get(0).getAmount());
+    }
+  }
+
+  private Account createAccount(Long id) {
+    Account account = new Account();
+    account.setId(id);
+    return account;
+  }
+
+  private MoveLine createMoveLine(
+      Account account, String debit, AnalyticMoveLine... analyticMoveLines) {
+    MoveLine moveLine = new MoveLine();
+    moveLine.setAccount(account);
+    moveLine.setDebit(new BigDecimal(debit));
+    moveLine.setCredit(BigDecimal.ZERO);
+    moveLine.setCurrencyAmount(new BigDecimal(debit));
+    moveLine.setAnalyticMoveLineList(new ArrayList<>(Arrays.asList(analyticMoveLines)));
+    return moveLine;
+  }
+
+  private AnalyticMoveLine createAnalyticMoveLine(
+      AnalyticAccount analyticAccount, String percentage, String amount) {
+    AnalyticMoveLine analyticMoveLine = new AnalyticMoveLine();
+    analyticMoveLine.setAnalyticAxis(axis);
+    analyticMoveLine.setAnalyticAccount(analyticAccount);
+    analyticMoveLine.setPercentage(new BigDecimal(percentage));
+    analyticMoveLine.setAmount(new BigDecimal(amount));
+    return analyticMoveLine;
+  }
+}
@@ -20,6 +20,7 @@ package com.axelor.apps.bankpayment.service.batch;
 import com.axelor.apps.account.db.AccountingBatch;
 import com.axelor.apps.account.db.Invoice;
 import com.axelor.apps.account.db.InvoicePayment;
+import com.axelor.apps.account.db.repo.InvoicePaymentRepository;
 import com.axelor.apps.account.db.repo.InvoiceRepository;
 import com.axelor.apps.account.service.payment.invoice.payment.InvoicePaymentCreateService;
 import com.axelor.apps.bankpayment.db.BankOrder;
@@ -41,9 +42,13 @@ import com.google.common.collect.Sets;
 import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,7 +106,10 @@ public class BatchDirectDebitCustomerInvoice extends BatchDirectDebit {
       bindingList.add(Pair.of("paymentMode", (Object) accountingBatch.getPaymentMode()));
     }
 
-    List<InvoicePayment> invoicePaymentList = processQuery(filterList, bindingList);
+    List<InvoicePayment> invoicePaymentList =
+        getThreadCount() > 1
+            ? processQueryInParallel(filterList, bindingList)
+            : processQuery(filterList, bindingList);
 
     if (!invoicePaymentList.isEmpty()) {
       try {
@@ -180,4 +188,57 @@ public class BatchDirectDebitCustomerInvoice extends BatchDirectDebit {
 
     return doneList;
   }
+
+  /**
+   * Create the payments of the invoices on {@link #getThreadCount()} workers, each invoice in its
+   * own transaction.
+   */
+  private List<InvoicePayment> processQueryInParallel(
+      List<String> filterList, List<Pair<String, Object>> bindingList) {
+
+    String filter =
+        filterList
+            .stream()
+            .map(input -> String.format("(%s)", input))
+            .collect(Collectors.joining(" AND "));
+    Map<String, Object> bindings = new HashMap<>();
+    bindingList.forEach(binding -> bindings.put(binding.getLeft(), binding.getRight()));
+
+    List<Long> doneIdList = Collections.synchronizedList(new ArrayList<>());
+    InvoicePaymentCreateService invoicePaymentCreateService =
+        Beans.get(InvoicePaymentCreateService.class);
+    BankDetailsRepository bankDetailsRepo = Beans.get(BankDetailsRepository.class);
+    BankDetails companyBankDetails = getCompanyBankDetails(batch.getAccountingBatch());
+    Long companyBankDetailsId = companyBankDetails != null ? companyBankDetails.getId() : null;
+
+    processInParallel(
+        Invoice.class,
+        filter,
+        bindings,
+        getThreadCount(),
+        invoice -> {
+          try {
+            doneIdList.add(
+                invoicePaymentCreateService
+                    .createInvoicePayment(
+                        invoice,
+                        companyBankDetailsId != null
+                            ? bankDetailsRepo.find(companyBankDetailsId)
+                            : null)
+                    .getId());
+            incrementDone();
+          } catch (Exception e) {
+            incrementAnomaly();
+            TraceBackService.trace(e, ExceptionOriginRepository.DIRECT_DEBIT, batch.getId());
+            LOG.error(e.getMessage());
+          }
+        });
+
+    InvoicePaymentRepository invoicePaymentRepo = Beans.get(InvoicePaymentRepository.class);
+    return doneIdList
+        .stream()
+        .sorted()
+        .map(invoicePaymentRepo::find)
+        .collect(Collectors.toList());
+  }
 }
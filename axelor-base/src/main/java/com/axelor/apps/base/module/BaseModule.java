@@ -26,12 +26,16 @@ import com.axelor.apps.base.db.repo.AddressBaseRepository;
 import com.axelor.apps.base.db.repo.AddressRepository;
 import com.axelor.apps.base.db.repo.AlarmEngineBatchBaseRepository;
 import com.axelor.apps.base.db.repo.AlarmEngineBatchRepository;
+import com.axelor.apps.base.db.repo.AppBaseManagementRepository;
+import com.axelor.apps.base.db.repo.AppBaseRepository;
 import com.axelor.apps.base.db.repo.BankAddressBaseRepository;
 import com.axelor.apps.base.db.repo.BankAddressRepository;
 import com.axelor.apps.base.db.repo.BankBaseRepository;
 import com.axelor.apps.base.db.repo.BankRepository;
 import com.axelor.apps.base.db.repo.BaseBatchBaseRepository;
 import com.axelor.apps.base.db.repo.BaseBatchRepository;
+import com.axelor.apps.base.db.repo.CurrencyConversionLineBaseRepository;
+import com.axelor.apps.base.db.repo.CurrencyConversionLineRepository;
 import com.axelor.apps.base.db.repo.DurationBaseRepository;
 import com.axelor.apps.base.db.repo.DurationRepository;
 import com.axelor.apps.base.db.repo.ICalendarEventManagementRepository;
@@ -49,6 +53,8 @@ import com.axelor.apps.base.db.repo.SequenceBaseRepository;
 import com.axelor.apps.base.db.repo.SequenceRepository;
 import com.axelor.apps.base.db.repo.TaxBaseRepository;
 import com.axelor.apps.base.db.repo.TeamTaskBaseRepository;
+import com.axelor.apps.base.db.repo.UnitConversionBaseRepository;
+import com.axelor.apps.base.db.repo.UnitConversionRepository;
 import com.axelor.apps.base.db.repo.UserBaseRepository;
 import com.axelor.apps.base.db.repo.YearBaseRepository;
 import com.axelor.apps.base.db.repo.YearRepository;
@@ -183,6 +189,9 @@ public class BaseModule extends AxelorModule {
     bind(MailingListMessageRepository.class).to(MailingListMessageBaseRepository.class);
     bind(ABCAnalysisService.class).to(ABCAnalysisServiceImpl.class);
     bind(ABCAnalysisRepository.class).to(ABCAnalysisBaseRepository.class);
+    bind(UnitConversionRepository.class).to(UnitConversionBaseRepository.class);
+    bind(CurrencyConversionLineRepository.class).to(CurrencyConversionLineBaseRepository.class);
+    bind(AppBaseRepository.class).to(AppBaseManagementRepository.class);
     bind(AdvancedImportService.class).to(AdvancedImportServiceImpl.class);
     bind(DataImportService.class).to(DataImportServiceImpl.class);
     bind(FileTabService.class).to(FileTabServiceImpl.class);
@@ -0,0 +1,58 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.inject.Beans;
+import com.google.inject.Singleton;
+
+/**
+ * Holds the {@link CurrencyConversionIndex} shared by all the requests. The index is rebuilt as a
+ * whole and swapped once saved or removed currency conversion lines are committed, so readers
+ * always see a consistent index.
+ */
+@Singleton
+public class CurrencyConversionCache {
+
+  private volatile CurrencyConversionIndex index;
+
+  public CurrencyConversionIndex getIndex() {
+    CurrencyConversionIndex current = index;
+    if (current == null) {
+      synchronized (this) {
+        current = index;
+        if (current == null) {
+          current =
+              new CurrencyConversionIndex(
+                  Beans.get(AppBaseService.class).getCurrencyConfigurationLineList());
+          index = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  public synchronized void invalidate() {
+    index = null;
+  }
+
+  /** Drop the index once the current transaction is completed. */
+  public void invalidateAfterCompletion() {
+    TransactionHelper.afterCompletion(this::invalidate);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.apps.base.db.CurrencyConversionLine;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of the currency conversion lines, by start and end currency codes. The lines of
+ * a currency pair are sorted by start date, so the rate at a date is found by binary search.
+ *
+ * <p>When the lines of a currency pair overlap, the first matching line of the list is used, as
+ * before the index: such pairs keep their lines in list order and are scanned.
+ */
+public class CurrencyConversionIndex {
+
+  private static final Comparator<Interval> FROM_DATE_COMPARATOR =
+      Comparator.comparing(interval -> interval.fromDate);
+
+  private final Map<String, Interval[]> intervals;
+
+  /** Currency pairs with overlapping lines, whose intervals are kept in list order. */
+  private final Set<String> overlappingKeys;
+
+  public CurrencyConversionIndex(List<CurrencyConversionLine> currencyConversionLineList) {
+    Map<String, List<Interval>> intervalLists = new HashMap<>();
+    if (currencyConversionLineList != null) {
+      for (CurrencyConversionLine ccl : currencyConversionLineList) {
+        if (ccl.getStartCurrency() == null
+            || ccl.getEndCurrency() == null
+            || ccl.getFromDate() == null) {
+          continue;
+        }
+        intervalLists
+            .computeIfAbsent(
+                getKey(ccl.getStartCurrency().getCode(), ccl.getEndCurrency().getCode()),
+                key -> new ArrayList<>())
+            .add(new Interval(ccl.getFromDate(), ccl.getToDate(), ccl.getExchangeRate()));
+      }
+    }
+
+    Map<String, Interval[]> intervals = new HashMap<>();
+    Set<String> overlappingKeys = new HashSet<>();
+    intervalLists.forEach(
+        (key, list) -> {
+          List<Interval> sortedList = new ArrayList<>(list);
+          sortedList.sort(FROM_DATE_COMPARATOR);
+          if (isOverlapping(sortedList)) {
+            overlappingKeys.add(key);
+            intervals.put(key, list.toArray(new Interval[0]));
+          } else {
+            intervals.put(key, sortedList.toArray(new Interval[0]));
+          }
+        });
+    this.intervals = intervals;
+    this.overlappingKeys = overlappingKeys;
+  }
+
+  /**
+   * Tells whether a conversion line exists for the currency pair at the given date.
+   *
+   * @param startCode
+   * @param endCode
+   * @param date
+   * @return
+   */
+  public boolean contains(String startCode, String endCode, LocalDate date) {
+    return find(startCode, endCode, date) != null;
+  }
+
+  /**
+   * Get the exchange rate of the conversion line of the currency pair at the given date. If
+   * several lines match, the first one of the list is used.
+   *
+   * @param startCode
+   * @param endCode
+   * @param date
+   * @return the exchange rate, <code>null</code> if there is no line or the line has no rate.
+   */
+  public BigDecimal getExchangeRate(String startCode, String endCode, LocalDate date) {
+    Interval interval = find(startCode, endCode, date);
+    return interval == null ? null : interval.exchangeRate;
+  }
+
+  private Interval find(String startCode, String endCode, LocalDate date) {
+    String key = getKey(startCode, endCode);
+    Interval[] pairIntervals = intervals.get(key);
+    if (pairIntervals == null || date == null) {
+      return null;
+    }
+
+    if (overlappingKeys.contains(key)) {
+      for (Interval interval : pairIntervals) {
+        if (interval.contains(date)) {
+          return interval;
+        }
+      }
+      return null;
+    }
+
+    int low = 0;
+    int high = pairIntervals.length - 1;
+    int last = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (pairIntervals[mid].fromDate.isAfter(date)) {
+        high = mid - 1;
+      } else {
+        last = mid;
+        low = mid + 1;
+      }
+    }
+
+    return last >= 0 && pairIntervals[last].contains(date) ? pairIntervals[last] : null;
+  }
+
+  private static boolean isOverlapping(List<Interval> sortedList) {
+    for (int i = 1; i < sortedList.size(); i++) {
+      LocalDate previousToDate = sortedList.get(i - 1).toDate;
+      if (previousToDate == null || !previousToDate.isBefore(sortedList.get(i).fromDate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getKey(String startCode, String endCode) {
+    return startCode + "/" + endCode;
+  }
+
+  private static class Interval {
+
+    private final LocalDate fromDate;
+    private final LocalDate toDate;
+    private final BigDecimal exchangeRate;
+
+    private Interval(LocalDate fromDate, LocalDate toDate, BigDecimal exchangeRate) {
+      this.fromDate = fromDate;
+      this.toDate = toDate;
+      this.exchangeRate = exchangeRate;
+    }
+
+    private boolean contains(LocalDate date) {
+      return !fromDate.isAfter(date) && (toDate == null || !toDate.isBefore(date));
+    }
+  }
+}
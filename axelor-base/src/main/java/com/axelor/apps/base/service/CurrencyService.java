@@ -18,7 +18,6 @@
 package com.axelor.apps.base.service;
 
 import com.axelor.apps.base.db.Currency;
-import com.axelor.apps.base.db.CurrencyConversionLine;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.exception.AxelorException;
@@ -32,7 +31,11 @@ import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,18 +46,23 @@ public class CurrencyService {
 
   protected AppBaseService appBaseService;
 
+  protected CurrencyConversionCache currencyConversionCache;
+
   private LocalDate today;
 
   @Inject
-  public CurrencyService(AppBaseService appBaseService) {
+  public CurrencyService(
+      AppBaseService appBaseService, CurrencyConversionCache currencyConversionCache) {
 
     this.appBaseService = appBaseService;
+    this.currencyConversionCache = currencyConversionCache;
     this.today = appBaseService.getTodayDate();
   }
 
   public CurrencyService(LocalDate today) {
 
     this.appBaseService = Beans.get(AppBaseService.class);
+    this.currencyConversionCache = Beans.get(CurrencyConversionCache.class);
     this.today = today;
   }
 
@@ -71,79 +79,62 @@ public class CurrencyService {
     // So we convert the amount
     if (startCurrency != null && endCurrency != null && !startCurrency.equals(endCurrency)) {
 
-      LocalDate dateToConvert = this.getDateToConvert(date);
-      boolean isInverse = true;
-      BigDecimal exchangeRate = null;
-
-      CurrencyConversionLine currencyConversionLine =
-          this.getCurrencyConversionLine(startCurrency, endCurrency, dateToConvert);
-      if (currencyConversionLine != null) {
-        exchangeRate = currencyConversionLine.getExchangeRate();
-        isInverse = false;
-
-      } else {
-        currencyConversionLine =
-            this.getCurrencyConversionLine(endCurrency, startCurrency, dateToConvert);
-
-        if (currencyConversionLine == null) {
-          throw new AxelorException(
-              TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
-              I18n.get(IExceptionMessage.CURRENCY_1),
-              startCurrency.getName(),
-              endCurrency.getName(),
-              dateToConvert);
-        }
-        exchangeRate = currencyConversionLine.getExchangeRate();
-      }
-
-      if (exchangeRate == null || exchangeRate.compareTo(BigDecimal.ZERO) == 0) {
-        throw new AxelorException(
-            TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
-            I18n.get(IExceptionMessage.CURRENCY_2),
-            startCurrency.getName(),
-            endCurrency.getName(),
-            dateToConvert);
-      }
-
-      return isInverse
-          ? BigDecimal.ONE.divide(exchangeRate, 10, RoundingMode.HALF_EVEN)
-          : exchangeRate;
+      return this.getCurrencyConversionRate(
+          currencyConversionCache.getIndex(),
+          startCurrency,
+          endCurrency,
+          this.getDateToConvert(date));
     }
 
     return BigDecimal.ONE;
   }
 
-  private CurrencyConversionLine getCurrencyConversionLine(
-      Currency startCurrency, Currency endCurrency, LocalDate localDate) {
-
-    List<CurrencyConversionLine> currencyConversionLineList =
-        appBaseService.getCurrencyConfigurationLineList();
+  protected BigDecimal getCurrencyConversionRate(
+      CurrencyConversionIndex index,
+      Currency startCurrency,
+      Currency endCurrency,
+      LocalDate dateToConvert)
+      throws AxelorException {
 
-    if (currencyConversionLineList == null) {
-      return null;
-    }
+    String startCode = startCurrency.getCode();
+    String endCode = endCurrency.getCode();
+    boolean isInverse = true;
+    BigDecimal exchangeRate = null;
 
     log.debug(
-        "Currency from: {}, Currency to: {}, localDate: {}", startCurrency, endCurrency, localDate);
-
-    for (CurrencyConversionLine ccl : currencyConversionLineList) {
-
-      String cclStartCode = ccl.getStartCurrency().getCode();
-      String cclEndCode = ccl.getEndCurrency().getCode();
-      String startCode = startCurrency.getCode();
-      String endCode = endCurrency.getCode();
-      LocalDate fromDate = ccl.getFromDate();
-      LocalDate toDate = ccl.getToDate();
-
-      if (cclStartCode.equals(startCode) && cclEndCode.equals(endCode)) {
-        if ((fromDate.isBefore(localDate) || fromDate.equals(localDate))
-            && (toDate == null || toDate.isAfter(localDate) || toDate.isEqual(localDate))) {
-          return ccl;
-        }
+        "Currency from: {}, Currency to: {}, localDate: {}",
+        startCurrency,
+        endCurrency,
+        dateToConvert);
+
+    if (index.contains(startCode, endCode, dateToConvert)) {
+      exchangeRate = index.getExchangeRate(startCode, endCode, dateToConvert);
+      isInverse = false;
+
+    } else {
+      if (!index.contains(endCode, startCode, dateToConvert)) {
+        throw new AxelorException(
+            TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+            I18n.get(IExceptionMessage.CURRENCY_1),
+            startCurrency.getName(),
+            endCurrency.getName(),
+            dateToConvert);
       }
+      exchangeRate = index.getExchangeRate(endCode, startCode, dateToConvert);
     }
 
-    return null;
+    if (exchangeRate == null || exchangeRate.compareTo(BigDecimal.ZERO) == 0) {
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.CURRENCY_2),
+          startCurrency.getName(),
+          endCurrency.getName(),
+          dateToConvert);
+    }
+
+    return isInverse
+        ? BigDecimal.ONE.divide(exchangeRate, 10, RoundingMode.HALF_EVEN)
+        : exchangeRate;
   }
 
   /**
@@ -171,6 +162,47 @@ public class CurrencyService {
     return amount;
   }
 
+  /**
+   * Convert many amounts in start currency into the end currency, each one according to its date to
+   * convert. The conversion index is read once and the rate is computed once per distinct date.
+   *
+   * @param startCurrency
+   * @param endCurrency
+   * @param amountDateList the amounts to convert, with their date
+   * @return the converted amounts, in the same order
+   * @throws AxelorException
+   */
+  public List<BigDecimal> getAmountsCurrencyConvertedAtDate(
+      Currency startCurrency,
+      Currency endCurrency,
+      List<Pair<BigDecimal, LocalDate>> amountDateList)
+      throws AxelorException {
+
+    List<BigDecimal> convertedAmountList = new ArrayList<>(amountDateList.size());
+
+    if (startCurrency == null || endCurrency == null || startCurrency.equals(endCurrency)) {
+      amountDateList.forEach(amountDate -> convertedAmountList.add(amountDate.getLeft()));
+      return convertedAmountList;
+    }
+
+    CurrencyConversionIndex index = currencyConversionCache.getIndex();
+    Map<LocalDate, BigDecimal> rateByDate = new HashMap<>();
+
+    for (Pair<BigDecimal, LocalDate> amountDate : amountDateList) {
+      LocalDate dateToConvert = this.getDateToConvert(amountDate.getRight());
+      BigDecimal exchangeRate = rateByDate.get(dateToConvert);
+      if (exchangeRate == null) {
+        exchangeRate =
+            this.getCurrencyConversionRate(index, startCurrency, endCurrency, dateToConvert);
+        rateByDate.put(dateToConvert, exchangeRate);
+      }
+      convertedAmountList.add(
+          this.getAmountCurrencyConvertedUsingExchangeRate(amountDate.getLeft(), exchangeRate));
+    }
+
+    return convertedAmountList;
+  }
+
   /**
    * Convert the amount in start currency into the end currency according to the exchange rate
    *
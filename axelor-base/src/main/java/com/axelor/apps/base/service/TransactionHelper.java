@@ -0,0 +1,83 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.db.JPA;
+import java.util.function.Function;
+import javax.persistence.EntityManager;
+import javax.transaction.Synchronization;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+/** Helpers to run actions around the transaction of the current unit of work. */
+public class TransactionHelper {
+
+  private TransactionHelper() {}
+
+  /**
+   * Run an action once the current transaction is committed or rolled back, or right away when no
+   * transaction is active.
+   *
+   * <p>Shared caches built from the database use it to be dropped when their changes are visible
+   * to the other requests: a cache dropped before the commit could be rebuilt in between from the
+   * previous data and kept afterwards.
+   *
+   * @param action the action to run, it must not access the database.
+   */
+  public static void afterCompletion(Runnable action) {
+    Transaction transaction = JPA.em().unwrap(Session.class).getTransaction();
+    if (transaction == null || !transaction.isActive()) {
+      action.run();
+      return;
+    }
+    transaction.registerSynchronization(
+        new Synchronization() {
+          @Override
+          public void beforeCompletion() {}
+
+          @Override
+          public void afterCompletion(int status) {
+            action.run();
+          }
+        });
+  }
+
+  /**
+   * Run a function in a read-only unit of work of its own, rolled back at the end.
+   *
+   * <p>Shared caches use it to be built from committed data only, whatever the transaction of the
+   * request that happens to load them.
+   *
+   * @param function the function, given the entity manager of the unit of work
+   * @return the result of the function
+   */
+  public static <T> T readOnly(Function<EntityManager, T> function) {
+    EntityManager em = JPA.em().getEntityManagerFactory().createEntityManager();
+    try {
+      em.unwrap(Session.class).setDefaultReadOnly(true);
+      em.getTransaction().begin();
+      try {
+        return function.apply(em);
+      } finally {
+        em.getTransaction().rollback();
+      }
+    } finally {
+      em.close();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.google.inject.Singleton;
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+
+/**
+ * Cache of the unit conversion graph and of the compiled conversion formulas, shared by all the
+ * requests. The graph is loaded with a single query in a unit of work of its own. It is
+ * invalidated by {@link com.axelor.apps.base.db.repo.UnitConversionBaseRepository} once the
+ * saved or removed unit conversions are committed.
+ */
+@Singleton
+public class UnitConversionCache {
+
+  private volatile UnitConversionGraph graph;
+
+  private final Map<Long, CompiledFormula> formulas = new ConcurrentHashMap<>();
+
+  private final CompilerConfiguration conf;
+
+  private final GroovyClassLoader classLoader;
+
+  public UnitConversionCache() {
+    conf = new CompilerConfiguration();
+    ImportCustomizer customizer = new ImportCustomizer();
+    customizer.addStaticStars("java.lang.Math");
+    conf.addCompilationCustomizers(customizer);
+    this.classLoader = new GroovyClassLoader(getClass().getClassLoader(), conf);
+  }
+
+  public UnitConversionGraph getGraph() {
+    UnitConversionGraph current = graph;
+    if (current == null) {
+      synchronized (this) {
+        current = graph;
+        if (current == null) {
+          current =
+              UnitConversionGraph.of(
+                  TransactionHelper.readOnly(
+                      em ->
+                          em.createQuery(UnitConversionGraph.QUERY, Object[].class)
+                              .getResultList()));
+          graph = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Get the compiled script class of a formula conversion, compiling it on first use.
+   *
+   * @param unitConversionId the conversion holding the formula
+   * @param script the groovy script of the formula
+   * @return the script class, to be instantiated for each evaluation.
+   */
+  public Class<? extends Script> getScriptClass(Long unitConversionId, String script) {
+    CompiledFormula formula = unitConversionId == null ? null : formulas.get(unitConversionId);
+    if (formula == null || !formula.script.equals(script)) {
+      formula = new CompiledFormula(script, compile(script));
+      if (unitConversionId != null) {
+        formulas.put(unitConversionId, formula);
+      }
+    }
+    return formula.scriptClass;
+  }
+
+  /**
+   * Evaluate a script without caching its compiled class.
+   *
+   * @param script the groovy script
+   * @param binding the variables of the script
+   * @return the result of the script
+   */
+  public Object evaluate(String script, Binding binding) {
+    return new GroovyShell(binding, conf).evaluate(script);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Class<? extends Script> compile(String script) {
+    synchronized (classLoader) {
+      return classLoader.parseClass(script);
+    }
+  }
+
+  public synchronized void invalidate() {
+    graph = null;
+    formulas.clear();
+    classLoader.clearCache();
+  }
+
+  private static class CompiledFormula {
+
+    private final String script;
+    private final Class<? extends Script> scriptClass;
+
+    private CompiledFormula(String script, Class<? extends Script> scriptClass) {
+      this.script = script;
+      this.scriptClass = scriptClass;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.apps.base.db.UnitConversion;
+import com.axelor.apps.base.db.repo.UnitConversionRepository;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable graph of the unit conversions, the units being the nodes and each conversion giving an
+ * edge in both directions.
+ *
+ * <p>Conversions between two units are resolved on the direct edges first, in the order of the
+ * conversion list, then through the shortest path of intermediate units. Resolved paths are
+ * cached, with or without formula edges since those need a product to be evaluated.
+ */
+public class UnitConversionGraph {
+
+  /** Directed edge of the graph. */
+  public static class Edge {
+
+    private final Long unitConversionId;
+    private final Long startUnitId;
+    private final Long endUnitId;
+    private final int typeSelect;
+    private final BigDecimal coef;
+    private final String formula;
+    private final boolean inverse;
+
+    private Edge(
+        Long unitConversionId,
+        Long startUnitId,
+        Long endUnitId,
+        int typeSelect,
+        BigDecimal coef,
+        String formula,
+        boolean inverse) {
+      this.unitConversionId = unitConversionId;
+      this.startUnitId = inverse ? endUnitId : startUnitId;
+      this.endUnitId = inverse ? startUnitId : endUnitId;
+      this.typeSelect = typeSelect;
+      this.coef = coef;
+      this.formula = formula;
+      this.inverse = inverse;
+    }
+
+    public Long getUnitConversionId() {
+      return unitConversionId;
+    }
+
+    public Long getStartUnitId() {
+      return startUnitId;
+    }
+
+    public Long getEndUnitId() {
+      return endUnitId;
+    }
+
+    public boolean isCoefficient() {
+      return typeSelect == UnitConversionRepository.TYPE_COEFF;
+    }
+
+    public BigDecimal getCoef() {
+      return coef;
+    }
+
+    public String getFormula() {
+      return formula;
+    }
+
+    /** Whether the edge goes from the end unit to the start unit of the conversion. */
+    public boolean isInverse() {
+      return inverse;
+    }
+
+    private boolean isUsable(boolean withFormula) {
+      if (isCoefficient()) {
+        return !inverse || (coef != null && coef.signum() != 0);
+      }
+      return withFormula && formula != null;
+    }
+  }
+
+  /** Projection of the conversions read by {@link #of(List)}, without loading the entities. */
+  public static final String QUERY =
+      "SELECT self.id, startUnit.id, endUnit.id, self.typeSelect, self.coef, self.formula "
+          + "FROM UnitConversion self "
+          + "JOIN self.startUnit startUnit "
+          + "JOIN self.endUnit endUnit "
+          + "ORDER BY self.id";
+
+  private final Map<Long, Map<Long, List<Edge>>> edges;
+
+  private final Map<String, Optional<List<Edge>>> paths = new ConcurrentHashMap<>();
+
+  public UnitConversionGraph(List<? extends UnitConversion> unitConversionList) {
+    this.edges = new HashMap<>();
+    for (UnitConversion unitConversion : unitConversionList) {
+      if (unitConversion.getStartUnit() == null || unitConversion.getEndUnit() == null) {
+        continue;
+      }
+      addEdges(
+          unitConversion.getId(),
+          unitConversion.getStartUnit().getId(),
+          unitConversion.getEndUnit().getId(),
+          unitConversion.getTypeSelect(),
+          unitConversion.getCoef(),
+          unitConversion.getFormula());
+    }
+  }
+
+  private UnitConversionGraph() {
+    this.edges = new HashMap<>();
+  }
+
+  /**
+   * Build the graph from the rows of the {@link #QUERY} projection, in the order of the conversion
+   * list.
+   *
+   * @param rows the ID, start unit ID, end unit ID, type, coefficient and formula of each
+   *     conversion
+   * @return the graph
+   */
+  public static UnitConversionGraph of(List<Object[]> rows) {
+    UnitConversionGraph graph = new UnitConversionGraph();
+    for (Object[] row : rows) {
+      graph.addEdges(
+          (Long) row[0],
+          (Long) row[1],
+          (Long) row[2],
+          (Integer) row[3],
+          (BigDecimal) row[4],
+          (String) row[5]);
+    }
+    return graph;
+  }
+
+  private void addEdges(
+      Long unitConversionId,
+      Long startUnitId,
+      Long endUnitId,
+      Integer typeSelect,
+      BigDecimal coef,
+      String formula) {
+    int type = typeSelect == null ? 0 : typeSelect;
+    addEdge(new Edge(unitConversionId, startUnitId, endUnitId, type, coef, formula, false));
+    addEdge(new Edge(unitConversionId, startUnitId, endUnitId, type, coef, formula, true));
+  }
+
+  private void addEdge(Edge edge) {
+    edges
+        .computeIfAbsent(edge.getStartUnitId(), id -> new LinkedHashMap<>())
+        .computeIfAbsent(edge.getEndUnitId(), id -> new ArrayList<>())
+        .add(edge);
+  }
+
+  /**
+   * Find the conversion path between two units.
+   *
+   * @param startUnitId the start unit
+   * @param endUnitId the end unit
+   * @param withFormula whether formula conversions can be used
+   * @return the edges to follow, empty if the units can not be converted.
+   */
+  public List<Edge> findPath(Long startUnitId, Long endUnitId, boolean withFormula) {
+    String key = startUnitId + "-" + endUnitId + "-" + withFormula;
+    return paths
+        .computeIfAbsent(key, k -> Optional.ofNullable(search(startUnitId, endUnitId, withFormula)))
+        .orElse(Collections.emptyList());
+  }
+
+  private List<Edge> search(Long startUnitId, Long endUnitId, boolean withFormula) {
+    Map<Long, Edge> previous = new HashMap<>();
+    Deque<Long> queue = new ArrayDeque<>();
+    queue.add(startUnitId);
+    previous.put(startUnitId, null);
+
+    while (!queue.isEmpty()) {
+      Long unitId = queue.poll();
+      for (List<Edge> candidates :
+          edges.getOrDefault(unitId, Collections.emptyMap()).values()) {
+        Edge edge = firstUsable(candidates, withFormula);
+        if (edge == null || previous.containsKey(edge.getEndUnitId())) {
+          continue;
+        }
+        previous.put(edge.getEndUnitId(), edge);
+        if (edge.getEndUnitId().equals(endUnitId)) {
+          return buildPath(previous, endUnitId);
+        }
+        queue.add(edge.getEndUnitId());
+      }
+    }
+
+    return null;
+  }
+
+  private Edge firstUsable(List<Edge> candidates, boolean withFormula) {
+    Edge reverse = null;
+    for (Edge edge : candidates) {
+      if (edge.isUsable(withFormula)) {
+        if (!edge.isInverse()) {
+          return edge;
+        }
+        if (reverse == null) {
+          reverse = edge;
+        }
+      }
+    }
+    return reverse;
+  }
+
+  private List<Edge> buildPath(Map<Long, Edge> previous, Long endUnitId) {
+    List<Edge> path = new ArrayList<>();
+    Edge edge = previous.get(endUnitId);
+    while (edge != null) {
+      path.add(0, edge);
+      edge = previous.get(edge.getStartUnitId());
+    }
+    return Collections.unmodifiableList(path);
+  }
+}
@@ -30,16 +30,17 @@ import com.axelor.tool.template.TemplateMaker;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
+import groovy.lang.Script;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.codehaus.groovy.control.CompilationFailedException;
-import org.codehaus.groovy.control.CompilerConfiguration;
-import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,12 +51,17 @@ public class UnitConversionService {
 
   private static final char TEMPLATE_DELIMITER = '$';
   private static final int DEFAULT_COEFFICIENT_SCALE = 12;
+  private static final String PRODUCT_VARIABLE = "__product__";
+  private static final Pattern TEMPLATE_VARIABLE = Pattern.compile("\\$([^$]*)\\$");
+  private static final Pattern PRODUCT_PROPERTY = Pattern.compile("Product((?:\\.\\w+)*)");
   protected TemplateMaker maker;
 
   @Inject protected AppBaseService appBaseService;
 
   @Inject protected UnitConversionRepository unitConversionRepo;
 
+  @Inject protected UnitConversionCache unitConversionCache;
+
   /**
    * Convert a value from a unit to another
    *
@@ -80,7 +86,7 @@ public class UnitConversionService {
     else {
       try {
         BigDecimal coefficient =
-            this.getCoefficient(unitConversionRepo.all().fetch(), startUnit, endUnit, product);
+            this.getCoefficient(unitConversionCache.getGraph(), startUnit, endUnit, product);
 
         return value.multiply(coefficient).setScale(scale, RoundingMode.HALF_EVEN);
       } catch (IOException | ClassNotFoundException e) {
@@ -90,10 +96,33 @@ public class UnitConversionService {
     return value;
   }
 
+  /**
+   * Get the conversion coefficient between two units, using the cached conversion graph.
+   *
+   * @param startUnit The start unit
+   * @param endUnit The end unit
+   * @param product Optionnal, a product used for complex conversions. Input null if needless.
+   * @return A conversion coefficient to convert from startUnit to endUnit.
+   * @throws AxelorException The units can not be converted.
+   */
+  public BigDecimal getCoefficient(Unit startUnit, Unit endUnit, Product product)
+      throws AxelorException {
+
+    if (startUnit.equals(endUnit)) {
+      return BigDecimal.ONE;
+    }
+    try {
+      return this.getCoefficient(unitConversionCache.getGraph(), startUnit, endUnit, product);
+    } catch (IOException | ClassNotFoundException e) {
+      throw new AxelorException(e, TraceBackRepository.CATEGORY_CONFIGURATION_ERROR);
+    }
+  }
+
   /**
    * Get the conversion coefficient between two units from a conversion list. If the start unit and
    * the end unit can not be found in the list, then the units are swapped. If there still isn't any
-   * result, an Exception is thrown.
+   * result, the units are converted through intermediate units and if there is no such path, an
+   * Exception is thrown.
    *
    * @param unitConversionList A list of conversions between units
    * @param startUnit The start unit
@@ -111,60 +140,112 @@ public class UnitConversionService {
       Unit endUnit,
       Product product)
       throws AxelorException, CompilationFailedException, ClassNotFoundException, IOException {
-    /* Looking for the start unit and the end unit in the unitConversionList to get the coefficient */
-    if (product != null) {
-      this.maker = new TemplateMaker(Locale.FRENCH, TEMPLATE_DELIMITER, TEMPLATE_DELIMITER);
-      this.maker.setContext(product, "Product");
+    return getCoefficient(new UnitConversionGraph(unitConversionList), startUnit, endUnit, product);
+  }
+
+  /**
+   * Get the conversion coefficient between two units from the conversion graph, multiplying the
+   * coefficients of the conversions along the path between the units.
+   *
+   * @param graph The graph of the conversions between units
+   * @param startUnit The start unit
+   * @param endUnit The end unit
+   * @param product Optionnal, a product used for complex conversions. Input null if needless.
+   * @return A conversion coefficient to convert from startUnit to endUnit.
+   * @throws AxelorException The required units can not be converted with the graph.
+   * @throws CompilationFailedException
+   * @throws ClassNotFoundException
+   * @throws IOException
+   */
+  public BigDecimal getCoefficient(
+      UnitConversionGraph graph, Unit startUnit, Unit endUnit, Product product)
+      throws AxelorException, CompilationFailedException, ClassNotFoundException, IOException {
+
+    List<UnitConversionGraph.Edge> path =
+        graph.findPath(startUnit.getId(), endUnit.getId(), product != null);
+    if (path.isEmpty()) {
+      /* If there is no path from startUnit to endUnit so we throw an exception */
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.UNIT_CONVERSION_1),
+          startUnit.getName(),
+          endUnit.getName());
     }
-    String eval = null;
-    for (UnitConversion unitConversion : unitConversionList) {
-
-      if (unitConversion.getStartUnit().equals(startUnit)
-          && unitConversion.getEndUnit().equals(endUnit)) {
-        if (unitConversion.getTypeSelect() == UnitConversionRepository.TYPE_COEFF) {
-          return unitConversion.getCoef();
-        } else if (product != null) {
-          maker.setTemplate(unitConversion.getFormula());
-          eval = maker.make();
-          CompilerConfiguration conf = new CompilerConfiguration();
-          ImportCustomizer customizer = new ImportCustomizer();
-          customizer.addStaticStars("java.lang.Math");
-          conf.addCompilationCustomizers(customizer);
-          Binding binding = new Binding();
-          GroovyShell shell = new GroovyShell(binding, conf);
-          return new BigDecimal(shell.evaluate(eval).toString());
+
+    BigDecimal coefficient = BigDecimal.ONE;
+    for (UnitConversionGraph.Edge edge : path) {
+      BigDecimal edgeCoefficient =
+          edge.isCoefficient() ? edge.getCoef() : evaluateFormula(edge, product);
+
+      /* The endUnit become the start unit and the startUnit become the end unit */
+      if (edge.isInverse()) {
+        if (edgeCoefficient.signum() == 0) {
+          throw new AxelorException(
+              TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+              I18n.get(IExceptionMessage.UNIT_CONVERSION_1),
+              startUnit.getName(),
+              endUnit.getName());
         }
+        edgeCoefficient =
+            BigDecimal.ONE.divide(
+                edgeCoefficient, DEFAULT_COEFFICIENT_SCALE, RoundingMode.HALF_EVEN);
       }
 
-      /* The endUnit become the start unit and the startUnit become the end unit */
+      coefficient = coefficient.multiply(edgeCoefficient);
+    }
 
-      if (unitConversion.getStartUnit().equals(endUnit)
-          && unitConversion.getEndUnit().equals(startUnit)) {
-        if (unitConversion.getTypeSelect() == UnitConversionRepository.TYPE_COEFF
-            && unitConversion.getCoef().compareTo(BigDecimal.ZERO) != 0) {
-          return BigDecimal.ONE.divide(
-              unitConversion.getCoef(), DEFAULT_COEFFICIENT_SCALE, RoundingMode.HALF_EVEN);
-        } else if (product != null) {
-          maker.setTemplate(unitConversion.getFormula());
-          eval = maker.make();
-          CompilerConfiguration conf = new CompilerConfiguration();
-          ImportCustomizer customizer = new ImportCustomizer();
-          customizer.addStaticStars("java.lang.Math");
-          conf.addCompilationCustomizers(customizer);
-          Binding binding = new Binding();
-          GroovyShell shell = new GroovyShell(binding, conf);
-          BigDecimal result = new BigDecimal(shell.evaluate(eval).toString());
-          if (result.compareTo(BigDecimal.ZERO) != 0) {
-            return BigDecimal.ONE.divide(result, DEFAULT_COEFFICIENT_SCALE, RoundingMode.HALF_EVEN);
-          }
-        }
+    return coefficient;
+  }
+
+  /**
+   * Evaluate the formula of a conversion for a product. Formulas only using product properties are
+   * compiled once and cached, the product being given to the script as a variable. Other formulas
+   * are rendered with the product before being evaluated.
+   *
+   * @param edge The formula conversion
+   * @param product The product used by the formula
+   * @return The value of the formula
+   */
+  protected BigDecimal evaluateFormula(UnitConversionGraph.Edge edge, Product product)
+      throws ClassNotFoundException, IOException {
+
+    String script = toScript(edge.getFormula());
+    Binding binding = new Binding();
+
+    if (script == null) {
+      this.maker = new TemplateMaker(Locale.FRENCH, TEMPLATE_DELIMITER, TEMPLATE_DELIMITER);
+      this.maker.setContext(product, "Product");
+      maker.setTemplate(edge.getFormula());
+      script = maker.make();
+      logger.debug("Formula of unit conversion {} can not be compiled", edge.getUnitConversionId());
+      return new BigDecimal(unitConversionCache.evaluate(script, binding).toString());
+    }
+
+    binding.setVariable(PRODUCT_VARIABLE, product);
+    Script compiledScript =
+        InvokerHelper.createScript(
+            unitConversionCache.getScriptClass(edge.getUnitConversionId(), script), binding);
+    return new BigDecimal(compiledScript.run().toString());
+  }
+
+  /**
+   * Turn the template variables of a formula into references to the product variable.
+   *
+   * @param formula
+   * @return The script or <code>null</code> if the formula uses other template expressions.
+   */
+  protected String toScript(String formula) {
+    Matcher matcher = TEMPLATE_VARIABLE.matcher(formula);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      Matcher property = PRODUCT_PROPERTY.matcher(matcher.group(1).trim());
+      if (!property.matches()) {
+        return null;
       }
+      matcher.appendReplacement(
+          sb, Matcher.quoteReplacement("(" + PRODUCT_VARIABLE + property.group(1) + ")"));
     }
-    /* If there is no startUnit and endUnit in the UnitConversion list so we throw an exception */
-    throw new AxelorException(
-        TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
-        I18n.get(IExceptionMessage.UNIT_CONVERSION_1),
-        startUnit.getName(),
-        endUnit.getName());
+    matcher.appendTail(sb);
+    return sb.indexOf(String.valueOf(TEMPLATE_DELIMITER)) < 0 ? sb.toString() : null;
   }
 }
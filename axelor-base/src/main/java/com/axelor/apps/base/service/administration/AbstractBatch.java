@@ -17,6 +17,7 @@
  */
 package com.axelor.apps.base.service.administration;
 
+import com.axelor.app.AppSettings;
 import com.axelor.apps.base.db.Batch;
 import com.axelor.apps.base.db.repo.BatchRepository;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
@@ -25,15 +26,31 @@ import com.axelor.auth.db.AuditableModel;
 import com.axelor.db.EntityHelper;
 import com.axelor.db.JPA;
 import com.axelor.db.Model;
+import com.axelor.db.Query;
+import com.axelor.db.mapper.Mapper;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
+import javax.persistence.TypedQuery;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +59,27 @@ public abstract class AbstractBatch {
 
   public static final int FETCH_LIMIT = 10;
 
+  /** Default number of records handled by one partition in parallel mode. */
+  public static final int PARTITION_SIZE = 500;
+
+  /** Set on threads of the worker pool while a partition is being processed. */
+  private static final ThreadLocal<Boolean> threadWorker = new ThreadLocal<>();
+
+  /** Batches currently running on this node, by batch ID. */
+  private static final Map<Long, AbstractBatch> runningBatches = new ConcurrentHashMap<>();
+
+  /** Number of processed records after which counters are flushed to the batch record. */
+  public static final String CHECKPOINT_RECORDS = "batch.checkpoint.records";
+
+  /** Delay in milliseconds after which counters are flushed to the batch record. */
+  public static final String CHECKPOINT_INTERVAL = "batch.checkpoint.interval";
+
+  /** Number of workers of the batches supporting the parallel mode, 1 to run them serially. */
+  public static final String THREAD_COUNT = "batch.thread.count";
+
+  private static final int DEFAULT_CHECKPOINT_RECORDS = 100;
+  private static final int DEFAULT_CHECKPOINT_INTERVAL = 5000;
+
   @Inject protected AppBaseService appBaseService;
 
   protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -51,19 +89,23 @@ public abstract class AbstractBatch {
 
   @Inject protected BatchRepository batchRepo;
 
-  private int done;
-  private int anomaly;
+  private final AtomicInteger done = new AtomicInteger();
+  private final AtomicInteger anomaly = new AtomicInteger();
+
+  /** Records linked to the batch since the last checkpoint, by entity class and ID. */
+  private final Set<Pair<Class<? extends Model>, Long>> pendingLinks =
+      ConcurrentHashMap.newKeySet();
+
+  private int lastCheckPointCount;
+  private long lastCheckPointTime = System.currentTimeMillis();
 
   protected AbstractBatch() {
     this.batch = new Batch();
 
     this.batch.setStartDate(ZonedDateTime.now());
 
-    this.done = 0;
-    this.anomaly = 0;
-
-    this.batch.setDone(this.done);
-    this.batch.setAnomaly(this.anomaly);
+    this.batch.setDone(this.done.get());
+    this.batch.setAnomaly(this.anomaly.get());
 
     JPA.runInTransaction(() -> batch = JPA.persist(batch));
   }
@@ -101,13 +143,16 @@ public abstract class AbstractBatch {
     if (isRunnable(model)) {
       try {
         threadBatchId.set(batch.getId());
+        runningBatches.put(batch.getId(), this);
         start();
         process();
+        flushCounters();
         stop();
         return batch;
       } catch (Exception e) {
         throw new RuntimeException(e);
       } finally {
+        runningBatches.remove(batch.getId());
         threadBatchId.remove();
         unarchived();
       }
@@ -138,6 +183,8 @@ public abstract class AbstractBatch {
   protected void stop() {
     findBatch();
 
+    batch.setDone(done.get());
+    batch.setAnomaly(anomaly.get());
     batch.setEndDate(ZonedDateTime.now());
     batch.setDuration(getDuring());
 
@@ -147,29 +194,292 @@ public abstract class AbstractBatch {
   }
 
   protected void incrementDone() {
-    findBatch();
+    if (!isWorkerThread()) {
+      findBatch();
+    }
     _incrementDone();
   }
 
   protected void _incrementDone() {
-    done += 1;
-    batch.setDone(done);
-    checkPoint();
+    int count = done.incrementAndGet();
+    collectLinks();
+    checkPointIfDue();
 
-    LOG.debug("Done ::: {}", done);
+    LOG.debug("Done ::: {}", count);
   }
 
   protected void incrementAnomaly() {
-    findBatch();
+    if (!isWorkerThread()) {
+      findBatch();
+    }
     _incrementAnomaly();
   }
 
   protected void _incrementAnomaly() {
-    anomaly += 1;
-    batch.setAnomaly(anomaly);
+    int count = anomaly.incrementAndGet();
+    collectLinks();
+    checkPointIfDue();
+
+    LOG.debug("Anomaly ::: {}", count);
+  }
+
+  /**
+   * Returns the live progress of a running batch, read from the in-memory counters of the batch
+   * without querying the database.
+   *
+   * @param batchId the ID of the batch
+   * @return the progress of the batch or <code>null</code> if the batch is not running on this
+   *     node.
+   */
+  public static BatchProgress getProgress(Long batchId) {
+    AbstractBatch runningBatch = batchId == null ? null : runningBatches.get(batchId);
+    return runningBatch == null ? null : runningBatch.getProgress();
+  }
+
+  public BatchProgress getProgress() {
+    return new BatchProgress(batch.getId(), batch.getStartDate(), done.get(), anomaly.get());
+  }
+
+  /**
+   * Flush the in-memory counters to the {@link Batch} entity once {@link #CHECKPOINT_RECORDS}
+   * records have been processed or {@link #CHECKPOINT_INTERVAL} milliseconds have elapsed since
+   * the last flush. Does nothing on worker threads, their counters are flushed by the main thread.
+   */
+  protected void checkPointIfDue() {
+    if (isWorkerThread()) {
+      return;
+    }
+    int count = done.get() + anomaly.get();
+    if (count - lastCheckPointCount >= getCheckPointRecords()
+        || System.currentTimeMillis() - lastCheckPointTime >= getCheckPointInterval()) {
+      flushCounters();
+    }
+  }
+
+  /**
+   * Remember the records of the current EntityManager linked to the batch and not committed yet,
+   * so that {@link #checkPoint()} can write the links even if the EntityManager is cleared in the
+   * meantime. Saves one transaction per processed record.
+   */
+  protected void collectLinks() {
+    for (Object key :
+        JPA.em()
+            .unwrap(SessionImplementor.class)
+            .getPersistenceContext()
+            .getCollectionEntries()
+            .keySet()) {
+      PersistentCollection collection = (PersistentCollection) key;
+      if (collection.wasInitialized()
+          && collection.isDirty()
+          && collection instanceof Set
+          && collection.getOwner() instanceof Model
+          && ((Set<?>) collection)
+              .stream()
+              .anyMatch(
+                  item -> item instanceof Batch && batch.getId().equals(((Batch) item).getId()))) {
+        Model owner = (Model) collection.getOwner();
+        if (owner.getId() != null) {
+          pendingLinks.add(Pair.of(EntityHelper.getEntityClass(owner), owner.getId()));
+        }
+      }
+    }
+  }
+
+  /** Write the links collected by {@link #collectLinks()} to the records. */
+  @SuppressWarnings("unchecked")
+  protected void writeLinks() {
+    for (Pair<Class<? extends Model>, Long> link : new ArrayList<>(pendingLinks)) {
+      Model record = JPA.find(link.getLeft(), link.getRight());
+      if (record != null) {
+        Set<Batch> batchSet = (Set<Batch>) Mapper.of(link.getLeft()).get(record, "batchSet");
+        if (batchSet != null && !batchSet.contains(batch)) {
+          batchSet.add(batch);
+        }
+      }
+      pendingLinks.remove(link);
+    }
+  }
+
+  /** Write the in-memory counters to the {@link Batch} entity. */
+  protected synchronized void flushCounters() {
+    findBatch();
+    batch.setDone(done.get());
+    batch.setAnomaly(anomaly.get());
     checkPoint();
 
-    LOG.debug("Anomaly ::: {}", anomaly);
+    lastCheckPointCount = done.get() + anomaly.get();
+    lastCheckPointTime = System.currentTimeMillis();
+  }
+
+  protected int getCheckPointRecords() {
+    return AppSettings.get().getInt(CHECKPOINT_RECORDS, DEFAULT_CHECKPOINT_RECORDS);
+  }
+
+  protected long getCheckPointInterval() {
+    return AppSettings.get().getInt(CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL);
+  }
+
+  protected int getThreadCount() {
+    return AppSettings.get().getInt(THREAD_COUNT, 1);
+  }
+
+  /**
+   * Process the records matching the given filter in parallel.
+   *
+   * <p>The ID range of the matching records is split into contiguous partitions of {@link
+   * #PARTITION_SIZE} records, which are processed on a {@link WorkerPool} of {@code threadCount}
+   * workers. Each worker opens its own unit of work, so it gets its own EntityManager and
+   * transactions, and runs with the current batch ID so that {@link #getCurrentBatchId()} and
+   * {@link TraceBackService} anomalies are linked to this batch. Exceptions thrown by the processor
+   * are traced and counted as anomalies, as well as partitions which fail outside of the processor.
+   * Calls to {@link #incrementDone()} and {@link #incrementAnomaly()} from workers are merged into
+   * the {@link Batch} record by the calling thread as partitions complete.
+   *
+   * @param klass the entity class to process
+   * @param filter the JPQL filter on {@code self}, may use named parameters
+   * @param bindings the named parameters of the filter
+   * @param threadCount the size of the worker pool
+   * @param processor the process applied on each record
+   */
+  protected <T extends Model> void processInParallel(
+      Class<T> klass,
+      String filter,
+      Map<String, Object> bindings,
+      int threadCount,
+      PartitionProcessor<T> processor) {
+    processInParallel(klass, filter, bindings, threadCount, PARTITION_SIZE, processor);
+  }
+
+  protected <T extends Model> void processInParallel(
+      Class<T> klass,
+      String filter,
+      Map<String, Object> bindings,
+      int threadCount,
+      int partitionSize,
+      PartitionProcessor<T> processor) {
+    Preconditions.checkArgument(threadCount > 0);
+    Preconditions.checkArgument(partitionSize > 0);
+
+    List<List<Long>> partitions = Lists.partition(findIds(klass, filter, bindings), partitionSize);
+    if (partitions.isEmpty()) {
+      return;
+    }
+
+    final long batchId = batch.getId();
+    List<Future<Void>> futures = new ArrayList<>(partitions.size());
+
+    try (WorkerPool workerPool =
+        new WorkerPool("batch-" + batchId, Math.min(threadCount, partitions.size()))) {
+      for (List<Long> partition : partitions) {
+        final long fromId = partition.get(0);
+        final long toId = partition.get(partition.size() - 1);
+        futures.add(
+            workerPool.submit(
+                () -> {
+                  processPartition(klass, filter, bindings, fromId, toId, batchId, processor);
+                  return null;
+                }));
+      }
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          TraceBackService.trace(e.getCause(), null, batchId);
+          incrementAnomaly();
+        } finally {
+          checkPointIfDue();
+        }
+      }
+      flushCounters();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private <T extends Model> List<Long> findIds(
+      Class<T> klass, String filter, Map<String, Object> bindings) {
+    TypedQuery<Long> query =
+        JPA.em()
+            .createQuery(
+                String.format(
+                    "SELECT self.id FROM %s self WHERE %s ORDER BY self.id",
+                    klass.getSimpleName(), filter),
+                Long.class);
+    if (bindings != null) {
+      bindings.forEach(query::setParameter);
+    }
+    return query.getResultList();
+  }
+
+  private <T extends Model> void processPartition(
+      Class<T> klass,
+      String filter,
+      Map<String, Object> bindings,
+      long fromId,
+      long toId,
+      long batchId,
+      PartitionProcessor<T> processor) {
+
+    Query<T> query =
+        Query.of(klass)
+            .filter("(" + filter + ") AND self.id > :_lastId AND self.id <= :_toId")
+            .bind(bindings == null ? Collections.emptyMap() : bindings)
+            .bind("_toId", toId)
+            .order("id");
+    long lastId = fromId - 1;
+    List<T> records;
+
+    while (!(records = query.bind("_lastId", lastId).fetch(FETCH_LIMIT)).isEmpty()) {
+      for (T record : records) {
+        lastId = record.getId();
+        try {
+          processor.process(record);
+        } catch (Exception e) {
+          TraceBackService.trace(e, null, batchId);
+          incrementAnomaly();
+        }
+      }
+      JPA.clear();
+    }
+  }
+
+  /**
+   * Bind a {@link WorkerPool} thread to the batch which submitted its task. Does nothing if the
+   * task was not submitted from a batch.
+   *
+   * @param batchId the ID of the batch, <code>0</code> if none.
+   */
+  static void bindWorker(long batchId) {
+    if (batchId == 0) {
+      return;
+    }
+    if (threadBatchId.get() != null) {
+      throw new IllegalStateException(I18n.get(IExceptionMessage.ABSTRACT_BATCH_2));
+    }
+    threadBatchId.set(batchId);
+    threadWorker.set(true);
+  }
+
+  static void unbindWorker() {
+    threadWorker.remove();
+    threadBatchId.remove();
+  }
+
+  /**
+   * Tells whether the current thread is a worker of {@link #processInParallel}.
+   *
+   * @return <code>true</code> if called from a worker thread.
+   */
+  protected static boolean isWorkerThread() {
+    return Boolean.TRUE.equals(threadWorker.get());
+  }
+
+  /** Process applied on each record in parallel mode. */
+  @FunctionalInterface
+  public interface PartitionProcessor<T extends Model> {
+    void process(T record) throws Exception;
   }
 
   protected void addComment(String comment) {
@@ -182,7 +492,9 @@ public abstract class AbstractBatch {
 
   @Transactional
   protected Batch checkPoint() {
-    return findBatch();
+    findBatch();
+    writeLinks();
+    return batch;
   }
 
   @Transactional
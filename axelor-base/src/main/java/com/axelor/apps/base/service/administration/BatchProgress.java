@@ -0,0 +1,63 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.administration;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Snapshot of the in-memory counters of a running batch. */
+public class BatchProgress {
+
+  private final Long batchId;
+  private final ZonedDateTime startDate;
+  private final int done;
+  private final int anomaly;
+
+  public BatchProgress(Long batchId, ZonedDateTime startDate, int done, int anomaly) {
+    this.batchId = batchId;
+    this.startDate = startDate;
+    this.done = done;
+    this.anomaly = anomaly;
+  }
+
+  public Long getBatchId() {
+    return batchId;
+  }
+
+  public ZonedDateTime getStartDate() {
+    return startDate;
+  }
+
+  public int getDone() {
+    return done;
+  }
+
+  public int getAnomaly() {
+    return anomaly;
+  }
+
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new HashMap<>();
+    map.put("batchId", batchId);
+    map.put("startDate", startDate);
+    map.put("done", done);
+    map.put("anomaly", anomaly);
+    return map;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.administration;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Precompiled prefix/suffix pattern of a sequence.
+ *
+ * <p>The prefix and the suffix are parsed once into literal and date parts so formatting a
+ * sequence number only appends the parts, without any regular expression.
+ */
+public class SequenceFormatter {
+
+  private static final DateTimeFormatter YEAR_FORMATTER = DateTimeFormatter.ofPattern("yy");
+  private static final DateTimeFormatter FULL_MONTH_FORMATTER = DateTimeFormatter.ofPattern("MM");
+
+  public static final String PATTERN_FULL_YEAR = "%YYYY",
+      PATTERN_YEAR = "%YY",
+      PATTERN_FULL_MONTH = "%FM",
+      PATTERN_MONTH = "%M",
+      PATTERN_DAY = "%D",
+      PATTERN_WEEK = "%WY";
+
+  /** Tags ordered so that the longest tags are matched first. */
+  private static final String[] TAGS = {
+    PATTERN_FULL_YEAR, PATTERN_YEAR, PATTERN_FULL_MONTH, PATTERN_MONTH, PATTERN_DAY, PATTERN_WEEK
+  };
+
+  private static final List<Function<LocalDate, String>> TAG_FORMATS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              date -> Integer.toString(date.get(ChronoField.YEAR_OF_ERA)),
+              date -> date.format(YEAR_FORMATTER),
+              date -> date.format(FULL_MONTH_FORMATTER),
+              date -> Integer.toString(date.getMonthValue()),
+              date -> Integer.toString(date.getDayOfMonth()),
+              date -> Integer.toString(date.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR))));
+
+  private final String prefixe;
+  private final String suffixe;
+  private final List<Object> prefixParts;
+  private final List<Object> suffixParts;
+
+  public SequenceFormatter(String prefixe, String suffixe) {
+    this.prefixe = prefixe;
+    this.suffixe = suffixe;
+    this.prefixParts = compile(prefixe);
+    this.suffixParts = compile(suffixe);
+  }
+
+  /**
+   * Tells whether this formatter has been compiled from the given prefix and suffix.
+   *
+   * @param prefixe
+   * @param suffixe
+   * @return
+   */
+  public boolean matches(String prefixe, String suffixe) {
+    return Objects.equals(this.prefixe, prefixe) && Objects.equals(this.suffixe, suffixe);
+  }
+
+  /**
+   * Build the sequence number by surrounding the given value with the prefix and the suffix,
+   * tags being replaced by the corresponding part of the reference date.
+   *
+   * @param value
+   * @param refDate
+   * @return
+   */
+  public String format(String value, LocalDate refDate) {
+    StringBuilder sb = new StringBuilder();
+    append(sb, prefixParts, refDate);
+    sb.append(value);
+    append(sb, suffixParts, refDate);
+    return sb.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void append(StringBuilder sb, List<Object> parts, LocalDate refDate) {
+    for (Object part : parts) {
+      if (part instanceof String) {
+        sb.append((String) part);
+      } else {
+        sb.append(((Function<LocalDate, String>) part).apply(refDate));
+      }
+    }
+  }
+
+  private static List<Object> compile(String pattern) {
+    List<Object> parts = new ArrayList<>();
+    if (pattern == null || pattern.isEmpty()) {
+      return parts;
+    }
+
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < pattern.length()) {
+      int tag = findTag(pattern, i);
+      if (tag < 0) {
+        literal.append(pattern.charAt(i++));
+        continue;
+      }
+      if (literal.length() > 0) {
+        parts.add(literal.toString());
+        literal.setLength(0);
+      }
+      parts.add(TAG_FORMATS.get(tag));
+      i += TAGS[tag].length();
+    }
+    if (literal.length() > 0) {
+      parts.add(literal.toString());
+    }
+    return parts;
+  }
+
+  private static int findTag(String pattern, int index) {
+    for (int i = 0; i < TAGS.length; i++) {
+      if (pattern.startsWith(TAGS[i], index)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -27,6 +27,7 @@ import com.axelor.apps.base.db.repo.SequenceVersionRepository;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.tool.StringTool;
+import com.axelor.db.JPA;
 import com.axelor.db.Model;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
@@ -35,15 +36,19 @@ import com.axelor.inject.Beans;
 import com.axelor.meta.db.MetaSelectItem;
 import com.axelor.meta.db.repo.MetaSelectItemRepository;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoField;
-import java.time.temporal.IsoFields;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.concurrent.ThreadSafe;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,13 +59,10 @@ public class SequenceService {
 
   private static final String DRAFT_PREFIX = "#";
 
-  private static final String PATTERN_FULL_YEAR = "%YYYY",
-      PATTERN_YEAR = "%YY",
-      PATTERN_MONTH = "%M",
-      PATTERN_FULL_MONTH = "%FM",
-      PATTERN_DAY = "%D",
-      PATTERN_WEEK = "%WY",
-      PADDING_STRING = "0";
+  private static final String PADDING_STRING = "0";
+
+  /** Codes of the invoice and accounting move sequences, whose numbering must be gap-free. */
+  private static final Set<String> GAP_FREE_SEQUENCE_CODES = ImmutableSet.of("invoice", "move");
 
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
@@ -70,6 +72,12 @@ public class SequenceService {
 
   @Inject private SequenceRepository sequenceRepo;
 
+  /** Compiled prefix/suffix patterns, by sequence ID. */
+  private final Map<Long, SequenceFormatter> formatters = new ConcurrentHashMap<>();
+
+  /** Blocks of numbers reserved by this server, by sequence version ID. */
+  private final Map<Long, SequenceBlock> reservedBlocks = new ConcurrentHashMap<>();
+
   @Inject
   public SequenceService(
       SequenceVersionRepository sequenceVersionRepository, AppBaseService appBaseService) {
@@ -90,7 +98,9 @@ public class SequenceService {
         seqSuffixe = StringUtils.defaultString(sequence.getSuffixe(), ""),
         seq = seqPrefixe + seqSuffixe;
 
-    if (yearlyResetOk && !seq.contains(PATTERN_YEAR) && !seq.contains(PATTERN_FULL_YEAR)) {
+    if (yearlyResetOk
+        && !seq.contains(SequenceFormatter.PATTERN_YEAR)
+        && !seq.contains(SequenceFormatter.PATTERN_FULL_YEAR)) {
       return false;
     }
 
@@ -110,14 +120,26 @@ public class SequenceService {
         seq = seqPrefixe + seqSuffixe;
 
     if (monthlyResetOk
-        && ((!seq.contains(PATTERN_MONTH) && !seq.contains(PATTERN_FULL_MONTH))
-            || (!seq.contains(PATTERN_YEAR) && !seq.contains(PATTERN_FULL_YEAR)))) {
+        && ((!seq.contains(SequenceFormatter.PATTERN_MONTH)
+                && !seq.contains(SequenceFormatter.PATTERN_FULL_MONTH))
+            || (!seq.contains(SequenceFormatter.PATTERN_YEAR)
+                && !seq.contains(SequenceFormatter.PATTERN_FULL_YEAR)))) {
       return false;
     }
 
     return true;
   }
 
+  /**
+   * Tells whether the reservation block size of the sequence is allowed: numbers reserved in
+   * blocks may be lost, so sequences requiring gap-free legal numbering take numbers one by one.
+   */
+  public static boolean isReservationBlockSizeValid(Sequence sequence) {
+
+    return sequence.getReservationBlockSize() <= 1
+        || !GAP_FREE_SEQUENCE_CODES.contains(sequence.getCode());
+  }
+
   public static boolean isSequenceLengthValid(Sequence sequence) {
     String seqPrefixe = StringUtils.defaultString(sequence.getPrefixe(), "").replaceAll("%", "");
     String seqSuffixe = StringUtils.defaultString(sequence.getSuffixe(), "").replaceAll("%", "");
@@ -191,46 +213,165 @@ public class SequenceService {
   @Transactional
   public String getSequenceNumber(Sequence sequence, LocalDate refDate) {
 
+    Long nextNum = null;
+    if (sequence.getReservationBlockSize() > 1 && isReservationBlockSizeValid(sequence)) {
+      nextNum = nextReservedNum(sequence, refDate);
+    }
+    if (nextNum == null) {
+      nextNum = reserveNums(sequence, refDate, 1);
+    }
+
+    String nextSeq = formatSequenceNumber(sequence, nextNum, refDate);
+
+    log.debug("nextSeq : : : : {}", nextSeq);
+
+    return nextSeq;
+  }
+
+  /**
+   * Reserve {@code count} consecutive numbers on the sequence version of the given date, in the
+   * current transaction. The sequence version row is locked until the end of the transaction, so
+   * concurrent transactions get distinct numbers and a rollback releases the numbers.
+   *
+   * @return the first reserved number
+   */
+  protected long reserveNums(Sequence sequence, LocalDate refDate, int count) {
+
     SequenceVersion sequenceVersion = getVersion(sequence, refDate);
 
-    String seqPrefixe = StringUtils.defaultString(sequence.getPrefixe(), ""),
-        seqSuffixe = StringUtils.defaultString(sequence.getSuffixe(), ""),
-        sequenceValue;
+    // once locked, the version must not be refreshed: it would drop the numbers reserved since
+    if (sequenceVersion.getId() != null && !isLocked(sequenceVersion)) {
+      JPA.em().refresh(sequenceVersion, LockModeType.PESSIMISTIC_WRITE);
+    }
 
+    long nextNum = sequenceVersion.getNextNum();
+    sequenceVersion.setNextNum(nextNum + (long) count * sequence.getToBeAdded());
+    sequenceVersionRepository.save(sequenceVersion);
+
+    return nextNum;
+  }
+
+  /**
+   * Get the next number from the block reserved by this server for the sequence version of the
+   * given date, reserving a new block when the current one is exhausted.
+   *
+   * <p>Blocks are reserved in a separate transaction so that numbers handed out from the block
+   * are never given again, even if the calling transaction is rolled back. Unused numbers of a
+   * block are lost, which is why this is only used on sequences with a reservation block size
+   * greater than 1.
+   *
+   * @return the next number or <code>null</code> if the sequence version does not exist yet.
+   */
+  protected Long nextReservedNum(Sequence sequence, LocalDate refDate) {
+
+    SequenceVersion sequenceVersion = getVersion(sequence, refDate);
+    Long versionId = sequenceVersion.getId();
+    if (versionId == null) {
+      return null;
+    }
+
+    SequenceBlock block = reservedBlocks.get(versionId);
+    Long nextNum = block == null ? null : block.next();
+    if (nextNum == null && isLocked(sequenceVersion)) {
+      // A block reserved in another transaction would wait for the lock held by the current one,
+      // so the number is taken in the current transaction instead.
+      return reserveNums(sequence, refDate, 1);
+    }
+    while (nextNum == null) {
+      block =
+          reservedBlocks.compute(
+              versionId,
+              (id, current) ->
+                  current != null && !current.isExhausted()
+                      ? current
+                      : reserveBlock(id, sequence.getReservationBlockSize()));
+      nextNum = block.next();
+    }
+
+    return nextNum;
+  }
+
+  /** Tells whether the sequence version is locked by the current transaction. */
+  protected boolean isLocked(SequenceVersion sequenceVersion) {
+
+    EntityManager em = JPA.em();
+    return em.contains(sequenceVersion)
+        && em.getLockMode(sequenceVersion) == LockModeType.PESSIMISTIC_WRITE;
+  }
+
+  private SequenceBlock reserveBlock(Long sequenceVersionId, int size) {
+
+    EntityManager em = JPA.em().getEntityManagerFactory().createEntityManager();
+    EntityTransaction transaction = em.getTransaction();
+    try {
+      transaction.begin();
+      SequenceVersion sequenceVersion =
+          em.find(SequenceVersion.class, sequenceVersionId, LockModeType.PESSIMISTIC_WRITE);
+      int toBeAdded = sequenceVersion.getSequence().getToBeAdded();
+      long nextNum = sequenceVersion.getNextNum();
+      sequenceVersion.setNextNum(nextNum + (long) size * toBeAdded);
+      transaction.commit();
+
+      log.debug("Reserved sequence numbers block from {} ({} numbers)", nextNum, size);
+
+      return new SequenceBlock(nextNum, size, toBeAdded);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+      em.close();
+    }
+  }
+
+  /**
+   * Build the sequence number from the given number and date, using the precompiled prefix and
+   * suffix of the sequence.
+   *
+   * @param sequence
+   * @param num
+   * @param refDate
+   * @return
+   */
+  public String formatSequenceNumber(Sequence sequence, long num, LocalDate refDate) {
+
+    String sequenceValue;
     if (sequence.getSequenceTypeSelect() == SequenceTypeSelect.NUMBERS) {
       sequenceValue =
-          StringUtils.leftPad(
-              sequenceVersion.getNextNum().toString(), sequence.getPadding(), PADDING_STRING);
+          StringUtils.leftPad(Long.toString(num), sequence.getPadding(), PADDING_STRING);
     } else {
-      sequenceValue = findNextLetterSequence(sequenceVersion);
-    }
-    sequenceVersion.setNextNum(sequenceVersion.getNextNum() + sequence.getToBeAdded());
-    String nextSeq =
-        (seqPrefixe + sequenceValue + seqSuffixe)
-            .replaceAll(PATTERN_FULL_YEAR, Integer.toString(refDate.get(ChronoField.YEAR_OF_ERA)))
-            .replaceAll(PATTERN_YEAR, refDate.format(DateTimeFormatter.ofPattern("yy")))
-            .replaceAll(PATTERN_MONTH, Integer.toString(refDate.getMonthValue()))
-            .replaceAll(PATTERN_FULL_MONTH, refDate.format(DateTimeFormatter.ofPattern("MM")))
-            .replaceAll(PATTERN_DAY, Integer.toString(refDate.getDayOfMonth()))
-            .replaceAll(
-                PATTERN_WEEK, Integer.toString(refDate.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR)));
+      sequenceValue = findNextLetterSequence(num, sequence.getSequenceLettersTypeSelect());
+    }
 
-    log.debug("nextSeq : : : : {}", nextSeq);
+    return getFormatter(sequence).format(sequenceValue, refDate);
+  }
 
-    sequenceVersionRepository.save(sequenceVersion);
-    return nextSeq;
+  protected SequenceFormatter getFormatter(Sequence sequence) {
+
+    String seqPrefixe = StringUtils.defaultString(sequence.getPrefixe(), ""),
+        seqSuffixe = StringUtils.defaultString(sequence.getSuffixe(), "");
+
+    if (sequence.getId() == null) {
+      return new SequenceFormatter(seqPrefixe, seqSuffixe);
+    }
+
+    SequenceFormatter formatter = formatters.get(sequence.getId());
+    if (formatter == null || !formatter.matches(seqPrefixe, seqSuffixe)) {
+      formatter = new SequenceFormatter(seqPrefixe, seqSuffixe);
+      formatters.put(sequence.getId(), formatter);
+    }
+
+    return formatter;
   }
 
-  private String findNextLetterSequence(SequenceVersion sequenceVersion) {
-    long n = sequenceVersion.getNextNum();
+  private String findNextLetterSequence(
+      long n, SequenceLettersTypeSelect sequenceLettersTypeSelect) {
     char[] buf = new char[(int) Math.floor(Math.log(25 * (n + 1)) / Math.log(26))];
     for (int i = buf.length - 1; i >= 0; i--) {
       n--;
       buf[i] = (char) ('A' + n % 26);
       n /= 26;
     }
-    if (sequenceVersion.getSequence().getSequenceLettersTypeSelect()
-        == SequenceLettersTypeSelect.UPPERCASE) {
+    if (sequenceLettersTypeSelect == SequenceLettersTypeSelect.UPPERCASE) {
       return new String(buf);
     }
     return new String(buf).toLowerCase();
@@ -378,4 +519,31 @@ public class SequenceService {
 
     return fn.toString();
   }
+
+  /** Consecutive numbers reserved on a sequence version. */
+  private static class SequenceBlock {
+
+    private final long end;
+    private final int toBeAdded;
+    private long nextNum;
+
+    SequenceBlock(long nextNum, int size, int toBeAdded) {
+      this.nextNum = nextNum;
+      this.end = nextNum + (long) size * toBeAdded;
+      this.toBeAdded = toBeAdded;
+    }
+
+    synchronized Long next() {
+      if (nextNum >= end) {
+        return null;
+      }
+      long num = nextNum;
+      nextNum += toBeAdded;
+      return num;
+    }
+
+    synchronized boolean isExhausted() {
+      return nextNum >= end;
+    }
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.administration;
+
+import com.axelor.app.AppSettings;
+import com.axelor.auth.AuthUtils;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.db.repo.TraceBackRepository;
+import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.persist.UnitOfWork;
+import com.google.inject.servlet.RequestScoper;
+import com.google.inject.servlet.ServletScopes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.shiro.subject.Subject;
+
+/**
+ * Bounded pool of worker threads running tasks in their own unit of work.
+ *
+ * <p>Each task gets its own EntityManager and request scope, runs as the user who submitted it and,
+ * when submitted from a running batch, with the ID of that batch so anomalies traced by the task are
+ * linked to it.
+ */
+public class WorkerPool implements AutoCloseable {
+
+  /** Default size of the worker pools. */
+  public static final String THREAD_COUNT = "workers.thread.count";
+
+  private final ExecutorService executor;
+
+  public WorkerPool(String name, int threadCount) {
+    this.executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, threadCount),
+            new ThreadFactoryBuilder().setNameFormat(name + "-worker-%d").build());
+  }
+
+  public WorkerPool(String name) {
+    this(name, getDefaultThreadCount());
+  }
+
+  public static int getDefaultThreadCount() {
+    return AppSettings.get().getInt(THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+  }
+
+  public <T> Future<T> submit(Callable<T> task) {
+    return executor.submit(wrap(task));
+  }
+
+  /**
+   * Run the tasks and wait for all of them to complete.
+   *
+   * @param tasks the tasks to run
+   * @return the results of the tasks, in the same order
+   * @throws AxelorException the first exception thrown by a task, once all tasks are done.
+   */
+  public <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) throws AxelorException {
+    List<Future<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(submit(task));
+    }
+
+    List<T> results = new ArrayList<>(futures.size());
+    Throwable failure = null;
+    for (Future<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+        throw new AxelorException(e, TraceBackRepository.CATEGORY_INCONSISTENCY);
+      }
+    }
+
+    if (failure instanceof AxelorException) {
+      throw (AxelorException) failure;
+    }
+    if (failure != null) {
+      throw new AxelorException(failure, TraceBackRepository.CATEGORY_INCONSISTENCY);
+    }
+    return results;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private <T> Callable<T> wrap(Callable<T> task) {
+    final long batchId = AbstractBatch.getCurrentBatchId();
+    Callable<T> worker =
+        () -> {
+          UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+          RequestScoper scope = ServletScopes.scopeRequest(Collections.emptyMap());
+          try (RequestScoper.CloseableScope ignored = scope.open()) {
+            AbstractBatch.bindWorker(batchId);
+            unitOfWork.begin();
+            return task.call();
+          } finally {
+            unitOfWork.end();
+            AbstractBatch.unbindWorker();
+          }
+        };
+
+    Subject subject = AuthUtils.getSubject();
+    return subject == null ? worker : subject.associateWith(worker);
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.web;
+
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.base.service.administration.BatchProgress;
+import com.axelor.rpc.ActionRequest;
+import com.axelor.rpc.ActionResponse;
+import com.google.inject.Singleton;
+
+@Singleton
+public class BatchController {
+
+  /**
+   * Afficher l'avancement d'un batch en cours d'exécution, lu depuis les compteurs en mémoire sans
+   * accès à la base de données. Recharge le batch s'il n'est plus en cours.
+   *
+   * @param request
+   * @param response
+   */
+  public void refreshProgress(ActionRequest request, ActionResponse response) {
+
+    Batch batch = request.getContext().asType(Batch.class);
+    BatchProgress progress = AbstractBatch.getProgress(batch.getId());
+    if (progress == null) {
+      response.setReload(true);
+      return;
+    }
+    response.setValue("done", progress.getDone());
+    response.setValue("anomaly", progress.getAnomaly());
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.test;
+
+import com.axelor.app.AxelorModule;
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.repo.PartnerRepository;
+import com.axelor.apps.base.module.AdminModule;
+import com.axelor.apps.base.module.BaseModule;
+import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.base.test.TestAbstractBatch.MyModule;
+import com.axelor.apps.message.module.MessageModule;
+import com.axelor.apps.tool.module.ToolModule;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestAbstractBatch {
+
+  private List<Long> partnerIdList;
+
+  public static class MyModule extends AxelorModule {
+
+    @Override
+    protected void configure() {
+      bind(Beans.class).asEagerSingleton();
+      install(new TestModule());
+      install(new ToolModule());
+      install(new MessageModule());
+      install(new AdminModule());
+      install(new BaseModule());
+    }
+  }
+
+  /** Batch linking partners to itself, with automatic checkpoints disabled. */
+  public static class TestBatch extends AbstractBatch {
+
+    @Override
+    protected void process() {}
+
+    protected void link(List<Long> partnerIdList) {
+      for (Long partnerId : partnerIdList) {
+        Partner partner = Beans.get(PartnerRepository.class).find(partnerId);
+        partner.addBatchSetItem(batchRepo.find(batch.getId()));
+        incrementDone();
+        JPA.clear();
+      }
+    }
+
+    protected void linkInParallel(List<Long> partnerIdList, Long failingPartnerId) {
+      processInParallel(
+          Partner.class,
+          "self.id IN (:partnerIds)",
+          Collections.singletonMap("partnerIds", partnerIdList),
+          2,
+          1,
+          partner -> {
+            if (partner.getId().equals(failingPartnerId)) {
+              throw new IllegalStateException();
+            }
+            partner.addBatchSetItem(batchRepo.find(batch.getId()));
+            incrementDone();
+          });
+    }
+
+    protected void checkPointNow() {
+      flushCounters();
+    }
+
+    @Override
+    protected int getCheckPointRecords() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected long getCheckPointInterval() {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    partnerIdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          for (int i = 0; i < 3; i++) {
+            Partner partner = new Partner();
+            partner.setName("Batch partner " + i);
+            partnerIdList.add(JPA.save(partner).getId());
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    JPA.runInTransaction(
+        () -> partnerIdList.forEach(id -> JPA.remove(JPA.find(Partner.class, id))));
+  }
+
+  @Test
+  public void testBatchLinksSurviveClear() {
+    TestBatch testBatch = Beans.get(TestBatch.class);
+    testBatch.link(partnerIdList);
+
+    // neither the links nor the counters are written before a checkpoint
+    JPA.clear();
+    Batch batch = JPA.find(Batch.class, testBatch.getBatch().getId());
+    for (Long partnerId : partnerIdList) {
+      Assert.assertFalse(JPA.find(Partner.class, partnerId).getBatchSet().contains(batch));
+    }
+    Assert.assertEquals(0, (int) batch.getDone());
+    Assert.assertEquals(3, testBatch.getProgress().getDone());
+
+    testBatch.checkPointNow();
+
+    JPA.clear();
+    batch = JPA.find(Batch.class, testBatch.getBatch().getId());
+    for (Long partnerId : partnerIdList) {
+      Assert.assertTrue(JPA.find(Partner.class, partnerId).getBatchSet().contains(batch));
+    }
+    Assert.assertEquals(3, (int) batch.getDone());
+  }
+
+  @Test
+  public void testProcessInParallel() {
+    TestBatch testBatch = Beans.get(TestBatch.class);
+    testBatch.linkInParallel(partnerIdList, partnerIdList.get(1));
+
+    JPA.clear();
+    Batch batch = JPA.find(Batch.class, testBatch.getBatch().getId());
+    Assert.assertTrue(JPA.find(Partner.class, partnerIdList.get(0)).getBatchSet().contains(batch));
+    Assert.assertFalse(JPA.find(Partner.class, partnerIdList.get(1)).getBatchSet().contains(batch));
+    Assert.assertTrue(JPA.find(Partner.class, partnerIdList.get(2)).getBatchSet().contains(batch));
+
+    // the counters of the workers are written once all the partitions are done
+    Assert.assertEquals(2, (int) batch.getDone());
+    Assert.assertEquals(1, (int) batch.getAnomaly());
+  }
+}
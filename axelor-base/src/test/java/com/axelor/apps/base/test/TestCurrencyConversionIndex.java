@@ -0,0 +1,126 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.test;
+
+import com.axelor.apps.base.db.Currency;
+import com.axelor.apps.base.db.CurrencyConversionLine;
+import com.axelor.apps.base.service.CurrencyConversionIndex;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCurrencyConversionIndex {
+
+  private Currency euro;
+  private Currency dollar;
+
+  @Before
+  public void prepare() {
+    euro = createCurrency("EUR");
+    dollar = createCurrency("USD");
+  }
+
+  @Test
+  public void testLinesByPeriod() {
+    CurrencyConversionIndex index =
+        new CurrencyConversionIndex(
+            Arrays.asList(
+                createLine(euro, dollar, "2020-03-01", null, "1.3"),
+                createLine(euro, dollar, "2020-01-01", "2020-01-31", "1.1"),
+                createLine(euro, dollar, "2020-02-01", "2020-02-29", "1.2")));
+
+    Assert.assertEquals(new BigDecimal("1.1"), rate(index, "2020-01-01"));
+    Assert.assertEquals(new BigDecimal("1.2"), rate(index, "2020-02-29"));
+    Assert.assertEquals(new BigDecimal("1.3"), rate(index, "2021-06-01"));
+    Assert.assertFalse(index.contains("EUR", "USD", date("2019-12-31")));
+  }
+
+  @Test
+  public void testGap() {
+    CurrencyConversionIndex index =
+        new CurrencyConversionIndex(
+            Arrays.asList(
+                createLine(euro, dollar, "2020-01-01", "2020-01-31", "1.1"),
+                createLine(euro, dollar, "2020-03-01", "2020-03-31", "1.3")));
+
+    Assert.assertFalse(index.contains("EUR", "USD", date("2020-02-15")));
+    Assert.assertFalse(index.contains("EUR", "USD", date("2020-04-01")));
+  }
+
+  @Test
+  public void testPairsAreDirected() {
+    CurrencyConversionIndex index =
+        new CurrencyConversionIndex(
+            Arrays.asList(createLine(euro, dollar, "2020-01-01", null, "1.1")));
+
+    Assert.assertTrue(index.contains("EUR", "USD", date("2020-01-01")));
+    Assert.assertFalse(index.contains("USD", "EUR", date("2020-01-01")));
+  }
+
+  @Test
+  public void testOverlappingLinesInListOrder() {
+    CurrencyConversionIndex index =
+        new CurrencyConversionIndex(
+            Arrays.asList(
+                createLine(euro, dollar, "2020-01-01", null, "1.1"),
+                createLine(euro, dollar, "2020-02-01", "2020-02-29", "1.2")));
+
+    Assert.assertEquals(new BigDecimal("1.1"), rate(index, "2020-02-15"));
+
+    index =
+        new CurrencyConversionIndex(
+            Arrays.asList(
+                createLine(euro, dollar, "2020-02-01", "2020-02-29", "1.2"),
+                createLine(euro, dollar, "2020-01-01", null, "1.1")));
+
+    Assert.assertEquals(new BigDecimal("1.2"), rate(index, "2020-02-15"));
+    Assert.assertEquals(new BigDecimal("1.1"), rate(index, "2020-03-01"));
+  }
+
+  private BigDecimal rate(CurrencyConversionIndex index, String date) {
+    return index.getExchangeRate("EUR", "USD", date(date));
+  }
+
+  private Currency createCurrency(String code) {
+    Currency currency = new Currency();
+    currency.setCode(code);
+    return currency;
+  }
+
+  private CurrencyConversionLine createLine(
+      Currency startCurrency,
+      Currency endCurrency,
+      String fromDate,
+      String toDate,
+      String exchangeRate) {
+    CurrencyConversionLine currencyConversionLine = new CurrencyConversionLine();
+    currencyConversionLine.setStartCurrency(startCurrency);
+    currencyConversionLine.setEndCurrency(endCurrency);
+    currencyConversionLine.setFromDate(date(fromDate));
+    currencyConversionLine.setToDate(date(toDate));
+    currencyConversionLine.setExchangeRate(new BigDecimal(exchangeRate));
+    return currencyConversionLine;
+  }
+
+  private LocalDate date(String date) {
+    return date == null ? null : LocalDate.parse(date);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.test;
+
+import com.axelor.apps.base.db.Sequence;
+import com.axelor.apps.base.service.administration.SequenceFormatter;
+import com.axelor.apps.base.service.administration.SequenceService;
+import java.time.LocalDate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSequenceFormatter {
+
+  private static final LocalDate REF_DATE = LocalDate.of(2017, 3, 5);
+
+  @Test
+  public void testFormatDateTags() {
+
+    SequenceFormatter formatter = new SequenceFormatter("INV%YYYY%FM-", "/%YY-%M-%D-%WY");
+
+    Assert.assertEquals("INV201703-0042/17-3-5-9", formatter.format("0042", REF_DATE));
+  }
+
+  @Test
+  public void testFormatLiterals() {
+
+    SequenceFormatter formatter = new SequenceFormatter("%Y%", "");
+
+    Assert.assertEquals("%Y%7", formatter.format("7", REF_DATE));
+    Assert.assertEquals("7", new SequenceFormatter("", "").format("7", REF_DATE));
+  }
+
+  @Test
+  public void testMatches() {
+
+    SequenceFormatter formatter = new SequenceFormatter("A", "B");
+
+    Assert.assertTrue(formatter.matches("A", "B"));
+    Assert.assertFalse(formatter.matches("A", "C"));
+  }
+
+  @Test
+  public void testResetValidity() {
+
+    Sequence sequence = new Sequence();
+    sequence.setYearlyResetOk(true);
+    sequence.setMonthlyResetOk(true);
+    sequence.setPrefixe("INV" + SequenceFormatter.PATTERN_FULL_YEAR);
+
+    Assert.assertTrue(SequenceService.isYearValid(sequence));
+    Assert.assertFalse(SequenceService.isMonthValid(sequence));
+
+    sequence.setSuffixe("/" + SequenceFormatter.PATTERN_FULL_MONTH);
+
+    Assert.assertTrue(SequenceService.isMonthValid(sequence));
+  }
+
+  @Test
+  public void testReservationBlockSizeValidity() {
+
+    Sequence sequence = new Sequence();
+    sequence.setCode("invoice");
+    sequence.setReservationBlockSize(10);
+
+    Assert.assertFalse(SequenceService.isReservationBlockSizeValid(sequence));
+
+    sequence.setReservationBlockSize(1);
+
+    Assert.assertTrue(SequenceService.isReservationBlockSizeValid(sequence));
+
+    sequence.setCode("saleOrder");
+    sequence.setReservationBlockSize(10);
+
+    Assert.assertTrue(SequenceService.isReservationBlockSizeValid(sequence));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.test;
+
+import com.axelor.apps.base.db.Unit;
+import com.axelor.apps.base.db.UnitConversion;
+import com.axelor.apps.base.db.repo.UnitConversionRepository;
+import com.axelor.apps.base.service.UnitConversionCache;
+import com.axelor.apps.base.service.UnitConversionGraph;
+import com.axelor.apps.base.test.TestAbstractBatch.MyModule;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestUnitConversionCache {
+
+  private Long kilogramId;
+  private Long gramId;
+  private Long unitConversionId;
+
+  @Before
+  public void setUp() {
+    JPA.runInTransaction(
+        () -> {
+          kilogramId = JPA.save(createUnit("Cache kilogram")).getId();
+          gramId = JPA.save(createUnit("Cache gram")).getId();
+        });
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    JPA.runInTransaction(
+        () -> {
+          if (unitConversionId != null) {
+            Beans.get(UnitConversionRepository.class)
+                .remove(JPA.find(UnitConversion.class, unitConversionId));
+          }
+          JPA.remove(JPA.find(Unit.class, kilogramId));
+          JPA.remove(JPA.find(Unit.class, gramId));
+        });
+  }
+
+  @Test
+  public void testInvalidatedAfterCommit() {
+    UnitConversionCache unitConversionCache = Beans.get(UnitConversionCache.class);
+    UnitConversionGraph[] graphs = new UnitConversionGraph[1];
+
+    JPA.runInTransaction(
+        () -> {
+          graphs[0] = unitConversionCache.getGraph();
+          UnitConversion unitConversion = new UnitConversion();
+          unitConversion.setStartUnit(JPA.find(Unit.class, kilogramId));
+          unitConversion.setEndUnit(JPA.find(Unit.class, gramId));
+          unitConversion.setCoef(new BigDecimal("1000"));
+          unitConversionId = Beans.get(UnitConversionRepository.class).save(unitConversion).getId();
+
+          // the graph is kept until the conversion is visible to the other requests
+          Assert.assertSame(graphs[0], unitConversionCache.getGraph());
+        });
+
+    UnitConversionGraph graph = unitConversionCache.getGraph();
+    Assert.assertNotSame(graphs[0], graph);
+    Assert.assertEquals(1, graph.findPath(kilogramId, gramId, false).size());
+  }
+
+  @Test
+  public void testLoadedFromCommittedData() {
+    UnitConversionCache unitConversionCache = Beans.get(UnitConversionCache.class);
+
+    JPA.runInTransaction(
+        () -> {
+          UnitConversion unitConversion = new UnitConversion();
+          unitConversion.setStartUnit(JPA.find(Unit.class, kilogramId));
+          unitConversion.setEndUnit(JPA.find(Unit.class, gramId));
+          unitConversion.setCoef(new BigDecimal("1000"));
+          unitConversionId = Beans.get(UnitConversionRepository.class).save(unitConversion).getId();
+
+          // a graph loaded before the commit does not see the pending conversion
+          unitConversionCache.invalidate();
+          Assert.assertTrue(
+              unitConversionCache.getGraph().findPath(kilogramId, gramId, false).isEmpty());
+        });
+
+    Assert.assertEquals(
+        1, unitConversionCache.getGraph().findPath(kilogramId, gramId, false).size());
+  }
+
+  private Unit createUnit(String name) {
+    Unit unit = new Unit();
+    unit.setName(name);
+    return unit;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.test;
+
+import com.axelor.apps.base.db.Unit;
+import com.axelor.apps.base.db.UnitConversion;
+import com.axelor.apps.base.db.repo.UnitConversionRepository;
+import com.axelor.apps.base.service.UnitConversionGraph;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestUnitConversionGraph {
+
+  private Unit kilogram;
+  private Unit gram;
+  private Unit ton;
+  private Unit piece;
+
+  private UnitConversionGraph graph;
+
+  @Before
+  public void prepare() {
+    kilogram = createUnit(1L);
+    gram = createUnit(2L);
+    ton = createUnit(3L);
+    piece = createUnit(4L);
+
+    graph =
+        new UnitConversionGraph(
+            Arrays.asList(
+                createConversion(10L, kilogram, gram, new BigDecimal("1000")),
+                createConversion(11L, ton, kilogram, new BigDecimal("1000")),
+                createFormula(12L, piece, kilogram, "$Product.netMass$")));
+  }
+
+  @Test
+  public void testDirectPath() {
+    List<UnitConversionGraph.Edge> path = graph.findPath(kilogram.getId(), gram.getId(), false);
+
+    Assert.assertEquals(1, path.size());
+    Assert.assertEquals(Long.valueOf(10L), path.get(0).getUnitConversionId());
+    Assert.assertFalse(path.get(0).isInverse());
+  }
+
+  @Test
+  public void testInversePath() {
+    List<UnitConversionGraph.Edge> path = graph.findPath(gram.getId(), kilogram.getId(), false);
+
+    Assert.assertEquals(1, path.size());
+    Assert.assertTrue(path.get(0).isInverse());
+  }
+
+  @Test
+  public void testTransitivePath() {
+    List<UnitConversionGraph.Edge> path = graph.findPath(ton.getId(), gram.getId(), false);
+
+    Assert.assertEquals(2, path.size());
+    Assert.assertEquals(Long.valueOf(11L), path.get(0).getUnitConversionId());
+    Assert.assertEquals(Long.valueOf(10L), path.get(1).getUnitConversionId());
+  }
+
+  @Test
+  public void testFormulaPathNeedsProduct() {
+    Assert.assertTrue(graph.findPath(piece.getId(), gram.getId(), false).isEmpty());
+    Assert.assertEquals(2, graph.findPath(piece.getId(), gram.getId(), true).size());
+  }
+
+  private Unit createUnit(Long id) {
+    Unit unit = new Unit();
+    unit.setId(id);
+    return unit;
+  }
+
+  private UnitConversion createConversion(Long id, Unit startUnit, Unit endUnit, BigDecimal coef) {
+    UnitConversion unitConversion = new UnitConversion();
+    unitConversion.setId(id);
+    unitConversion.setStartUnit(startUnit);
+    unitConversion.setEndUnit(endUnit);
+    unitConversion.setTypeSelect(UnitConversionRepository.TYPE_COEFF);
+    unitConversion.setCoef(coef);
+    return unitConversion;
+  }
+
+  private UnitConversion createFormula(Long id, Unit startUnit, Unit endUnit, String formula) {
+    UnitConversion unitConversion = createConversion(id, startUnit, endUnit, BigDecimal.ZERO);
+    unitConversion.setTypeSelect(UnitConversionRepository.TYPE_FORMULA);
+    unitConversion.setFormula(formula);
+    return unitConversion;
+  }
+}
@@ -49,12 +49,21 @@ import com.axelor.apps.tool.StringTool;
 import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.inject.Beans;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,15 +133,26 @@ public class MrpServiceProductionImpl extends MrpServiceImpl {
       statusList.add(ManufOrderRepository.STATUS_FINISHED);
     }
 
+    String filter =
+        "self.product.id in (?1) AND self.prodProcess.stockLocation in (?2) "
+            + "AND self.statusSelect IN (?3)";
+    Set<Long> productIdSet = this.productMap.keySet();
+
+    if (netChangeProductIdSet != null) {
+      // Also select the orders of unchanged products consuming recomputed products
+      filter =
+          "(self.product.id in (?1) OR EXISTS (SELECT prodProduct FROM ProdProduct prodProduct "
+              + "WHERE (prodProduct.toConsumeManufOrder = self "
+              + "OR prodProduct.toConsumeOperationOrder.manufOrder = self) "
+              + "AND prodProduct.product.id in (?1))) "
+              + "AND self.prodProcess.stockLocation in (?2) AND self.statusSelect IN (?3)";
+      productIdSet = netChangeProductIdSet;
+    }
+
     List<ManufOrder> manufOrderList =
         manufOrderRepository
             .all()
-            .filter(
-                "self.product.id in (?1) AND self.prodProcess.stockLocation in (?2) "
-                    + "AND self.statusSelect IN (?3)",
-                this.productMap.keySet(),
-                this.stockLocationList,
-                statusList)
+            .filter(filter, productIdSet, this.stockLocationList, statusList)
             .fetch();
 
     for (ManufOrder manufOrder : manufOrderList) {
@@ -309,6 +329,28 @@ public class MrpServiceProductionImpl extends MrpServiceImpl {
     }
   }
 
+  /** The manufacturing proposals of a product create need lines for its components. */
+  @Override
+  protected Set<Long> getProposalLockedProductIds(Long productId) {
+
+    Set<Long> productIdSet = new HashSet<>(super.getProposalLockedProductIds(productId));
+
+    if (!Beans.get(AppProductionService.class).isApp("production")) {
+      return productIdSet;
+    }
+    BillOfMaterial defaultBillOfMaterial =
+        productRepository.find(productId).getDefaultBillOfMaterial();
+
+    if (defaultBillOfMaterial != null) {
+      for (BillOfMaterial billOfMaterial : defaultBillOfMaterial.getBillOfMaterialSet()) {
+        if (this.isMrpProduct(billOfMaterial.getProduct())) {
+          productIdSet.add(billOfMaterial.getProduct().getId());
+        }
+      }
+    }
+    return productIdSet;
+  }
+
   /**
    * Returns the type of an mrp proposal.
    *
@@ -437,6 +479,10 @@ public class MrpServiceProductionImpl extends MrpServiceImpl {
   protected void createAvailableStockMrpLine(Product product, StockLocation stockLocation)
       throws AxelorException {
 
+    if (!this.isComputedProduct(product.getId())) {
+      return;
+    }
+
     MrpLineType availableStockMrpLineType =
         this.getMrpLineType(MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK);
 
@@ -448,6 +494,109 @@ public class MrpServiceProductionImpl extends MrpServiceImpl {
             availableStockMrpLineType));
   }
 
+  @Override
+  protected List<String> getNetChangeQueries() {
+
+    List<String> queries = super.getNetChangeQueries();
+
+    if (Beans.get(AppProductionService.class).isApp("production")) {
+      queries.add(
+          "SELECT DISTINCT self.product.id FROM ManufOrder self "
+              + "WHERE self.updatedOn > :since OR self.createdOn > :since");
+      queries.add(
+          "SELECT DISTINCT self.product.id FROM ProdProduct self "
+              + "WHERE self.updatedOn > :since OR self.createdOn > :since "
+              + "OR self.toConsumeManufOrder.updatedOn > :since "
+              + "OR self.toConsumeOperationOrder.updatedOn > :since");
+      queries.add(
+          "SELECT DISTINCT self.product.id FROM BillOfMaterial self "
+              + "WHERE self.updatedOn > :since OR self.createdOn > :since");
+    }
+    return queries;
+  }
+
+  @Override
+  protected List<String> getNetChangeOriginQueries() {
+
+    List<String> queries = super.getNetChangeOriginQueries();
+
+    if (Beans.get(AppProductionService.class).isApp("production")) {
+      // The lines of a manufacturing order are for the products it produces and consumes
+      queries.add(
+          this.getNetChangeOriginQuery(
+              MrpLineTypeRepository.ELEMENT_MANUFACTURING_ORDER,
+              ManufOrder.class,
+              "SELECT prodProduct.id FROM ProdProduct prodProduct "
+                  + "WHERE prodProduct.toProduceManufOrder.id = self.relatedToSelectId "
+                  + "AND prodProduct.product = mrpLine.product"));
+      queries.add(
+          this.getNetChangeOriginQuery(
+              MrpLineTypeRepository.ELEMENT_MANUFACTURING_ORDER_NEED,
+              ManufOrder.class,
+              "SELECT prodProduct.id FROM ProdProduct prodProduct "
+                  + "WHERE prodProduct.toConsumeManufOrder.id = self.relatedToSelectId "
+                  + "AND prodProduct.product = mrpLine.product"));
+      queries.add(
+          this.getNetChangeOriginQuery(
+              MrpLineTypeRepository.ELEMENT_MANUFACTURING_ORDER_NEED,
+              OperationOrder.class,
+              "SELECT prodProduct.id FROM ProdProduct prodProduct "
+                  + "WHERE prodProduct.toConsumeOperationOrder.id = self.relatedToSelectId "
+                  + "AND prodProduct.product = mrpLine.product"));
+    }
+    return queries;
+  }
+
+  /**
+   * Add the products linked by a bill of material to the given products: the components need the
+   * proposals of their parents, and the needs of a component are shared with its other parents, so
+   * all the products connected by bills of materials are recomputed together.
+   */
+  @Override
+  protected Set<Long> addDependentProducts(Set<Long> productIdSet, Set<Long> mrpProductIdSet) {
+
+    if (!Beans.get(AppProductionService.class).isApp("production")) {
+      return super.addDependentProducts(productIdSet, mrpProductIdSet);
+    }
+
+    Map<Long, Set<Long>> linkedProductMap = new HashMap<>();
+
+    for (List<Long> productIds : Lists.partition(new ArrayList<>(mrpProductIdSet), CHUNK_SIZE)) {
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.product.id, subBillOfMaterial.product.id FROM BillOfMaterial self "
+                      + "JOIN self.billOfMaterialSet subBillOfMaterial "
+                      + "WHERE self.product.id IN (:productIds)",
+                  Object[].class)
+              .setParameter("productIds", productIds)
+              .getResultList();
+
+      for (Object[] result : resultList) {
+        Long productId = (Long) result[0];
+        Long subProductId = (Long) result[1];
+        if (mrpProductIdSet.contains(subProductId)) {
+          linkedProductMap.computeIfAbsent(productId, id -> new HashSet<>()).add(subProductId);
+          linkedProductMap.computeIfAbsent(subProductId, id -> new HashSet<>()).add(productId);
+        }
+      }
+    }
+
+    Set<Long> dependentProductIdSet = new HashSet<>(productIdSet);
+    Deque<Long> productIdDeque = new ArrayDeque<>(productIdSet);
+
+    while (!productIdDeque.isEmpty()) {
+      for (Long linkedProductId :
+          linkedProductMap.getOrDefault(productIdDeque.poll(), Collections.emptySet())) {
+        if (dependentProductIdSet.add(linkedProductId)) {
+          productIdDeque.add(linkedProductId);
+        }
+      }
+    }
+
+    return dependentProductIdSet;
+  }
+
   @Override
   protected Mrp completeProjectedStock(
       Mrp mrp, Product product, Company company, StockLocation stockLocation)
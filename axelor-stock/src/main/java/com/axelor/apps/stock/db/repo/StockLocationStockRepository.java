@@ -20,6 +20,7 @@ package com.axelor.apps.stock.db.repo;
 import com.axelor.apps.stock.db.StockLocation;
 import com.axelor.apps.stock.service.StockLocationSaveService;
 import com.axelor.apps.stock.service.StockLocationService;
+import com.axelor.apps.stock.service.StockLocationTreeCache;
 import com.axelor.inject.Beans;
 import java.util.Map;
 
@@ -34,7 +35,15 @@ public class StockLocationStockRepository extends StockLocationRepository {
   @Override
   public StockLocation save(StockLocation entity) {
     Beans.get(StockLocationSaveService.class).removeForbiddenDefaultStockLocation(entity);
-    return super.save(entity);
+    entity = super.save(entity);
+    Beans.get(StockLocationTreeCache.class).invalidateAfterCompletion();
+    return entity;
+  }
+
+  @Override
+  public void remove(StockLocation entity) {
+    super.remove(entity);
+    Beans.get(StockLocationTreeCache.class).invalidateAfterCompletion();
   }
 
   @Override
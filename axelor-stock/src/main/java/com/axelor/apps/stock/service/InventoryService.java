@@ -41,6 +41,7 @@ import com.axelor.apps.stock.exception.IExceptionMessage;
 import com.axelor.apps.stock.service.config.StockConfigService;
 import com.axelor.apps.tool.file.CsvTool;
 import com.axelor.auth.AuthUtils;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -48,10 +49,13 @@ import com.axelor.inject.Beans;
 import com.axelor.meta.MetaFiles;
 import com.axelor.meta.db.MetaFile;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.opencsv.CSVReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
@@ -63,18 +67,26 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class InventoryService {
 
+  protected static final int CHUNK_SIZE = 1000;
+  protected static final int JDBC_BATCH_SIZE = 50;
+
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   protected InventoryLineService inventoryLineService;
@@ -173,15 +185,91 @@ public class InventoryService {
     return ref;
   }
 
+  /**
+   * Import the lines of the inventory file. The file is read and imported by chunks of {@link
+   * #CHUNK_SIZE} lines: products and tracking numbers of a chunk are fetched with one query each,
+   * and the new inventory lines are flushed and detached after each chunk.
+   *
+   * @param inventory
+   * @return the path of the imported file.
+   * @throws AxelorException
+   */
   @Transactional(rollbackOn = {Exception.class})
   public Path importFile(Inventory inventory) throws AxelorException {
 
-    List<InventoryLine> inventoryLineList = inventory.getInventoryLineList();
     Path filePath = MetaFiles.getPath(inventory.getImportFile());
-    List<String[]> data = this.getDatas(filePath);
+    Long inventoryId = inventory.getId();
+    Map<String, Long> inventoryLineIdMap = this.getInventoryLineIds(inventory);
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+    char separator = ';';
+    int importedLineCount = 0;
+    try (CSVReader reader = new CSVReader(new FileReader(filePath.toFile()), separator)) {
+      /* Skip headers */
+      if (reader.readNext() == null) {
+        throw new AxelorException(
+            new Throwable(I18n.get(IExceptionMessage.INVENTORY_3_DATA_NULL_OR_EMPTY)),
+            TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+            I18n.get(IExceptionMessage.INVENTORY_3));
+      }
+
+      List<String[]> data;
+      while (!(data = this.readChunk(reader, CHUNK_SIZE)).isEmpty()) {
+        importedLineCount += this.importLines(inventoryId, data, inventoryLineIdMap);
+        log.info("Inventory {}: {} lines imported", inventoryId, importedLineCount);
+      }
+    } catch (IOException e) {
+      throw new AxelorException(
+          e.getCause(),
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.INVENTORY_5));
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
+    }
+    log.info("Inventory {}: import finished, {} lines imported", inventoryId, importedLineCount);
+
+    inventoryRepo.save(inventoryRepo.find(inventoryId));
+    return filePath;
+  }
+
+  /**
+   * Read the next lines of a file.
+   *
+   * @param reader
+   * @param chunkSize the maximum number of lines to read.
+   * @return the lines read, an empty list at the end of the file.
+   * @throws IOException
+   */
+  protected List<String[]> readChunk(CSVReader reader, int chunkSize) throws IOException {
+    List<String[]> data = new ArrayList<>(chunkSize);
+    String[] line;
+    while (data.size() < chunkSize && (line = reader.readNext()) != null) {
+      data.add(line);
+    }
+    return data;
+  }
+
+  /**
+   * Import a chunk of lines of the inventory file, then flush and clear the persistence context.
+   *
+   * @param inventoryId
+   * @param data the lines of the file.
+   * @param inventoryLineIdMap ids of the existing inventory lines, see {@link
+   *     #getInventoryLineIds(Inventory)}.
+   * @return the number of imported lines.
+   * @throws AxelorException
+   */
+  protected int importLines(
+      Long inventoryId, List<String[]> data, Map<String, Long> inventoryLineIdMap)
+      throws AxelorException {
 
-    HashMap<String, InventoryLine> inventoryLineMap = this.getInventoryLines(inventory);
+    Inventory inventory = inventoryRepo.find(inventoryId);
 
+    Set<String> codeSet = new HashSet<>();
+    Set<String> trackingNumberSeqSet = new HashSet<>();
+    Set<Long> inventoryLineIdSet = new HashSet<>();
     for (String[] line : data) {
       if (line.length < 6)
         throw new AxelorException(
@@ -190,6 +278,31 @@ public class InventoryService {
             TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
             I18n.get(IExceptionMessage.INVENTORY_3));
 
+      String code = line[1].replace("\"", "");
+      if (inventoryLineIdMap.containsKey(code)) {
+        inventoryLineIdSet.add(inventoryLineIdMap.get(code));
+      } else {
+        codeSet.add(code);
+        String trackingNumberSeq = line[3].replace("\"", "");
+        if (!trackingNumberSeq.isEmpty()) {
+          trackingNumberSeqSet.add(trackingNumberSeq);
+        }
+      }
+    }
+
+    Map<Long, InventoryLine> inventoryLineMap = new HashMap<>();
+    if (!inventoryLineIdSet.isEmpty()) {
+      JPA.em()
+          .createQuery(
+              "SELECT self FROM InventoryLine self WHERE self.id IN :ids", InventoryLine.class)
+          .setParameter("ids", inventoryLineIdSet)
+          .getResultList()
+          .forEach(inventoryLine -> inventoryLineMap.put(inventoryLine.getId(), inventoryLine));
+    }
+    Map<String, List<Product>> productMap = this.getProducts(codeSet);
+    Map<String, TrackingNumber> trackingNumberMap = this.getTrackingNumbers(trackingNumberSeqSet);
+
+    for (String[] line : data) {
       String code = line[1].replace("\"", "");
       String rack = line[2].replace("\"", "");
       String trackingNumberSeq = line[3].replace("\"", "");
@@ -207,9 +320,10 @@ public class InventoryService {
 
       String description = line[6].replace("\"", "");
 
-      if (inventoryLineMap.containsKey(code)) {
-        inventoryLineMap.get(code).setRealQty(realQty);
-        inventoryLineMap.get(code).setDescription(description);
+      if (inventoryLineIdMap.containsKey(code)) {
+        InventoryLine inventoryLine = inventoryLineMap.get(inventoryLineIdMap.get(code));
+        inventoryLine.setRealQty(realQty);
+        inventoryLine.setDescription(description);
       } else {
         BigDecimal currentQty;
         try {
@@ -223,17 +337,14 @@ public class InventoryService {
         }
 
         InventoryLine inventoryLine = new InventoryLine();
-        List<Product> productList =
-            productRepo.all().filter("self.code = :code").bind("code", code).fetch();
-        if (productList != null && !productList.isEmpty()) {
-          if (productList.size() > 1) {
-            throw new AxelorException(
-                inventory,
-                TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
-                I18n.get(IExceptionMessage.INVENTORY_12) + " " + code);
-          }
+        List<Product> productList = productMap.getOrDefault(code, Collections.emptyList());
+        if (productList.size() > 1) {
+          throw new AxelorException(
+              inventory,
+              TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+              I18n.get(IExceptionMessage.INVENTORY_12) + " " + code);
         }
-        Product product = productList.get(0);
+        Product product = productList.isEmpty() ? null : productList.get(0);
         if (product == null
             || !product.getProductTypeSelect().equals(ProductRepository.PRODUCT_TYPE_STORABLE))
           throw new AxelorException(
@@ -246,14 +357,92 @@ public class InventoryService {
         inventoryLine.setCurrentQty(currentQty);
         inventoryLine.setRealQty(realQty);
         inventoryLine.setDescription(description);
-        inventoryLine.setTrackingNumber(this.getTrackingNumber(trackingNumberSeq));
-        inventoryLineList.add(inventoryLine);
+        inventoryLine.setTrackingNumber(trackingNumberMap.get(trackingNumberSeq));
+        JPA.em().persist(inventoryLine);
       }
     }
-    inventory.setInventoryLineList(inventoryLineList);
 
-    inventoryRepo.save(inventory);
-    return filePath;
+    JPA.em().flush();
+    JPA.em().clear();
+    return data.size();
+  }
+
+  /**
+   * Get the ids of the lines of the inventory, with the same keys as {@link
+   * #getInventoryLines(Inventory)}, without loading the lines.
+   *
+   * @param inventory
+   * @return a map of inventory line ids by product code and tracking number.
+   */
+  protected Map<String, Long> getInventoryLineIds(Inventory inventory) {
+    Map<String, Long> inventoryLineIdMap = new HashMap<>();
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, product.code, trackingNumber.trackingNumberSeq "
+                    + "FROM InventoryLine self "
+                    + "LEFT JOIN self.product product "
+                    + "LEFT JOIN self.trackingNumber trackingNumber "
+                    + "WHERE self.inventory.id = :inventoryId "
+                    + "ORDER BY self.id",
+                Object[].class)
+            .setParameter("inventoryId", inventory.getId())
+            .getResultList();
+    for (Object[] result : resultList) {
+      String key = "";
+      if (result[1] != null) {
+        key += result[1];
+      }
+      if (result[2] != null) {
+        key += result[2];
+      }
+      inventoryLineIdMap.put(key, (Long) result[0]);
+    }
+    return inventoryLineIdMap;
+  }
+
+  /**
+   * Get the products with the given codes.
+   *
+   * @param codes
+   * @return the products by code, a code may match several products.
+   */
+  protected Map<String, List<Product>> getProducts(Collection<String> codes) {
+    if (codes.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    return productRepo
+        .all()
+        .filter("self.code IN :codes")
+        .bind("codes", codes)
+        .fetch()
+        .stream()
+        .collect(Collectors.groupingBy(Product::getCode));
+  }
+
+  /**
+   * Get the tracking numbers with the given sequences.
+   *
+   * @param sequences
+   * @return the tracking numbers by sequence, the first one created if a sequence is used by
+   *     several tracking numbers.
+   */
+  protected Map<String, TrackingNumber> getTrackingNumbers(Collection<String> sequences) {
+    Map<String, TrackingNumber> trackingNumberMap = new HashMap<>();
+    if (sequences.isEmpty()) {
+      return trackingNumberMap;
+    }
+    List<TrackingNumber> trackingNumberList =
+        trackingNumberRepository
+            .all()
+            .filter("self.trackingNumberSeq IN :sequences")
+            .bind("sequences", sequences)
+            .order("id")
+            .fetch();
+    for (TrackingNumber trackingNumber : trackingNumberList) {
+      trackingNumberMap.putIfAbsent(trackingNumber.getTrackingNumberSeq(), trackingNumber);
+    }
+    return trackingNumberMap;
   }
 
   public List<String[]> getDatas(Path filePath) throws AxelorException {
@@ -312,85 +501,193 @@ public class InventoryService {
     inventory.setValidatedOn(appBaseService.getTodayDate());
     inventory.setStatusSelect(InventoryRepository.STATUS_VALIDATED);
     inventory.setValidatedBy(AuthUtils.getUser());
-    generateStockMove(inventory, true);
-    generateStockMove(inventory, false);
+    generateStockMoves(inventory, true);
+    generateStockMoves(inventory, false);
     storeLastInventoryData(inventory);
   }
 
-  private void storeLastInventoryData(Inventory inventory) {
-    Map<Pair<Product, TrackingNumber>, BigDecimal> realQties = new HashMap<>();
-    Map<Product, BigDecimal> consolidatedRealQties = new HashMap<>();
-    Map<Product, String> realRacks = new HashMap<>();
-
-    List<InventoryLine> inventoryLineList = inventory.getInventoryLineList();
-
-    if (inventoryLineList != null) {
-      for (InventoryLine inventoryLine : inventoryLineList) {
-        Product product = inventoryLine.getProduct();
-        TrackingNumber trackingNumber = inventoryLine.getTrackingNumber();
-
-        realQties.put(Pair.of(product, trackingNumber), inventoryLine.getRealQty());
-
-        BigDecimal realQty = consolidatedRealQties.getOrDefault(product, BigDecimal.ZERO);
-        realQty = realQty.add(inventoryLine.getRealQty());
-        consolidatedRealQties.put(product, realQty);
-
-        realRacks.put(product, inventoryLine.getRack());
-      }
+  /**
+   * Store the real quantities and racks of the inventory in the stock location lines. The real
+   * quantities are summed in the database, and the stock location lines are updated by chunks of
+   * products, flushed and detached after each chunk.
+   *
+   * @param inventory
+   */
+  protected void storeLastInventoryData(Inventory inventory) {
+    StockLocation stockLocation = inventory.getStockLocation();
+    ZonedDateTime lastInventoryDateT =
+        inventory.getValidatedOn().atStartOfDay().atZone(ZoneOffset.UTC);
+
+    Map<Long, BigDecimal> consolidatedRealQties = new HashMap<>();
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.product.id, SUM(self.realQty) FROM InventoryLine self "
+                    + "WHERE self.inventory.id = :inventoryId "
+                    + "GROUP BY self.product.id",
+                Object[].class)
+            .setParameter("inventoryId", inventory.getId())
+            .getResultList();
+    for (Object[] result : resultList) {
+      consolidatedRealQties.put((Long) result[0], (BigDecimal) result[1]);
     }
 
-    List<StockLocationLine> stockLocationLineList =
-        inventory.getStockLocation().getStockLocationLineList();
+    int storedProductCount = 0;
+    for (List<Long> productIdList :
+        Lists.partition(new ArrayList<>(consolidatedRealQties.keySet()), CHUNK_SIZE)) {
+      Map<List<Long>, BigDecimal> realQties = new HashMap<>();
+      Map<Long, String> realRacks = new HashMap<>();
+      List<Object[]> inventoryLineDataList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.product.id, trackingNumber.id, self.realQty, self.rack "
+                      + "FROM InventoryLine self "
+                      + "LEFT JOIN self.trackingNumber trackingNumber "
+                      + "WHERE self.inventory.id = :inventoryId "
+                      + "AND self.product.id IN :productIds "
+                      + "ORDER BY self.id",
+                  Object[].class)
+              .setParameter("inventoryId", inventory.getId())
+              .setParameter("productIds", productIdList)
+              .getResultList();
+      for (Object[] inventoryLineData : inventoryLineDataList) {
+        Long productId = (Long) inventoryLineData[0];
+        realQties.put(
+            Arrays.asList(productId, (Long) inventoryLineData[1]),
+            (BigDecimal) inventoryLineData[2]);
+        realRacks.put(productId, (String) inventoryLineData[3]);
+      }
 
-    if (stockLocationLineList != null) {
+      List<StockLocationLine> stockLocationLineList =
+          stockLocationLineRepository
+              .all()
+              .filter("self.stockLocation = :stockLocation AND self.product.id IN :productIds")
+              .bind("stockLocation", stockLocation)
+              .bind("productIds", productIdList)
+              .fetch();
       for (StockLocationLine stockLocationLine : stockLocationLineList) {
-        Product product = stockLocationLine.getProduct();
-        BigDecimal realQty = consolidatedRealQties.get(product);
+        Long productId = stockLocationLine.getProduct().getId();
+        BigDecimal realQty = consolidatedRealQties.get(productId);
         if (realQty != null) {
           stockLocationLine.setLastInventoryRealQty(realQty);
-          stockLocationLine.setLastInventoryDateT(
-              inventory.getValidatedOn().atStartOfDay().atZone(ZoneOffset.UTC));
+          stockLocationLine.setLastInventoryDateT(lastInventoryDateT);
         }
 
-        String rack = realRacks.get(product);
+        String rack = realRacks.get(productId);
         if (rack != null) {
           stockLocationLine.setRack(rack);
         }
       }
-    }
-
-    List<StockLocationLine> detailsStockLocationLineList =
-        inventory.getStockLocation().getDetailsStockLocationLineList();
 
-    if (detailsStockLocationLineList != null) {
+      List<StockLocationLine> detailsStockLocationLineList =
+          stockLocationLineRepository
+              .all()
+              .filter(
+                  "self.detailsStockLocation = :stockLocation AND self.product.id IN :productIds")
+              .bind("stockLocation", stockLocation)
+              .bind("productIds", productIdList)
+              .fetch();
       for (StockLocationLine detailsStockLocationLine : detailsStockLocationLineList) {
-        Product product = detailsStockLocationLine.getProduct();
+        Long productId = detailsStockLocationLine.getProduct().getId();
         TrackingNumber trackingNumber = detailsStockLocationLine.getTrackingNumber();
-        BigDecimal realQty = realQties.get(Pair.of(product, trackingNumber));
+        BigDecimal realQty =
+            realQties.get(
+                Arrays.asList(productId, trackingNumber != null ? trackingNumber.getId() : null));
         if (realQty != null) {
           detailsStockLocationLine.setLastInventoryRealQty(realQty);
-          detailsStockLocationLine.setLastInventoryDateT(
-              inventory.getValidatedOn().atStartOfDay().atZone(ZoneOffset.UTC));
+          detailsStockLocationLine.setLastInventoryDateT(lastInventoryDateT);
         }
 
-        String rack = realRacks.get(product);
+        String rack = realRacks.get(productId);
         if (rack != null) {
           detailsStockLocationLine.setRack(rack);
         }
       }
+
+      JPA.em().flush();
+      JPA.em().clear();
+
+      storedProductCount += productIdList.size();
+      log.info(
+          "Inventory {}: {}/{} products stored",
+          inventory.getId(),
+          storedProductCount,
+          consolidatedRealQties.size());
+    }
+  }
+
+  /**
+   * Generate the stock moves of an inventory, one for each chunk of {@link #CHUNK_SIZE} lines with
+   * a difference in the direction of the stock moves. Each stock move is realized, then the
+   * persistence context is flushed and cleared, so the given inventory is detached.
+   *
+   * @param inventory a realized inventory.
+   * @param isEnteringStock whether we want to create incoming or upcoming stock moves of this
+   *     inventory.
+   * @return the ids of the generated stock moves.
+   * @throws AxelorException
+   */
+  public List<Long> generateStockMoves(Inventory inventory, boolean isEnteringStock)
+      throws AxelorException {
+
+    Long inventoryId = inventory.getId();
+    List<Long> inventoryLineIdList = this.getMovedInventoryLineIds(inventoryId, isEnteringStock);
+    List<Long> stockMoveIdList = new ArrayList<>();
+    int movedLineCount = 0;
+    for (List<Long> idList : Lists.partition(inventoryLineIdList, CHUNK_SIZE)) {
+      StockMove stockMove =
+          this.generateStockMove(inventoryRepo.find(inventoryId), isEnteringStock, idList);
+      stockMoveIdList.add(stockMove.getId());
+
+      JPA.em().flush();
+      JPA.em().clear();
+
+      movedLineCount += idList.size();
+      log.info(
+          "Inventory {}: {}/{} lines moved {}",
+          inventoryId,
+          movedLineCount,
+          inventoryLineIdList.size(),
+          isEnteringStock ? "in" : "out");
     }
+    return stockMoveIdList;
   }
 
   /**
-   * Generate a stock move from an inventory.
+   * Get the lines of an inventory with a difference in the direction of its stock moves, only
+   * these lines generate a stock move line.
+   *
+   * @param inventoryId
+   * @param isEnteringStock whether the real quantity must be greater or lower than the current one.
+   * @return the ids of the lines, ordered.
+   */
+  protected List<Long> getMovedInventoryLineIds(Long inventoryId, boolean isEnteringStock) {
+
+    return JPA.em()
+        .createQuery(
+            "SELECT self.id FROM InventoryLine self "
+                + "WHERE self.inventory.id = :inventoryId "
+                + "AND self.realQty "
+                + (isEnteringStock ? ">" : "<")
+                + " self.currentQty "
+                + "ORDER BY self.id",
+            Long.class)
+        .setParameter("inventoryId", inventoryId)
+        .getResultList();
+  }
+
+  /**
+   * Generate and realize a stock move from lines of an inventory.
    *
    * @param inventory a realized inventory.
    * @param isEnteringStock whether we want to create incoming or upcoming stock move of this
    *     inventory.
+   * @param inventoryLineIdList the ids of the lines to move.
    * @return the generated stock move.
    * @throws AxelorException
    */
-  public StockMove generateStockMove(Inventory inventory, boolean isEnteringStock)
+  protected StockMove generateStockMove(
+      Inventory inventory, boolean isEnteringStock, List<Long> inventoryLineIdList)
       throws AxelorException {
 
     StockLocation toStockLocation;
@@ -430,15 +727,29 @@ public class InventoryService {
     stockMove.setOriginId(inventory.getId());
     stockMove.setOrigin(inventorySeq);
 
-    for (InventoryLine inventoryLine : inventory.getInventoryLineList()) {
-      generateStockMoveLines(inventoryLine, stockMove, isEnteringStock);
+    List<InventoryLine> inventoryLineList =
+        JPA.em()
+            .createQuery(
+                "SELECT self FROM InventoryLine self "
+                    + "LEFT JOIN FETCH self.product "
+                    + "WHERE self.id IN :ids "
+                    + "ORDER BY self.id",
+                InventoryLine.class)
+            .setParameter("ids", inventoryLineIdList)
+            .getResultList();
+    Map<Long, BigDecimal> avgPriceMap =
+        this.getAvgPrices(stockMove.getToStockLocation(), inventoryLineList);
+    for (InventoryLine inventoryLine : inventoryLineList) {
+      generateStockMoveLines(
+          inventoryLine,
+          stockMove,
+          isEnteringStock,
+          avgPriceMap.getOrDefault(inventoryLine.getProduct().getId(), BigDecimal.ZERO));
     }
-    if (stockMove.getStockMoveLineList() != null && !stockMove.getStockMoveLineList().isEmpty()) {
 
-      stockMoveService.plan(stockMove);
-      stockMoveService.copyQtyToRealQty(stockMove);
-      stockMoveService.realize(stockMove, false);
-    }
+    stockMoveService.plan(stockMove);
+    stockMoveService.copyQtyToRealQty(stockMove);
+    stockMoveService.realize(stockMove, false);
     return stockMove;
   }
 
@@ -454,6 +765,33 @@ public class InventoryService {
   protected void generateStockMoveLines(
       InventoryLine inventoryLine, StockMove stockMove, boolean isEnteringStock)
       throws AxelorException {
+    BigDecimal avgPrice;
+    StockLocationLine stockLocationLine =
+        stockLocationLineService.getStockLocationLine(
+            stockMove.getToStockLocation(), inventoryLine.getProduct());
+    if (stockLocationLine != null) {
+      avgPrice = stockLocationLine.getAvgPrice();
+    } else {
+      avgPrice = BigDecimal.ZERO;
+    }
+    generateStockMoveLines(inventoryLine, stockMove, isEnteringStock, avgPrice);
+  }
+
+  /**
+   * Generate lines for the given stock move, using the given average price.
+   *
+   * @param inventoryLine an inventory line
+   * @param stockMove a stock move being created
+   * @param isEnteringStock whether we are creating an incoming or outgoing stock move.
+   * @param avgPrice the average price of the product in the destination stock location.
+   * @throws AxelorException
+   */
+  protected void generateStockMoveLines(
+      InventoryLine inventoryLine,
+      StockMove stockMove,
+      boolean isEnteringStock,
+      BigDecimal avgPrice)
+      throws AxelorException {
     Product product = inventoryLine.getProduct();
     TrackingNumber trackingNumber = inventoryLine.getTrackingNumber();
     BigDecimal diff = inventoryLine.getRealQty().subtract(inventoryLine.getCurrentQty());
@@ -461,15 +799,6 @@ public class InventoryService {
       diff = diff.negate();
     }
     if (diff.signum() > 0) {
-      BigDecimal avgPrice;
-      StockLocationLine stockLocationLine =
-          stockLocationLineService.getStockLocationLine(stockMove.getToStockLocation(), product);
-      if (stockLocationLine != null) {
-        avgPrice = stockLocationLine.getAvgPrice();
-      } else {
-        avgPrice = BigDecimal.ZERO;
-      }
-
       StockMoveLine stockMoveLine =
           stockMoveLineService.createStockMoveLine(
               product,
@@ -497,6 +826,41 @@ public class InventoryService {
     }
   }
 
+  /**
+   * Get the average prices of the products of the given inventory lines in a stock location.
+   *
+   * @param stockLocation
+   * @param inventoryLineList
+   * @return the average prices by product id, products without stock location line are missing.
+   */
+  protected Map<Long, BigDecimal> getAvgPrices(
+      StockLocation stockLocation, List<InventoryLine> inventoryLineList) {
+    Map<Long, BigDecimal> avgPriceMap = new HashMap<>();
+    Set<Long> productIdSet =
+        inventoryLineList
+            .stream()
+            .map(inventoryLine -> inventoryLine.getProduct().getId())
+            .collect(Collectors.toSet());
+    if (productIdSet.isEmpty()) {
+      return avgPriceMap;
+    }
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.product.id, self.avgPrice FROM StockLocationLine self "
+                    + "WHERE self.stockLocation.id = :stockLocationId "
+                    + "AND self.product.id IN :productIds "
+                    + "AND self.product.stockManaged = true",
+                Object[].class)
+            .setParameter("stockLocationId", stockLocation.getId())
+            .setParameter("productIds", productIdSet)
+            .getResultList();
+    for (Object[] result : resultList) {
+      avgPriceMap.put((Long) result[0], (BigDecimal) result[1]);
+    }
+    return avgPriceMap;
+  }
+
   @Transactional(rollbackOn = {Exception.class})
   public void cancel(Inventory inventory) throws AxelorException {
     List<StockMove> stockMoveList =
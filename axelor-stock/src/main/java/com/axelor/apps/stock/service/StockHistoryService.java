@@ -21,6 +21,7 @@ import com.axelor.apps.stock.db.StockHistoryLine;
 import com.axelor.exception.AxelorException;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StockHistoryService {
 
@@ -38,4 +39,20 @@ public interface StockHistoryService {
   List<StockHistoryLine> computeStockHistoryLineList(
       Long productId, Long companyId, Long stockLocationId, LocalDate beginDate, LocalDate endDate)
       throws AxelorException;
+
+  /**
+   * Compute lines for stock history like {@link #computeStockHistoryLineList(Long, Long, Long,
+   * LocalDate, LocalDate)}, streaming them to the consumer as they are computed instead of
+   * returning them: the month lines in order, then the total and average lines.
+   *
+   * @param consumer called with each computed line.
+   */
+  void computeStockHistoryLines(
+      Long productId,
+      Long companyId,
+      Long stockLocationId,
+      LocalDate beginDate,
+      LocalDate endDate,
+      Consumer<StockHistoryLine> consumer)
+      throws AxelorException;
 }
@@ -17,21 +17,29 @@
  */
 package com.axelor.apps.stock.service;
 
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.Unit;
 import com.axelor.apps.base.service.UnitConversionService;
 import com.axelor.apps.stock.db.StockHistoryLine;
-import com.axelor.apps.stock.db.StockMoveLine;
 import com.axelor.apps.stock.db.repo.StockMoveLineRepository;
 import com.axelor.apps.stock.db.repo.StockMoveRepository;
 import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.i18n.I18n;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.google.inject.Inject;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.persistence.TypedQuery;
 
 public class StockHistoryServiceImpl implements StockHistoryService {
 
@@ -51,136 +59,210 @@ public class StockHistoryServiceImpl implements StockHistoryService {
       throws AxelorException {
     List<StockHistoryLine> stockHistoryLineList = new ArrayList<>();
 
-    // one line per month
-    for (LocalDate periodBeginDate = beginDate.withDayOfMonth(1);
-        periodBeginDate.isBefore(endDate);
-        periodBeginDate = periodBeginDate.plusMonths(1)) {
-      LocalDate periodEndDate = periodBeginDate.plusMonths(1);
-      StockHistoryLine stockHistoryLine = new StockHistoryLine();
-      stockHistoryLine.setLabel(periodBeginDate.toString());
-      fetchAndFillResultForStockHistoryQuery(
-          stockHistoryLine,
-          productId,
-          companyId,
-          stockLocationId,
-          periodBeginDate,
-          periodEndDate,
-          true);
-      fetchAndFillResultForStockHistoryQuery(
-          stockHistoryLine,
-          productId,
-          companyId,
-          stockLocationId,
-          periodBeginDate,
-          periodEndDate,
-          false);
-      stockHistoryLineList.add(stockHistoryLine);
-    }
-    StockHistoryLine totalStockHistoryLine = createStockHistoryTotalLine(stockHistoryLineList);
-    StockHistoryLine avgStockHistoryLine =
-        createStockHistoryAvgLine(stockHistoryLineList, totalStockHistoryLine);
-    stockHistoryLineList.add(totalStockHistoryLine);
-    stockHistoryLineList.add(avgStockHistoryLine);
+    computeStockHistoryLines(
+        productId, companyId, stockLocationId, beginDate, endDate, stockHistoryLineList::add);
 
     // result lines
     return stockHistoryLineList;
   }
 
-  protected void fetchAndFillResultForStockHistoryQuery(
-      StockHistoryLine stockHistoryLine,
+  @Override
+  public void computeStockHistoryLines(
       Long productId,
       Long companyId,
       Long stockLocationId,
-      LocalDate periodBeginDate,
-      LocalDate periodEndDate,
-      boolean incoming)
+      LocalDate beginDate,
+      LocalDate endDate,
+      Consumer<StockHistoryLine> consumer)
       throws AxelorException {
-    String filter =
-        "self.product.id = :productId "
-            + "AND self.stockMove.statusSelect = :realized "
-            + "AND self.stockMove.company.id = :companyId "
-            + "AND self.stockMove.realDate >= :beginDate "
-            + "AND self.stockMove.realDate < :endDate ";
-
-    if (incoming) {
-      filter += "AND self.stockMove.toStockLocation.id = :stockLocationId ";
-    } else {
-      filter += "AND self.stockMove.fromStockLocation.id = :stockLocationId ";
+
+    LocalDate historyBeginDate = beginDate.withDayOfMonth(1);
+    LocalDate historyEndDate = historyBeginDate;
+    while (historyEndDate.isBefore(endDate)) {
+      historyEndDate = historyEndDate.plusMonths(1);
     }
 
-    List<StockMoveLine> stockMoveLineList =
-        stockMoveLineRepository
-            .all()
-            .filter(filter)
-            .bind("productId", productId)
-            .bind("companyId", companyId)
-            .bind("stockLocationId", stockLocationId)
-            .bind("realized", StockMoveRepository.STATUS_REALIZED)
-            .bind("beginDate", periodBeginDate)
-            .bind("endDate", periodEndDate)
-            .fetch();
-    if (incoming) {
-      fillIncomingStockHistoryLineFields(stockHistoryLine, stockMoveLineList);
-    } else {
-      fillOutgoingStockHistoryLineFields(stockHistoryLine, stockMoveLineList);
+    Map<Integer, int[]> stockMoveCountMap =
+        countStockMoves(productId, companyId, stockLocationId, historyBeginDate, historyEndDate);
+
+    Product product = JPA.find(Product.class, productId);
+    StockHistoryLine totalStockHistoryLine = createStockHistoryTotalLine(new ArrayList<>());
+    int periodCount = 0;
+
+    try (Stream<Object[]> resultStream =
+        createStockHistoryQuery(
+                productId, companyId, stockLocationId, historyBeginDate, historyEndDate)
+            .getResultStream()) {
+      PeekingIterator<Object[]> results = Iterators.peekingIterator(resultStream.iterator());
+
+      // one line per month
+      for (LocalDate periodBeginDate = historyBeginDate;
+          periodBeginDate.isBefore(endDate);
+          periodBeginDate = periodBeginDate.plusMonths(1)) {
+        int period = getPeriod(periodBeginDate.getYear(), periodBeginDate.getMonthValue());
+        int[] stockMoveCounts = stockMoveCountMap.getOrDefault(period, new int[2]);
+
+        StockHistoryLine stockHistoryLine = new StockHistoryLine();
+        stockHistoryLine.setLabel(periodBeginDate.toString());
+        stockHistoryLine.setCountIncMvtStockPeriod(stockMoveCounts[0]);
+        stockHistoryLine.setSumIncQtyPeriod(BigDecimal.ZERO);
+        stockHistoryLine.setPriceIncStockMovePeriod(BigDecimal.ZERO);
+        stockHistoryLine.setCountOutMvtStockPeriod(stockMoveCounts[1]);
+        stockHistoryLine.setSumOutQtyPeriod(BigDecimal.ZERO);
+        stockHistoryLine.setPriceOutStockMovePeriod(BigDecimal.ZERO);
+
+        while (results.hasNext()
+            && getPeriod((Integer) results.peek()[0], (Integer) results.peek()[1]) == period) {
+          fillStockHistoryLineFields(stockHistoryLine, product, stockLocationId, results.next());
+        }
+
+        addToStockHistoryTotalLine(totalStockHistoryLine, stockHistoryLine);
+        periodCount++;
+        consumer.accept(stockHistoryLine);
+      }
     }
-    JPA.clear();
+
+    consumer.accept(totalStockHistoryLine);
+    consumer.accept(createStockHistoryAvgLine(periodCount, totalStockHistoryLine));
   }
 
-  protected void fillIncomingStockHistoryLineFields(
-      StockHistoryLine stockHistoryLine, List<StockMoveLine> stockMoveLineList)
-      throws AxelorException {
+  /**
+   * Create the query summing the realized stock move lines by month and direction. Lines in
+   * another unit than the product unit are also grouped by quantity, so each quantity is converted
+   * once and rounded as if it were converted line by line.
+   */
+  protected TypedQuery<Object[]> createStockHistoryQuery(
+      Long productId,
+      Long companyId,
+      Long stockLocationId,
+      LocalDate beginDate,
+      LocalDate endDate) {
+    String convertedQty = "CASE WHEN self.unit.id != product.unit.id THEN self.realQty END";
+    String groupBy =
+        "YEAR(stockMove.realDate), MONTH(stockMove.realDate), "
+            + "stockMove.toStockLocation.id, stockMove.fromStockLocation.id, "
+            + "self.unit.id, "
+            + convertedQty;
 
-    stockHistoryLine.setCountIncMvtStockPeriod(
-        Math.toIntExact(
-            stockMoveLineList.stream().map(StockMoveLine::getStockMove).distinct().count()));
-    BigDecimal sumIncQtyPeriod = BigDecimal.ZERO;
-    for (StockMoveLine stockMoveLine : stockMoveLineList) {
-      // quantity in product unit
-      BigDecimal qtyConverted =
-          unitConversionService.convert(
-              stockMoveLine.getUnit(),
-              stockMoveLine.getProduct().getUnit(),
-              stockMoveLine.getRealQty(),
-              stockMoveLine.getRealQty().scale(),
-              stockMoveLine.getProduct());
-      sumIncQtyPeriod = sumIncQtyPeriod.add(qtyConverted);
+    return JPA.em()
+        .createQuery(
+            "SELECT "
+                + groupBy
+                + ", SUM(self.realQty), COUNT(self), SUM(self.companyUnitPriceUntaxed) "
+                + "FROM StockMoveLine self "
+                + "JOIN self.stockMove stockMove "
+                + "JOIN self.product product "
+                + getStockHistoryFilter()
+                + "GROUP BY "
+                + groupBy
+                + " ORDER BY YEAR(stockMove.realDate), MONTH(stockMove.realDate)",
+            Object[].class)
+        .setParameter("productId", productId)
+        .setParameter("companyId", companyId)
+        .setParameter("stockLocationId", stockLocationId)
+        .setParameter("realized", StockMoveRepository.STATUS_REALIZED)
+        .setParameter("beginDate", beginDate)
+        .setParameter("endDate", endDate);
+  }
+
+  /**
+   * Count the distinct incoming and outgoing stock moves of each month.
+   *
+   * @return the incoming and outgoing counts by period.
+   */
+  protected Map<Integer, int[]> countStockMoves(
+      Long productId,
+      Long companyId,
+      Long stockLocationId,
+      LocalDate beginDate,
+      LocalDate endDate) {
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT YEAR(stockMove.realDate), MONTH(stockMove.realDate), "
+                    + "stockMove.toStockLocation.id, stockMove.fromStockLocation.id, "
+                    + "COUNT(DISTINCT stockMove.id) "
+                    + "FROM StockMoveLine self "
+                    + "JOIN self.stockMove stockMove "
+                    + "JOIN self.product product "
+                    + getStockHistoryFilter()
+                    + "GROUP BY YEAR(stockMove.realDate), MONTH(stockMove.realDate), "
+                    + "stockMove.toStockLocation.id, stockMove.fromStockLocation.id",
+                Object[].class)
+            .setParameter("productId", productId)
+            .setParameter("companyId", companyId)
+            .setParameter("stockLocationId", stockLocationId)
+            .setParameter("realized", StockMoveRepository.STATUS_REALIZED)
+            .setParameter("beginDate", beginDate)
+            .setParameter("endDate", endDate)
+            .getResultList();
+
+    Map<Integer, int[]> stockMoveCountMap = new HashMap<>();
+    for (Object[] result : resultList) {
+      int[] stockMoveCounts =
+          stockMoveCountMap.computeIfAbsent(
+              getPeriod((Integer) result[0], (Integer) result[1]), period -> new int[2]);
+      int count = Math.toIntExact((Long) result[4]);
+      if (stockLocationId.equals(result[2])) {
+        stockMoveCounts[0] += count;
+      }
+      if (stockLocationId.equals(result[3])) {
+        stockMoveCounts[1] += count;
+      }
     }
-    stockHistoryLine.setSumIncQtyPeriod(sumIncQtyPeriod);
-    stockHistoryLine.setPriceIncStockMovePeriod(
-        stockMoveLineList
-            .stream()
-            .map(StockMoveLine::getCompanyUnitPriceUntaxed)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO));
+    return stockMoveCountMap;
   }
 
-  protected void fillOutgoingStockHistoryLineFields(
-      StockHistoryLine stockHistoryLine, List<StockMoveLine> stockMoveLineList)
+  protected String getStockHistoryFilter() {
+    return "WHERE product.id = :productId "
+        + "AND stockMove.statusSelect = :realized "
+        + "AND stockMove.company.id = :companyId "
+        + "AND stockMove.realDate >= :beginDate "
+        + "AND stockMove.realDate < :endDate "
+        + "AND (stockMove.toStockLocation.id = :stockLocationId "
+        + "OR stockMove.fromStockLocation.id = :stockLocationId) ";
+  }
+
+  /**
+   * Add a row of the stock history query to the line of its month.
+   *
+   * @param result the year, month, to and from stock locations, unit, quantity if not in product
+   *     unit, quantity sum, line count and price sum.
+   */
+  protected void fillStockHistoryLineFields(
+      StockHistoryLine stockHistoryLine, Product product, Long stockLocationId, Object[] result)
       throws AxelorException {
 
-    stockHistoryLine.setCountOutMvtStockPeriod(
-        Math.toIntExact(
-            stockMoveLineList.stream().map(StockMoveLine::getStockMove).distinct().count()));
-    BigDecimal sumOutQtyPeriod = BigDecimal.ZERO;
-    for (StockMoveLine stockMoveLine : stockMoveLineList) {
+    BigDecimal qty = (BigDecimal) result[6];
+    BigDecimal price = result[8] == null ? BigDecimal.ZERO : (BigDecimal) result[8];
+    if (result[5] != null) {
       // quantity in product unit
-      BigDecimal qtyConverted =
-          unitConversionService.convert(
-              stockMoveLine.getUnit(),
-              stockMoveLine.getProduct().getUnit(),
-              stockMoveLine.getRealQty(),
-              stockMoveLine.getRealQty().scale(),
-              stockMoveLine.getProduct());
-      sumOutQtyPeriod = sumOutQtyPeriod.add(qtyConverted);
+      BigDecimal realQty = (BigDecimal) result[5];
+      qty =
+          unitConversionService
+              .convert(
+                  JPA.find(Unit.class, (Long) result[4]),
+                  product.getUnit(),
+                  realQty,
+                  realQty.scale(),
+                  product)
+              .multiply(BigDecimal.valueOf((Long) result[7]));
     }
-    stockHistoryLine.setSumOutQtyPeriod(sumOutQtyPeriod);
-    stockHistoryLine.setPriceOutStockMovePeriod(
-        stockMoveLineList
-            .stream()
-            .map(StockMoveLine::getCompanyUnitPriceUntaxed)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO));
+
+    if (stockLocationId.equals(result[2])) {
+      stockHistoryLine.setSumIncQtyPeriod(stockHistoryLine.getSumIncQtyPeriod().add(qty));
+      stockHistoryLine.setPriceIncStockMovePeriod(
+          stockHistoryLine.getPriceIncStockMovePeriod().add(price));
+    }
+    if (stockLocationId.equals(result[3])) {
+      stockHistoryLine.setSumOutQtyPeriod(stockHistoryLine.getSumOutQtyPeriod().add(qty));
+      stockHistoryLine.setPriceOutStockMovePeriod(
+          stockHistoryLine.getPriceOutStockMovePeriod().add(price));
+    }
+  }
+
+  protected int getPeriod(int year, int month) {
+    return year * 12 + month - 1;
   }
 
   /**
@@ -193,64 +275,58 @@ public class StockHistoryServiceImpl implements StockHistoryService {
       List<StockHistoryLine> stockHistoryLineList) {
     StockHistoryLine stockHistoryLine = new StockHistoryLine();
     stockHistoryLine.setLabel(I18n.get("Total"));
+    stockHistoryLine.setCountIncMvtStockPeriod(0);
+    stockHistoryLine.setSumIncQtyPeriod(BigDecimal.ZERO);
+    stockHistoryLine.setPriceIncStockMovePeriod(BigDecimal.ZERO);
+    stockHistoryLine.setCountOutMvtStockPeriod(0);
+    stockHistoryLine.setSumOutQtyPeriod(BigDecimal.ZERO);
+    stockHistoryLine.setPriceOutStockMovePeriod(BigDecimal.ZERO);
 
-    Integer countIncMvtStock =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getCountIncMvtStockPeriod)
-            .filter(Objects::nonNull)
-            .mapToInt(Integer::intValue)
-            .sum();
-    stockHistoryLine.setCountIncMvtStockPeriod(countIncMvtStock);
-
-    BigDecimal sumIncQtyPeriod =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getSumIncQtyPeriod)
-            .filter(Objects::nonNull)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO);
-    stockHistoryLine.setSumIncQtyPeriod(sumIncQtyPeriod);
-
-    BigDecimal priceIncStockMove =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getPriceIncStockMovePeriod)
-            .filter(Objects::nonNull)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO);
-    stockHistoryLine.setPriceIncStockMovePeriod(priceIncStockMove);
-
-    Integer countOutMvtStock =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getCountOutMvtStockPeriod)
-            .filter(Objects::nonNull)
-            .mapToInt(Integer::intValue)
-            .sum();
-    stockHistoryLine.setCountOutMvtStockPeriod(countOutMvtStock);
-
-    BigDecimal sumOutQtyPeriod =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getSumOutQtyPeriod)
-            .filter(Objects::nonNull)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO);
-    stockHistoryLine.setSumOutQtyPeriod(sumOutQtyPeriod);
-
-    BigDecimal priceOutStockMove =
-        stockHistoryLineList
-            .stream()
-            .map(StockHistoryLine::getPriceOutStockMovePeriod)
-            .filter(Objects::nonNull)
-            .reduce(BigDecimal::add)
-            .orElse(BigDecimal.ZERO);
-    stockHistoryLine.setPriceOutStockMovePeriod(priceOutStockMove);
+    for (StockHistoryLine periodStockHistoryLine : stockHistoryLineList) {
+      addToStockHistoryTotalLine(stockHistoryLine, periodStockHistoryLine);
+    }
 
     return stockHistoryLine;
   }
 
+  /**
+   * Add each field of a line to the line containing totals.
+   *
+   * @param totalStockHistoryLine
+   * @param stockHistoryLine
+   */
+  protected void addToStockHistoryTotalLine(
+      StockHistoryLine totalStockHistoryLine, StockHistoryLine stockHistoryLine) {
+    totalStockHistoryLine.setCountIncMvtStockPeriod(
+        totalStockHistoryLine.getCountIncMvtStockPeriod()
+            + Optional.ofNullable(stockHistoryLine.getCountIncMvtStockPeriod()).orElse(0));
+    totalStockHistoryLine.setSumIncQtyPeriod(
+        totalStockHistoryLine
+            .getSumIncQtyPeriod()
+            .add(
+                Optional.ofNullable(stockHistoryLine.getSumIncQtyPeriod()).orElse(BigDecimal.ZERO)));
+    totalStockHistoryLine.setPriceIncStockMovePeriod(
+        totalStockHistoryLine
+            .getPriceIncStockMovePeriod()
+            .add(
+                Optional.ofNullable(stockHistoryLine.getPriceIncStockMovePeriod())
+                    .orElse(BigDecimal.ZERO)));
+    totalStockHistoryLine.setCountOutMvtStockPeriod(
+        totalStockHistoryLine.getCountOutMvtStockPeriod()
+            + Optional.ofNullable(stockHistoryLine.getCountOutMvtStockPeriod()).orElse(0));
+    totalStockHistoryLine.setSumOutQtyPeriod(
+        totalStockHistoryLine
+            .getSumOutQtyPeriod()
+            .add(
+                Optional.ofNullable(stockHistoryLine.getSumOutQtyPeriod()).orElse(BigDecimal.ZERO)));
+    totalStockHistoryLine.setPriceOutStockMovePeriod(
+        totalStockHistoryLine
+            .getPriceOutStockMovePeriod()
+            .add(
+                Optional.ofNullable(stockHistoryLine.getPriceOutStockMovePeriod())
+                    .orElse(BigDecimal.ZERO)));
+  }
+
   /**
    * Create a line labelled "Average", using a list of stockHistory and a line containing totals.
    *
@@ -260,10 +336,21 @@ public class StockHistoryServiceImpl implements StockHistoryService {
    */
   protected StockHistoryLine createStockHistoryAvgLine(
       List<StockHistoryLine> stockHistoryLineList, StockHistoryLine totalStockHistoryLine) {
+    return createStockHistoryAvgLine(stockHistoryLineList.size(), totalStockHistoryLine);
+  }
+
+  /**
+   * Create a line labelled "Average", using the number of months and a line containing totals.
+   *
+   * @param sizeOfList the number of months
+   * @param totalStockHistoryLine
+   * @return the created line.
+   */
+  protected StockHistoryLine createStockHistoryAvgLine(
+      int sizeOfList, StockHistoryLine totalStockHistoryLine) {
     StockHistoryLine stockHistoryLine = new StockHistoryLine();
     stockHistoryLine.setLabel(I18n.get("Average"));
 
-    int sizeOfList = stockHistoryLineList.size();
     if (sizeOfList == 0) {
       return stockHistoryLine;
     }
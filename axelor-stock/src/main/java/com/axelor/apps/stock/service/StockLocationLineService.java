@@ -27,6 +27,7 @@ import com.axelor.exception.AxelorException;
 import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 public interface StockLocationLineService {
@@ -56,6 +57,17 @@ public interface StockLocationLineService {
       LocalDate lastFutureStockMoveDate)
       throws AxelorException;
 
+  /**
+   * Lock the stock location lines, detail lines included, of products in stock locations. The rows
+   * are locked in ID order, so that concurrent stock moves always lock them in the same order.
+   *
+   * @param stockLocations
+   * @param products
+   * @return the locked stock location lines
+   */
+  public List<StockLocationLine> lockStockLocationLines(
+      Collection<StockLocation> stockLocations, Collection<Product> products);
+
   public void minStockRules(
       Product product,
       BigDecimal qty,
@@ -256,4 +268,18 @@ public interface StockLocationLineService {
    * @param stockMoveLine the move line responsible for the WAP change.
    */
   void updateWap(StockLocationLine stockLocationLine, BigDecimal wap, StockMoveLine stockMoveLine);
+
+  /**
+   * Update avgPrice in stock location line and save wap history in the line.
+   *
+   * @param stockLocationLine stock location line to updated.
+   * @param wap weighted average price which will update the field avgPrice.
+   * @param stockMoveLine the move line responsible for the WAP change.
+   * @param qty the quantity of the stock location line right after the move line.
+   */
+  void updateWap(
+      StockLocationLine stockLocationLine,
+      BigDecimal wap,
+      StockMoveLine stockMoveLine,
+      BigDecimal qty);
 }
@@ -35,11 +35,13 @@ import com.axelor.apps.stock.db.repo.StockRulesRepository;
 import com.axelor.apps.stock.db.repo.WapHistoryRepository;
 import com.axelor.apps.stock.exception.IExceptionMessage;
 import com.axelor.apps.tool.StringTool;
+import com.axelor.db.JPA;
 import com.axelor.db.Query;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import com.google.inject.servlet.RequestScoped;
@@ -47,7 +49,12 @@ import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.LockModeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +73,8 @@ public class StockLocationLineServiceImpl implements StockLocationLineService {
 
   protected WapHistoryRepository wapHistoryRepo;
 
+  protected static final int LOCK_CHUNK_SIZE = 1000;
+
   @Inject
   public StockLocationLineServiceImpl(
       StockLocationLineRepository stockLocationLineRepo,
@@ -178,6 +187,49 @@ public class StockLocationLineServiceImpl implements StockLocationLineService {
     stockLocationLineRepo.save(stockLocationLine);
   }
 
+  @Override
+  public List<StockLocationLine> lockStockLocationLines(
+      Collection<StockLocation> stockLocations, Collection<Product> products) {
+
+    List<Long> stockLocationIds =
+        stockLocations.stream().map(StockLocation::getId).distinct().collect(Collectors.toList());
+    List<Long> productIds =
+        products.stream().map(Product::getId).distinct().collect(Collectors.toList());
+    List<Long> stockLocationLineIds = new ArrayList<>();
+
+    for (List<Long> productIdChunk : Lists.partition(productIds, LOCK_CHUNK_SIZE)) {
+      stockLocationLineIds.addAll(
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id FROM StockLocationLine self "
+                      + "WHERE (self.stockLocation.id IN (:stockLocationIds) "
+                      + "OR self.detailsStockLocation.id IN (:stockLocationIds)) "
+                      + "AND self.product.id IN (:productIds)",
+                  Long.class)
+              .setParameter("stockLocationIds", stockLocationIds)
+              .setParameter("productIds", productIdChunk)
+              .getResultList());
+    }
+
+    Collections.sort(stockLocationLineIds);
+    List<StockLocationLine> stockLocationLineList = new ArrayList<>();
+
+    for (List<Long> stockLocationLineIdChunk :
+        Lists.partition(stockLocationLineIds, LOCK_CHUNK_SIZE)) {
+      stockLocationLineList.addAll(
+          JPA.em()
+              .createQuery(
+                  "SELECT self FROM StockLocationLine self "
+                      + "WHERE self.id IN (:stockLocationLineIds) ORDER BY self.id",
+                  StockLocationLine.class)
+              .setParameter("stockLocationLineIds", stockLocationLineIdChunk)
+              .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+              .getResultList());
+    }
+
+    return stockLocationLineList;
+  }
+
   @Override
   public void minStockRules(
       Product product,
@@ -746,13 +798,22 @@ public class StockLocationLineServiceImpl implements StockLocationLineService {
   @Override
   public void updateWap(
       StockLocationLine stockLocationLine, BigDecimal wap, StockMoveLine stockMoveLine) {
+    updateWap(stockLocationLine, wap, stockMoveLine, stockLocationLine.getCurrentQty());
+  }
+
+  @Override
+  public void updateWap(
+      StockLocationLine stockLocationLine,
+      BigDecimal wap,
+      StockMoveLine stockMoveLine,
+      BigDecimal qty) {
     stockLocationLine.setAvgPrice(wap);
     wapHistoryRepo.save(
         new WapHistory(
             stockLocationLine,
             appBaseService.getTodayDate(),
             wap,
-            stockLocationLine.getCurrentQty(),
+            qty,
             stockLocationLine.getUnit(),
             stockMoveLine));
   }
@@ -22,7 +22,9 @@ import com.axelor.apps.stock.db.StockLocation;
 import com.axelor.exception.AxelorException;
 import com.axelor.meta.CallMethod;
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface StockLocationService {
@@ -56,6 +58,21 @@ public interface StockLocationService {
   public BigDecimal getFutureQty(Long productId, Long locationId, Long companyId)
       throws AxelorException;
 
+  /**
+   * Get the quantities of the products, in their unit, summed on a stock location and its non
+   * virtual sub locations, or on the non virtual stock locations of a company. Stock location lines
+   * are read only, missing lines counting as zero.
+   *
+   * @param productIds the products
+   * @param locationId the stock location, <code>null</code> or 0 for all the stock locations of the
+   *     company
+   * @param companyId the company, <code>null</code> or 0 for all companies
+   * @return the quantities of each given product
+   * @throws AxelorException if a quantity can not be converted to the product unit
+   */
+  public Map<Long, StockQuantities> getStockQuantities(
+      Collection<Long> productIds, Long locationId, Long companyId) throws AxelorException;
+
   @CallMethod
   public List<Long> getBadStockLocationLineId();
 
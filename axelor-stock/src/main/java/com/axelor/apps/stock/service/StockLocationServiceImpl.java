@@ -18,7 +18,6 @@
 package com.axelor.apps.stock.service;
 
 import com.axelor.apps.base.db.Company;
-import com.axelor.apps.base.db.Product;
 import com.axelor.apps.base.db.Unit;
 import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.service.UnitConversionService;
@@ -36,35 +35,47 @@ import com.axelor.inject.Beans;
 import com.axelor.rpc.filter.Filter;
 import com.axelor.rpc.filter.JPQLFilter;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 @RequestScoped
 public class StockLocationServiceImpl implements StockLocationService {
 
+  protected static final int PRODUCT_CHUNK_SIZE = 500;
+
   protected StockLocationRepository stockLocationRepo;
 
   protected StockLocationLineService stockLocationLineService;
 
   protected ProductRepository productRepo;
 
-  protected Set<Long> locationIdSet = new HashSet<>();
+  protected StockLocationTreeCache stockLocationTreeCache;
 
   @Inject
   public StockLocationServiceImpl(
       StockLocationRepository stockLocationRepo,
       StockLocationLineService stockLocationLineService,
-      ProductRepository productRepo) {
+      ProductRepository productRepo,
+      StockLocationTreeCache stockLocationTreeCache) {
     this.stockLocationRepo = stockLocationRepo;
     this.stockLocationLineService = stockLocationLineService;
     this.productRepo = productRepo;
+    this.stockLocationTreeCache = stockLocationTreeCache;
   }
 
   @Override
@@ -105,62 +116,24 @@ public class StockLocationServiceImpl implements StockLocationService {
   @Override
   public BigDecimal getQty(Long productId, Long locationId, Long companyId, String qtyType)
       throws AxelorException {
-    if (productId != null) {
-      Product product = productRepo.find(productId);
-      Unit productUnit = product.getUnit();
-      UnitConversionService unitConversionService = Beans.get(UnitConversionService.class);
-
-      if (locationId == null || locationId == 0L) {
-        List<StockLocation> stockLocations = getNonVirtualStockLocations(companyId);
-        if (!stockLocations.isEmpty()) {
-          BigDecimal qty = BigDecimal.ZERO;
-          for (StockLocation stockLocation : stockLocations) {
-            StockLocationLine stockLocationLine =
-                stockLocationLineService.getOrCreateStockLocationLine(
-                    stockLocationRepo.find(stockLocation.getId()), productRepo.find(productId));
-
-            if (stockLocationLine != null) {
-              Unit stockLocationLineUnit = stockLocationLine.getUnit();
-              qty =
-                  qty.add(
-                      qtyType.equals("real")
-                          ? stockLocationLine.getCurrentQty()
-                          : stockLocationLine.getFutureQty());
-
-              if (productUnit != null && !productUnit.equals(stockLocationLineUnit)) {
-                qty =
-                    unitConversionService.convert(
-                        stockLocationLineUnit, productUnit, qty, qty.scale(), product);
-              }
-            }
-          }
-          return qty;
-        }
-      } else {
-        StockLocationLine stockLocationLine =
-            stockLocationLineService.getOrCreateStockLocationLine(
-                stockLocationRepo.find(locationId), productRepo.find(productId));
-
-        if (stockLocationLine != null) {
-          Unit stockLocationLineUnit = stockLocationLine.getUnit();
-          BigDecimal qty = BigDecimal.ZERO;
-
-          qty =
-              qtyType.equals("real")
-                  ? stockLocationLine.getCurrentQty()
-                  : stockLocationLine.getFutureQty();
-
-          if (productUnit != null && !productUnit.equals(stockLocationLineUnit)) {
-            qty =
-                unitConversionService.convert(
-                    stockLocationLineUnit, productUnit, qty, qty.scale(), product);
-          }
-          return qty;
-        }
-      }
+    if (productId == null) {
+      return BigDecimal.ZERO;
     }
+    StockQuantities stockQuantities =
+        getStockQuantitiesOnLocation(productId, locationId, companyId);
+    return qtyType.equals("real") ? stockQuantities.getRealQty() : stockQuantities.getFutureQty();
+  }
 
-    return BigDecimal.ZERO;
+  /**
+   * Get the quantities of a product on the given stock location only, or on all the non virtual
+   * stock locations of the company if no stock location is given.
+   */
+  protected StockQuantities getStockQuantitiesOnLocation(
+      Long productId, Long locationId, Long companyId) throws AxelorException {
+    List<Long> stockLocationIdList =
+        locationId == null || locationId == 0L ? null : Lists.newArrayList(locationId);
+    return computeStockQuantities(Lists.newArrayList(productId), stockLocationIdList, companyId)
+        .get(productId);
   }
 
   @Override
@@ -175,6 +148,133 @@ public class StockLocationServiceImpl implements StockLocationService {
     return getQty(productId, locationId, companyId, "future");
   }
 
+  @Override
+  public Map<Long, StockQuantities> getStockQuantities(
+      Collection<Long> productIds, Long locationId, Long companyId) throws AxelorException {
+    List<Long> stockLocationIdList = null;
+    if (locationId != null && locationId != 0L) {
+      stockLocationIdList =
+          stockLocationTreeCache.getTree().getLocationAndSubLocationIds(locationId, false);
+    }
+    return computeStockQuantities(productIds, stockLocationIdList, companyId);
+  }
+
+  /**
+   * Sum the stock location lines of the products, grouped by product and unit, then convert each
+   * group to the product unit.
+   *
+   * @param productIds the products
+   * @param stockLocationIdList the stock locations, or <code>null</code> for all the non virtual
+   *     stock locations of the company
+   * @param companyId the company, only used without stock locations
+   * @return the quantities of each given product
+   * @throws AxelorException
+   */
+  protected Map<Long, StockQuantities> computeStockQuantities(
+      Collection<Long> productIds, List<Long> stockLocationIdList, Long companyId)
+      throws AxelorException {
+
+    Map<Long, StockQuantities> stockQuantitiesMap = new LinkedHashMap<>();
+    List<Long> productIdList = new ArrayList<>();
+    for (Long productId : productIds) {
+      if (productId != null && !stockQuantitiesMap.containsKey(productId)) {
+        stockQuantitiesMap.put(productId, StockQuantities.zero(productId));
+        productIdList.add(productId);
+      }
+    }
+    if (productIdList.isEmpty() || (stockLocationIdList != null && stockLocationIdList.isEmpty())) {
+      return stockQuantitiesMap;
+    }
+
+    StringBuilder queryStr =
+        new StringBuilder("SELECT self.product.id, unit.id, ")
+            .append(getStockQuantitiesSelect())
+            .append(" FROM StockLocationLine self LEFT JOIN self.unit unit")
+            .append(" WHERE self.product.id IN :productIds");
+    if (stockLocationIdList != null) {
+      queryStr.append(" AND self.stockLocation.id IN :stockLocationIds");
+    } else {
+      queryStr.append(" AND self.stockLocation.typeSelect != :typeVirtual");
+      if (companyId != null && companyId != 0L) {
+        queryStr.append(" AND self.stockLocation.company.id = :companyId");
+      }
+    }
+    queryStr.append(" GROUP BY self.product.id, unit.id");
+
+    UnitConversionService unitConversionService = Beans.get(UnitConversionService.class);
+
+    for (List<Long> productIdChunk : Lists.partition(productIdList, PRODUCT_CHUNK_SIZE)) {
+      TypedQuery<Object[]> query =
+          JPA.em()
+              .createQuery(queryStr.toString(), Object[].class)
+              .setParameter("productIds", productIdChunk);
+      if (stockLocationIdList != null) {
+        query.setParameter("stockLocationIds", stockLocationIdList);
+      } else {
+        query.setParameter("typeVirtual", StockLocationRepository.TYPE_VIRTUAL);
+        if (companyId != null && companyId != 0L) {
+          query.setParameter("companyId", companyId);
+        }
+      }
+      List<Object[]> resultList = query.getResultList();
+      if (resultList.isEmpty()) {
+        continue;
+      }
+
+      Map<Long, Long> productUnitIdMap = new HashMap<>();
+      for (Object[] row :
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id, unit.id FROM Product self LEFT JOIN self.unit unit "
+                      + "WHERE self.id IN :productIds",
+                  Object[].class)
+              .setParameter("productIds", productIdChunk)
+              .getResultList()) {
+        productUnitIdMap.put((Long) row[0], (Long) row[1]);
+      }
+
+      for (Object[] row : resultList) {
+        Long productId = (Long) row[0];
+        Long unitId = (Long) row[1];
+        Long productUnitId = productUnitIdMap.get(productId);
+        BigDecimal coefficient = BigDecimal.ONE;
+        if (unitId != null && productUnitId != null && !productUnitId.equals(unitId)) {
+          coefficient =
+              unitConversionService.getCoefficient(
+                  JPA.find(Unit.class, unitId),
+                  JPA.find(Unit.class, productUnitId),
+                  productRepo.find(productId));
+        }
+        StockQuantities groupQuantities =
+            new StockQuantities(
+                productId,
+                convertQty((BigDecimal) row[2], coefficient),
+                convertQty((BigDecimal) row[3], coefficient),
+                row.length > 4 ? convertQty((BigDecimal) row[4], coefficient) : BigDecimal.ZERO);
+        stockQuantitiesMap.put(productId, stockQuantitiesMap.get(productId).add(groupQuantities));
+      }
+    }
+    return stockQuantitiesMap;
+  }
+
+  /**
+   * The aggregates selected on the stock location lines: current and future quantities, followed
+   * by optional quantities added by other modules.
+   */
+  protected String getStockQuantitiesSelect() {
+    return "SUM(self.currentQty), SUM(self.futureQty)";
+  }
+
+  protected BigDecimal convertQty(BigDecimal qty, BigDecimal coefficient) {
+    if (qty == null) {
+      return BigDecimal.ZERO;
+    }
+    if (coefficient.compareTo(BigDecimal.ONE) == 0) {
+      return qty;
+    }
+    return qty.multiply(coefficient).setScale(qty.scale(), RoundingMode.HALF_EVEN);
+  }
+
   public List<Long> getBadStockLocationLineId() {
 
     List<StockLocationLine> stockLocationLineList =
@@ -211,51 +311,34 @@ public class StockLocationServiceImpl implements StockLocationService {
 
   @Override
   public Set<Long> getContentStockLocationIds(StockLocation stockLocation) {
-    locationIdSet = new HashSet<>();
-    if (stockLocation != null) {
-      List<StockLocation> stockLocations = getAllLocationAndSubLocation(stockLocation, true);
-      for (StockLocation item : stockLocations) {
-        locationIdSet.add(item.getId());
-      }
-    } else {
-      locationIdSet.add(0L);
+    if (stockLocation == null) {
+      return Sets.newHashSet(0L);
     }
-
-    return locationIdSet;
+    return new HashSet<>(getAllLocationAndSubLocationId(stockLocation, true));
   }
 
   public List<StockLocation> getAllLocationAndSubLocation(
       StockLocation stockLocation, boolean isVirtualInclude) {
 
-    List<StockLocation> resultList = new ArrayList<>();
     if (stockLocation == null) {
-      return resultList;
+      return new ArrayList<>();
+    }
+    if (stockLocation.getId() == null) {
+      return Lists.newArrayList(stockLocation);
     }
-    if (isVirtualInclude) {
-      for (StockLocation subLocation :
-          stockLocationRepo
-              .all()
-              .filter("self.parentStockLocation.id = :stockLocationId")
-              .bind("stockLocationId", stockLocation.getId())
-              .fetch()) {
 
-        resultList.addAll(this.getAllLocationAndSubLocation(subLocation, isVirtualInclude));
-      }
-    } else {
-      for (StockLocation subLocation :
-          stockLocationRepo
-              .all()
-              .filter(
-                  "self.parentStockLocation.id = :stockLocationId AND self.typeSelect != :virtual")
-              .bind("stockLocationId", stockLocation.getId())
-              .bind("virtual", StockLocationRepository.TYPE_VIRTUAL)
-              .fetch()) {
+    List<Long> idList = getAllLocationAndSubLocationId(stockLocation, isVirtualInclude);
+    Map<Long, StockLocation> stockLocationMap =
+        stockLocationRepo.all().filter("self.id IN (?1)", idList).fetch().stream()
+            .collect(Collectors.toMap(StockLocation::getId, Function.identity()));
 
-        resultList.addAll(this.getAllLocationAndSubLocation(subLocation, isVirtualInclude));
+    List<StockLocation> resultList = new ArrayList<>(idList.size());
+    for (Long id : idList) {
+      StockLocation subLocation = stockLocationMap.get(id);
+      if (subLocation != null) {
+        resultList.add(subLocation);
       }
     }
-    resultList.add(stockLocation);
-
     return resultList;
   }
 
@@ -285,14 +368,16 @@ public class StockLocationServiceImpl implements StockLocationService {
   @Override
   public List<Long> getAllLocationAndSubLocationId(
       StockLocation stockLocation, boolean isVirtualInclude) {
-    List<StockLocation> stockLocationList =
-        getAllLocationAndSubLocation(stockLocation, isVirtualInclude);
-    List<Long> stockLocationListId = null;
-    if (stockLocationList != null) {
-      stockLocationListId =
-          stockLocationList.stream().map(StockLocation::getId).collect(Collectors.toList());
+    if (stockLocation == null) {
+      return new ArrayList<>();
+    }
+    if (stockLocation.getId() == null) {
+      return Lists.newArrayList((Long) null);
     }
-    return stockLocationListId;
+    return new ArrayList<>(
+        stockLocationTreeCache
+            .getTree()
+            .getLocationAndSubLocationIds(stockLocation.getId(), isVirtualInclude));
   }
 
   @Override
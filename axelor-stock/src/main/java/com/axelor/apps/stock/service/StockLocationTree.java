@@ -0,0 +1,115 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable tree of the stock locations, built from their parent links.
+ *
+ * <p>The sub locations of a location are resolved once, with or without the virtual locations, and
+ * cached. A virtual sub location excludes its own sub locations as well when the virtual locations
+ * are not included.
+ */
+public class StockLocationTree {
+
+  private final Map<Long, List<Long>> children;
+
+  private final Set<Long> virtualIds;
+
+  private final Map<Long, List<Long>> subLocationIds = new ConcurrentHashMap<>();
+
+  private final Map<Long, List<Long>> nonVirtualSubLocationIds = new ConcurrentHashMap<>();
+
+  /**
+   * Build the tree.
+   *
+   * @param rows the ID, parent ID and type of each stock location
+   */
+  public StockLocationTree(List<Object[]> rows) {
+    Map<Long, List<Long>> children = new HashMap<>();
+    Set<Long> virtualIds = new HashSet<>();
+
+    for (Object[] row : rows) {
+      Long id = (Long) row[0];
+      Long parentId = (Long) row[1];
+      if (parentId != null) {
+        children.computeIfAbsent(parentId, key -> new ArrayList<>()).add(id);
+      }
+      if (row[2] != null && (Integer) row[2] == StockLocationRepository.TYPE_VIRTUAL) {
+        virtualIds.add(id);
+      }
+    }
+    children.values().forEach(Collections::sort);
+
+    this.children = children;
+    this.virtualIds = virtualIds;
+  }
+
+  /**
+   * Get the IDs of a stock location and all its sub locations, the sub locations coming before
+   * their parent.
+   *
+   * @param stockLocationId the root stock location, always included
+   * @param isVirtualInclude whether the virtual sub locations are included
+   * @return an unmodifiable list of IDs
+   */
+  public List<Long> getLocationAndSubLocationIds(Long stockLocationId, boolean isVirtualInclude) {
+    Map<Long, List<Long>> cache = isVirtualInclude ? subLocationIds : nonVirtualSubLocationIds;
+    return cache.computeIfAbsent(
+        stockLocationId, id -> Collections.unmodifiableList(search(id, isVirtualInclude)));
+  }
+
+  public boolean isVirtual(Long stockLocationId) {
+    return virtualIds.contains(stockLocationId);
+  }
+
+  private List<Long> search(Long rootId, boolean isVirtualInclude) {
+    List<Long> result = new ArrayList<>();
+    Set<Long> visited = new HashSet<>();
+    Deque<Long> stack = new ArrayDeque<>();
+    Deque<Long> output = new ArrayDeque<>();
+
+    stack.push(rootId);
+    visited.add(rootId);
+
+    // Reversed pre-order on reversed children gives the post-order
+    while (!stack.isEmpty()) {
+      Long id = stack.pop();
+      output.push(id);
+      for (Long childId : children.getOrDefault(id, Collections.emptyList())) {
+        if ((isVirtualInclude || !virtualIds.contains(childId)) && visited.add(childId)) {
+          stack.push(childId);
+        }
+      }
+    }
+
+    output.forEach(result::add);
+    return result;
+  }
+}
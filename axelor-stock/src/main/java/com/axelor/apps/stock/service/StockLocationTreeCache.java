@@ -0,0 +1,64 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.base.service.TransactionHelper;
+import com.google.inject.Singleton;
+
+/**
+ * Holds the {@link StockLocationTree} shared by all the requests. The tree is loaded with a single
+ * query in a unit of work of its own, and dropped once saved or removed stock locations are
+ * committed, so it is rebuilt on next use.
+ */
+@Singleton
+public class StockLocationTreeCache {
+
+  private volatile StockLocationTree tree;
+
+  public StockLocationTree getTree() {
+    StockLocationTree current = tree;
+    if (current == null) {
+      synchronized (this) {
+        current = tree;
+        if (current == null) {
+          current =
+              new StockLocationTree(
+                  TransactionHelper.readOnly(
+                      em ->
+                          em.createQuery(
+                                  "SELECT self.id, parent.id, self.typeSelect "
+                                      + "FROM StockLocation self "
+                                      + "LEFT JOIN self.parentStockLocation parent",
+                                  Object[].class)
+                              .getResultList()));
+          tree = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  public synchronized void invalidate() {
+    tree = null;
+  }
+
+  /** Drop the tree once the current transaction is completed. */
+  public void invalidateAfterCompletion() {
+    TransactionHelper.afterCompletion(this::invalidate);
+  }
+}
@@ -147,6 +147,11 @@ public interface StockMoveLineService {
       TrackingNumber trackingNumber)
       throws AxelorException;
 
+  /**
+   * @deprecated the average prices are updated by {@link #updateLocations(StockLocation,
+   *     StockLocation, int, int, List, LocalDate, boolean)} for all the lines of a product at once
+   */
+  @Deprecated
   public void updateAveragePriceLocationLine(
       StockLocation stockLocation, StockMoveLine stockMoveLine, int fromStatus, int toStatus)
       throws AxelorException;
@@ -42,6 +42,7 @@ import com.axelor.apps.stock.db.repo.StockMoveRepository;
 import com.axelor.apps.stock.db.repo.TrackingNumberRepository;
 import com.axelor.apps.stock.exception.IExceptionMessage;
 import com.axelor.apps.stock.service.app.AppStockService;
+import com.axelor.db.Model;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -56,9 +57,13 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
@@ -424,6 +429,7 @@ public class StockMoveLineServiceImpl implements StockMoveLineService {
   }
 
   @Override
+  @Transactional(rollbackOn = {Exception.class})
   public void updateLocations(
       StockLocation fromStockLocation,
       StockLocation toStockLocation,
@@ -436,6 +442,12 @@ public class StockMoveLineServiceImpl implements StockMoveLineService {
 
     stockMoveLineList = MoreObjects.firstNonNull(stockMoveLineList, Collections.emptyList());
 
+    // Quantities are aggregated by product, unit and tracking number, so that each stock location
+    // line is updated, and its stock rules checked, once for the whole list
+    Map<List<Object>, BigDecimal> qtyMap = new HashMap<>();
+    Map<List<Object>, StockMoveLine> stockMoveLineMap = new HashMap<>();
+    Map<Product, List<StockMoveLine>> productStockMoveLineMap = new LinkedHashMap<>();
+
     for (StockMoveLine stockMoveLine : stockMoveLineList) {
 
       Product product = stockMoveLine.getProduct();
@@ -451,25 +463,97 @@ public class StockMoveLineServiceImpl implements StockMoveLineService {
           qty = stockMoveLine.getQty();
         }
 
-        this.updateLocations(
-            stockMoveLine,
-            fromStockLocation,
+        List<Object> keys =
+            Arrays.asList(product, stockMoveLine.getUnit(), stockMoveLine.getTrackingNumber());
+        qtyMap.merge(keys, qty, BigDecimal::add);
+        stockMoveLineMap.putIfAbsent(keys, stockMoveLine);
+        productStockMoveLineMap
+            .computeIfAbsent(product, key -> new ArrayList<>())
+            .add(stockMoveLine);
+      }
+    }
+
+    if (qtyMap.isEmpty()) {
+      return;
+    }
+
+    List<StockLocationLine> stockLocationLineList =
+        stockLocationLineService.lockStockLocationLines(
+            Arrays.asList(fromStockLocation, toStockLocation), productStockMoveLineMap.keySet());
+
+    Map<Product, BigDecimal> initialQtyMap = new HashMap<>();
+    for (StockLocationLine stockLocationLine : stockLocationLineList) {
+      if (toStockLocation.equals(stockLocationLine.getStockLocation())) {
+        initialQtyMap.put(stockLocationLine.getProduct(), stockLocationLine.getCurrentQty());
+      }
+    }
+
+    List<List<Object>> keysList = new ArrayList<>(qtyMap.keySet());
+    keysList.sort(
+        Comparator.comparing((List<Object> keys) -> getModelId(keys.get(0)))
+            .thenComparing(
+                keys -> getModelId(keys.get(2)), Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(
+                keys -> getModelId(keys.get(1)), Comparator.nullsFirst(Comparator.naturalOrder())));
+
+    for (List<Object> keys : keysList) {
+      this.updateLocations(
+          stockMoveLineMap.get(keys),
+          fromStockLocation,
+          toStockLocation,
+          (Product) keys.get(0),
+          qtyMap.get(keys),
+          fromStatus,
+          toStatus,
+          lastFutureStockMoveDate,
+          (TrackingNumber) keys.get(2));
+    }
+
+    for (Map.Entry<Product, List<StockMoveLine>> entry : productStockMoveLineMap.entrySet()) {
+      if (toStockLocation.getTypeSelect() != StockLocationRepository.TYPE_VIRTUAL
+          && toStatus == StockMoveRepository.STATUS_REALIZED) {
+        this.updateAveragePriceLocationLine(
             toStockLocation,
-            stockMoveLine.getProduct(),
-            qty,
-            fromStatus,
-            toStatus,
-            lastFutureStockMoveDate,
-            stockMoveLine.getTrackingNumber());
-        if (toStockLocation.getTypeSelect() != StockLocationRepository.TYPE_VIRTUAL) {
-          this.updateAveragePriceLocationLine(toStockLocation, stockMoveLine, fromStatus, toStatus);
-        }
-        weightedAveragePriceService.computeAvgPriceForProduct(stockMoveLine.getProduct());
+            entry.getValue(),
+            initialQtyMap.getOrDefault(entry.getKey(), BigDecimal.ZERO));
       }
+      weightedAveragePriceService.computeAvgPriceForProduct(entry.getKey());
+    }
+  }
+
+  protected Long getModelId(Object model) {
+    return model != null ? ((Model) model).getId() : null;
+  }
+
+  /**
+   * Update the average price of a product in a stock location with realized stock move lines of
+   * this product, in their order.
+   *
+   * @param stockLocation
+   * @param stockMoveLineList
+   * @param initialQty the current quantity of the stock location line before the stock move lines
+   *     were realized
+   * @throws AxelorException
+   */
+  protected void updateAveragePriceLocationLine(
+      StockLocation stockLocation, List<StockMoveLine> stockMoveLineList, BigDecimal initialQty)
+      throws AxelorException {
+    StockLocationLine stockLocationLine =
+        stockLocationLineService.getOrCreateStockLocationLine(
+            stockLocation, stockMoveLineList.get(0).getProduct());
+    if (stockLocationLine == null) {
+      return;
+    }
+
+    BigDecimal qty = initialQty;
+
+    for (StockMoveLine stockMoveLine : stockMoveLineList) {
+      qty = this.computeNewAveragePriceLocationLine(stockLocationLine, stockMoveLine, qty);
     }
   }
 
   @Override
+  @Deprecated
   public void updateAveragePriceLocationLine(
       StockLocation stockLocation, StockMoveLine stockMoveLine, int fromStatus, int toStatus)
       throws AxelorException {
@@ -481,21 +565,35 @@ public class StockMoveLineServiceImpl implements StockMoveLineService {
     }
 
     if (toStatus == StockMoveRepository.STATUS_REALIZED) {
-      this.computeNewAveragePriceLocationLine(stockLocationLine, stockMoveLine);
+      this.updateAveragePriceLocationLine(
+          stockLocation,
+          Collections.singletonList(stockMoveLine),
+          stockLocationLine.getCurrentQty().subtract(stockMoveLine.getRealQty()));
     }
   }
 
-  protected void computeNewAveragePriceLocationLine(
-      StockLocationLine stockLocationLine, StockMoveLine stockMoveLine) throws AxelorException {
+  /**
+   * Compute the average price of a stock location line after a realized stock move line, and save
+   * it in the WAP history.
+   *
+   * @param stockLocationLine
+   * @param stockMoveLine
+   * @param oldQty the quantity of the stock location line before the stock move line
+   * @return the quantity of the stock location line after the stock move line
+   * @throws AxelorException
+   */
+  protected BigDecimal computeNewAveragePriceLocationLine(
+      StockLocationLine stockLocationLine, StockMoveLine stockMoveLine, BigDecimal oldQty)
+      throws AxelorException {
     BigDecimal oldAvgPrice = stockLocationLine.getAvgPrice();
     // avgPrice in stock move line is a bigdecimal but is nullable.
     BigDecimal newQty = stockMoveLine.getRealQty();
-    BigDecimal oldQty = stockLocationLine.getCurrentQty().subtract(newQty);
     BigDecimal newPrice =
         stockMoveLine.getWapPrice() != null
             ? stockMoveLine.getWapPrice()
             : stockMoveLine.getCompanyUnitPriceUntaxed();
     BigDecimal newAvgPrice;
+    BigDecimal qty = MoreObjects.firstNonNull(oldQty, BigDecimal.ZERO);
     if (oldAvgPrice == null
         || oldQty == null
         || oldAvgPrice.compareTo(BigDecimal.ZERO) == 0
@@ -540,7 +638,9 @@ public class StockMoveLineServiceImpl implements StockMoveLineService {
     } else {
       newAvgPrice = oldAvgPrice;
     }
-    stockLocationLineService.updateWap(stockLocationLine, newAvgPrice, stockMoveLine);
+    qty = qty.add(newQty);
+    stockLocationLineService.updateWap(stockLocationLine, newAvgPrice, stockMoveLine, qty);
+    return qty;
   }
 
   @Override
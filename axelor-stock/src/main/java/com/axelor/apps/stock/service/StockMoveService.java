@@ -31,6 +31,7 @@ import com.axelor.exception.AxelorException;
 import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -154,9 +155,31 @@ public interface StockMoveService {
       StockMove originalStockMove, List<StockMoveLine> modifiedStockMoveLines)
       throws AxelorException;
 
+  /**
+   * Compute the stock of a product in a stock location for each day of a period.
+   *
+   * @param locationId
+   * @param productId
+   * @param fromDate
+   * @param toDate
+   * @return the stock of each day, as {@code $date} and {@code $qty}
+   */
   public List<Map<String, Object>> getStockPerDate(
       Long locationId, Long productId, LocalDate fromDate, LocalDate toDate);
 
+  /**
+   * Compute the stock of several products in a stock location for each day of a period. The stock
+   * movements are loaded once, summed by date, and the daily stock is built as a running balance.
+   *
+   * @param locationId
+   * @param productIds
+   * @param fromDate
+   * @param toDate
+   * @return the stock of each day by product ID, as {@code $date} and {@code $qty}
+   */
+  public Map<Long, List<Map<String, Object>>> getStockPerDate(
+      Long locationId, Collection<Long> productIds, LocalDate fromDate, LocalDate toDate);
+
   /**
    * Change conformity on each stock move line according to the stock move conformity.
    *
@@ -51,24 +51,30 @@ import com.axelor.apps.stock.db.repo.StockMoveRepository;
 import com.axelor.apps.stock.exception.IExceptionMessage;
 import com.axelor.apps.stock.report.IReport;
 import com.axelor.common.ObjectUtils;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,6 +83,8 @@ public class StockMoveServiceImpl implements StockMoveService {
 
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  protected static final int STOCK_PER_DATE_CHUNK_SIZE = 1000;
+
   protected StockMoveLineService stockMoveLineService;
   protected AppBaseService appBaseService;
   protected StockMoveRepository stockMoveRepo;
@@ -971,53 +979,107 @@ public class StockMoveServiceImpl implements StockMoveService {
   public List<Map<String, Object>> getStockPerDate(
       Long locationId, Long productId, LocalDate fromDate, LocalDate toDate) {
 
-    List<Map<String, Object>> stock = new ArrayList<>();
+    return getStockPerDate(locationId, Collections.singletonList(productId), fromDate, toDate)
+        .get(productId);
+  }
 
-    while (!fromDate.isAfter(toDate)) {
-      Double qty = getStock(locationId, productId, fromDate);
-      Map<String, Object> dateStock = new HashMap<>();
-      dateStock.put("$date", fromDate);
-      dateStock.put("$qty", new BigDecimal(qty));
-      stock.add(dateStock);
-      fromDate = fromDate.plusDays(1);
-    }
+  @Override
+  public Map<Long, List<Map<String, Object>>> getStockPerDate(
+      Long locationId, Collection<Long> productIds, LocalDate fromDate, LocalDate toDate) {
 
-    return stock;
-  }
+    Map<Long, NavigableMap<LocalDate, BigDecimal>> stockMovementMap = new HashMap<>();
 
-  private Double getStock(Long locationId, Long productId, LocalDate date) {
+    for (List<Long> productIdChunk :
+        Lists.partition(new ArrayList<>(productIds), STOCK_PER_DATE_CHUNK_SIZE)) {
+      addStockMovements(stockMovementMap, locationId, productIdChunk, toDate, true);
+      addStockMovements(stockMovementMap, locationId, productIdChunk, toDate, false);
+    }
 
-    List<StockMoveLine> inLines =
-        stockMoveLineRepo
-            .all()
-            .filter(
-                "self.product.id = ?1 AND self.stockMove.toStockLocation.id = ?2 AND self.stockMove.statusSelect != ?3 AND (self.stockMove.estimatedDate <= ?4 OR self.stockMove.realDate <= ?4)",
-                productId,
-                locationId,
-                StockMoveRepository.STATUS_CANCELED,
-                date)
-            .fetch();
+    Map<Long, List<Map<String, Object>>> stockPerDateMap = new LinkedHashMap<>();
 
-    List<StockMoveLine> outLines =
-        stockMoveLineRepo
-            .all()
-            .filter(
-                "self.product.id = ?1 AND self.stockMove.fromStockLocation.id = ?2 AND self.stockMove.statusSelect != ?3 AND (self.stockMove.estimatedDate <= ?4 OR self.stockMove.realDate <= ?4)",
-                productId,
-                locationId,
-                StockMoveRepository.STATUS_CANCELED,
-                date)
-            .fetch();
+    for (Long productId : productIds) {
+      NavigableMap<LocalDate, BigDecimal> stockMovements =
+          stockMovementMap.getOrDefault(productId, Collections.emptyNavigableMap());
 
-    Double inQty =
-        inLines.stream().mapToDouble(inl -> Double.parseDouble(inl.getQty().toString())).sum();
+      BigDecimal qty =
+          stockMovements
+              .headMap(fromDate, false)
+              .values()
+              .stream()
+              .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+      List<Map<String, Object>> stock = new ArrayList<>();
+      for (LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) {
+        qty = qty.add(stockMovements.getOrDefault(date, BigDecimal.ZERO));
+        Map<String, Object> dateStock = new HashMap<>();
+        dateStock.put("$date", date);
+        dateStock.put("$qty", qty);
+        stock.add(dateStock);
+      }
+      stockPerDateMap.put(productId, stock);
+    }
 
-    Double outQty =
-        outLines.stream().mapToDouble(out -> Double.parseDouble(out.getQty().toString())).sum();
+    return stockPerDateMap;
+  }
 
-    Double qty = inQty - outQty;
+  /**
+   * Add the net quantities moved in or out of a stock location up to a date, by product and by
+   * date. A stock move line is taken into account from the earliest of its stock move estimated
+   * and real dates.
+   *
+   * @param stockMovementMap the quantities by product and date to fill
+   * @param locationId
+   * @param productIds
+   * @param toDate
+   * @param isIncoming true for the stock moves to the stock location, false for the stock moves
+   *     from it
+   */
+  protected void addStockMovements(
+      Map<Long, NavigableMap<LocalDate, BigDecimal>> stockMovementMap,
+      Long locationId,
+      List<Long> productIds,
+      LocalDate toDate,
+      boolean isIncoming) {
+
+    String stockLocationField = isIncoming ? "toStockLocation" : "fromStockLocation";
+
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.product.id, stockMove.estimatedDate, stockMove.realDate, "
+                    + "SUM(self.qty) FROM StockMoveLine self JOIN self.stockMove stockMove "
+                    + "WHERE self.product.id IN (:productIds) "
+                    + "AND stockMove."
+                    + stockLocationField
+                    + ".id = :locationId "
+                    + "AND stockMove.statusSelect != :statusSelect "
+                    + "AND (stockMove.estimatedDate <= :date OR stockMove.realDate <= :date) "
+                    + "GROUP BY self.product.id, stockMove.estimatedDate, stockMove.realDate",
+                Object[].class)
+            .setParameter("productIds", productIds)
+            .setParameter("locationId", locationId)
+            .setParameter("statusSelect", StockMoveRepository.STATUS_CANCELED)
+            .setParameter("date", toDate)
+            .getResultList();
+
+    for (Object[] result : resultList) {
+      LocalDate estimatedDate = (LocalDate) result[1];
+      LocalDate realDate = (LocalDate) result[2];
+      BigDecimal qty = (BigDecimal) result[3];
+
+      if (qty == null) {
+        continue;
+      }
 
-    return qty;
+      LocalDate date =
+          estimatedDate == null || (realDate != null && realDate.isBefore(estimatedDate))
+              ? realDate
+              : estimatedDate;
+
+      stockMovementMap
+          .computeIfAbsent((Long) result[0], productId -> new TreeMap<>())
+          .merge(date, isIncoming ? qty : qty.negate(), BigDecimal::add);
+    }
   }
 
   @Override
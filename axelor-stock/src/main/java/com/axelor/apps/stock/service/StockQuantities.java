@@ -0,0 +1,66 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import java.math.BigDecimal;
+
+/** Real, future and reserved quantities of a product, in the product unit. */
+public class StockQuantities {
+
+  private final Long productId;
+  private final BigDecimal realQty;
+  private final BigDecimal futureQty;
+  private final BigDecimal reservedQty;
+
+  public StockQuantities(
+      Long productId, BigDecimal realQty, BigDecimal futureQty, BigDecimal reservedQty) {
+    this.productId = productId;
+    this.realQty = realQty;
+    this.futureQty = futureQty;
+    this.reservedQty = reservedQty;
+  }
+
+  public static StockQuantities zero(Long productId) {
+    return new StockQuantities(productId, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+  }
+
+  public Long getProductId() {
+    return productId;
+  }
+
+  public BigDecimal getRealQty() {
+    return realQty;
+  }
+
+  public BigDecimal getFutureQty() {
+    return futureQty;
+  }
+
+  /** Always zero when stock reservation is not managed. */
+  public BigDecimal getReservedQty() {
+    return reservedQty;
+  }
+
+  public StockQuantities add(StockQuantities other) {
+    return new StockQuantities(
+        productId,
+        realQty.add(other.realQty),
+        futureQty.add(other.futureQty),
+        reservedQty.add(other.reservedQty));
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.app.AxelorModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.repo.ProductRepository;
+import com.axelor.apps.base.module.AdminModule;
+import com.axelor.apps.base.module.BaseModule;
+import com.axelor.apps.message.module.MessageModule;
+import com.axelor.apps.stock.db.Inventory;
+import com.axelor.apps.stock.db.InventoryLine;
+import com.axelor.apps.stock.db.StockLocation;
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.module.StockModule;
+import com.axelor.apps.stock.service.TestInventoryChunks.MyModule;
+import com.axelor.apps.tool.module.ToolModule;
+import com.axelor.db.JPA;
+import com.axelor.db.JpaModule;
+import com.axelor.db.Model;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import com.opencsv.CSVReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestInventoryChunks {
+
+  private List<Model> createdList;
+
+  private Long inventoryId;
+  private Long enteringLineId;
+  private Long leavingLineId;
+
+  private InventoryService inventoryService;
+
+  public static class MyModule extends AxelorModule {
+
+    @Override
+    protected void configure() {
+      bind(Beans.class).asEagerSingleton();
+      install(new JpaModule("testUnit", true, true));
+      install(new ToolModule());
+      install(new MessageModule());
+      install(new AdminModule());
+      install(new BaseModule());
+      install(new StockModule());
+    }
+  }
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Inventory chunk company");
+          company.setCode("INVCCO");
+          save(company);
+
+          StockLocation stockLocation = new StockLocation();
+          stockLocation.setName("Inventory chunk location");
+          stockLocation.setCompany(company);
+          stockLocation.setTypeSelect(StockLocationRepository.TYPE_INTERNAL);
+          save(stockLocation);
+
+          Product product = new Product();
+          product.setName("Inventory chunk product");
+          product.setCode("INVCPRO");
+          product.setProductTypeSelect(ProductRepository.PRODUCT_TYPE_STORABLE);
+          save(product);
+
+          Inventory inventory = new Inventory();
+          inventory.setCompany(company);
+          inventory.setStockLocation(stockLocation);
+          // yearly inventory
+          inventory.setTypeSelect(1);
+          inventoryId = save(inventory).getId();
+
+          enteringLineId = createInventoryLine(inventory, product, "4", "7").getId();
+          leavingLineId = createInventoryLine(inventory, product, "7", "4").getId();
+          createInventoryLine(inventory, product, "5", "5");
+        });
+
+    inventoryService = Beans.get(InventoryService.class);
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testReadChunks() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 25; i++) {
+      content.append(i).append(";PRODUCT-").append(i).append('\n');
+    }
+
+    List<List<String[]>> chunks = this.readChunks(content.toString(), 10);
+
+    Assert.assertEquals(3, chunks.size());
+    Assert.assertEquals(10, chunks.get(0).size());
+    Assert.assertEquals(10, chunks.get(1).size());
+    Assert.assertEquals(5, chunks.get(2).size());
+    Assert.assertEquals("PRODUCT-0", chunks.get(0).get(0)[1]);
+    Assert.assertEquals("PRODUCT-24", chunks.get(2).get(4)[1]);
+  }
+
+  @Test
+  public void testReadChunksOfEmptyFile() throws IOException {
+    Assert.assertTrue(this.readChunks("", 10).isEmpty());
+  }
+
+  @Test
+  public void testMovedInventoryLines() {
+    // only the lines with a difference in the direction of the stock move are moved
+    Assert.assertEquals(
+        Arrays.asList(enteringLineId),
+        inventoryService.getMovedInventoryLineIds(inventoryId, true));
+    Assert.assertEquals(
+        Arrays.asList(leavingLineId),
+        inventoryService.getMovedInventoryLineIds(inventoryId, false));
+  }
+
+  private List<List<String[]>> readChunks(String content, int chunkSize) throws IOException {
+    List<List<String[]>> chunks = new ArrayList<>();
+    try (CSVReader reader = new CSVReader(new StringReader(content), ';')) {
+      List<String[]> data;
+      while (!(data = inventoryService.readChunk(reader, chunkSize)).isEmpty()) {
+        chunks.add(data);
+      }
+    }
+    return chunks;
+  }
+
+  private InventoryLine createInventoryLine(
+      Inventory inventory, Product product, String currentQty, String realQty) {
+    InventoryLine inventoryLine = new InventoryLine();
+    inventoryLine.setInventory(inventory);
+    inventoryLine.setProduct(product);
+    inventoryLine.setCurrentQty(new BigDecimal(currentQty));
+    inventoryLine.setRealQty(new BigDecimal(realQty));
+    return save(inventoryLine);
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
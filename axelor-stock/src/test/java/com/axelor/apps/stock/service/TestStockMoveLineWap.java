@@ -0,0 +1,230 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.Unit;
+import com.axelor.apps.base.db.UnitConversion;
+import com.axelor.apps.base.db.repo.ProductRepository;
+import com.axelor.apps.base.db.repo.UnitConversionRepository;
+import com.axelor.apps.stock.db.StockLocation;
+import com.axelor.apps.stock.db.StockLocationLine;
+import com.axelor.apps.stock.db.StockMoveLine;
+import com.axelor.apps.stock.db.WapHistory;
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.db.repo.StockMoveRepository;
+import com.axelor.apps.stock.service.TestInventoryChunks.MyModule;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.exception.AxelorException;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestStockMoveLineWap {
+
+  private List<Model> createdList;
+
+  private Long supplierLocationId;
+  private Long stockLocationId;
+  private Long productId;
+  private Long pieceId;
+  private Long boxId;
+  private Long unitConversionId;
+  private List<Long> stockMoveLineIdList;
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    stockMoveLineIdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("WAP company");
+          company.setCode("WAPCO");
+          save(company);
+
+          supplierLocationId =
+              createStockLocation(
+                      company, "WAP supplier location", StockLocationRepository.TYPE_VIRTUAL)
+                  .getId();
+          StockLocation stockLocation =
+              createStockLocation(company, "WAP location", StockLocationRepository.TYPE_INTERNAL);
+          stockLocationId = stockLocation.getId();
+
+          Unit piece = createUnit("WAP piece");
+          pieceId = piece.getId();
+          boxId = createUnit("WAP box").getId();
+
+          Product product = new Product();
+          product.setName("WAP product");
+          product.setCode("WAPPRO");
+          product.setProductTypeSelect(ProductRepository.PRODUCT_TYPE_STORABLE);
+          product.setStockManaged(true);
+          product.setUnit(piece);
+          productId = save(product).getId();
+
+          // the location line already has 10 pieces at 12
+          StockLocationLine stockLocationLine = new StockLocationLine();
+          stockLocationLine.setStockLocation(stockLocation);
+          stockLocationLine.setProduct(product);
+          stockLocationLine.setUnit(piece);
+          stockLocationLine.setCurrentQty(new BigDecimal("10"));
+          stockLocationLine.setFutureQty(new BigDecimal("10"));
+          stockLocationLine.setAvgPrice(new BigDecimal("12"));
+          JPA.save(stockLocationLine);
+
+          stockMoveLineIdList.add(createStockMoveLine(product, piece, "5", "10").getId());
+          stockMoveLineIdList.add(createStockMoveLine(product, piece, "10", "20").getId());
+          stockMoveLineIdList.add(
+              createStockMoveLine(product, JPA.find(Unit.class, boxId), "1", "150").getId());
+        });
+
+    // saved in a transaction of its own so that the conversion graph is reloaded
+    JPA.runInTransaction(
+        () -> {
+          UnitConversion unitConversion = new UnitConversion();
+          unitConversion.setStartUnit(JPA.find(Unit.class, boxId));
+          unitConversion.setEndUnit(JPA.find(Unit.class, pieceId));
+          unitConversion.setCoef(new BigDecimal("10"));
+          unitConversionId = Beans.get(UnitConversionRepository.class).save(unitConversion).getId();
+        });
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    JPA.runInTransaction(
+        () -> {
+          Beans.get(UnitConversionRepository.class)
+              .remove(JPA.find(UnitConversion.class, unitConversionId));
+          this.getWapHistoryList().forEach(JPA::remove);
+          JPA.em()
+              .createQuery(
+                  "SELECT self FROM StockLocationLine self WHERE self.product.id = :productId",
+                  StockLocationLine.class)
+              .setParameter("productId", productId)
+              .getResultList()
+              .forEach(JPA::remove);
+        });
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testWapHistoryOfSeveralLines() throws AxelorException {
+    Beans.get(StockMoveLineService.class)
+        .updateLocations(
+            JPA.find(StockLocation.class, supplierLocationId),
+            JPA.find(StockLocation.class, stockLocationId),
+            StockMoveRepository.STATUS_DRAFT,
+            StockMoveRepository.STATUS_REALIZED,
+            stockMoveLineIdList.stream()
+                .map(id -> JPA.find(StockMoveLine.class, id))
+                .collect(Collectors.toList()),
+            null,
+            true);
+
+    JPA.clear();
+    List<WapHistory> wapHistoryList = this.getWapHistoryList();
+
+    // one entry per line, in line order, with the quantity of the location line after each line
+    Assert.assertEquals(3, wapHistoryList.size());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(
+          stockMoveLineIdList.get(i), wapHistoryList.get(i).getStockMoveLine().getId());
+      Assert.assertEquals(pieceId, wapHistoryList.get(i).getUnit().getId());
+    }
+    Assert.assertEquals(0, new BigDecimal("15").compareTo(wapHistoryList.get(0).getQty()));
+    Assert.assertEquals(0, new BigDecimal("25").compareTo(wapHistoryList.get(1).getQty()));
+    Assert.assertEquals(0, new BigDecimal("35").compareTo(wapHistoryList.get(2).getQty()));
+
+    // (10 * 12 + 5 * 10) / 15, then (15 * 11.33 + 10 * 20) / 25
+    Assert.assertEquals(0, new BigDecimal("11.33").compareTo(wapHistoryList.get(0).getWap()));
+    Assert.assertEquals(0, new BigDecimal("14.80").compareTo(wapHistoryList.get(1).getWap()));
+
+    StockLocationLine stockLocationLine = wapHistoryList.get(2).getStockLocationLine();
+    Assert.assertEquals(stockLocationId, stockLocationLine.getStockLocation().getId());
+    Assert.assertEquals(0, new BigDecimal("35").compareTo(stockLocationLine.getCurrentQty()));
+    Assert.assertEquals(
+        0, wapHistoryList.get(2).getWap().compareTo(stockLocationLine.getAvgPrice()));
+
+    StockLocationLine supplierLocationLine =
+        Beans.get(StockLocationLineService.class)
+            .getStockLocationLine(
+                JPA.find(StockLocation.class, supplierLocationId),
+                JPA.find(Product.class, productId));
+    Assert.assertEquals(0, new BigDecimal("-35").compareTo(supplierLocationLine.getCurrentQty()));
+  }
+
+  private List<WapHistory> getWapHistoryList() {
+    return JPA.em()
+        .createQuery(
+            "SELECT self FROM WapHistory self "
+                + "WHERE self.stockLocationLine.product.id = :productId ORDER BY self.id",
+            WapHistory.class)
+        .setParameter("productId", productId)
+        .getResultList();
+  }
+
+  private StockLocation createStockLocation(Company company, String name, int typeSelect) {
+    StockLocation stockLocation = new StockLocation();
+    stockLocation.setName(name);
+    stockLocation.setCompany(company);
+    stockLocation.setTypeSelect(typeSelect);
+    return save(stockLocation);
+  }
+
+  private Unit createUnit(String name) {
+    Unit unit = new Unit();
+    unit.setName(name);
+    return save(unit);
+  }
+
+  private StockMoveLine createStockMoveLine(
+      Product product, Unit unit, String realQty, String unitPrice) {
+    StockMoveLine stockMoveLine = new StockMoveLine();
+    stockMoveLine.setProduct(product);
+    stockMoveLine.setProductName(product.getName());
+    stockMoveLine.setUnit(unit);
+    stockMoveLine.setQty(new BigDecimal(realQty));
+    stockMoveLine.setRealQty(new BigDecimal(realQty));
+    stockMoveLine.setCompanyUnitPriceUntaxed(new BigDecimal(unitPrice));
+    return save(stockMoveLine);
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
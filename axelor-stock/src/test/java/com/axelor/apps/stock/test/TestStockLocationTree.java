@@ -0,0 +1,70 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.test;
+
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.service.StockLocationTree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStockLocationTree {
+
+  private StockLocationTree tree;
+
+  @Before
+  public void prepare() {
+    List<Object[]> rows = new ArrayList<>();
+    rows.add(row(1L, null, StockLocationRepository.TYPE_INTERNAL));
+    rows.add(row(2L, 1L, StockLocationRepository.TYPE_INTERNAL));
+    rows.add(row(3L, 1L, StockLocationRepository.TYPE_VIRTUAL));
+    rows.add(row(4L, 2L, StockLocationRepository.TYPE_INTERNAL));
+    rows.add(row(5L, 3L, StockLocationRepository.TYPE_INTERNAL));
+    tree = new StockLocationTree(rows);
+  }
+
+  @Test
+  public void testSubLocationsBeforeParent() {
+    Assert.assertEquals(
+        Arrays.asList(4L, 2L, 5L, 3L, 1L), tree.getLocationAndSubLocationIds(1L, true));
+  }
+
+  @Test
+  public void testVirtualBranchExcluded() {
+    Assert.assertEquals(Arrays.asList(4L, 2L, 1L), tree.getLocationAndSubLocationIds(1L, false));
+  }
+
+  @Test
+  public void testVirtualRootKept() {
+    Assert.assertEquals(Arrays.asList(5L, 3L), tree.getLocationAndSubLocationIds(3L, false));
+    Assert.assertTrue(tree.isVirtual(3L));
+    Assert.assertFalse(tree.isVirtual(5L));
+  }
+
+  @Test
+  public void testLeaf() {
+    Assert.assertEquals(Arrays.asList(4L), tree.getLocationAndSubLocationIds(4L, true));
+  }
+
+  private Object[] row(Long id, Long parentId, int typeSelect) {
+    return new Object[] {id, parentId, typeSelect};
+  }
+}
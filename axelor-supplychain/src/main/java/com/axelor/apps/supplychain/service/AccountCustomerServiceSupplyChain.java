@@ -53,7 +53,10 @@ public class AccountCustomerServiceSupplyChain extends AccountCustomerService {
             updateDueCustAccount,
             updateDueDebtRecoveryCustAccount);
 
-    if (updateCustAccount && Beans.get(AppBaseService.class).isApp("supplychain")) {
+    // The balance is also updated on move validation and reconciliation, which only ask to update
+    // the balance due
+    if ((updateCustAccount || updateDueCustAccount)
+        && Beans.get(AppBaseService.class).isApp("supplychain")) {
       accountingSituationService.updateCustomerCredit(accountingSituation.getPartner());
     }
 
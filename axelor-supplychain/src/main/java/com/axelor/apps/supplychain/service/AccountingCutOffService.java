@@ -27,6 +27,7 @@ import com.axelor.meta.CallMethod;
 import com.google.inject.persist.Transactional;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 public interface AccountingCutOffService {
 
@@ -37,6 +38,18 @@ public interface AccountingCutOffService {
       Integer limit,
       Integer offset);
 
+  /**
+   * Get the ids of the stock moves to take into account in the cut-off, that is the stock moves
+   * with at least one line not fully invoiced. The ids are fetched by pages.
+   *
+   * @return the stock move ids by partner id, in id order.
+   */
+  public Map<Long, List<Long>> getStockMoveIdMap(
+      Company company,
+      int accountingCutOffTypeSelect,
+      LocalDate moveDate,
+      boolean includeNotStockManagedProduct);
+
   @Transactional(rollbackOn = {Exception.class})
   public List<Move> generateCutOffMoves(
       StockMove stockMove,
@@ -49,6 +62,24 @@ public interface AccountingCutOffService {
       boolean includeNotStockManagedProduct)
       throws AxelorException;
 
+  /**
+   * Generate the cut-off moves and their reverse moves for several stock moves, with one move by
+   * company, currency, partner and partner account, and one product line by account.
+   *
+   * @return the generated moves and reverse moves.
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  public List<Move> generateConsolidatedCutOffMoves(
+      List<StockMove> stockMoveList,
+      LocalDate moveDate,
+      LocalDate reverseMoveDate,
+      int accountingCutOffTypeSelect,
+      boolean recoveredTax,
+      boolean ati,
+      String moveDescription,
+      boolean includeNotStockManagedProduct)
+      throws AxelorException;
+
   public Move generateCutOffMove(
       StockMove stockMove,
       List<StockMoveLine> sortedStockMoveLine,
@@ -67,11 +67,15 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import javax.persistence.TypedQuery;
 
 public class AccountingCutOffServiceImpl implements AccountingCutOffService {
 
@@ -92,7 +96,8 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
   protected UnitConversionService unitConversionService;
   protected AnalyticMoveLineRepository analyticMoveLineRepository;
   protected ReconcileService reconcileService;
-  protected int counter = 0;
+
+  protected static final int PAGE_SIZE = 1000;
 
   @Inject
   public AccountingCutOffServiceImpl(
@@ -140,15 +145,7 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
       Integer limit,
       Integer offset) {
 
-    int stockMoveTypeSelect = 0;
-
-    if (accountingCutOffTypeSelect
-        == SupplychainBatchRepository.ACCOUNTING_CUT_OFF_TYPE_SUPPLIER_INVOICES) {
-      stockMoveTypeSelect = StockMoveRepository.TYPE_INCOMING;
-    } else if (accountingCutOffTypeSelect
-        == SupplychainBatchRepository.ACCOUNTING_CUT_OFF_TYPE_CUSTOMER_INVOICES) {
-      stockMoveTypeSelect = StockMoveRepository.TYPE_OUTGOING;
-    }
+    int stockMoveTypeSelect = getStockMoveTypeSelect(accountingCutOffTypeSelect);
 
     String queryStr =
         "self.invoicingStatusSelect != :stockMoveInvoiced "
@@ -179,6 +176,101 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
     return query.order("id").fetch();
   }
 
+  protected int getStockMoveTypeSelect(int accountingCutOffTypeSelect) {
+    if (accountingCutOffTypeSelect
+        == SupplychainBatchRepository.ACCOUNTING_CUT_OFF_TYPE_SUPPLIER_INVOICES) {
+      return StockMoveRepository.TYPE_INCOMING;
+    } else if (accountingCutOffTypeSelect
+        == SupplychainBatchRepository.ACCOUNTING_CUT_OFF_TYPE_CUSTOMER_INVOICES) {
+      return StockMoveRepository.TYPE_OUTGOING;
+    }
+    return 0;
+  }
+
+  @Override
+  public Map<Long, List<Long>> getStockMoveIdMap(
+      Company company,
+      int accountingCutOffTypeSelect,
+      LocalDate moveDate,
+      boolean includeNotStockManagedProduct) {
+
+    String queryStr =
+        "SELECT self.id, partner.id FROM StockMove self "
+            + "LEFT JOIN self.partner partner "
+            + "WHERE self.id > :lastId "
+            + "AND self.invoicingStatusSelect != :stockMoveInvoiced "
+            + "AND self.statusSelect = :stockMoveStatusRealized AND self.realDate <= :moveDate "
+            + "AND self.typeSelect = :stockMoveType "
+            + "AND EXISTS (SELECT stockMoveLine.id FROM StockMoveLine stockMoveLine "
+            + "WHERE stockMoveLine.stockMove = self "
+            + "AND stockMoveLine.product IS NOT NULL "
+            + "AND stockMoveLine.realQty != 0 "
+            + "AND stockMoveLine.realQty != stockMoveLine.qtyInvoiced "
+            + (includeNotStockManagedProduct
+                ? ""
+                : "AND stockMoveLine.product.stockManaged = true ")
+            + ") ";
+
+    if (company != null) {
+      queryStr += "AND self.company.id = :companyId ";
+    }
+    queryStr += "ORDER BY self.id";
+
+    TypedQuery<Object[]> query =
+        JPA.em()
+            .createQuery(queryStr, Object[].class)
+            .setParameter("stockMoveInvoiced", StockMoveRepository.STATUS_INVOICED)
+            .setParameter("stockMoveStatusRealized", StockMoveRepository.STATUS_REALIZED)
+            .setParameter("stockMoveType", getStockMoveTypeSelect(accountingCutOffTypeSelect))
+            .setParameter("moveDate", moveDate)
+            .setMaxResults(PAGE_SIZE);
+
+    if (company != null) {
+      query.setParameter("companyId", company.getId());
+    }
+
+    Map<Long, List<Long>> stockMoveIdMap = new LinkedHashMap<>();
+    long lastId = 0L;
+    List<Object[]> resultList;
+    while (!(resultList = query.setParameter("lastId", lastId).getResultList()).isEmpty()) {
+      for (Object[] result : resultList) {
+        stockMoveIdMap
+            .computeIfAbsent((Long) result[1], key -> new ArrayList<>())
+            .add((Long) result[0]);
+      }
+      lastId = (Long) resultList.get(resultList.size() - 1)[0];
+    }
+
+    return stockMoveIdMap;
+  }
+
+  /**
+   * Get the lines of the stock move which have to be taken into account in the cut-off, with their
+   * product and order lines.
+   *
+   * @param stockMove
+   * @param includeNotStockManagedProduct
+   * @return the stock move lines, by sequence.
+   */
+  protected List<StockMoveLine> getCutOffStockMoveLines(
+      StockMove stockMove, boolean includeNotStockManagedProduct) {
+    return JPA.em()
+        .createQuery(
+            "SELECT self FROM StockMoveLine self "
+                + "LEFT JOIN FETCH self.product product "
+                + "LEFT JOIN FETCH self.saleOrderLine "
+                + "LEFT JOIN FETCH self.purchaseOrderLine "
+                + "WHERE self.stockMove.id = :stockMoveId "
+                + "AND product IS NOT NULL "
+                + "AND self.realQty != 0 "
+                + "AND self.realQty != self.qtyInvoiced "
+                + (includeNotStockManagedProduct ? "" : "AND product.stockManaged = true ")
+                + "ORDER BY self.sequence",
+            StockMoveLine.class)
+        .setParameter("stockMoveId", stockMove.getId())
+        .getResultList();
+  }
+
   @Transactional(rollbackOn = {Exception.class})
   public List<Move> generateCutOffMoves(
       StockMove stockMove,
@@ -193,8 +285,8 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
 
     List<Move> moveList = new ArrayList<>();
 
-    List<StockMoveLine> stockMoveLineSortedList = stockMove.getStockMoveLineList();
-    Collections.sort(stockMoveLineSortedList, Comparator.comparing(StockMoveLine::getSequence));
+    List<StockMoveLine> stockMoveLineSortedList =
+        getCutOffStockMoveLines(stockMove, includeNotStockManagedProduct);
 
     Move move =
         generateCutOffMove(
@@ -297,11 +389,9 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
             null,
             MoveRepository.TECHNICAL_ORIGIN_AUTOMATIC);
 
-    counter = 0;
-
     this.generateMoveLines(
         move,
-        stockMove.getStockMoveLineList(),
+        sortedStockMoveLine,
         origin,
         isPurchase,
         recoveredTax,
@@ -324,6 +414,240 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
     return move;
   }
 
+  @Override
+  @Transactional(rollbackOn = {Exception.class})
+  public List<Move> generateConsolidatedCutOffMoves(
+      List<StockMove> stockMoveList,
+      LocalDate moveDate,
+      LocalDate reverseMoveDate,
+      int accountingCutOffTypeSelect,
+      boolean recoveredTax,
+      boolean ati,
+      String moveDescription,
+      boolean includeNotStockManagedProduct)
+      throws AxelorException {
+
+    boolean isPurchase =
+        accountingCutOffTypeSelect
+            == SupplychainBatchRepository.ACCOUNTING_CUT_OFF_TYPE_SUPPLIER_INVOICES;
+
+    Map<List<Object>, List<StockMoveLine>> stockMoveLineMap = new LinkedHashMap<>();
+    for (StockMove stockMove : stockMoveList) {
+      if (moveDate == null
+          || stockMove.getOriginTypeSelect() == null
+          || stockMove.getOriginId() == null) {
+        continue;
+      }
+      stockMoveLineMap
+          .computeIfAbsent(getCutOffMoveKey(stockMove), key -> new ArrayList<>())
+          .addAll(getCutOffStockMoveLines(stockMove, includeNotStockManagedProduct));
+    }
+
+    List<Move> moveList = new ArrayList<>();
+    for (Map.Entry<List<Object>, List<StockMoveLine>> entry : stockMoveLineMap.entrySet()) {
+      ConsolidatedCutOffAmounts amounts =
+          getConsolidatedCutOffAmounts(
+              entry.getKey(),
+              entry.getValue(),
+              moveDate,
+              isPurchase,
+              recoveredTax,
+              ati,
+              includeNotStockManagedProduct);
+      Move move =
+          generateConsolidatedCutOffMove(
+              entry.getKey(), amounts, moveDate, moveDate, isPurchase, moveDescription, false);
+      if (move == null) {
+        continue;
+      }
+      Move reverseMove =
+          generateConsolidatedCutOffMove(
+              entry.getKey(),
+              amounts,
+              reverseMoveDate,
+              moveDate,
+              isPurchase,
+              moveDescription,
+              true);
+      if (reverseMove == null) {
+        continue;
+      }
+      reconcile(move, reverseMove);
+      moveList.add(move);
+      moveList.add(reverseMove);
+    }
+
+    return moveList;
+  }
+
+  /**
+   * Get the key of the consolidated cut-off move of a stock move: its company, currency, partner
+   * and partner account, taken from the stock move and its origin order.
+   *
+   * @param stockMove a stock move with an origin.
+   * @return the list of the company, currency, partner and partner account.
+   * @throws AxelorException
+   */
+  protected List<Object> getCutOffMoveKey(StockMove stockMove) throws AxelorException {
+
+    Company company = stockMove.getCompany();
+    AccountConfig accountConfig = accountConfigSupplychainService.getAccountConfig(company);
+
+    Partner partner = stockMove.getPartner();
+    Account partnerAccount = null;
+    Currency currency = null;
+    if (StockMoveRepository.ORIGIN_SALE_ORDER.equals(stockMove.getOriginTypeSelect())) {
+      SaleOrder saleOrder = saleOrderRepository.find(stockMove.getOriginId());
+      currency = saleOrder.getCurrency();
+      if (partner == null) {
+        partner = saleOrder.getClientPartner();
+      }
+      partnerAccount = accountConfigSupplychainService.getForecastedInvCustAccount(accountConfig);
+    }
+    if (StockMoveRepository.ORIGIN_PURCHASE_ORDER.equals(stockMove.getOriginTypeSelect())) {
+      PurchaseOrder purchaseOrder = purchaseOrderRepository.find(stockMove.getOriginId());
+      currency = purchaseOrder.getCurrency();
+      if (partner == null) {
+        partner = purchaseOrder.getSupplierPartner();
+      }
+      partnerAccount = accountConfigSupplychainService.getForecastedInvSuppAccount(accountConfig);
+    }
+
+    return Arrays.asList(company, currency, partner, partnerAccount);
+  }
+
+  /**
+   * Sum the cut-off amounts of the lines of several stock moves by account, analytic distribution
+   * template and tax line.
+   *
+   * @param moveKey the key returned by {@link #getCutOffMoveKey(StockMove)}.
+   * @param stockMoveLineList the lines of the stock moves.
+   * @param originDate the date of the cut-off, used to get the tax lines.
+   * @return the amounts of the product lines of the move and of its reverse move.
+   * @throws AxelorException
+   */
+  protected ConsolidatedCutOffAmounts getConsolidatedCutOffAmounts(
+      List<Object> moveKey,
+      List<StockMoveLine> stockMoveLineList,
+      LocalDate originDate,
+      boolean isPurchase,
+      boolean recoveredTax,
+      boolean ati,
+      boolean includeNotStockManagedProduct)
+      throws AxelorException {
+
+    Company company = (Company) moveKey.get(0);
+    Partner partner = (Partner) moveKey.get(2);
+    boolean isAnalyticDistributionFree =
+        appAccountService.getAppAccount().getAnalyticDistributionTypeSelect()
+            == AppAccountRepository.DISTRIBUTION_TYPE_FREE;
+
+    ConsolidatedCutOffAmounts amounts = new ConsolidatedCutOffAmounts();
+    for (StockMoveLine stockMoveLine : stockMoveLineList) {
+      Product product = stockMoveLine.getProduct();
+      if (checkStockMoveLine(stockMoveLine, product, includeNotStockManagedProduct)) {
+        continue;
+      }
+      BigDecimal amountInCurrency = getCutOffAmount(stockMoveLine, isPurchase, recoveredTax, ati);
+      if (amountInCurrency == null) {
+        continue;
+      }
+      boolean isFixedAssets = isFixedAssets(stockMoveLine, isPurchase);
+      Account account =
+          accountManagementAccountService.getProductAccount(
+              product, company, partner.getFiscalPosition(), isPurchase, isFixedAssets);
+      AnalyticDistributionTemplate analyticDistributionTemplate =
+          isAnalyticDistributionFree
+              ? null
+              : analyticMoveLineService.getAnalyticDistributionTemplate(partner, product, company);
+      TaxLine taxLine =
+          recoveredTax
+              ? accountManagementAccountService.getTaxLine(
+                  originDate, product, company, partner.getFiscalPosition(), isPurchase)
+              : null;
+      amounts.add(account, isFixedAssets, analyticDistributionTemplate, taxLine, amountInCurrency);
+    }
+    return amounts;
+  }
+
+  /**
+   * Generate a cut-off move for the lines of several stock moves, with one product move line by
+   * line of the consolidated amounts.
+   *
+   * @param moveKey the key returned by {@link #getCutOffMoveKey(StockMove)}.
+   * @param amounts the amounts returned by {@link #getConsolidatedCutOffAmounts}.
+   * @return the validated move, or null if there is nothing to accrue.
+   * @throws AxelorException
+   */
+  protected Move generateConsolidatedCutOffMove(
+      List<Object> moveKey,
+      ConsolidatedCutOffAmounts amounts,
+      LocalDate moveDate,
+      LocalDate originDate,
+      boolean isPurchase,
+      String moveDescription,
+      boolean isReverse)
+      throws AxelorException {
+
+    if (moveDate == null) {
+      return null;
+    }
+
+    Company company = (Company) moveKey.get(0);
+    AccountConfig accountConfig = accountConfigSupplychainService.getAccountConfig(company);
+    boolean isAnalyticDistributionFree =
+        appAccountService.getAppAccount().getAnalyticDistributionTypeSelect()
+            == AppAccountRepository.DISTRIBUTION_TYPE_FREE;
+
+    Move move =
+        moveCreateService.createMove(
+            accountConfigSupplychainService.getAutoMiscOpeJournal(accountConfig),
+            company,
+            (Currency) moveKey.get(1),
+            (Partner) moveKey.get(2),
+            moveDate,
+            null,
+            MoveRepository.TECHNICAL_ORIGIN_AUTOMATIC);
+
+    for (ConsolidatedCutOffAmounts.Line line : amounts.getLines()) {
+      MoveLine moveLine =
+          createProductMoveLine(
+              move,
+              line.getAccount(),
+              line.getAmount(),
+              isPurchase,
+              moveDescription,
+              isReverse,
+              originDate,
+              null);
+      if (!isAnalyticDistributionFree) {
+        computeAnalyticDistribution(moveLine, line.getAnalyticDistributionTemplate());
+      }
+      move.addMoveLineListItem(moveLine);
+      if (line.getTaxLine() != null) {
+        applyTaxLine(
+            move,
+            moveLine,
+            line.getTaxLine(),
+            null,
+            isPurchase,
+            line.isFixedAssets(),
+            moveDescription);
+      }
+    }
+
+    this.generatePartnerMoveLine(move, null, (Account) moveKey.get(3), moveDescription, originDate);
+
+    if (move.getMoveLineList() != null && !move.getMoveLineList().isEmpty()) {
+      moveValidateService.validate(move);
+    } else {
+      moveRepository.remove(move);
+      return null;
+    }
+
+    return move;
+  }
+
   protected List<MoveLine> generateMoveLines(
       Move move,
       List<StockMoveLine> stockMoveLineList,
@@ -383,13 +707,62 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
       LocalDate originDate)
       throws AxelorException {
 
-    SaleOrderLine saleOrderLine = stockMoveLine.getSaleOrderLine();
-    PurchaseOrderLine purchaseOrderLine = stockMoveLine.getPurchaseOrderLine();
     Company company = move.getCompany();
-    LocalDate moveDate = move.getDate();
     Partner partner = move.getPartner();
 
-    boolean isFixedAssets = false;
+    BigDecimal amountInCurrency = getCutOffAmount(stockMoveLine, isPurchase, recoveredTax, ati);
+    if (amountInCurrency == null) {
+      return null;
+    }
+
+    boolean isFixedAssets = isFixedAssets(stockMoveLine, isPurchase);
+    Product product = stockMoveLine.getProduct();
+
+    Account account =
+        accountManagementAccountService.getProductAccount(
+            product, company, partner.getFiscalPosition(), isPurchase, isFixedAssets);
+
+    MoveLine moveLine =
+        createProductMoveLine(
+            move,
+            account,
+            amountInCurrency,
+            isPurchase,
+            moveDescription,
+            isReverse,
+            originDate,
+            origin);
+
+    getAndComputeAnalyticDistribution(product, move, moveLine);
+
+    move.addMoveLineListItem(moveLine);
+
+    if (recoveredTax) {
+      TaxLine taxLine =
+          accountManagementAccountService.getTaxLine(
+              originDate, product, company, partner.getFiscalPosition(), isPurchase);
+      if (taxLine != null) {
+        applyTaxLine(move, moveLine, taxLine, origin, isPurchase, isFixedAssets, moveDescription);
+      }
+    }
+
+    return moveLine;
+  }
+
+  /**
+   * Compute the amount of a stock move line which is not invoiced yet, from the amount of its order
+   * line prorated on the quantity.
+   *
+   * @return the amount in the currency of the order, or null if there is nothing to accrue.
+   * @throws AxelorException
+   */
+  protected BigDecimal getCutOffAmount(
+      StockMoveLine stockMoveLine, boolean isPurchase, boolean recoveredTax, boolean ati)
+      throws AxelorException {
+
+    SaleOrderLine saleOrderLine = stockMoveLine.getSaleOrderLine();
+    PurchaseOrderLine purchaseOrderLine = stockMoveLine.getPurchaseOrderLine();
+
     BigDecimal amountInCurrency = null;
     BigDecimal totalQty = null;
     BigDecimal notInvoicedQty = null;
@@ -405,7 +778,6 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
               stockMoveLine.getRealQty().scale(),
               purchaseOrderLine.getProduct());
 
-      isFixedAssets = purchaseOrderLine.getFixedAssets();
       if (ati && !recoveredTax) {
         amountInCurrency = purchaseOrderLine.getInTaxTotal();
       } else {
@@ -439,11 +811,26 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
       return null;
     }
 
-    Product product = stockMoveLine.getProduct();
+    return amountInCurrency;
+  }
 
-    Account account =
-        accountManagementAccountService.getProductAccount(
-            product, company, partner.getFiscalPosition(), isPurchase, isFixedAssets);
+  protected boolean isFixedAssets(StockMoveLine stockMoveLine, boolean isPurchase) {
+    PurchaseOrderLine purchaseOrderLine = stockMoveLine.getPurchaseOrderLine();
+    return isPurchase && purchaseOrderLine != null && purchaseOrderLine.getFixedAssets();
+  }
+
+  protected MoveLine createProductMoveLine(
+      Move move,
+      Account account,
+      BigDecimal amountInCurrency,
+      boolean isPurchase,
+      String moveDescription,
+      boolean isReverse,
+      LocalDate originDate,
+      String origin)
+      throws AxelorException {
+
+    LocalDate moveDate = move.getDate();
 
     boolean isDebit = false;
     if ((isPurchase && amountInCurrency.compareTo(BigDecimal.ZERO) == 1)
@@ -457,37 +844,45 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
     MoveLine moveLine =
         moveLineService.createMoveLine(
             move,
-            partner,
+            move.getPartner(),
             account,
             amountInCurrency,
             isDebit,
             originDate,
-            ++counter,
+            getNextCounter(move),
             origin,
             moveDescription);
     moveLine.setDate(moveDate);
     moveLine.setDueDate(moveDate);
 
-    getAndComputeAnalyticDistribution(product, move, moveLine);
+    return moveLine;
+  }
 
-    move.addMoveLineListItem(moveLine);
+  protected void applyTaxLine(
+      Move move,
+      MoveLine moveLine,
+      TaxLine taxLine,
+      String origin,
+      boolean isPurchase,
+      boolean isFixedAssets,
+      String moveDescription)
+      throws AxelorException {
 
-    if (recoveredTax) {
-      TaxLine taxLine =
-          accountManagementAccountService.getTaxLine(
-              originDate, product, company, partner.getFiscalPosition(), isPurchase);
-      if (taxLine != null) {
-        moveLine.setTaxLine(taxLine);
-        moveLine.setTaxRate(taxLine.getValue());
-        moveLine.setTaxCode(taxLine.getTax().getCode());
+    moveLine.setTaxLine(taxLine);
+    moveLine.setTaxRate(taxLine.getValue());
+    moveLine.setTaxCode(taxLine.getTax().getCode());
 
-        if (taxLine.getValue().compareTo(BigDecimal.ZERO) != 0) {
-          generateTaxMoveLine(move, moveLine, origin, isPurchase, isFixedAssets, moveDescription);
-        }
-      }
+    if (taxLine.getValue().compareTo(BigDecimal.ZERO) != 0) {
+      generateTaxMoveLine(move, moveLine, origin, isPurchase, isFixedAssets, moveDescription);
     }
+  }
 
-    return moveLine;
+  /**
+   * The counter of the next line of the move. The lines are numbered in the order they are added
+   * to the move, which is also used to reconcile a move with its reverse move.
+   */
+  protected int getNextCounter(Move move) {
+    return move.getMoveLineList() == null ? 1 : move.getMoveLineList().size() + 1;
   }
 
   protected void generateTaxMoveLine(
@@ -518,7 +913,7 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
             currencyTaxAmount,
             productMoveLine.getDebit().compareTo(BigDecimal.ZERO) == 1,
             productMoveLine.getOriginDate(),
-            ++counter,
+            getNextCounter(move),
             origin,
             moveDescription);
     taxMoveLine.setDate(move.getDate());
@@ -551,7 +946,7 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
             moveDate,
             moveDate,
             originDate,
-            ++counter,
+            getNextCounter(move),
             origin,
             moveDescription);
 
@@ -571,6 +966,12 @@ public class AccountingCutOffServiceImpl implements AccountingCutOffService {
         analyticMoveLineService.getAnalyticDistributionTemplate(
             move.getPartner(), product, move.getCompany());
 
+    computeAnalyticDistribution(moveLine, analyticDistributionTemplate);
+  }
+
+  protected void computeAnalyticDistribution(
+      MoveLine moveLine, AnalyticDistributionTemplate analyticDistributionTemplate) {
+
     moveLine.setAnalyticDistributionTemplate(analyticDistributionTemplate);
 
     List<AnalyticMoveLine> analyticMoveLineList =
@@ -25,7 +25,6 @@ import com.axelor.apps.account.db.InvoiceLine;
 import com.axelor.apps.account.db.repo.BudgetDistributionRepository;
 import com.axelor.apps.account.db.repo.BudgetLineRepository;
 import com.axelor.apps.account.db.repo.BudgetRepository;
-import com.axelor.apps.account.db.repo.InvoiceRepository;
 import com.axelor.apps.account.service.BudgetService;
 import com.axelor.apps.purchase.db.PurchaseOrder;
 import com.axelor.apps.purchase.db.PurchaseOrderLine;
@@ -37,8 +36,13 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class BudgetSupplychainService extends BudgetService {
 
@@ -60,8 +64,8 @@ public class BudgetSupplychainService extends BudgetService {
         budgetLine.setAmountCommitted(BigDecimal.ZERO);
         budgetLine.setAmountRealized(BigDecimal.ZERO);
       }
-      List<BudgetDistribution> budgetDistributionList = null;
-      budgetDistributionList =
+      NavigableMap<LocalDate, BudgetLine> budgetLineIndex = getBudgetLineIndex(budget);
+      List<BudgetDistribution> budgetDistributionList =
           Beans.get(BudgetDistributionRepository.class)
               .all()
               .filter(
@@ -74,46 +78,15 @@ public class BudgetSupplychainService extends BudgetService {
         LocalDate orderDate =
             budgetDistribution.getPurchaseOrderLine().getPurchaseOrder().getOrderDate();
         if (orderDate != null) {
-          for (BudgetLine budgetLine : budget.getBudgetLineList()) {
-            LocalDate fromDate = budgetLine.getFromDate();
-            LocalDate toDate = budgetLine.getToDate();
-            if ((fromDate != null && toDate != null)
-                && (fromDate.isBefore(orderDate) || fromDate.isEqual(orderDate))
-                && (toDate.isAfter(orderDate) || toDate.isEqual(orderDate))) {
-              budgetLine.setAmountCommitted(
-                  budgetLine.getAmountCommitted().add(budgetDistribution.getAmount()));
-              budgetLineRepository.save(budgetLine);
-              break;
-            }
-          }
+          findBudgetLine(budget, budgetLineIndex, orderDate)
+              .ifPresent(
+                  budgetLine ->
+                      budgetLine.setAmountCommitted(
+                          budgetLine.getAmountCommitted().add(budgetDistribution.getAmount())));
         }
       }
 
-      budgetDistributionList =
-          Beans.get(BudgetDistributionRepository.class)
-              .all()
-              .filter(
-                  "self.budget.id = ?1 AND (self.invoiceLine.invoice.statusSelect = ?2 OR self.invoiceLine.invoice.statusSelect = ?3)",
-                  budget.getId(),
-                  InvoiceRepository.STATUS_VALIDATED,
-                  InvoiceRepository.STATUS_VENTILATED)
-              .fetch();
-      for (BudgetDistribution budgetDistribution : budgetDistributionList) {
-        Optional<LocalDate> optionaldate = getDate(budgetDistribution);
-        optionaldate.ifPresent(
-            date -> {
-              for (BudgetLine budgetLine : budget.getBudgetLineList()) {
-                LocalDate fromDate = budgetLine.getFromDate();
-                LocalDate toDate = budgetLine.getToDate();
-                if ((fromDate.isBefore(date) || fromDate.isEqual(date))
-                    && (toDate.isAfter(date) || toDate.isEqual(date))) {
-                  budgetLine.setAmountRealized(
-                      budgetLine.getAmountRealized().add(budgetDistribution.getAmount()));
-                  break;
-                }
-              }
-            });
-      }
+      computeAmountRealized(budget, budgetLineIndex);
     }
     return budget.getBudgetLineList();
   }
@@ -181,21 +154,79 @@ public class BudgetSupplychainService extends BudgetService {
     return totalAmountCommitted;
   }
 
+  /**
+   * Recompute the budgets of the budget distributions of a purchase order.
+   *
+   * @param purchaseOrder
+   */
   public void updateBudgetLinesFromPurchaseOrder(PurchaseOrder purchaseOrder) {
+    for (Budget budget : getBudgetSet(getBudgetDistributionList(purchaseOrder))) {
+      updateLines(budget);
+      computeTotalAmountCommitted(budget);
+    }
+  }
+
+  /**
+   * Add the budget distributions of a validated purchase order to the committed amounts of their
+   * budget lines, without recomputing the budgets.
+   *
+   * @param purchaseOrder
+   */
+  @Transactional
+  public void addPurchaseOrderToBudgetLines(PurchaseOrder purchaseOrder) {
+    updateAmountCommitted(purchaseOrder, false);
+  }
+
+  /**
+   * Remove the budget distributions of a cancelled purchase order from the committed amounts of
+   * their budget lines, without recomputing the budgets.
+   *
+   * @param purchaseOrder
+   */
+  @Transactional
+  public void removePurchaseOrderFromBudgetLines(PurchaseOrder purchaseOrder) {
+    updateAmountCommitted(purchaseOrder, true);
+  }
+
+  protected void updateAmountCommitted(PurchaseOrder purchaseOrder, boolean isCancel) {
+    LocalDate orderDate = purchaseOrder.getOrderDate();
+
+    if (orderDate == null) {
+      return;
+    }
+
+    List<BudgetDistribution> budgetDistributionList = getBudgetDistributionList(purchaseOrder);
+    Map<Budget, NavigableMap<LocalDate, BudgetLine>> budgetLineIndexMap = new HashMap<>();
+    lockBudgets(getBudgetSet(budgetDistributionList));
+
+    for (BudgetDistribution budgetDistribution : budgetDistributionList) {
+      Budget budget = budgetDistribution.getBudget();
+      BigDecimal amount =
+          isCancel ? budgetDistribution.getAmount().negate() : budgetDistribution.getAmount();
+
+      NavigableMap<LocalDate, BudgetLine> budgetLineIndex =
+          budgetLineIndexMap.computeIfAbsent(budget, this::getBudgetLineIndex);
+
+      findBudgetLine(budget, budgetLineIndex, orderDate)
+          .ifPresent(
+              budgetLine -> {
+                budgetLine.setAmountCommitted(budgetLine.getAmountCommitted().add(amount));
+                budget.setTotalAmountCommitted(budget.getTotalAmountCommitted().add(amount));
+              });
+    }
+  }
+
+  protected List<BudgetDistribution> getBudgetDistributionList(PurchaseOrder purchaseOrder) {
     List<PurchaseOrderLine> purchaseOrderLineList = purchaseOrder.getPurchaseOrderLineList();
 
     if (purchaseOrderLineList == null) {
-      return;
+      return new ArrayList<>();
     }
 
-    purchaseOrderLineList
+    return purchaseOrderLineList
         .stream()
-        .flatMap(x -> x.getBudgetDistributionList().stream())
-        .forEach(
-            budgetDistribution -> {
-              Budget budget = budgetDistribution.getBudget();
-              updateLines(budget);
-              computeTotalAmountCommitted(budget);
-            });
+        .filter(purchaseOrderLine -> purchaseOrderLine.getBudgetDistributionList() != null)
+        .flatMap(purchaseOrderLine -> purchaseOrderLine.getBudgetDistributionList().stream())
+        .collect(Collectors.toList());
   }
 }
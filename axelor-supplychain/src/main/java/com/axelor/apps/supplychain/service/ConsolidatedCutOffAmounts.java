@@ -0,0 +1,112 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.supplychain.service;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AnalyticDistributionTemplate;
+import com.axelor.apps.account.db.TaxLine;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Amounts of the product lines of a consolidated cut-off move, summed by account, analytic
+ * distribution template and tax line, in the order the keys are first met. A move and its reverse
+ * move are generated from the same amounts, so their lines get the same counters and can be
+ * reconciled line by line.
+ */
+public class ConsolidatedCutOffAmounts {
+
+  /** Summed amount of a product line of the move. */
+  public static class Line {
+
+    private final Account account;
+    private final boolean fixedAssets;
+    private final AnalyticDistributionTemplate analyticDistributionTemplate;
+    private final TaxLine taxLine;
+    private final BigDecimal amount;
+
+    private Line(
+        Account account,
+        boolean fixedAssets,
+        AnalyticDistributionTemplate analyticDistributionTemplate,
+        TaxLine taxLine,
+        BigDecimal amount) {
+      this.account = account;
+      this.fixedAssets = fixedAssets;
+      this.analyticDistributionTemplate = analyticDistributionTemplate;
+      this.taxLine = taxLine;
+      this.amount = amount;
+    }
+
+    private Line add(Line line) {
+      return new Line(
+          account, fixedAssets, analyticDistributionTemplate, taxLine, amount.add(line.amount));
+    }
+
+    public Account getAccount() {
+      return account;
+    }
+
+    public boolean isFixedAssets() {
+      return fixedAssets;
+    }
+
+    public AnalyticDistributionTemplate getAnalyticDistributionTemplate() {
+      return analyticDistributionTemplate;
+    }
+
+    public TaxLine getTaxLine() {
+      return taxLine;
+    }
+
+    public BigDecimal getAmount() {
+      return amount;
+    }
+  }
+
+  private final Map<List<Object>, Line> lineMap = new LinkedHashMap<>();
+
+  public void add(
+      Account account,
+      boolean fixedAssets,
+      AnalyticDistributionTemplate analyticDistributionTemplate,
+      TaxLine taxLine,
+      BigDecimal amount) {
+    lineMap.merge(
+        Arrays.asList(account, fixedAssets, analyticDistributionTemplate, taxLine),
+        new Line(account, fixedAssets, analyticDistributionTemplate, taxLine, amount),
+        Line::add);
+  }
+
+  /**
+   * Get the lines to generate, the lines summing to zero being left out.
+   *
+   * @return the lines, in the order their key was first met.
+   */
+  public List<Line> getLines() {
+    return lineMap
+        .values()
+        .stream()
+        .filter(line -> line.getAmount().signum() != 0)
+        .collect(Collectors.toList());
+  }
+}
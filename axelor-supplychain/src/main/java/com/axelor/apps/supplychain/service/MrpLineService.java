@@ -54,6 +54,22 @@ public interface MrpLineService {
       StockLocation stockLocation,
       Model model);
 
+  /**
+   * Create a mrp line with an already known minimum quantity, to avoid looking up the stock rules
+   * of each line.
+   */
+  MrpLine createMrpLine(
+      Mrp mrp,
+      Product product,
+      int maxLevel,
+      MrpLineType mrpLineType,
+      BigDecimal qty,
+      LocalDate maturityDate,
+      BigDecimal cumulativeQty,
+      StockLocation stockLocation,
+      BigDecimal minQty,
+      Model model);
+
   MrpLineOrigin createMrpLineOrigin(Model model);
 
   MrpLineOrigin copyMrpLineOrigin(MrpLineOrigin mrpLineOrigin);
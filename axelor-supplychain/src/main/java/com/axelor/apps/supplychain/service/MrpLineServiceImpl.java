@@ -207,6 +207,32 @@ public class MrpLineServiceImpl implements MrpLineService {
       StockLocation stockLocation,
       Model model) {
 
+    return this.createMrpLine(
+        mrp,
+        product,
+        maxLevel,
+        mrpLineType,
+        qty,
+        maturityDate,
+        cumulativeQty,
+        stockLocation,
+        this.getMinQty(product, stockLocation),
+        model);
+  }
+
+  @Override
+  public MrpLine createMrpLine(
+      Mrp mrp,
+      Product product,
+      int maxLevel,
+      MrpLineType mrpLineType,
+      BigDecimal qty,
+      LocalDate maturityDate,
+      BigDecimal cumulativeQty,
+      StockLocation stockLocation,
+      BigDecimal minQty,
+      Model model) {
+
     MrpLine mrpLine = new MrpLine();
 
     mrpLine.setMrp(mrp);
@@ -222,7 +248,7 @@ public class MrpLineServiceImpl implements MrpLineService {
     mrpLine.setCumulativeQty(cumulativeQty);
     mrpLine.setStockLocation(stockLocation);
 
-    mrpLine.setMinQty(this.getMinQty(product, stockLocation));
+    mrpLine.setMinQty(minQty);
 
     this.updatePartner(mrpLine, model);
 
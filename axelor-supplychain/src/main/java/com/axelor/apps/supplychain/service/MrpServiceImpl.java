@@ -23,6 +23,7 @@ import com.axelor.apps.base.db.Product;
 import com.axelor.apps.base.db.Unit;
 import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.service.UnitConversionService;
+import com.axelor.apps.base.service.administration.WorkerPool;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.purchase.db.PurchaseOrder;
 import com.axelor.apps.purchase.db.PurchaseOrderLine;
@@ -63,18 +64,25 @@ import com.axelor.meta.MetaStore;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -97,8 +105,42 @@ public class MrpServiceImpl implements MrpService {
 
   protected AppBaseService appBaseService;
 
+  /** Number of products or order lines loaded and written per transaction. */
+  protected static final int CHUNK_SIZE = 500;
+
+  /** Number of products of a same level computed by a worker in a single pass. */
+  protected static final int PRODUCT_CHUNK_SIZE = 100;
+
   protected List<StockLocation> stockLocationList;
   protected Map<Long, Integer> productMap;
+
+  /**
+   * Minimum quantities of the MRP stock rules, by product ID then stock location ID. Products
+   * missing from this map have their stock rules looked up when creating their lines.
+   */
+  protected Map<Long, Map<Long, BigDecimal>> minQtyMap;
+
+  protected static final int PRODUCT_LOCK_STRIPES = 64;
+
+  /**
+   * Locks of the products whose lines may be updated by the proposals of other products of the
+   * same level, such as the components of manufactured products. Proposals touching distinct
+   * products run in parallel.
+   */
+  private final Striped<Lock> productLocks = Striped.lock(PRODUCT_LOCK_STRIPES);
+
+  /**
+   * Start of the previous calculation when running a net change calculation, <code>null</code> when
+   * running a full calculation.
+   */
+  protected LocalDateTime netChangeDateTime;
+
+  /**
+   * Products recomputed by a net change calculation, <code>null</code> when running a full
+   * calculation. The lines of the other products are kept.
+   */
+  protected Set<Long> netChangeProductIdSet;
+
   protected Mrp mrp;
   protected LocalDate today;
 
@@ -137,12 +179,48 @@ public class MrpServiceImpl implements MrpService {
   @Override
   public void runCalculation(Mrp mrp) throws AxelorException {
 
-    this.reset(mrp);
+    Integer jdbcBatchSize = this.setJdbcBatchSize();
+    try {
+      if (this.isNetChange(mrp)) {
+        this.runNetChangeCalculation(mrp);
+        return;
+      }
 
-    this.startMrp(mrpRepository.find(mrp.getId()));
-    this.completeMrp(mrpRepository.find(mrp.getId()));
-    this.doCalulation(mrpRepository.find(mrp.getId()));
-    this.finish(mrpRepository.find(mrp.getId()));
+      this.reset(mrp);
+
+      this.startMrp(mrpRepository.find(mrp.getId()));
+      this.completeMrp(mrpRepository.find(mrp.getId()));
+      this.doCalulation(mrpRepository.find(mrp.getId()));
+      this.finish(mrpRepository.find(mrp.getId()));
+    } finally {
+      this.resetJdbcBatchSize(jdbcBatchSize);
+    }
+  }
+
+  /**
+   * A net change calculation needs a previous calculation which ended, whose lines are kept for the
+   * products without any change since.
+   */
+  protected boolean isNetChange(Mrp mrp) {
+
+    return mrp.getNetChange()
+        && mrp.getStatusSelect() == MrpRepository.STATUS_CALCULATION_ENDED
+        && mrp.getStartDateTime() != null;
+  }
+
+  protected void runNetChangeCalculation(Mrp mrp) throws AxelorException {
+
+    this.netChangeDateTime = mrp.getStartDateTime();
+
+    try {
+      this.startMrp(mrpRepository.find(mrp.getId()));
+      this.completeMrp(mrpRepository.find(mrp.getId()));
+      this.doCalulation(mrpRepository.find(mrp.getId()));
+      this.finish(mrpRepository.find(mrp.getId()));
+    } finally {
+      this.netChangeDateTime = null;
+      this.netChangeProductIdSet = null;
+    }
   }
 
   @Transactional
@@ -193,6 +271,10 @@ public class MrpServiceImpl implements MrpService {
           TraceBackRepository.CATEGORY_NO_VALUE,
           I18n.get(IExceptionMessage.MRP_MISSING_STOCK_LOCATION_VALID));
     }
+    this.loadMinQtyMap();
+    if (netChangeDateTime != null) {
+      this.initNetChange();
+    }
     // Get the stock for each product on each stock location
     this.createAvailableStockMrpLines();
 
@@ -225,17 +307,306 @@ public class MrpServiceImpl implements MrpService {
     mrpRepository.save(mrp);
   }
 
+  /**
+   * Compute the cumulative quantities and the proposals level by level, so the needs created by
+   * the proposals of a level are known before computing the next one. The products of a same
+   * level are independent and are computed in parallel.
+   *
+   * <p>The workers are given the ID of the MRP and load the entities they use in their own unit of
+   * work. The product levels and minimum quantities maps are only read while they run.
+   */
   protected void checkInsufficientCumulativeQty() throws AxelorException {
 
-    for (int level = 0; level <= this.getMaxLevel(); level++) {
+    Long mrpId = mrp.getId();
+
+    try (WorkerPool workerPool = new WorkerPool("mrp-" + mrpId)) {
+      for (int level = 0; level <= this.getMaxLevel(); level++) {
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<Long> productIds :
+            Lists.partition(this.getProductIdList(level), PRODUCT_CHUNK_SIZE)) {
+          tasks.add(
+              () -> {
+                // the session of the worker ends with the task
+                this.setJdbcBatchSize();
+                this.checkInsufficientCumulativeQty(mrpId, productIds);
+                return null;
+              });
+        }
+        workerPool.invokeAll(tasks);
+      }
+    }
+  }
+
+  protected void checkInsufficientCumulativeQty(Long mrpId, List<Long> productIds)
+      throws AxelorException {
+
+    Map<Long, List<MrpLine>> mrpLineMap = this.computeCumulativeQty(mrpId, productIds);
+
+    for (Long productId : productIds) {
+      this.checkInsufficientCumulativeQty(
+          mrpId, productId, mrpLineMap.getOrDefault(productId, Collections.emptyList()), true);
+    }
+    JPA.clear();
+  }
+
+  /**
+   * Create proposals until the cumulative quantity of the product is sufficient on all its lines.
+   *
+   * @param mrpId the MRP
+   * @param productId the product to check
+   * @param mrpLineList the lines of the product, ordered, with their cumulative quantity computed
+   * @param firstPass whether the available stock lines must be checked
+   */
+  protected void checkInsufficientCumulativeQty(
+      Long mrpId, Long productId, List<MrpLine> mrpLineList, boolean firstPass)
+      throws AxelorException {
+
+    MrpLine mrpLine;
 
-      for (Product product : this.getProductList(level)) {
+    Iterable<Lock> locks = null;
 
-        this.checkInsufficientCumulativeQty(product, true);
+    while ((mrpLine = this.findInsufficientCumulativeQty(mrpLineList, firstPass)) != null) {
+      if (locks == null) {
+        // striped locks are returned in a consistent order, so workers can not deadlock
+        locks = productLocks.bulkGet(this.getProposalLockedProductIds(productId));
+      }
+      locks.forEach(Lock::lock);
+      try {
+        this.checkInsufficientCumulativeQty(
+            mrpLineRepository.find(mrpLine.getId()),
+            productRepository.find(productId),
+            firstPass);
+      } finally {
+        locks.forEach(Lock::unlock);
       }
+      firstPass = false;
+      mrpLineList =
+          this.computeCumulativeQty(mrpId, Collections.singletonList(productId))
+              .getOrDefault(productId, Collections.emptyList());
     }
   }
 
+  /**
+   * Get the products, other than the given one, whose lines may be created or updated by the
+   * proposals of the given product. Their locks are held while the proposals are created, until
+   * their transaction is committed.
+   *
+   * @param productId the product of the proposals
+   * @return the IDs of the other products, none by default
+   */
+  protected Set<Long> getProposalLockedProductIds(Long productId) {
+
+    return Collections.emptySet();
+  }
+
+  protected void checkInsufficientCumulativeQty(Product product, boolean firstPass)
+      throws AxelorException {
+
+    this.checkInsufficientCumulativeQty(
+        mrp.getId(),
+        product.getId(),
+        this.computeCumulativeQty(mrp.getId(), Collections.singletonList(product.getId()))
+            .getOrDefault(product.getId(), Collections.emptyList()),
+        firstPass);
+  }
+
+  protected MrpLine findInsufficientCumulativeQty(List<MrpLine> mrpLineList, boolean firstPass) {
+
+    for (MrpLine mrpLine : mrpLineList) {
+      if (this.isInsufficientCumulativeQty(mrpLine, firstPass)) {
+        return mrpLine;
+      }
+    }
+    return null;
+  }
+
+  protected boolean isInsufficientCumulativeQty(MrpLine mrpLine, boolean firstPass) {
+
+    MrpLineType mrpLineType = mrpLine.getMrpLineType();
+
+    boolean isProposalElement = this.isProposalElement(mrpLineType);
+
+    return ((mrpLineType.getElementSelect() != MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK
+                && (!isProposalElement
+                    || mrpLineType.getTypeSelect() == MrpLineTypeRepository.TYPE_OUT))
+            || (mrpLineType.getElementSelect() == MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK
+                && firstPass))
+        && mrpLine.getCumulativeQty().compareTo(mrpLine.getMinQty()) < 0;
+  }
+
+  protected List<Long> getProductIdList(int level) {
+
+    return this.productMap.entrySet().stream()
+        .filter(entry -> entry.getValue() == level && this.isComputedProduct(entry.getKey()))
+        .map(Map.Entry::getKey)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  /** Get the products of the MRP whose lines are computed by the current calculation. */
+  protected List<Long> getComputedProductIdList() {
+
+    return this.productMap.keySet().stream()
+        .filter(this::isComputedProduct)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  protected boolean isComputedProduct(Long productId) {
+
+    return netChangeProductIdSet == null || netChangeProductIdSet.contains(productId);
+  }
+
+  /**
+   * Find the products to recompute on a net change calculation and remove their lines.
+   *
+   * <p>These are the products of the MRP without any line yet, the products which had a demand or
+   * supply change since the previous calculation and the products of the lines whose origin was
+   * deleted or moved to another product, completed with the products whose lines depend on them.
+   */
+  protected void initNetChange() {
+
+    Set<Long> mrpProductIdSet =
+        new HashSet<>(
+            JPA.em()
+                .createQuery(
+                    "SELECT DISTINCT self.product.id FROM MrpLine self WHERE self.mrp.id = :mrpId",
+                    Long.class)
+                .setParameter("mrpId", mrp.getId())
+                .getResultList());
+
+    Set<Long> productIdSet = new HashSet<>(this.productMap.keySet());
+    productIdSet.removeAll(mrpProductIdSet);
+    mrpProductIdSet.addAll(this.productMap.keySet());
+
+    for (String query : this.getNetChangeQueries()) {
+      JPA.em()
+          .createQuery(query, Long.class)
+          .setParameter("since", netChangeDateTime)
+          .getResultList()
+          .stream()
+          .filter(mrpProductIdSet::contains)
+          .forEach(productIdSet::add);
+    }
+
+    // Deleted origins do not match the queries above anymore, and an origin moved to another
+    // product only gives its new product
+    for (String query : this.getNetChangeOriginQueries()) {
+      productIdSet.addAll(
+          JPA.em()
+              .createQuery(query, Long.class)
+              .setParameter("mrpId", mrp.getId())
+              .getResultList());
+    }
+
+    this.netChangeProductIdSet = this.addDependentProducts(productIdSet, mrpProductIdSet);
+
+    log.debug("Net change on {} products", netChangeProductIdSet.size());
+
+    for (List<Long> productIds :
+        Lists.partition(new ArrayList<>(netChangeProductIdSet), CHUNK_SIZE)) {
+      this.removeMrpLines(mrp.getId(), productIds);
+    }
+  }
+
+  /**
+   * Get the queries selecting the ID of the products with a demand or supply change since the
+   * <code>:since</code> date time.
+   */
+  protected List<String> getNetChangeQueries() {
+
+    return Lists.newArrayList(
+        "SELECT DISTINCT self.product.id FROM SaleOrderLine self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since "
+            + "OR self.saleOrder.updatedOn > :since",
+        "SELECT DISTINCT self.product.id FROM PurchaseOrderLine self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since "
+            + "OR self.purchaseOrder.updatedOn > :since",
+        "SELECT DISTINCT self.product.id FROM StockMoveLine self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since "
+            + "OR self.stockMove.updatedOn > :since",
+        "SELECT DISTINCT self.product.id FROM StockLocationLine self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since",
+        "SELECT DISTINCT self.product.id FROM MrpForecast self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since",
+        "SELECT DISTINCT self.product.id FROM StockRules self "
+            + "WHERE self.updatedOn > :since OR self.createdOn > :since");
+  }
+
+  /**
+   * Get the queries selecting the ID of the products of the lines of the <code>:mrpId</code> MRP
+   * whose origin was deleted or no longer has the product of the line.
+   */
+  protected List<String> getNetChangeOriginQueries() {
+
+    return Lists.newArrayList(
+        this.getNetChangeOriginQuery(
+            MrpLineTypeRepository.ELEMENT_PURCHASE_ORDER, PurchaseOrderLine.class),
+        this.getNetChangeOriginQuery(MrpLineTypeRepository.ELEMENT_SALE_ORDER, SaleOrderLine.class),
+        this.getNetChangeOriginQuery(
+            MrpLineTypeRepository.ELEMENT_SALE_FORECAST, MrpForecast.class));
+  }
+
+  /**
+   * Get the query selecting the ID of the products of the lines of a type whose origin is missing
+   * or has another product.
+   */
+  protected String getNetChangeOriginQuery(int elementSelect, Class<? extends Model> originClass) {
+
+    return this.getNetChangeOriginQuery(
+        elementSelect,
+        originClass,
+        "SELECT origin.id FROM "
+            + originClass.getSimpleName()
+            + " origin WHERE origin.id = self.relatedToSelectId "
+            + "AND origin.product = mrpLine.product");
+  }
+
+  /**
+   * Get the query selecting the ID of the products of the lines of a type whose origin is missing.
+   *
+   * @param elementSelect the element of the type of the lines
+   * @param originClass the class of the origin of the lines
+   * @param originQuery the query selecting the origin of a line, from the <code>self</code> line
+   *     origin and its <code>mrpLine</code>
+   */
+  protected String getNetChangeOriginQuery(
+      int elementSelect, Class<? extends Model> originClass, String originQuery) {
+
+    return "SELECT DISTINCT mrpLine.product.id FROM MrpLineOrigin self "
+        + "JOIN self.mrpLine mrpLine "
+        + "WHERE mrpLine.mrp.id = :mrpId "
+        + "AND mrpLine.mrpLineType.elementSelect = "
+        + elementSelect
+        + " AND self.relatedToSelect = '"
+        + originClass.getCanonicalName()
+        + "' AND NOT EXISTS ("
+        + originQuery
+        + ")";
+  }
+
+  /**
+   * Add the products whose lines depend on the lines of the given products.
+   *
+   * @param productIdSet the products to recompute
+   * @param mrpProductIdSet all the products of the MRP
+   * @return the products to recompute
+   */
+  protected Set<Long> addDependentProducts(Set<Long> productIdSet, Set<Long> mrpProductIdSet) {
+
+    return productIdSet;
+  }
+
+  @Transactional
+  protected void removeMrpLines(Long mrpId, List<Long> productIds) {
+
+    mrpLineRepository
+        .all()
+        .filter("self.mrp.id = ?1 AND self.product.id IN (?2)", mrpId, productIds)
+        .remove();
+  }
+
   /**
    * Get the list of product for a level
    *
@@ -270,64 +641,15 @@ public class MrpServiceImpl implements MrpService {
     return maxLevel;
   }
 
-  protected void checkInsufficientCumulativeQty(Product product, boolean firstPass)
-      throws AxelorException {
-
-    boolean doASecondPass = false;
-
-    this.computeCumulativeQty(productRepository.find(product.getId()));
-
-    JPA.clear();
-
-    List<MrpLine> mrpLineList =
-        mrpLineRepository
-            .all()
-            .filter("self.mrp.id = ?1 AND self.product.id = ?2", mrp.getId(), product.getId())
-            .order("maturityDate")
-            .order("mrpLineType.typeSelect")
-            .order("mrpLineType.sequence")
-            .order("id")
-            .fetch();
-
-    for (MrpLine mrpLine : mrpLineList) {
-
-      doASecondPass =
-          this.checkInsufficientCumulativeQty(
-              mrpLineRepository.find(mrpLine.getId()),
-              productRepository.find(product.getId()),
-              firstPass);
-      JPA.clear();
-      if (doASecondPass) {
-        break;
-      }
-    }
-
-    if (doASecondPass) {
-
-      this.checkInsufficientCumulativeQty(product, false);
-    }
-  }
-
   @Transactional(rollbackOn = {Exception.class})
   protected boolean checkInsufficientCumulativeQty(
       MrpLine mrpLine, Product product, boolean firstPass) throws AxelorException {
 
     BigDecimal cumulativeQty = mrpLine.getCumulativeQty();
 
-    MrpLineType mrpLineType = mrpLine.getMrpLineType();
-
-    boolean isProposalElement = this.isProposalElement(mrpLineType);
-
     BigDecimal minQty = mrpLine.getMinQty();
 
-    if ((((mrpLine.getMrpLineType().getElementSelect()
-                    != MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK)
-                && (!isProposalElement
-                    || mrpLineType.getTypeSelect() == MrpLineTypeRepository.TYPE_OUT))
-            || (mrpLine.getMrpLineType().getElementSelect()
-                    == MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK
-                && firstPass))
-        && cumulativeQty.compareTo(mrpLine.getMinQty()) < 0) {
+    if (this.isInsufficientCumulativeQty(mrpLine, firstPass)) {
 
       log.debug(
           "Cumulative qty ({} < {}) is insufficient for product ({}) at the maturity date ({})",
@@ -373,6 +695,16 @@ public class MrpServiceImpl implements MrpService {
       StockLocation stockLocation,
       LocalDate maturityDate) {
 
+    return this.getPreviousProposalMrpLine(mrp, product, mrpLineType, stockLocation, maturityDate);
+  }
+
+  protected MrpLine getPreviousProposalMrpLine(
+      Mrp mrp,
+      Product product,
+      MrpLineType mrpLineType,
+      StockLocation stockLocation,
+      LocalDate maturityDate) {
+
     LocalDate startPeriodDate = maturityDate;
 
     MrpFamily mrpFamily = product.getMrpFamily();
@@ -421,7 +753,7 @@ public class MrpServiceImpl implements MrpService {
     }
 
     MrpLine mrpLine =
-        this.getPreviousProposalMrpLine(product, mrpLineType, stockLocation, maturityDate);
+        this.getPreviousProposalMrpLine(mrp, product, mrpLineType, stockLocation, maturityDate);
 
     if (mrpLine != null) {
       if (mrpLineType.getTypeSelect() == MrpLineTypeRepository.TYPE_OUT) {
@@ -526,38 +858,60 @@ public class MrpServiceImpl implements MrpService {
 
   protected void computeCumulativeQty() {
 
-    for (Long productId : this.productMap.keySet()) {
-
-      this.computeCumulativeQty(productRepository.find(productId));
+    for (List<Long> productIds :
+        Lists.partition(this.getComputedProductIdList(), PRODUCT_CHUNK_SIZE)) {
+      this.computeCumulativeQty(mrp.getId(), productIds);
+      JPA.clear();
     }
   }
 
-  @Transactional
   protected void computeCumulativeQty(Product product) {
 
+    this.computeCumulativeQty(mrp.getId(), Collections.singletonList(product.getId()));
+  }
+
+  /**
+   * Compute the cumulative quantities of the lines of the given products with a single query.
+   *
+   * @return the lines of each product, ordered by maturity date and type.
+   */
+  @Transactional
+  protected Map<Long, List<MrpLine>> computeCumulativeQty(Long mrpId, List<Long> productIds) {
+
     List<MrpLine> mrpLineList =
         mrpLineRepository
             .all()
-            .filter("self.mrp.id = ?1 AND self.product.id = ?2", mrp.getId(), product.getId())
+            .filter("self.mrp.id = ?1 AND self.product.id IN (?2)", mrpId, productIds)
+            .order("product.id")
             .order("maturityDate")
             .order("mrpLineType.typeSelect")
             .order("mrpLineType.sequence")
             .order("id")
             .fetch();
 
+    Map<Long, List<MrpLine>> mrpLineMap = new HashMap<>();
     BigDecimal previousCumulativeQty = BigDecimal.ZERO;
+    Long previousProductId = null;
 
     for (MrpLine mrpLine : mrpLineList) {
+      Long productId = mrpLine.getProduct().getId();
+      if (!productId.equals(previousProductId)) {
+        previousCumulativeQty = BigDecimal.ZERO;
+        previousProductId = productId;
+      }
       mrpLine.setCumulativeQty(previousCumulativeQty.add(mrpLine.getQty()));
       previousCumulativeQty = mrpLine.getCumulativeQty();
+      mrpLineMap.computeIfAbsent(productId, id -> new ArrayList<>()).add(mrpLine);
 
       log.debug(
           "Cumulative qty is ({}) for product ({}) and move ({}) at the maturity date ({})",
           previousCumulativeQty,
-          mrpLine.getProduct().getFullName(),
+          productId,
           mrpLine.getMrpLineType().getName(),
           mrpLine.getMaturityDate());
     }
+
+    return mrpLineMap;
   }
 
   protected void createPurchaseMrpLines() throws AxelorException {
@@ -572,28 +926,47 @@ public class MrpServiceImpl implements MrpService {
     }
 
     // TODO : Manage the case where order is partially delivered
-    List<PurchaseOrderLine> purchaseOrderLineList =
-        purchaseOrderLineRepository
-            .all()
-            .filter(
-                "self.product.id in (?1) AND self.purchaseOrder.stockLocation in (?2) AND self.receiptState != ?3 "
-                    + "AND self.purchaseOrder.statusSelect IN (?4)",
-                this.productMap.keySet(),
-                this.stockLocationList,
-                PurchaseOrderRepository.STATE_RECEIVED,
-                statusList)
-            .fetch();
+    List<Long> purchaseOrderLineIdList = new ArrayList<>();
+
+    for (List<Long> productIds :
+        Lists.partition(this.getComputedProductIdList(), CHUNK_SIZE)) {
+      purchaseOrderLineIdList.addAll(
+          JPA.em()
+              .createQuery(
+                  "SELECT self.id FROM PurchaseOrderLine self "
+                      + "WHERE self.product.id IN (:productIds) "
+                      + "AND self.purchaseOrder.stockLocation.id IN (:stockLocationIds) "
+                      + "AND self.receiptState != :receiptState "
+                      + "AND self.purchaseOrder.statusSelect IN (:statusList)",
+                  Long.class)
+              .setParameter("productIds", productIds)
+              .setParameter("stockLocationIds", this.getStockLocationIdList())
+              .setParameter("receiptState", PurchaseOrderRepository.STATE_RECEIVED)
+              .setParameter("statusList", statusList)
+              .getResultList());
+    }
 
-    for (PurchaseOrderLine purchaseOrderLine : purchaseOrderLineList) {
+    for (List<Long> purchaseOrderLineIds : Lists.partition(purchaseOrderLineIdList, CHUNK_SIZE)) {
 
       this.createPurchaseMrpLines(
           mrpRepository.find(mrp.getId()),
-          purchaseOrderLineRepository.find(purchaseOrderLine.getId()),
+          purchaseOrderLineIds,
           mrpLineTypeRepository.find(purchaseOrderMrpLineType.getId()));
       JPA.clear();
     }
   }
 
+  @Transactional(rollbackOn = {Exception.class})
+  protected void createPurchaseMrpLines(
+      Mrp mrp, List<Long> purchaseOrderLineIds, MrpLineType purchaseOrderMrpLineType)
+      throws AxelorException {
+
+    for (PurchaseOrderLine purchaseOrderLine :
+        purchaseOrderLineRepository.all().filter("self.id IN (?1)", purchaseOrderLineIds).fetch()) {
+      this.createPurchaseMrpLines(mrp, purchaseOrderLine, purchaseOrderMrpLineType);
+    }
+  }
+
   @Transactional(rollbackOn = {Exception.class})
   protected void createPurchaseMrpLines(
       Mrp mrp, PurchaseOrderLine purchaseOrderLine, MrpLineType purchaseOrderMrpLineType)
@@ -646,39 +1019,60 @@ public class MrpServiceImpl implements MrpService {
     String statusSelect = saleOrderMrpLineType.getStatusSelect();
     List<Integer> statusList = StringTool.getIntegerList(statusSelect);
 
-    List<SaleOrderLine> saleOrderLineList = new ArrayList<>();
+    List<Long> saleOrderLineIdList = new ArrayList<>();
 
     mrp = mrpRepository.find(mrp.getId());
 
     if (mrp.getSaleOrderLineSet().isEmpty()) {
 
-      saleOrderLineList.addAll(
-          saleOrderLineRepository
-              .all()
-              .filter(
-                  "self.product.id in (?1) AND self.saleOrder.stockLocation in (?2) AND self.deliveryState != ?3 "
-                      + "AND self.saleOrder.statusSelect IN (?4)",
-                  this.productMap.keySet(),
-                  this.stockLocationList,
-                  SaleOrderLineRepository.DELIVERY_STATE_DELIVERED,
-                  statusList)
-              .fetch());
+      for (List<Long> productIds :
+          Lists.partition(this.getComputedProductIdList(), CHUNK_SIZE)) {
+        saleOrderLineIdList.addAll(
+            JPA.em()
+                .createQuery(
+                    "SELECT self.id FROM SaleOrderLine self "
+                        + "WHERE self.product.id IN (:productIds) "
+                        + "AND self.saleOrder.stockLocation.id IN (:stockLocationIds) "
+                        + "AND self.deliveryState != :deliveryState "
+                        + "AND self.saleOrder.statusSelect IN (:statusList)",
+                    Long.class)
+                .setParameter("productIds", productIds)
+                .setParameter("stockLocationIds", this.getStockLocationIdList())
+                .setParameter("deliveryState", SaleOrderLineRepository.DELIVERY_STATE_DELIVERED)
+                .setParameter("statusList", statusList)
+                .getResultList());
+      }
 
     } else {
-      saleOrderLineList.addAll(mrp.getSaleOrderLineSet());
+      mrp.getSaleOrderLineSet()
+          .forEach(saleOrderLine -> saleOrderLineIdList.add(saleOrderLine.getId()));
     }
 
-    for (SaleOrderLine saleOrderLine : saleOrderLineList) {
+    for (List<Long> saleOrderLineIds : Lists.partition(saleOrderLineIdList, CHUNK_SIZE)) {
 
       this.createSaleOrderMrpLines(
           mrpRepository.find(mrp.getId()),
-          saleOrderLineRepository.find(saleOrderLine.getId()),
+          saleOrderLineIds,
           mrpLineTypeRepository.find(saleOrderMrpLineType.getId()),
           statusList);
       JPA.clear();
     }
   }
 
+  @Transactional(rollbackOn = {Exception.class})
+  protected void createSaleOrderMrpLines(
+      Mrp mrp,
+      List<Long> saleOrderLineIds,
+      MrpLineType saleOrderMrpLineType,
+      List<Integer> statusList)
+      throws AxelorException {
+
+    for (SaleOrderLine saleOrderLine :
+        saleOrderLineRepository.all().filter("self.id IN (?1)", saleOrderLineIds).fetch()) {
+      this.createSaleOrderMrpLines(mrp, saleOrderLine, saleOrderMrpLineType, statusList);
+    }
+  }
+
   @Transactional(rollbackOn = {Exception.class})
   protected void createSaleOrderMrpLines(
       Mrp mrp,
@@ -741,37 +1135,55 @@ public class MrpServiceImpl implements MrpService {
     MrpLineType saleForecastMrpLineType =
         this.getMrpLineType(MrpLineTypeRepository.ELEMENT_SALE_FORECAST);
 
-    List<MrpForecast> mrpForecastList = new ArrayList<>();
+    List<Long> mrpForecastIdList = new ArrayList<>();
 
     mrp = mrpRepository.find(mrp.getId());
 
     if (mrp.getMrpForecastSet().isEmpty()) {
 
-      mrpForecastList.addAll(
-          mrpForecastRepository
-              .all()
-              .filter(
-                  "self.product.id in (?1) AND self.stockLocation in (?2) AND self.forecastDate >= ?3 AND self.statusSelect = ?4",
-                  this.productMap.keySet(),
-                  this.stockLocationList,
-                  today,
-                  MrpForecastRepository.STATUS_CONFIRMED)
-              .fetch());
+      for (List<Long> productIds :
+          Lists.partition(this.getComputedProductIdList(), CHUNK_SIZE)) {
+        mrpForecastIdList.addAll(
+            JPA.em()
+                .createQuery(
+                    "SELECT self.id FROM MrpForecast self "
+                        + "WHERE self.product.id IN (:productIds) "
+                        + "AND self.stockLocation.id IN (:stockLocationIds) "
+                        + "AND self.forecastDate >= :today "
+                        + "AND self.statusSelect = :statusSelect",
+                    Long.class)
+                .setParameter("productIds", productIds)
+                .setParameter("stockLocationIds", this.getStockLocationIdList())
+                .setParameter("today", today)
+                .setParameter("statusSelect", MrpForecastRepository.STATUS_CONFIRMED)
+                .getResultList());
+      }
 
     } else {
-      mrpForecastList.addAll(mrp.getMrpForecastSet());
+      mrp.getMrpForecastSet().forEach(mrpForecast -> mrpForecastIdList.add(mrpForecast.getId()));
     }
 
-    for (MrpForecast mrpForecast : mrpForecastList) {
+    for (List<Long> mrpForecastIds : Lists.partition(mrpForecastIdList, CHUNK_SIZE)) {
 
       this.createSaleForecastMrpLines(
           mrpRepository.find(mrp.getId()),
-          mrpForecastRepository.find(mrpForecast.getId()),
+          mrpForecastIds,
           mrpLineTypeRepository.find(saleForecastMrpLineType.getId()));
       JPA.clear();
     }
   }
 
+  @Transactional(rollbackOn = {Exception.class})
+  protected void createSaleForecastMrpLines(
+      Mrp mrp, List<Long> mrpForecastIds, MrpLineType saleForecastMrpLineType)
+      throws AxelorException {
+
+    for (MrpForecast mrpForecast :
+        mrpForecastRepository.all().filter("self.id IN (?1)", mrpForecastIds).fetch()) {
+      this.createSaleForecastMrpLines(mrp, mrpForecast, saleForecastMrpLineType);
+    }
+  }
+
   @Transactional(rollbackOn = {Exception.class})
   protected void createSaleForecastMrpLines(
       Mrp mrp, MrpForecast mrpForecast, MrpLineType saleForecastMrpLineType)
@@ -829,19 +1241,62 @@ public class MrpServiceImpl implements MrpService {
     MrpLineType availableStockMrpLineType =
         this.getMrpLineType(MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK);
 
-    for (Long productId : this.productMap.keySet()) {
+    for (List<Long> productIds :
+        Lists.partition(this.getComputedProductIdList(), CHUNK_SIZE)) {
 
-      for (StockLocation stockLocation : this.stockLocationList) {
-        this.createAvailableStockMrpLine(
-            mrpRepository.find(mrp.getId()),
-            productRepository.find(productId),
-            stockLocationRepository.find(stockLocation.getId()),
-            mrpLineTypeRepository.find(availableStockMrpLineType.getId()));
-      }
+      this.createAvailableStockMrpLines(
+          mrpRepository.find(mrp.getId()),
+          productIds,
+          mrpLineTypeRepository.find(availableStockMrpLineType.getId()));
       JPA.clear();
     }
   }
 
+  /**
+   * Create the available stock lines of the given products on each stock location of the MRP,
+   * loading their current quantities with a single query.
+   */
+  @Transactional
+  protected void createAvailableStockMrpLines(
+      Mrp mrp, List<Long> productIds, MrpLineType availableStockMrpLineType) {
+
+    Map<Long, Map<Long, BigDecimal>> currentQtyMap = new HashMap<>();
+    List<Object[]> resultList =
+        JPA.em()
+            .createQuery(
+                "SELECT self.product.id, self.stockLocation.id, self.currentQty "
+                    + "FROM StockLocationLine self "
+                    + "WHERE self.product.id IN (:productIds) "
+                    + "AND self.stockLocation.id IN (:stockLocationIds)",
+                Object[].class)
+            .setParameter("productIds", productIds)
+            .setParameter("stockLocationIds", this.getStockLocationIdList())
+            .getResultList();
+    for (Object[] result : resultList) {
+      currentQtyMap
+          .computeIfAbsent((Long) result[0], id -> new HashMap<>())
+          .put((Long) result[1], (BigDecimal) result[2]);
+    }
+
+    List<StockLocation> stockLocations =
+        stockLocationRepository
+            .all()
+            .filter("self.id IN (?1)", this.getStockLocationIdList())
+            .fetch();
+
+    for (Product product : productRepository.all().filter("self.id IN (?1)", productIds).fetch()) {
+      Map<Long, BigDecimal> productQtyMap =
+          currentQtyMap.getOrDefault(product.getId(), Collections.emptyMap());
+
+      for (StockLocation stockLocation : stockLocations) {
+        BigDecimal qty = productQtyMap.getOrDefault(stockLocation.getId(), BigDecimal.ZERO);
+        mrpLineRepository.save(
+            this.createMrpLine(
+                mrp, product, availableStockMrpLineType, qty, today, qty, stockLocation, null));
+      }
+    }
+  }
+
   @Transactional
   protected MrpLine createAvailableStockMrpLine(
       Mrp mrp,
@@ -985,7 +1440,20 @@ public class MrpServiceImpl implements MrpService {
       StockLocation stockLocation,
       Model model) {
 
-    if (productMap != null && product != null) {
+    if (productMap != null && product != null && this.isComputedProduct(product.getId())) {
+      if (minQtyMap != null && minQtyMap.containsKey(product.getId())) {
+        return mrpLineService.createMrpLine(
+            mrp,
+            product,
+            this.productMap.get(product.getId()),
+            mrpLineType,
+            qty,
+            maturityDate,
+            cumulativeQty,
+            stockLocation,
+            minQtyMap.get(product.getId()).getOrDefault(stockLocation.getId(), BigDecimal.ZERO),
+            model);
+      }
       return mrpLineService.createMrpLine(
           mrp,
           product,
@@ -1000,6 +1468,62 @@ public class MrpServiceImpl implements MrpService {
     return null;
   }
 
+  /** Load the minimum quantities of the MRP stock rules of all the products of the MRP. */
+  protected void loadMinQtyMap() {
+
+    Map<Long, Map<Long, BigDecimal>> minQtyMap = new HashMap<>();
+
+    for (List<Long> productIds :
+        Lists.partition(new ArrayList<>(this.productMap.keySet()), CHUNK_SIZE)) {
+      productIds.forEach(productId -> minQtyMap.put(productId, new HashMap<>()));
+
+      List<Object[]> resultList =
+          JPA.em()
+              .createQuery(
+                  "SELECT self.product.id, self.stockLocation.id, self.minQty "
+                      + "FROM StockRules self "
+                      + "WHERE self.product.id IN (:productIds) "
+                      + "AND self.stockLocation.id IN (:stockLocationIds) "
+                      + "AND self.useCaseSelect = :useCaseSelect "
+                      + "ORDER BY self.id",
+                  Object[].class)
+              .setParameter("productIds", productIds)
+              .setParameter("stockLocationIds", this.getStockLocationIdList())
+              .setParameter("useCaseSelect", StockRulesRepository.USE_CASE_USED_FOR_MRP)
+              .getResultList();
+      for (Object[] result : resultList) {
+        minQtyMap.get(result[0]).putIfAbsent((Long) result[1], (BigDecimal) result[2]);
+      }
+    }
+
+    this.minQtyMap = minQtyMap;
+  }
+
+  protected List<Long> getStockLocationIdList() {
+
+    return this.stockLocationList.stream().map(StockLocation::getId).collect(Collectors.toList());
+  }
+
+  /**
+   * Enable JDBC batching on the current session, so the lines created or updated are written in
+   * batches on flush.
+   *
+   * @return the previous batch size of the session, to be given to {@link
+   *     #resetJdbcBatchSize(Integer)}
+   */
+  protected Integer setJdbcBatchSize() {
+
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(CHUNK_SIZE);
+    return jdbcBatchSize;
+  }
+
+  protected void resetJdbcBatchSize(Integer jdbcBatchSize) {
+
+    JPA.em().unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+  }
+
   protected void copyMrpLineOrigins(MrpLine mrpLine, List<MrpLineOrigin> mrpLineOriginList) {
 
     if (mrpLineOriginList != null) {
@@ -1088,6 +1612,7 @@ public class MrpServiceImpl implements MrpService {
     }
     this.startMrp(mrpRepository.find(mrp.getId()));
     this.assignProductAndLevel(this.getProductList());
+    this.loadMinQtyMap();
 
     // Get the stock for each product on each stock location
     this.createAvailableStockMrpLines();
@@ -33,11 +33,13 @@ import com.axelor.apps.stock.db.repo.StockLocationLineRepository;
 import com.axelor.apps.stock.db.repo.StockLocationRepository;
 import com.axelor.apps.stock.service.StockLocationLineService;
 import com.axelor.apps.stock.service.StockLocationService;
+import com.axelor.apps.stock.service.StockQuantities;
 import com.axelor.apps.supplychain.service.app.AppSupplychainService;
 import com.axelor.exception.AxelorException;
 import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -85,12 +87,9 @@ public class ProductStockLocationServiceImpl implements ProductStockLocationServ
     Company company = companyRepository.find(companyId);
     StockLocation stockLocation = stockLocationRepository.find(stockLocationId);
     if (stockLocationId != 0L && companyId != 0L) {
-      List<StockLocation> stockLocationList =
-          stockLocationService.getAllLocationAndSubLocation(stockLocation, false);
-      if (!stockLocationList.isEmpty()) {
-        BigDecimal realQty = BigDecimal.ZERO;
-        BigDecimal futureQty = BigDecimal.ZERO;
-        BigDecimal reservedQty = BigDecimal.ZERO;
+      List<Long> stockLocationIdList =
+          stockLocationService.getAllLocationAndSubLocationId(stockLocation, false);
+      if (!stockLocationIdList.isEmpty()) {
         BigDecimal requestedReservedQty = BigDecimal.ZERO;
         BigDecimal saleOrderQty = BigDecimal.ZERO;
         BigDecimal purchaseOrderQty = BigDecimal.ZERO;
@@ -101,14 +100,14 @@ public class ProductStockLocationServiceImpl implements ProductStockLocationServ
         availableQty = this.getAvailableQty(product, company, stockLocation);
         requestedReservedQty = this.getRequestedReservedQty(product, company, stockLocation);
 
-        for (StockLocation sl : stockLocationList) {
-          realQty = realQty.add(stockLocationService.getRealQty(productId, sl.getId(), companyId));
-          futureQty =
-              futureQty.add(stockLocationService.getFutureQty(productId, sl.getId(), companyId));
-          reservedQty =
-              reservedQty.add(
-                  stockLocationServiceSupplychain.getReservedQty(productId, sl.getId(), companyId));
-        }
+        StockQuantities stockQuantities =
+            stockLocationService
+                .getStockQuantities(
+                    Collections.singletonList(productId), stockLocationId, companyId)
+                .get(productId);
+        BigDecimal realQty = stockQuantities.getRealQty();
+        BigDecimal futureQty = stockQuantities.getFutureQty();
+        BigDecimal reservedQty = stockQuantities.getReservedQty();
 
         map.put("$realQty", realQty.setScale(2));
         map.put("$futureQty", futureQty.setScale(2));
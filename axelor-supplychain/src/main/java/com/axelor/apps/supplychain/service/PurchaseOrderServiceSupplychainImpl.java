@@ -366,16 +366,21 @@ public class PurchaseOrderServiceSupplychainImpl extends PurchaseOrderServiceImp
       Beans.get(IntercoService.class).generateIntercoSaleFromPurchase(purchaseOrder);
     }
 
-    budgetSupplychainService.updateBudgetLinesFromPurchaseOrder(purchaseOrder);
+    budgetSupplychainService.addPurchaseOrderToBudgetLines(purchaseOrder);
   }
 
   @Override
   @Transactional
   public void cancelPurchaseOrder(PurchaseOrder purchaseOrder) {
+    // Only validated and finished purchase orders are committed in the budgets
+    boolean isBudgetCommitted =
+        purchaseOrder.getStatusSelect() == PurchaseOrderRepository.STATUS_VALIDATED
+            || purchaseOrder.getStatusSelect() == PurchaseOrderRepository.STATUS_FINISHED;
+
     super.cancelPurchaseOrder(purchaseOrder);
 
-    if (Beans.get(AppSupplychainService.class).isApp("supplychain")) {
-      budgetSupplychainService.updateBudgetLinesFromPurchaseOrder(purchaseOrder);
+    if (isBudgetCommitted && Beans.get(AppSupplychainService.class).isApp("supplychain")) {
+      budgetSupplychainService.removePurchaseOrderFromBudgetLines(purchaseOrder);
     }
   }
 
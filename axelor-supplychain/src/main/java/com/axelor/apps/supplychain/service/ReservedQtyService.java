@@ -76,6 +76,9 @@ public interface ReservedQtyService {
    * Update location line and stock move line with computed allocated quantity, where the location
    * is {@link com.axelor.apps.stock.db.StockMove#fromStockLocation}
    *
+   * <p>The quantities of the location line are updated by the change of the quantities of the
+   * stock move line: when planning, the line must already be counted in the location line.
+   *
    * @param stockMoveLine a stock move line
    * @param stockLocation a stock location
    * @param product the product of the line. If the product is not managed in stock, this method
@@ -36,6 +36,7 @@ import com.axelor.apps.supplychain.db.SupplyChainConfig;
 import com.axelor.apps.supplychain.exception.IExceptionMessage;
 import com.axelor.apps.supplychain.service.app.AppSupplychainService;
 import com.axelor.apps.supplychain.service.config.SupplyChainConfigService;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -44,9 +45,12 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 
 /** This is the main implementation for {@link ReservedQtyService}. */
@@ -93,27 +97,128 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
         consolidateReservedQtyInStockMoveLineByProduct(stockMove);
       }
       stockMoveLineList.sort(Comparator.comparing(StockMoveLine::getId));
-      for (StockMoveLine stockMoveLine : stockMoveLineList) {
-        BigDecimal qty = stockMoveLine.getRealQty();
-        // requested quantity is quantity requested is the line subtracted by the quantity already
-        // allocated
-        BigDecimal requestedReservedQty =
-            stockMoveLine.getRequestedReservedQty().subtract(stockMoveLine.getReservedQty());
-        updateRequestedQuantityInLocations(
-            stockMoveLine,
-            stockMove.getFromStockLocation(),
-            stockMove.getToStockLocation(),
-            stockMoveLine.getProduct(),
-            qty,
-            requestedReservedQty,
-            status);
+      StockLocation fromStockLocation = stockMove.getFromStockLocation();
+      if (fromStockLocation.getTypeSelect() != StockLocationRepository.TYPE_VIRTUAL) {
+        if (status == StockMoveRepository.STATUS_PLANNED) {
+          addPlannedQtyInFromStockLocation(stockMoveLineList, fromStockLocation);
+        }
+        for (StockMoveLine stockMoveLine : stockMoveLineList) {
+          // requested quantity is quantity requested is the line subtracted by the quantity
+          // already allocated
+          BigDecimal requestedReservedQty =
+              stockMoveLine.getRequestedReservedQty().subtract(stockMoveLine.getReservedQty());
+          updateRequestedQuantityInFromStockLocation(
+              stockMoveLine,
+              fromStockLocation,
+              stockMoveLine.getProduct(),
+              status,
+              requestedReservedQty);
+        }
+      }
+      updateRequestedQuantityInToStockLocation(
+          stockMoveLineList, stockMove.getToStockLocation(), status);
+    }
+  }
+
+  /**
+   * Add the requested and reserved quantities of the lines of a stock move being planned to the
+   * stock location lines they leave, as these lines are now counted in the planned stock move
+   * lines of the stock location.
+   *
+   * @param stockMoveLineList stock move lines of stock managed products.
+   * @param stockLocation the source stock location.
+   * @throws AxelorException
+   */
+  protected void addPlannedQtyInFromStockLocation(
+      List<StockMoveLine> stockMoveLineList, StockLocation stockLocation) throws AxelorException {
+    for (StockMoveLine stockMoveLine : stockMoveLineList) {
+      Product product = stockMoveLine.getProduct();
+      StockLocationLine stockLocationLine =
+          stockLocationLineService.getStockLocationLine(stockLocation, product);
+      if (stockLocationLine == null) {
+        continue;
+      }
+      stockLocationLine.setRequestedReservedQty(
+          stockLocationLine
+              .getRequestedReservedQty()
+              .add(
+                  convertUnitWithProduct(
+                      stockMoveLine.getUnit(),
+                      stockLocationLine.getUnit(),
+                      stockMoveLine.getRequestedReservedQty(),
+                      product)));
+      stockLocationLine.setReservedQty(
+          stockLocationLine
+              .getReservedQty()
+              .add(
+                  convertUnitWithProduct(
+                      stockMoveLine.getUnit(),
+                      stockLocationLine.getUnit(),
+                      stockMoveLine.getReservedQty(),
+                      product)));
+    }
+  }
+
+  /**
+   * Update the destination stock location lines of the given stock move lines. When the move is
+   * realized, the quantity received for each product is allocated in a single pass on the pending
+   * reservations of the stock location.
+   *
+   * @param stockMoveLineList stock move lines of stock managed products, sorted by id.
+   * @param stockLocation the destination stock location.
+   * @param toStatus the new status of the stock move.
+   * @throws AxelorException
+   */
+  protected void updateRequestedQuantityInToStockLocation(
+      List<StockMoveLine> stockMoveLineList, StockLocation stockLocation, int toStatus)
+      throws AxelorException {
+    if (stockLocation.getTypeSelect() == StockLocationRepository.TYPE_VIRTUAL
+        || stockMoveLineList.isEmpty()) {
+      return;
+    }
+    SupplyChainConfig supplyChainConfig =
+        supplychainConfigService.getSupplyChainConfig(stockLocation.getCompany());
+    boolean allocate =
+        toStatus == StockMoveRepository.STATUS_REALIZED
+            && supplyChainConfig.getAutoAllocateOnReceipt();
+    Map<Product, List<StockMoveLine>> stockMoveLineMap =
+        stockMoveLineList
+            .stream()
+            .collect(
+                Collectors.groupingBy(
+                    StockMoveLine::getProduct, LinkedHashMap::new, Collectors.toList()));
+
+    for (Map.Entry<Product, List<StockMoveLine>> entry : stockMoveLineMap.entrySet()) {
+      Product product = entry.getKey();
+      List<StockMoveLine> productStockMoveLineList = entry.getValue();
+      StockLocationLine stockLocationLine =
+          stockLocationLineService.getStockLocationLine(stockLocation, product);
+      if (stockLocationLine == null) {
+        continue;
+      }
+      if (allocate) {
+        BigDecimal qty = BigDecimal.ZERO;
+        for (StockMoveLine stockMoveLine : productStockMoveLineList) {
+          qty =
+              qty.add(
+                  convertUnitWithProduct(
+                      stockMoveLine.getUnit(),
+                      stockLocationLine.getUnit(),
+                      stockMoveLine.getRealQty(),
+                      product));
+        }
+        reallocateQty(productStockMoveLineList.get(0), stockLocation, stockLocationLine, qty);
+      }
+      for (StockMoveLine stockMoveLine : productStockMoveLineList) {
+        checkReservedQtyStocks(stockLocationLine, stockMoveLine, toStatus);
       }
     }
   }
 
   /**
    * On planning, we want the requested quantity to be equal or lower to the quantity of the line.
-   * So, if the requested quantity is greater than the quantity, we change it to be equal.
+   * So, if the requested quantity is greater than the quantity, we change it to be equal. The line
+   * is not planned yet, so its requested quantity is not counted in the stock location line.
    *
    * @param stockMoveLine
    * @throws AxelorException
@@ -121,20 +226,8 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
   protected void changeRequestedQtyLowerThanQty(StockMoveLine stockMoveLine)
       throws AxelorException {
     BigDecimal qty = stockMoveLine.getRealQty().max(BigDecimal.ZERO);
-    BigDecimal requestedReservedQty = stockMoveLine.getRequestedReservedQty();
-    if (requestedReservedQty.compareTo(qty) > 0) {
-      Product product = stockMoveLine.getProduct();
-      BigDecimal diffRequestedQty = requestedReservedQty.subtract(qty);
+    if (stockMoveLine.getRequestedReservedQty().compareTo(qty) > 0) {
       stockMoveLine.setRequestedReservedQty(qty);
-      // update in stock location line
-      StockLocationLine stockLocationLine =
-          stockLocationLineService.getOrCreateStockLocationLine(
-              stockMoveLine.getStockMove().getFromStockLocation(), product);
-      BigDecimal diffRequestedQuantityLocation =
-          convertUnitWithProduct(
-              stockMoveLine.getUnit(), stockLocationLine.getUnit(), diffRequestedQty, product);
-      stockLocationLine.setRequestedReservedQty(
-          stockLocationLine.getRequestedReservedQty().add(diffRequestedQuantityLocation));
     }
   }
 
@@ -271,9 +364,22 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
               realReservedStockMoveQty,
               stockMoveLine.getProduct());
 
+      // the line is no longer planned: remove its quantities from the stock location line
+      stockLocationLine.setRequestedReservedQty(
+          stockLocationLine
+              .getRequestedReservedQty()
+              .subtract(
+                  convertUnitWithProduct(
+                      stockMoveLineUnit,
+                      stockLocationLineUnit,
+                      stockMoveLine.getRequestedReservedQty(),
+                      product)));
+      stockLocationLine.setReservedQty(
+          stockLocationLine.getReservedQty().subtract(realReservedQty));
+
       // reallocate quantity in other stock move lines
       if (isReallocatingQtyOnCancel(stockMoveLine)) {
-        reallocateQty(stockMoveLine, stockLocation, stockLocationLine, product, realReservedQty);
+        reallocateQty(stockMoveLine, stockLocation, stockLocationLine, realReservedQty);
       }
 
       // no more reserved qty in stock move and sale order lines
@@ -307,25 +413,20 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
               realReservedQty,
               stockMoveLine.getProduct());
       updateReservedQuantityFromStockMoveLine(stockMoveLine, product, realReservedStockMoveQty);
+      stockLocationLine.setReservedQty(stockLocationLine.getReservedQty().add(realReservedQty));
 
       // reallocate quantity in other stock move lines
       if (supplychainConfigService
           .getSupplyChainConfig(stockLocation.getCompany())
           .getAutoAllocateOnAllocation()) {
-        BigDecimal availableQuantityInLocation =
-            stockLocationLine.getCurrentQty().subtract(stockLocationLine.getReservedQty());
-        availableQuantityInLocation =
-            convertUnitWithProduct(
-                stockLocationLineUnit, stockMoveLineUnit, availableQuantityInLocation, product);
-        BigDecimal qtyRemainingToAllocate =
-            availableQuantityInLocation.subtract(realReservedStockMoveQty);
         reallocateQty(
-            stockMoveLine, stockLocation, stockLocationLine, product, qtyRemainingToAllocate);
+            stockMoveLine,
+            stockLocation,
+            stockLocationLine,
+            stockLocationLine.getCurrentQty().subtract(stockLocationLine.getReservedQty()));
       }
     }
 
-    updateReservedQty(stockLocationLine);
-    updateRequestedReservedQty(stockLocationLine);
     checkReservedQtyStocks(stockLocationLine, stockMoveLine, toStatus);
   }
 
@@ -363,46 +464,48 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
     SupplyChainConfig supplyChainConfig = supplychainConfigService.getSupplyChainConfig(company);
     if (toStatus == StockMoveRepository.STATUS_REALIZED
         && supplyChainConfig.getAutoAllocateOnReceipt()) {
-      reallocateQty(stockMoveLine, stockLocation, stockLocationLine, product, qty);
+      reallocateQty(
+          stockMoveLine,
+          stockLocation,
+          stockLocationLine,
+          convertUnitWithProduct(
+              stockMoveLine.getUnit(), stockLocationLine.getUnit(), qty, product));
     }
-    updateRequestedReservedQty(stockLocationLine);
     checkReservedQtyStocks(stockLocationLine, stockMoveLine, toStatus);
   }
 
   /**
-   * Reallocate quantity in stock location line after entry into storage.
+   * Reallocate quantity in stock location line after entry into storage. The reserved quantity of
+   * the stock location line is increased by the allocated quantity instead of being computed again
+   * from the planned stock move lines.
    *
    * @param stockMoveLine
    * @param stockLocation
    * @param stockLocationLine
-   * @param product
-   * @param qty the quantity in stock move line unit.
+   * @param stockLocationQty the quantity in stock location line unit.
    * @throws AxelorException
    */
   protected void reallocateQty(
       StockMoveLine stockMoveLine,
       StockLocation stockLocation,
       StockLocationLine stockLocationLine,
-      Product product,
-      BigDecimal qty)
+      BigDecimal stockLocationQty)
       throws AxelorException {
 
-    Unit stockMoveLineUnit = stockMoveLine.getUnit();
-    Unit stockLocationLineUnit = stockLocationLine.getUnit();
-
-    BigDecimal stockLocationQty =
-        convertUnitWithProduct(stockMoveLineUnit, stockLocationLineUnit, qty, product);
-    // the quantity that will be allocated in stock location line
-    BigDecimal realReservedQty;
-
     // the quantity that will be allocated in stock move line
     BigDecimal leftToAllocate =
         stockLocationLine.getRequestedReservedQty().subtract(stockLocationLine.getReservedQty());
-    realReservedQty = stockLocationQty.min(leftToAllocate);
+    // the quantity that will be allocated in stock location line
+    BigDecimal realReservedQty = stockLocationQty.min(leftToAllocate);
 
-    allocateReservedQuantityInSaleOrderLines(
-        realReservedQty, stockLocation, product, stockLocationLineUnit, Optional.of(stockMoveLine));
-    updateReservedQty(stockLocationLine);
+    BigDecimal allocatedQty =
+        allocateReservedQuantityInSaleOrderLines(
+            realReservedQty,
+            stockLocation,
+            stockLocationLine.getProduct(),
+            stockLocationLine.getUnit(),
+            Optional.of(stockMoveLine));
+    stockLocationLine.setReservedQty(stockLocationLine.getReservedQty().add(allocatedQty));
   }
 
   @Override
@@ -425,6 +528,10 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
    * other stock move lines.
    *
    * <p>We are using an optional because in the basic use of the method, the argument is empty.
+   *
+   * <p>The pending reservations are consumed in a single pass from the queue returned by {@link
+   * #getReservationQueue}, and the reserved quantity of each sale order line is increased by the
+   * quantity allocated on its stock move line.
    */
   protected BigDecimal allocateReservedQuantityInSaleOrderLines(
       BigDecimal qtyToAllocate,
@@ -433,40 +540,13 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
       Unit stockLocationLineUnit,
       Optional<StockMoveLine> allocatedStockMoveLine)
       throws AxelorException {
-    List<StockMoveLine> stockMoveLineListToAllocate =
-        stockMoveLineRepository
-            .all()
-            .filter(
-                "self.stockMove.fromStockLocation.id = :stockLocationId "
-                    + "AND self.product.id = :productId "
-                    + "AND self.stockMove.statusSelect = :planned "
-                    + "AND self.reservationDateTime IS NOT NULL "
-                    + "AND self.reservedQty < self.requestedReservedQty")
-            .bind("stockLocationId", stockLocation.getId())
-            .bind("productId", product.getId())
-            .bind("planned", StockMoveRepository.STATUS_PLANNED)
-            .order("reservationDateTime")
-            .order("stockMove.estimatedDate")
-            .fetch();
+    PriorityQueue<StockMoveLine> reservationQueue =
+        getReservationQueue(
+            stockLocation, product, allocatedStockMoveLine.map(StockMoveLine::getStockMove));
 
-    // put stock move lines with the same stock move on the beginning of the list.
-    allocatedStockMoveLine.ifPresent(
-        stockMoveLine ->
-            stockMoveLineListToAllocate.sort(
-                // Note: this comparator imposes orderings that are inconsistent with equals.
-                (sml1, sml2) -> {
-                  if (sml1.getStockMove().equals(sml2.getStockMove())) {
-                    return 0;
-                  } else if (sml1.getStockMove().equals(stockMoveLine.getStockMove())) {
-                    return -1;
-                  } else if (sml2.getStockMove().equals(stockMoveLine.getStockMove())) {
-                    return 1;
-                  } else {
-                    return 0;
-                  }
-                }));
     BigDecimal leftQtyToAllocate = qtyToAllocate;
-    for (StockMoveLine stockMoveLine : stockMoveLineListToAllocate) {
+    while (leftQtyToAllocate.signum() != 0 && !reservationQueue.isEmpty()) {
+      StockMoveLine stockMoveLine = reservationQueue.poll();
       BigDecimal leftQtyToAllocateStockMove =
           convertUnitWithProduct(
               stockLocationLineUnit, stockMoveLine.getUnit(), leftQtyToAllocate, product);
@@ -479,7 +559,19 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
               stockMoveLine.getUnit(), stockLocationLineUnit, allocatedStockMoveQty, product);
 
       // update reserved qty in stock move line and sale order line
-      updateReservedQuantityFromStockMoveLine(stockMoveLine, product, allocatedStockMoveQty);
+      stockMoveLine.setReservedQty(stockMoveLine.getReservedQty().add(allocatedStockMoveQty));
+      SaleOrderLine saleOrderLine = stockMoveLine.getSaleOrderLine();
+      if (saleOrderLine != null) {
+        saleOrderLine.setReservedQty(
+            saleOrderLine
+                .getReservedQty()
+                .add(
+                    convertUnitWithProduct(
+                        stockMoveLine.getUnit(),
+                        saleOrderLine.getUnit(),
+                        allocatedStockMoveQty,
+                        product)));
+      }
       // update left qty to allocate
       leftQtyToAllocate = leftQtyToAllocate.subtract(allocatedQty);
     }
@@ -487,6 +579,68 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
     return qtyToAllocate.subtract(leftQtyToAllocate);
   }
 
+  /**
+   * Get the pending reservations of a product in a stock location: the planned stock move lines
+   * leaving the stock location with a requested quantity which is not fully allocated.
+   *
+   * <p>The head of the queue is the next line to allocate. Lines of the given stock move come
+   * first, then lines are ordered by reservation date, estimated date of their stock move and id,
+   * so two allocations on the same data always give the same result.
+   *
+   * @param stockLocation the stock location the reserved quantity is taken from.
+   * @param product the reserved product.
+   * @param priorityStockMove a stock move whose lines are allocated first.
+   * @return the pending reservations, by priority.
+   */
+  protected PriorityQueue<StockMoveLine> getReservationQueue(
+      StockLocation stockLocation, Product product, Optional<StockMove> priorityStockMove) {
+    List<StockMoveLine> stockMoveLineList = getPendingReservations(stockLocation, product);
+    PriorityQueue<StockMoveLine> reservationQueue =
+        new PriorityQueue<>(
+            Math.max(1, stockMoveLineList.size()), getReservationComparator(priorityStockMove));
+    reservationQueue.addAll(stockMoveLineList);
+    return reservationQueue;
+  }
+
+  /**
+   * Get the planned stock move lines leaving the stock location with a requested quantity which is
+   * not fully allocated.
+   */
+  protected List<StockMoveLine> getPendingReservations(
+      StockLocation stockLocation, Product product) {
+    return stockMoveLineRepository
+        .all()
+        .filter(
+            "self.stockMove.fromStockLocation.id = :stockLocationId "
+                + "AND self.product.id = :productId "
+                + "AND self.stockMove.statusSelect = :planned "
+                + "AND self.reservationDateTime IS NOT NULL "
+                + "AND self.reservedQty < self.requestedReservedQty")
+        .bind("stockLocationId", stockLocation.getId())
+        .bind("productId", product.getId())
+        .bind("planned", StockMoveRepository.STATUS_PLANNED)
+        .fetch();
+  }
+
+  /**
+   * The allocation order of the pending reservations: lines of the given stock move first, then
+   * by reservation date, estimated date of the stock move and id.
+   */
+  protected Comparator<StockMoveLine> getReservationComparator(
+      Optional<StockMove> priorityStockMove) {
+    return Comparator.comparing(
+            (StockMoveLine stockMoveLine) ->
+                !priorityStockMove
+                    .map(stockMove -> stockMove.equals(stockMoveLine.getStockMove()))
+                    .orElse(false))
+        .thenComparing(
+            StockMoveLine::getReservationDateTime, Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparing(
+            stockMoveLine -> stockMoveLine.getStockMove().getEstimatedDate(),
+            Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparing(StockMoveLine::getId);
+  }
+
   @Override
   public void updateReservedQuantityFromStockMoveLine(
       StockMoveLine stockMoveLine, Product product, BigDecimal reservedQtyToAdd)
@@ -888,28 +1042,8 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
   public void updateRequestedReservedQty(StockLocationLine stockLocationLine)
       throws AxelorException {
     // compute from stock move lines
-    List<StockMoveLine> stockMoveLineList =
-        stockMoveLineRepository
-            .all()
-            .filter(
-                "self.product.id = :productId "
-                    + "AND self.stockMove.fromStockLocation.id = :stockLocationId "
-                    + "AND self.stockMove.statusSelect = :planned")
-            .bind("productId", stockLocationLine.getProduct().getId())
-            .bind("stockLocationId", stockLocationLine.getStockLocation().getId())
-            .bind("planned", StockMoveRepository.STATUS_PLANNED)
-            .fetch();
-    BigDecimal requestedReservedQty = BigDecimal.ZERO;
-    for (StockMoveLine stockMoveLine : stockMoveLineList) {
-      requestedReservedQty =
-          requestedReservedQty.add(
-              convertUnitWithProduct(
-                  stockMoveLine.getUnit(),
-                  stockLocationLine.getUnit(),
-                  stockMoveLine.getRequestedReservedQty(),
-                  stockLocationLine.getProduct()));
-    }
-    stockLocationLine.setRequestedReservedQty(requestedReservedQty);
+    stockLocationLine.setRequestedReservedQty(
+        sumPlannedQty(stockLocationLine, "requestedReservedQty"));
   }
 
   @Override
@@ -940,28 +1074,51 @@ public class ReservedQtyServiceImpl implements ReservedQtyService {
   @Override
   public void updateReservedQty(StockLocationLine stockLocationLine) throws AxelorException {
     // compute from stock move lines
-    List<StockMoveLine> stockMoveLineList =
-        stockMoveLineRepository
-            .all()
-            .filter(
-                "self.product.id = :productId "
+    stockLocationLine.setReservedQty(sumPlannedQty(stockLocationLine, "reservedQty"));
+  }
+
+  /**
+   * Sum a quantity field of the planned stock move lines leaving the stock location of the given
+   * line for its product, in the unit of the stock location line. The sum is computed by the
+   * database for each unit, so only one conversion is needed per unit.
+   *
+   * @param stockLocationLine
+   * @param qtyField the name of the stock move line quantity field to sum.
+   * @return the sum converted in the stock location line unit.
+   * @throws AxelorException
+   */
+  protected BigDecimal sumPlannedQty(StockLocationLine stockLocationLine, String qtyField)
+      throws AxelorException {
+    List<Object[]> qtyPerUnitList =
+        JPA.em()
+            .createQuery(
+                "SELECT unit, SUM(self."
+                    + qtyField
+                    + ") FROM StockMoveLine self "
+                    + "LEFT JOIN self.unit unit "
+                    + "WHERE self.product.id = :productId "
                     + "AND self.stockMove.fromStockLocation.id = :stockLocationId "
-                    + "AND self.stockMove.statusSelect = :planned")
-            .bind("productId", stockLocationLine.getProduct().getId())
-            .bind("stockLocationId", stockLocationLine.getStockLocation().getId())
-            .bind("planned", StockMoveRepository.STATUS_PLANNED)
-            .fetch();
-    BigDecimal reservedQty = BigDecimal.ZERO;
-    for (StockMoveLine stockMoveLine : stockMoveLineList) {
-      reservedQty =
-          reservedQty.add(
+                    + "AND self.stockMove.statusSelect = :planned "
+                    + "GROUP BY unit",
+                Object[].class)
+            .setParameter("productId", stockLocationLine.getProduct().getId())
+            .setParameter("stockLocationId", stockLocationLine.getStockLocation().getId())
+            .setParameter("planned", StockMoveRepository.STATUS_PLANNED)
+            .getResultList();
+    BigDecimal qty = BigDecimal.ZERO;
+    for (Object[] qtyPerUnit : qtyPerUnitList) {
+      if (qtyPerUnit[1] == null) {
+        continue;
+      }
+      qty =
+          qty.add(
               convertUnitWithProduct(
-                  stockMoveLine.getUnit(),
+                  (Unit) qtyPerUnit[0],
                   stockLocationLine.getUnit(),
-                  stockMoveLine.getReservedQty(),
+                  (BigDecimal) qtyPerUnit[1],
                   stockLocationLine.getProduct()));
     }
-    stockLocationLine.setReservedQty(reservedQty);
+    return qty;
   }
 
   @Override
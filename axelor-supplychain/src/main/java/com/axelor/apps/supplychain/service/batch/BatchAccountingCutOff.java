@@ -18,7 +18,8 @@
 package com.axelor.apps.supplychain.service.batch;
 
 import com.axelor.apps.account.db.Move;
-import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.base.service.administration.WorkerPool;
 import com.axelor.apps.stock.db.StockMove;
 import com.axelor.apps.stock.db.repo.StockMoveRepository;
 import com.axelor.apps.supplychain.db.SupplychainBatch;
@@ -29,23 +30,48 @@ import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.ExceptionOriginRepository;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Generate the accounting cut-off moves of the realized stock moves which are not fully invoiced.
+ *
+ * <p>The stock moves of the different partners are processed in parallel on {@link
+ * #getThreadCount()} workers, the stock moves of a partner one chunk after the other. When the
+ * batch consolidates the moves, each chunk of stock moves of a partner gives one move by account
+ * instead of one move by stock move.
+ */
 public class BatchAccountingCutOff extends BatchStrategy {
 
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-  protected static final int FETCH_LIMIT = 1;
+  protected static final int CHUNK_SIZE = 100;
+
+  protected static final int JDBC_BATCH_SIZE = 50;
 
   protected AccountingCutOffService cutOffService;
   protected StockMoveRepository stockMoveRepository;
 
+  protected LocalDate moveDate;
+  protected LocalDate reverseMoveDate;
+  protected int accountingCutOffTypeSelect;
+  protected boolean recoveredTax;
+  protected boolean ati;
+  protected String moveDescription;
+  protected boolean includeNotStockManagedProduct;
+  protected boolean consolidateCutOffMoves;
+
   @Inject
   public BatchAccountingCutOff(
       AccountingCutOffService cutOffService, StockMoveRepository stockMoveRepository) {
@@ -57,77 +83,228 @@ public class BatchAccountingCutOff extends BatchStrategy {
   @Override
   protected void process() {
 
-    int offset = 0;
     SupplychainBatch supplychainBatch = batch.getSupplychainBatch();
-    LocalDate moveDate = supplychainBatch.getMoveDate();
-
-    LocalDate reverseMoveDate = supplychainBatch.getReverseMoveDate();
-    boolean recoveredTax = supplychainBatch.getRecoveredTax();
-    boolean ati = supplychainBatch.getAti();
-    String moveDescription = supplychainBatch.getMoveDescription();
-    int accountingCutOffTypeSelect = supplychainBatch.getAccountingCutOffTypeSelect();
+    moveDate = supplychainBatch.getMoveDate();
+    reverseMoveDate = supplychainBatch.getReverseMoveDate();
+    accountingCutOffTypeSelect = supplychainBatch.getAccountingCutOffTypeSelect();
+    recoveredTax = supplychainBatch.getRecoveredTax();
+    ati = supplychainBatch.getAti();
+    moveDescription = supplychainBatch.getMoveDescription();
+    includeNotStockManagedProduct = supplychainBatch.getIncludeNotStockManagedProduct();
+    consolidateCutOffMoves = Boolean.TRUE.equals(supplychainBatch.getConsolidateCutOffMoves());
     updateBatch(moveDate, accountingCutOffTypeSelect);
-    Company company = supplychainBatch.getCompany();
-    boolean includeNotStockManagedProduct = supplychainBatch.getIncludeNotStockManagedProduct();
 
     if (accountingCutOffTypeSelect == 0) {
       return;
     }
 
-    List<StockMove> stockMoveList;
+    Map<Long, List<Long>> stockMoveIdMap =
+        cutOffService.getStockMoveIdMap(
+            supplychainBatch.getCompany(),
+            accountingCutOffTypeSelect,
+            moveDate,
+            includeNotStockManagedProduct);
+
+    final long batchId = batch.getId();
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (List<Long> partnerStockMoveIdList : stockMoveIdMap.values()) {
+      tasks.add(
+          () -> {
+            this.generateCutOffMoves(partnerStockMoveIdList, batchId);
+            return null;
+          });
+    }
+
+    try (WorkerPool workerPool =
+        new WorkerPool("batch-" + batchId + "-cut-off", Math.min(getThreadCount(), tasks.size()))) {
+      workerPool.invokeAll(tasks);
+    } catch (AxelorException e) {
+      TraceBackService.trace(e, ExceptionOriginRepository.INVOICE_ORIGIN, batchId);
+    }
+    flushCounters();
+  }
+
+  /**
+   * Generate the cut-off moves of the stock moves of a partner, with JDBC batching enabled. Runs on
+   * a worker, so the batch configuration is read from the fields set by {@link #process()} and the
+   * batch is loaded from its ID.
+   *
+   * @param stockMoveIdList the IDs of stock moves of the same partner, in ID order
+   * @param batchId the ID of the batch
+   */
+  protected void generateCutOffMoves(List<Long> stockMoveIdList, long batchId) {
+
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+    try {
+      if (consolidateCutOffMoves) {
+        this.generateConsolidatedCutOffMoves(stockMoveIdList, batchId);
+      } else {
+        for (List<Long> stockMoveIdChunk : Lists.partition(stockMoveIdList, CHUNK_SIZE)) {
+          this.generateCutOffMoveChunk(stockMoveIdChunk, batchId);
+          JPA.clear();
+        }
+      }
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
+    }
+  }
 
-    while (!(stockMoveList =
-            cutOffService.getStockMoves(
-                company, accountingCutOffTypeSelect, moveDate, FETCH_LIMIT, offset))
-        .isEmpty()) {
+  /**
+   * Generate the cut-off moves of a chunk of stock moves, one transaction by stock move. After an
+   * anomaly, the persistence context is cleared and the rest of the chunk is loaded again.
+   *
+   * @param stockMoveIdChunk the IDs of the stock moves, in ID order
+   * @param batchId the ID of the batch
+   */
+  protected void generateCutOffMoveChunk(List<Long> stockMoveIdChunk, long batchId) {
 
-      findBatch();
+    List<Long> remainingIdList = stockMoveIdChunk;
 
-      for (StockMove stockMove : stockMoveList) {
-        ++offset;
+    while (!remainingIdList.isEmpty()) {
+      List<Long> stockMoveIdList = remainingIdList;
+      remainingIdList = Collections.emptyList();
 
+      for (StockMove stockMove : this.getStockMoves(stockMoveIdList)) {
+        String stockMoveSeq = stockMove.getStockMoveSeq();
         try {
-          List<Move> moveList =
-              cutOffService.generateCutOffMoves(
-                  stockMove,
-                  moveDate,
-                  reverseMoveDate,
-                  accountingCutOffTypeSelect,
-                  recoveredTax,
-                  ati,
-                  moveDescription,
-                  includeNotStockManagedProduct);
-
-          if (moveList != null && !moveList.isEmpty()) {
-            updateStockMove(stockMove);
-
-            for (Move move : moveList) {
-              updateAccountMove(move, false);
-            }
+          if (this.generateCutOffMoves(stockMove, batchId)) {
+            incrementDone();
           }
-
-        } catch (AxelorException e) {
-          TraceBackService.trace(
-              new AxelorException(
-                  e, e.getCategory(), I18n.get("StockMove") + " %s", stockMove.getStockMoveSeq()),
-              ExceptionOriginRepository.INVOICE_ORIGIN,
-              batch.getId());
-          incrementAnomaly();
-          break;
         } catch (Exception e) {
           TraceBackService.trace(
-              new Exception(
-                  String.format(I18n.get("StockMove") + " %s", stockMove.getStockMoveSeq()), e),
+              e instanceof AxelorException
+                  ? new AxelorException(
+                      e,
+                      ((AxelorException) e).getCategory(),
+                      I18n.get("StockMove") + " %s",
+                      stockMoveSeq)
+                  : new Exception(String.format(I18n.get("StockMove") + " %s", stockMoveSeq), e),
               ExceptionOriginRepository.INVOICE_ORIGIN,
-              batch.getId());
+              batchId);
+          LOG.error("Anomaly generated for the stock move {}", stockMoveSeq);
           incrementAnomaly();
-          LOG.error("Anomaly generated for the stock move {}", stockMove.getStockMoveSeq());
+
+          JPA.clear();
+          remainingIdList =
+              stockMoveIdList.subList(
+                  stockMoveIdList.indexOf(stockMove.getId()) + 1, stockMoveIdList.size());
           break;
         }
       }
+    }
+  }
+
+  /**
+   * Generate the consolidated cut-off moves of the stock moves of a partner, one transaction by
+   * chunk of stock moves so that the persistence context stays bounded. If the consolidation of a
+   * chunk fails, its stock moves are processed again one by one, so only the failing ones are
+   * counted as anomalies.
+   *
+   * @param stockMoveIdList the IDs of stock moves of the same partner
+   * @param batchId the ID of the batch
+   */
+  protected void generateConsolidatedCutOffMoves(List<Long> stockMoveIdList, long batchId) {
+
+    for (List<Long> stockMoveIdChunk : Lists.partition(stockMoveIdList, CHUNK_SIZE)) {
+      List<StockMove> stockMoveList = this.getStockMoves(stockMoveIdChunk);
+      boolean failed = false;
+
+      try {
+        if (this.generateConsolidatedCutOffMoves(stockMoveList, batchId)) {
+          stockMoveList.forEach(stockMove -> incrementDone());
+        }
+      } catch (Exception e) {
+        LOG.error("Consolidation failed for the stock moves {}", stockMoveIdChunk, e);
+        failed = true;
+      } finally {
+        JPA.clear();
+      }
+
+      if (failed) {
+        this.generateCutOffMoveChunk(stockMoveIdChunk, batchId);
+        JPA.clear();
+      }
+    }
+  }
+
+  protected List<StockMove> getStockMoves(List<Long> stockMoveIdList) {
+    return stockMoveRepository
+        .all()
+        .filter("self.id IN (:stockMoveIds)")
+        .bind("stockMoveIds", stockMoveIdList)
+        .order("id")
+        .fetch();
+  }
+
+  /**
+   * Generate the cut-off moves of a stock move and link them to the batch.
+   *
+   * @return true if cut-off moves were generated.
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  protected boolean generateCutOffMoves(StockMove stockMove, long batchId) throws AxelorException {
 
-      JPA.clear();
+    List<Move> moveList =
+        cutOffService.generateCutOffMoves(
+            stockMove,
+            moveDate,
+            reverseMoveDate,
+            accountingCutOffTypeSelect,
+            recoveredTax,
+            ati,
+            moveDescription,
+            includeNotStockManagedProduct);
+
+    if (moveList == null || moveList.isEmpty()) {
+      return false;
     }
+
+    linkToBatch(Collections.singletonList(stockMove), moveList, batchId);
+    return true;
+  }
+
+  /**
+   * Generate the consolidated cut-off moves of stock moves and link them to the batch.
+   *
+   * @return true if cut-off moves were generated.
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {Exception.class})
+  protected boolean generateConsolidatedCutOffMoves(List<StockMove> stockMoveList, long batchId)
+      throws AxelorException {
+
+    List<Move> moveList =
+        cutOffService.generateConsolidatedCutOffMoves(
+            stockMoveList,
+            moveDate,
+            reverseMoveDate,
+            accountingCutOffTypeSelect,
+            recoveredTax,
+            ati,
+            moveDescription,
+            includeNotStockManagedProduct);
+
+    if (moveList.isEmpty()) {
+      return false;
+    }
+
+    linkToBatch(stockMoveList, moveList, batchId);
+    return true;
+  }
+
+  /**
+   * Link the stock moves and their cut-off moves to the batch in the current transaction, without
+   * using the {@code batch} field shared with the other workers.
+   */
+  protected void linkToBatch(List<StockMove> stockMoveList, List<Move> moveList, long batchId) {
+
+    Batch cutOffBatch = batchRepo.find(batchId);
+    stockMoveList.forEach(stockMove -> stockMove.addBatchSetItem(cutOffBatch));
+    moveList.forEach(move -> move.addBatchSetItem(cutOffBatch));
   }
 
   @Transactional
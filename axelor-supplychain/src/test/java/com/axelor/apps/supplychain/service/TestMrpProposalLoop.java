@@ -0,0 +1,250 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.supplychain.service;
+
+import com.axelor.app.AxelorModule;
+import com.axelor.apps.account.module.AccountModule;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.repo.ProductRepository;
+import com.axelor.apps.base.module.AdminModule;
+import com.axelor.apps.base.module.BaseModule;
+import com.axelor.apps.crm.module.CrmModule;
+import com.axelor.apps.message.module.MessageModule;
+import com.axelor.apps.purchase.module.PurchaseModule;
+import com.axelor.apps.sale.module.SaleModule;
+import com.axelor.apps.stock.db.StockLocation;
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.module.StockModule;
+import com.axelor.apps.supplychain.db.Mrp;
+import com.axelor.apps.supplychain.db.MrpLine;
+import com.axelor.apps.supplychain.db.MrpLineType;
+import com.axelor.apps.supplychain.db.repo.MrpLineTypeRepository;
+import com.axelor.apps.supplychain.module.SupplychainModule;
+import com.axelor.apps.supplychain.service.TestMrpProposalLoop.MyModule;
+import com.axelor.apps.tool.module.ToolModule;
+import com.axelor.db.JPA;
+import com.axelor.db.JpaModule;
+import com.axelor.db.Model;
+import com.axelor.exception.AxelorException;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestMrpProposalLoop {
+
+  private static final LocalDate TODAY = LocalDate.of(2020, 6, 1);
+
+  private List<Model> createdList;
+
+  private Long mrpId;
+  private Long productId;
+
+  private MrpServiceImpl mrpService;
+
+  public static class MyModule extends AxelorModule {
+
+    @Override
+    protected void configure() {
+      bind(Beans.class).asEagerSingleton();
+      install(new JpaModule("testUnit", true, true));
+      install(new ToolModule());
+      install(new MessageModule());
+      install(new AdminModule());
+      install(new BaseModule());
+      install(new CrmModule());
+      install(new AccountModule());
+      install(new StockModule());
+      install(new PurchaseModule());
+      install(new SaleModule());
+      install(new SupplychainModule());
+    }
+  }
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("MRP proposal company");
+          company.setCode("MRPPCO");
+          save(company);
+
+          StockLocation stockLocation = new StockLocation();
+          stockLocation.setName("MRP proposal location");
+          stockLocation.setCompany(company);
+          stockLocation.setTypeSelect(StockLocationRepository.TYPE_INTERNAL);
+          save(stockLocation);
+
+          Product product = new Product();
+          product.setName("MRP proposal product");
+          product.setCode("MRPPPRO");
+          product.setProductTypeSelect(ProductRepository.PRODUCT_TYPE_STORABLE);
+          product.setSupplierDeliveryTime(0);
+          productId = save(product).getId();
+
+          Mrp mrp = new Mrp();
+          mrp.setStockLocation(stockLocation);
+          mrpId = save(mrp).getId();
+
+          MrpLineType availableStockType =
+              createMrpLineType(
+                  MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK, MrpLineTypeRepository.TYPE_IN);
+          MrpLineType saleOrderType =
+              createMrpLineType(
+                  MrpLineTypeRepository.ELEMENT_SALE_ORDER, MrpLineTypeRepository.TYPE_OUT);
+          createMrpLineType(
+              MrpLineTypeRepository.ELEMENT_PURCHASE_PROPOSAL, MrpLineTypeRepository.TYPE_IN);
+
+          // 5 in stock below a minimum of 10, then a sale order of 20
+          createMrpLine(mrp, product, availableStockType, stockLocation, "5", "10", TODAY);
+          createMrpLine(mrp, product, saleOrderType, stockLocation, "-20", "0", TODAY.plusDays(5));
+        });
+
+    mrpService = Beans.get(MrpServiceImpl.class);
+    mrpService.today = TODAY;
+    mrpService.productMap = new HashMap<>(Collections.singletonMap(productId, 0));
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    JPA.runInTransaction(
+        () ->
+            JPA.em()
+                .createQuery("DELETE FROM MrpLine self WHERE self.mrp.id = :mrpId")
+                .setParameter("mrpId", mrpId)
+                .executeUpdate());
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testProposalUntilSufficient() throws AxelorException {
+    this.check(true);
+
+    // the available stock is only checked on the first pass, then the sale order needs 10 more
+    Assert.assertEquals(Arrays.asList("5", "10"), this.getProposalQuantities());
+
+    List<MrpLine> mrpLineList =
+        mrpService.computeCumulativeQty(mrpId, Collections.singletonList(productId)).get(productId);
+    Assert.assertEquals(
+        0, BigDecimal.ZERO.compareTo(mrpLineList.get(mrpLineList.size() - 1).getCumulativeQty()));
+  }
+
+  @Test
+  public void testAvailableStockIgnoredAfterFirstPass() throws AxelorException {
+    this.check(false);
+
+    // without the available stock, only the sale order needs a proposal
+    Assert.assertEquals(Arrays.asList("15"), this.getProposalQuantities());
+  }
+
+  @Test
+  public void testProductIdListByLevel() {
+    Map<Long, Integer> productMap = new HashMap<>();
+    productMap.put(3L, 0);
+    productMap.put(1L, 0);
+    productMap.put(2L, 1);
+    productMap.put(4L, 0);
+    mrpService.productMap = productMap;
+
+    Assert.assertEquals(Arrays.asList(1L, 3L, 4L), mrpService.getProductIdList(0));
+    Assert.assertEquals(Arrays.asList(2L), mrpService.getProductIdList(1));
+
+    // a net change calculation only computes the changed products
+    mrpService.netChangeProductIdSet = new HashSet<>(Arrays.asList(2L, 4L));
+    Assert.assertEquals(Arrays.asList(4L), mrpService.getProductIdList(0));
+  }
+
+  private void check(boolean firstPass) throws AxelorException {
+    mrpService.checkInsufficientCumulativeQty(
+        mrpId,
+        productId,
+        mrpService.computeCumulativeQty(mrpId, Collections.singletonList(productId)).get(productId),
+        firstPass);
+  }
+
+  private List<String> getProposalQuantities() {
+    JPA.clear();
+    return JPA.em()
+        .createQuery(
+            "SELECT self.qty FROM MrpLine self WHERE self.mrp.id = :mrpId "
+                + "AND self.mrpLineType.elementSelect = :elementSelect ORDER BY self.maturityDate",
+            BigDecimal.class)
+        .setParameter("mrpId", mrpId)
+        .setParameter("elementSelect", MrpLineTypeRepository.ELEMENT_PURCHASE_PROPOSAL)
+        .getResultList()
+        .stream()
+        .map(qty -> qty.stripTrailingZeros().toPlainString())
+        .collect(Collectors.toList());
+  }
+
+  private MrpLineType createMrpLineType(int elementSelect, int typeSelect) {
+    MrpLineType mrpLineType = new MrpLineType();
+    mrpLineType.setName("MRP proposal type " + elementSelect);
+    mrpLineType.setElementSelect(elementSelect);
+    mrpLineType.setTypeSelect(typeSelect);
+    mrpLineType.setSequence(elementSelect);
+    return save(mrpLineType);
+  }
+
+  private void createMrpLine(
+      Mrp mrp,
+      Product product,
+      MrpLineType mrpLineType,
+      StockLocation stockLocation,
+      String qty,
+      String minQty,
+      LocalDate maturityDate) {
+    MrpLine mrpLine = new MrpLine();
+    mrpLine.setMrp(mrp);
+    mrpLine.setProduct(product);
+    mrpLine.setMrpLineType(mrpLineType);
+    mrpLine.setStockLocation(stockLocation);
+    mrpLine.setQty(new BigDecimal(qty));
+    mrpLine.setMinQty(new BigDecimal(minQty));
+    mrpLine.setMaturityDate(maturityDate);
+    JPA.save(mrpLine);
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.supplychain.service;
+
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.Unit;
+import com.axelor.apps.base.db.repo.ProductRepository;
+import com.axelor.apps.sale.db.SaleOrderLine;
+import com.axelor.apps.stock.db.StockLocation;
+import com.axelor.apps.stock.db.StockLocationLine;
+import com.axelor.apps.stock.db.StockMove;
+import com.axelor.apps.stock.db.StockMoveLine;
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.db.repo.StockMoveRepository;
+import com.axelor.apps.supplychain.db.SupplyChainConfig;
+import com.axelor.apps.supplychain.service.TestMrpProposalLoop.MyModule;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.exception.AxelorException;
+import com.axelor.inject.Beans;
+import com.axelor.test.GuiceModules;
+import com.axelor.test.GuiceRunner;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(GuiceRunner.class)
+@GuiceModules({MyModule.class})
+public class TestReservationAllocation {
+
+  private static final LocalDateTime RESERVATION_DATE_TIME = LocalDateTime.of(2020, 1, 1, 8, 0);
+
+  private List<Model> createdList;
+
+  private Long companyId;
+  private Long stockLocationId;
+  private Long virtualStockLocationId;
+  private Long productId;
+  private Long stockLocationLineId;
+
+  private ReservedQtyServiceImpl reservedQtyService;
+
+  @Before
+  public void setUp() {
+    createdList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          Company company = new Company();
+          company.setName("Reservation company");
+          company.setCode("RESCO");
+          companyId = save(company).getId();
+
+          SupplyChainConfig supplyChainConfig = new SupplyChainConfig();
+          supplyChainConfig.setCompany(company);
+          company.setSupplyChainConfig(save(supplyChainConfig));
+
+          StockLocation stockLocation =
+              createStockLocation(
+                  company, "Reservation location", StockLocationRepository.TYPE_INTERNAL);
+          stockLocationId = stockLocation.getId();
+          virtualStockLocationId =
+              createStockLocation(
+                      company, "Reservation virtual location", StockLocationRepository.TYPE_VIRTUAL)
+                  .getId();
+
+          Unit unit = new Unit();
+          unit.setName("Reservation unit");
+          save(unit);
+
+          Product product = new Product();
+          product.setName("Reservation product");
+          product.setCode("RESPRO");
+          product.setProductTypeSelect(ProductRepository.PRODUCT_TYPE_STORABLE);
+          product.setStockManaged(true);
+          product.setUnit(unit);
+          productId = save(product).getId();
+
+          StockLocationLine stockLocationLine = new StockLocationLine();
+          stockLocationLine.setStockLocation(stockLocation);
+          stockLocationLine.setProduct(product);
+          stockLocationLine.setUnit(unit);
+          stockLocationLine.setCurrentQty(new BigDecimal("20"));
+          stockLocationLineId = save(stockLocationLine).getId();
+        });
+
+    reservedQtyService = Beans.get(ReservedQtyServiceImpl.class);
+  }
+
+  @After
+  public void tearDown() {
+    JPA.clear();
+    Collections.reverse(createdList);
+    JPA.runInTransaction(
+        () -> createdList.forEach(model -> JPA.remove(JPA.find(model.getClass(), model.getId()))));
+  }
+
+  @Test
+  public void testQueueOrder() {
+    StockMove stockMove1 = createTransientStockMove(1L, LocalDate.of(2020, 1, 10));
+    StockMove stockMove2 = createTransientStockMove(2L, LocalDate.of(2020, 1, 5));
+    StockMove stockMove3 = createTransientStockMove(3L, null);
+
+    StockMoveLine late = createTransientLine(10L, stockMove1, RESERVATION_DATE_TIME.plusDays(1));
+    StockMoveLine sameDateLaterMove = createTransientLine(11L, stockMove1, RESERVATION_DATE_TIME);
+    StockMoveLine sameDateEarlierMove = createTransientLine(12L, stockMove2, RESERVATION_DATE_TIME);
+    StockMoveLine noEstimatedDate = createTransientLine(13L, stockMove3, RESERVATION_DATE_TIME);
+    StockMoveLine sameMoveHigherId = createTransientLine(14L, stockMove2, RESERVATION_DATE_TIME);
+    List<StockMoveLine> stockMoveLineList =
+        new ArrayList<>(
+            Arrays.asList(
+                late, noEstimatedDate, sameMoveHigherId, sameDateLaterMove, sameDateEarlierMove));
+
+    stockMoveLineList.sort(reservedQtyService.getReservationComparator(Optional.empty()));
+    Assert.assertEquals(
+        Arrays.asList(
+            sameDateEarlierMove, sameMoveHigherId, sameDateLaterMove, noEstimatedDate, late),
+        stockMoveLineList);
+
+    stockMoveLineList.sort(reservedQtyService.getReservationComparator(Optional.of(stockMove3)));
+    Assert.assertEquals(
+        Arrays.asList(
+            noEstimatedDate, sameDateEarlierMove, sameMoveHigherId, sameDateLaterMove, late),
+        stockMoveLineList);
+  }
+
+  @Test
+  public void testIncrementalReservedQuantities() throws AxelorException {
+    List<Long> idList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          SaleOrderLine saleOrderLine1 = createSaleOrderLine("0");
+          SaleOrderLine saleOrderLine2 = createSaleOrderLine("3");
+          StockMove stockMove1 = createStockMove(StockMoveRepository.STATUS_PLANNED);
+          StockMove stockMove2 = createStockMove(StockMoveRepository.STATUS_PLANNED);
+          idList.add(
+              createLine(stockMove1, RESERVATION_DATE_TIME, "5", "0", saleOrderLine1).getId());
+          idList.add(
+              createLine(stockMove2, RESERVATION_DATE_TIME.plusHours(1), "5", "3", saleOrderLine2)
+                  .getId());
+        });
+    StockLocationLine stockLocationLine = this.getStockLocationLine("10", "3");
+
+    reservedQtyService.reallocateQty(
+        createReceivedLine(),
+        stockLocationLine.getStockLocation(),
+        stockLocationLine,
+        new BigDecimal("6"));
+
+    StockMoveLine first = JPA.find(StockMoveLine.class, idList.get(0));
+    StockMoveLine second = JPA.find(StockMoveLine.class, idList.get(1));
+    Assert.assertEquals(0, new BigDecimal("5").compareTo(first.getReservedQty()));
+    Assert.assertEquals(0, new BigDecimal("4").compareTo(second.getReservedQty()));
+    Assert.assertEquals(
+        0, new BigDecimal("5").compareTo(first.getSaleOrderLine().getReservedQty()));
+    Assert.assertEquals(
+        0, new BigDecimal("4").compareTo(second.getSaleOrderLine().getReservedQty()));
+    Assert.assertEquals(0, new BigDecimal("9").compareTo(stockLocationLine.getReservedQty()));
+  }
+
+  @Test
+  public void testAllocationLimitedToRequestedQty() throws AxelorException {
+    List<Long> idList = new ArrayList<>();
+    JPA.runInTransaction(
+        () ->
+            idList.add(
+                createLine(
+                        createStockMove(StockMoveRepository.STATUS_PLANNED),
+                        RESERVATION_DATE_TIME,
+                        "5",
+                        "0",
+                        null)
+                    .getId()));
+    StockLocationLine stockLocationLine = this.getStockLocationLine("5", "0");
+
+    reservedQtyService.reallocateQty(
+        createReceivedLine(),
+        stockLocationLine.getStockLocation(),
+        stockLocationLine,
+        new BigDecimal("8"));
+
+    StockMoveLine line = JPA.find(StockMoveLine.class, idList.get(0));
+    Assert.assertEquals(0, new BigDecimal("5").compareTo(line.getReservedQty()));
+    Assert.assertEquals(0, new BigDecimal("5").compareTo(stockLocationLine.getReservedQty()));
+  }
+
+  @Test
+  public void testPlannedLineAddedToLocation() throws AxelorException {
+    List<Long> idList = new ArrayList<>();
+    JPA.runInTransaction(
+        () -> {
+          StockMove stockMove = createStockMove(StockMoveRepository.STATUS_PLANNED);
+          idList.add(stockMove.getId());
+          idList.add(createLine(stockMove, RESERVATION_DATE_TIME, "4", "0", null).getId());
+        });
+    // another planned line already requests 5
+    StockLocationLine stockLocationLine = this.getStockLocationLine("5", "0");
+
+    reservedQtyService.updateReservedQuantity(
+        JPA.find(StockMove.class, idList.get(0)), StockMoveRepository.STATUS_PLANNED);
+
+    Assert.assertEquals(
+        0, new BigDecimal("9").compareTo(stockLocationLine.getRequestedReservedQty()));
+    Assert.assertEquals(0, new BigDecimal("4").compareTo(stockLocationLine.getReservedQty()));
+    Assert.assertEquals(
+        0,
+        new BigDecimal("4")
+            .compareTo(JPA.find(StockMoveLine.class, idList.get(1)).getReservedQty()));
+  }
+
+  @Test
+  public void testCanceledLineRemovedFromLocation() throws AxelorException {
+    List<Long> idList = new ArrayList<>();
+    JPA.runInTransaction(
+        () ->
+            idList.add(
+                createLine(
+                        createStockMove(StockMoveRepository.STATUS_CANCELED),
+                        RESERVATION_DATE_TIME,
+                        "6",
+                        "4",
+                        null)
+                    .getId()));
+    // another planned line requests 5
+    StockLocationLine stockLocationLine = this.getStockLocationLine("11", "4");
+    StockMoveLine line = JPA.find(StockMoveLine.class, idList.get(0));
+
+    reservedQtyService.updateRequestedQuantityInFromStockLocation(
+        line,
+        stockLocationLine.getStockLocation(),
+        line.getProduct(),
+        StockMoveRepository.STATUS_CANCELED,
+        BigDecimal.ZERO);
+
+    Assert.assertEquals(
+        0, new BigDecimal("5").compareTo(stockLocationLine.getRequestedReservedQty()));
+    Assert.assertEquals(0, BigDecimal.ZERO.compareTo(stockLocationLine.getReservedQty()));
+    Assert.assertEquals(0, BigDecimal.ZERO.compareTo(line.getReservedQty()));
+  }
+
+  /** Get the stock location line in the current persistence context, with the given quantities. */
+  private StockLocationLine getStockLocationLine(String requestedReservedQty, String reservedQty) {
+    JPA.clear();
+    StockLocationLine stockLocationLine = JPA.find(StockLocationLine.class, stockLocationLineId);
+    stockLocationLine.setRequestedReservedQty(new BigDecimal(requestedReservedQty));
+    stockLocationLine.setReservedQty(new BigDecimal(reservedQty));
+    return stockLocationLine;
+  }
+
+  /** A line received in the stock location, whose quantity is allocated on the reservations. */
+  private StockMoveLine createReceivedLine() {
+    StockMoveLine stockMoveLine = new StockMoveLine();
+    stockMoveLine.setStockMove(new StockMove());
+    stockMoveLine.setProduct(JPA.find(Product.class, productId));
+    return stockMoveLine;
+  }
+
+  private StockLocation createStockLocation(Company company, String name, int typeSelect) {
+    StockLocation stockLocation = new StockLocation();
+    stockLocation.setName(name);
+    stockLocation.setCompany(company);
+    stockLocation.setTypeSelect(typeSelect);
+    return save(stockLocation);
+  }
+
+  private SaleOrderLine createSaleOrderLine(String reservedQty) {
+    Product product = JPA.find(Product.class, productId);
+    SaleOrderLine saleOrderLine = new SaleOrderLine();
+    saleOrderLine.setProduct(product);
+    saleOrderLine.setProductName(product.getName());
+    saleOrderLine.setUnit(product.getUnit());
+    saleOrderLine.setReservedQty(new BigDecimal(reservedQty));
+    return save(saleOrderLine);
+  }
+
+  private StockMove createStockMove(int statusSelect) {
+    StockMove stockMove = new StockMove();
+    stockMove.setCompany(JPA.find(Company.class, companyId));
+    stockMove.setFromStockLocation(JPA.find(StockLocation.class, stockLocationId));
+    stockMove.setToStockLocation(JPA.find(StockLocation.class, virtualStockLocationId));
+    stockMove.setTypeSelect(StockMoveRepository.TYPE_OUTGOING);
+    stockMove.setStatusSelect(statusSelect);
+    stockMove.setEstimatedDate(LocalDate.of(2020, 1, 10));
+    return save(stockMove);
+  }
+
+  private StockMoveLine createLine(
+      StockMove stockMove,
+      LocalDateTime reservationDateTime,
+      String requestedReservedQty,
+      String reservedQty,
+      SaleOrderLine saleOrderLine) {
+    Product product = JPA.find(Product.class, productId);
+    StockMoveLine stockMoveLine = new StockMoveLine();
+    stockMoveLine.setProduct(product);
+    stockMoveLine.setProductName(product.getName());
+    stockMoveLine.setUnit(product.getUnit());
+    stockMoveLine.setQty(new BigDecimal(requestedReservedQty));
+    stockMoveLine.setRealQty(new BigDecimal(requestedReservedQty));
+    stockMoveLine.setReservationDateTime(reservationDateTime);
+    stockMoveLine.setRequestedReservedQty(new BigDecimal(requestedReservedQty));
+    stockMoveLine.setReservedQty(new BigDecimal(reservedQty));
+    stockMoveLine.setSaleOrderLine(saleOrderLine);
+    stockMove.addStockMoveLineListItem(stockMoveLine);
+    return save(stockMoveLine);
+  }
+
+  private StockMove createTransientStockMove(Long id, LocalDate estimatedDate) {
+    StockMove stockMove = new StockMove();
+    stockMove.setId(id);
+    stockMove.setEstimatedDate(estimatedDate);
+    return stockMove;
+  }
+
+  private StockMoveLine createTransientLine(
+      Long id, StockMove stockMove, LocalDateTime reservationDateTime) {
+    StockMoveLine stockMoveLine = new StockMoveLine();
+    stockMoveLine.setId(id);
+    stockMoveLine.setStockMove(stockMove);
+    stockMoveLine.setReservationDateTime(reservationDateTime);
+    return stockMoveLine;
+  }
+
+  private <T extends Model> T save(T model) {
+    T saved = JPA.save(model);
+    createdList.add(saved);
+    return saved;
+  }
+}
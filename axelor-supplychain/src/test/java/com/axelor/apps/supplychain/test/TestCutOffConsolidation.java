@@ -0,0 +1,127 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.supplychain.test;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AnalyticDistributionTemplate;
+import com.axelor.apps.account.db.TaxLine;
+import com.axelor.apps.supplychain.service.ConsolidatedCutOffAmounts;
+import com.axelor.apps.supplychain.service.ConsolidatedCutOffAmounts.Line;
+import java.math.BigDecimal;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCutOffConsolidation {
+
+  private Account salesAccount;
+  private Account servicesAccount;
+  private AnalyticDistributionTemplate analyticDistributionTemplate;
+  private TaxLine normalTaxLine;
+  private TaxLine reducedTaxLine;
+
+  @Before
+  public void prepare() {
+    salesAccount = new Account();
+    salesAccount.setId(1L);
+    servicesAccount = new Account();
+    servicesAccount.setId(2L);
+    analyticDistributionTemplate = new AnalyticDistributionTemplate();
+    analyticDistributionTemplate.setId(1L);
+    normalTaxLine = new TaxLine();
+    normalTaxLine.setId(1L);
+    reducedTaxLine = new TaxLine();
+    reducedTaxLine.setId(2L);
+  }
+
+  @Test
+  public void testSumByAccountAnalyticAndTaxLine() {
+    ConsolidatedCutOffAmounts amounts = new ConsolidatedCutOffAmounts();
+    amounts.add(salesAccount, false, null, normalTaxLine, new BigDecimal("100"));
+    amounts.add(servicesAccount, false, null, normalTaxLine, new BigDecimal("40"));
+    amounts.add(salesAccount, false, null, normalTaxLine, new BigDecimal("25.50"));
+    amounts.add(salesAccount, false, null, reducedTaxLine, new BigDecimal("10"));
+    amounts.add(salesAccount, false, analyticDistributionTemplate, normalTaxLine, BigDecimal.ONE);
+    amounts.add(salesAccount, true, null, normalTaxLine, new BigDecimal("7"));
+
+    List<Line> lines = amounts.getLines();
+
+    // one line by key, in the order the keys are first met
+    Assert.assertEquals(5, lines.size());
+    assertLine(lines.get(0), salesAccount, false, null, normalTaxLine, "125.50");
+    assertLine(lines.get(1), servicesAccount, false, null, normalTaxLine, "40");
+    assertLine(lines.get(2), salesAccount, false, null, reducedTaxLine, "10");
+    assertLine(lines.get(3), salesAccount, false, analyticDistributionTemplate, normalTaxLine, "1");
+    assertLine(lines.get(4), salesAccount, true, null, normalTaxLine, "7");
+  }
+
+  @Test
+  public void testZeroSumSkipped() {
+    ConsolidatedCutOffAmounts amounts = new ConsolidatedCutOffAmounts();
+    amounts.add(salesAccount, false, null, null, new BigDecimal("100"));
+    amounts.add(servicesAccount, false, null, null, new BigDecimal("30"));
+    amounts.add(salesAccount, false, null, null, new BigDecimal("-100"));
+    amounts.add(servicesAccount, false, null, null, new BigDecimal("-10"));
+
+    List<Line> lines = amounts.getLines();
+
+    Assert.assertEquals(1, lines.size());
+    assertLine(lines.get(0), servicesAccount, false, null, null, "20");
+  }
+
+  @Test
+  public void testSameLinesForMoveAndReverseMove() {
+    ConsolidatedCutOffAmounts amounts = new ConsolidatedCutOffAmounts();
+    amounts.add(servicesAccount, false, null, reducedTaxLine, new BigDecimal("40"));
+    amounts.add(salesAccount, false, null, normalTaxLine, new BigDecimal("-15"));
+    amounts.add(salesAccount, false, null, null, BigDecimal.ZERO);
+    amounts.add(salesAccount, false, null, normalTaxLine, new BigDecimal("60"));
+
+    // the move and its reverse move are generated from the lines read twice, the counters of
+    // their move lines line up only if both reads give the same lines in the same order
+    List<Line> moveLines = amounts.getLines();
+    List<Line> reverseMoveLines = amounts.getLines();
+
+    Assert.assertEquals(2, moveLines.size());
+    Assert.assertEquals(moveLines.size(), reverseMoveLines.size());
+    for (int i = 0; i < moveLines.size(); i++) {
+      Line line = moveLines.get(i);
+      Line reverseLine = reverseMoveLines.get(i);
+      Assert.assertSame(line.getAccount(), reverseLine.getAccount());
+      Assert.assertSame(line.getTaxLine(), reverseLine.getTaxLine());
+      Assert.assertEquals(0, line.getAmount().compareTo(reverseLine.getAmount()));
+    }
+    assertLine(moveLines.get(0), servicesAccount, false, null, reducedTaxLine, "40");
+    assertLine(moveLines.get(1), salesAccount, false, null, normalTaxLine, "45");
+  }
+
+  private void assertLine(
+      Line line,
+      Account account,
+      boolean fixedAssets,
+      AnalyticDistributionTemplate analyticDistributionTemplate,
+      TaxLine taxLine,
+      String amount) {
+    Assert.assertSame(account, line.getAccount());
+    Assert.assertEquals(fixedAssets, line.isFixedAssets());
+    Assert.assertSame(analyticDistributionTemplate, line.getAnalyticDistributionTemplate());
+    Assert.assertSame(taxLine, line.getTaxLine());
+    Assert.assertEquals(0, new BigDecimal(amount).compareTo(line.getAmount()));
+  }
+}